@@ -0,0 +1,48 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any 
+ * persistent layer implementation
+ * 
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.common;
+
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.domain.PersistentDTO;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Asynchronous counterpart of {@link CommonDao}; each operation returns right away with a future which completes with
+ * the result or the error of the operation, so that callers can issue many operations without a thread waiting on
+ * each of them.
+ * @author imyousuf
+ */
+public interface AsyncCommonDao<Template extends PersistentDTO, IdType extends Serializable> {
+
+  public ListenableFuture<Template> getByIdAsync(IdType id);
+
+  public ListenableFuture<Set<Template>> getByIdsAsync(List<IdType> ids);
+
+  public ListenableFuture<Template> getSingleAsync(List<QueryParameter> query);
+
+  public ListenableFuture<List<Template>> getListAsync(List<QueryParameter> query);
+
+  public ListenableFuture<Void> saveAsync(Template... states);
+
+  public ListenableFuture<Void> updateAsync(Template... states);
+
+  public ListenableFuture<Void> deleteAsync(Template... states);
+}
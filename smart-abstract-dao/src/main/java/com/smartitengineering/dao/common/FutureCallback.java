@@ -0,0 +1,34 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any 
+ * persistent layer implementation
+ * 
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.common;
+
+/**
+ * Callback to be notified of the completion of a {@link ListenableFuture}.
+ * @author imyousuf
+ */
+public interface FutureCallback<V> {
+
+  public void onSuccess(V result);
+
+  /**
+   * Notified when the future fails or is cancelled.
+   * @param throwable The cause of the failure, a {@link java.util.concurrent.CancellationException} if cancelled
+   */
+  public void onFailure(Throwable throwable);
+}
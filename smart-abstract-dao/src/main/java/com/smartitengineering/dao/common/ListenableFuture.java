@@ -0,0 +1,44 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any 
+ * persistent layer implementation
+ * 
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A future which notifies listeners on its completion so that its result can be consumed without a thread waiting for
+ * it.
+ * @author imyousuf
+ */
+public interface ListenableFuture<V> extends Future<V> {
+
+  /**
+   * Add a listener to be run once this future completes, right away if it is already complete.
+   * @param listener The listener to run
+   * @param executor Executor to run the listener in, if null the listener is run in the thread completing this future
+   */
+  public void addListener(Runnable listener, Executor executor);
+
+  /**
+   * Add a callback to be notified with the result or the error of this future once it completes, in the thread
+   * completing it.
+   * @param callback The callback to notify
+   */
+  public void addCallback(FutureCallback<? super V> callback);
+}
@@ -0,0 +1,177 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any 
+ * persistent layer implementation
+ * 
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ListenableFuture} completed explicitly by its producer using {@link #set(Object)} or
+ * {@link #setException(Throwable)}. Only the first completion takes effect.
+ * @author imyousuf
+ */
+public class SettableFuture<V> implements ListenableFuture<V> {
+
+  private static final Logger LOGGER = Logger.getLogger(SettableFuture.class.getName());
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private final List<Runnable> listeners = new ArrayList<Runnable>();
+  private boolean done;
+  private boolean cancelled;
+  private V value;
+  private Throwable exception;
+
+  /**
+   * Complete this future with the value.
+   * @return True if this call completed the future
+   */
+  public boolean set(V value) {
+    return complete(value, null, false);
+  }
+
+  /**
+   * Fail this future with the exception.
+   * @return True if this call completed the future
+   */
+  public boolean setException(Throwable exception) {
+    if (exception == null) {
+      throw new IllegalArgumentException("Exception can not be null!");
+    }
+    return complete(null, exception, false);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return complete(null, new CancellationException("Cancelled"), true);
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public V get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return getValue();
+  }
+
+  @Override
+  public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(timeout, unit)) {
+      throw new TimeoutException("Future did not complete in " + timeout + " " + unit);
+    }
+    return getValue();
+  }
+
+  @Override
+  public void addListener(final Runnable listener, final Executor executor) {
+    final Runnable runnable;
+    if (executor == null) {
+      runnable = listener;
+    }
+    else {
+      runnable = new Runnable() {
+
+        @Override
+        public void run() {
+          executor.execute(listener);
+        }
+      };
+    }
+    synchronized (this) {
+      if (!done) {
+        listeners.add(runnable);
+        return;
+      }
+    }
+    runnable.run();
+  }
+
+  @Override
+  public void addCallback(final FutureCallback<? super V> callback) {
+    addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        final V result;
+        try {
+          result = getValue();
+        }
+        catch (ExecutionException ex) {
+          callback.onFailure(ex.getCause());
+          return;
+        }
+        catch (CancellationException ex) {
+          callback.onFailure(ex);
+          return;
+        }
+        callback.onSuccess(result);
+      }
+    }, null);
+  }
+
+  private boolean complete(V value, Throwable exception, boolean cancel) {
+    final List<Runnable> toRun;
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      this.done = true;
+      this.cancelled = cancel;
+      this.value = value;
+      this.exception = exception;
+      toRun = new ArrayList<Runnable>(listeners);
+      listeners.clear();
+    }
+    latch.countDown();
+    for (Runnable listener : toRun) {
+      try {
+        listener.run();
+      }
+      catch (RuntimeException ex) {
+        // A failing listener must not prevent others from being notified
+        LOGGER.log(Level.WARNING, "Listener of future failed!", ex);
+      }
+    }
+    return true;
+  }
+
+  private synchronized V getValue() throws ExecutionException {
+    if (cancelled) {
+      throw (CancellationException) exception;
+    }
+    if (exception != null) {
+      throw new ExecutionException(exception);
+    }
+    return value;
+  }
+}
@@ -18,6 +18,7 @@
  */
 package com.smartitengineering.dao.hbase.autoincrement;
 
+import com.smartitengineering.dao.impl.hbase.HTableManager;
 import com.sun.jersey.spi.resource.Singleton;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -32,7 +33,6 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
-import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -41,18 +41,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Generates ids for tables whose row ids are longs, in descending order from {@link Long#MAX_VALUE} so that newer rows
+ * sort first. By default ids continue down from the lowest row of the table, probing each id for an existing row. In
+ * lease mode, enabled by a {@link #setLeaseBlockSize(int) lease block size}, blocks of ids are reserved atomically by
+ * incrementing a counter cell of the table in the {@link #setLeaseTableName(java.lang.String) lease table} and ids
+ * are served from memory, so that a cluster of generators never hand out the same id. The counter of a table is
+ * seeded from the lowest row of the table once per generator; all generators of a table must use lease mode and rows
+ * must not be written with ids not generated.
  * @author imyousuf
  */
 @Path("/{tableName}")
 @Singleton
 public class AutoIncrementLongRowIdGenerator {
 
+  public static final String LEASE_BLOCK_SIZE_KEY = "smart.hbase.autoincrement.leaseBlockSize";
+  public static final String LEASE_TABLE_NAME_KEY = "smart.hbase.autoincrement.leaseTableName";
+  public static final String TABLE_POOL_MAX_SIZE_KEY = "smart.hbase.autoincrement.tablePoolMaxSize";
+  public static final int DEFAULT_TABLE_POOL_MAX_SIZE = 200;
+  public static final String DEFAULT_LEASE_TABLE_NAME = "auto_increment_leases";
+  public static final byte[] LEASE_FAMILY = Bytes.toBytes("lease");
+  public static final byte[] LEASE_QUALIFIER = Bytes.toBytes("allocated");
   private Configuration hbaseConfiguration;
   private final ConcurrentHashMap<String, AtomicLong> tableCurrentMax = new ConcurrentHashMap<String, AtomicLong>();
-  private HTablePool pool;
+  private final ConcurrentHashMap<String, IdBlock> tableBlocks = new ConcurrentHashMap<String, IdBlock>();
+  private volatile HTableManager tableManager;
+  private Integer leaseBlockSize;
+  private String leaseTableName;
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+  public void setHbaseConfiguration(Configuration hbaseConfiguration) {
+    this.hbaseConfiguration = hbaseConfiguration;
+  }
+
   public Configuration getHbaseConfiguration() {
     if (hbaseConfiguration == null) {
       synchronized (this) {
@@ -64,21 +84,66 @@ public class AutoIncrementLongRowIdGenerator {
     return hbaseConfiguration;
   }
 
-  public HTablePool getPool() {
-    if (pool == null) {
+  /**
+   * Retrieve the table manager, by default one of the generator's own with at most
+   * {@link #TABLE_POOL_MAX_SIZE_KEY the configured} handles per table, so that sizing it does not affect other users
+   * of the shared table manager.
+   */
+  public HTableManager getTableManager() {
+    if (tableManager == null) {
       synchronized (this) {
-        if (pool == null) {
-          pool = new HTablePool(getHbaseConfiguration(), 200);
+        if (tableManager == null) {
+          final HTableManager manager = new HTableManager(getHbaseConfiguration());
+          manager.setDefaultMaxSize(getHbaseConfiguration().getInt(TABLE_POOL_MAX_SIZE_KEY,
+                                                                   DEFAULT_TABLE_POOL_MAX_SIZE));
+          tableManager = manager;
         }
       }
     }
-    return pool;
+    return tableManager;
+  }
+
+  public void setTableManager(HTableManager tableManager) {
+    this.tableManager = tableManager;
+  }
+
+  /**
+   * Retrieve the number of ids reserved at a time in lease mode, if not set it is read from the HBase configuration.
+   * @return The block size, 0 or less if lease mode is disabled
+   */
+  public int getLeaseBlockSize() {
+    if (leaseBlockSize == null) {
+      return getHbaseConfiguration().getInt(LEASE_BLOCK_SIZE_KEY, 0);
+    }
+    return leaseBlockSize;
+  }
+
+  public void setLeaseBlockSize(int leaseBlockSize) {
+    this.leaseBlockSize = leaseBlockSize;
+  }
+
+  /**
+   * Retrieve the table holding the counter cells of lease mode, one row per table named by the table, if not set it
+   * is read from the HBase configuration. The table must have the {@link #LEASE_FAMILY lease family}.
+   */
+  public String getLeaseTableName() {
+    if (leaseTableName == null) {
+      return getHbaseConfiguration().get(LEASE_TABLE_NAME_KEY, DEFAULT_LEASE_TABLE_NAME);
+    }
+    return leaseTableName;
+  }
+
+  public void setLeaseTableName(String leaseTableName) {
+    this.leaseTableName = leaseTableName;
   }
 
   @POST
   @Produces(MediaType.APPLICATION_OCTET_STREAM)
   public Response get(@PathParam("tableName") String tableName) throws IOException {
-    final HTableInterface table = getPool().getTable(tableName);
+    if (getLeaseBlockSize() > 0) {
+      return Response.ok(Bytes.toBytes(getLeasedId(tableName))).build();
+    }
+    final HTableInterface table = getTableManager().getTable(tableName);
     try {
       AtomicLong mutableLong = tableCurrentMax.get(tableName);
       if (mutableLong == null) {
@@ -89,29 +154,8 @@ public class AutoIncrementLongRowIdGenerator {
         }
         synchronized (mutableLong) {
           if (mutableLong.longValue() < 0) {
-            Scan scan = new Scan();
-            scan.setCaching(1);
-            ResultScanner scanner = table.getScanner(scan);
-            try {
-              Result result[];
-              result = scanner.next(1);
-              if (result != null && result.length > 0) {
-                mutableLong.set(Bytes.toLong(result[0].getRow()));
-              }
-              else {
-                mutableLong.set(Long.MAX_VALUE);
-              }
-            }
-            finally {
-              if (scanner != null) {
-                try {
-                  scanner.close();
-                }
-                catch (Exception ex) {
-                  logger.warn("Could not close scanner!", ex);
-                }
-              }
-            }
+            final byte[] firstRow = getFirstRow(table);
+            mutableLong.set(firstRow == null ? Long.MAX_VALUE : Bytes.toLong(firstRow));
           }
         }
       }
@@ -126,8 +170,114 @@ public class AutoIncrementLongRowIdGenerator {
     }
     finally {
       if (table != null) {
-        getPool().putTable(table);
+        getTableManager().putTable(table);
+      }
+    }
+  }
+
+  /**
+   * Serve the next id of the block leased for the table, leasing a new block when it is exhausted.
+   */
+  protected long getLeasedId(String tableName) throws IOException {
+    IdBlock block = tableBlocks.get(tableName);
+    if (block == null) {
+      final IdBlock newBlock = new IdBlock();
+      block = tableBlocks.putIfAbsent(tableName, newBlock);
+      if (block == null) {
+        block = newBlock;
       }
     }
+    synchronized (block) {
+      if (block.next < block.last) {
+        leaseBlock(tableName, block);
+      }
+      return block.next--;
+    }
+  }
+
+  /**
+   * Reserve the next block of ids of a table with a single increment of its counter, which holds the number of ids
+   * reserved so far; the ids of the block are those below {@link Long#MAX_VALUE} by the reserved numbers.
+   */
+  protected void leaseBlock(String tableName, IdBlock block) throws IOException {
+    final int blockSize = getLeaseBlockSize();
+    final byte[] counterRow = Bytes.toBytes(tableName);
+    final HTableInterface leaseTable = getTableManager().getTable(getLeaseTableName());
+    try {
+      if (!block.seeded) {
+        seedCounter(tableName, leaseTable, counterRow);
+        block.seeded = true;
+      }
+      final long reserved = leaseTable.incrementColumnValue(counterRow, LEASE_FAMILY, LEASE_QUALIFIER, blockSize);
+      block.next = Long.MAX_VALUE - (reserved - blockSize + 1);
+      block.last = Long.MAX_VALUE - reserved;
+      if (logger.isDebugEnabled()) {
+        logger.debug("Leased ids " + block.last + " to " + block.next + " for " + tableName);
+      }
+    }
+    finally {
+      getTableManager().putTable(leaseTable);
+    }
+  }
+
+  /**
+   * Advance the counter of a table past the ids of its existing rows, e.g. those generated before lease mode was
+   * enabled. Generators seeding at the same time may both advance it, which only leaves a gap of unused ids.
+   */
+  protected void seedCounter(String tableName, HTableInterface leaseTable, byte[] counterRow) throws IOException {
+    final HTableInterface table = getTableManager().getTable(tableName);
+    final byte[] firstRow;
+    try {
+      firstRow = getFirstRow(table);
+    }
+    finally {
+      getTableManager().putTable(table);
+    }
+    if (firstRow == null) {
+      return;
+    }
+    final long used = Long.MAX_VALUE - Bytes.toLong(firstRow);
+    final long reserved = leaseTable.incrementColumnValue(counterRow, LEASE_FAMILY, LEASE_QUALIFIER, 0);
+    if (used > reserved) {
+      leaseTable.incrementColumnValue(counterRow, LEASE_FAMILY, LEASE_QUALIFIER, used - reserved);
+    }
+  }
+
+  /**
+   * Read the first row id of the table, i.e. the lowest id generated.
+   * @return The row id or null if the table is empty
+   */
+  protected byte[] getFirstRow(HTableInterface table) throws IOException {
+    Scan scan = new Scan();
+    scan.setCaching(1);
+    ResultScanner scanner = table.getScanner(scan);
+    try {
+      Result result[];
+      result = scanner.next(1);
+      if (result != null && result.length > 0) {
+        return result[0].getRow();
+      }
+      return null;
+    }
+    finally {
+      if (scanner != null) {
+        try {
+          scanner.close();
+        }
+        catch (Exception ex) {
+          logger.warn("Could not close scanner!", ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ids of a leased block yet to be served, from next down to last.
+   */
+  protected static class IdBlock {
+
+    private long next = -1;
+    private long last = 0;
+    private boolean seeded;
   }
 }
@@ -0,0 +1,133 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.hbase.autoincrement;
+
+import com.smartitengineering.dao.impl.hbase.HTableManager;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class LeasedIdAllocationTest {
+
+  private final Map<String, Long> counters = new HashMap<String, Long>();
+  private Long firstRow;
+  private int increments;
+
+  @Test
+  public void leaseDisjointBlocksAcrossGenerators() throws Exception {
+    AutoIncrementLongRowIdGenerator first = newGenerator();
+    AutoIncrementLongRowIdGenerator second = newGenerator();
+    Set<Long> ids = new TreeSet<Long>();
+    for (int i = 0; i < 25; ++i) {
+      Assert.assertTrue(ids.add(first.getLeasedId("test")));
+      Assert.assertTrue(ids.add(second.getLeasedId("test")));
+    }
+    Assert.assertEquals(Long.MAX_VALUE - 1, first.getLeasedId("other"));
+    Assert.assertEquals(Long.valueOf(Long.MAX_VALUE - 1), ((TreeSet<Long>) ids).last());
+    Assert.assertEquals(Long.valueOf(Long.MAX_VALUE - 55), ((TreeSet<Long>) ids).first());
+    Assert.assertEquals(7, increments);
+  }
+
+  @Test
+  public void seedFromExistingRows() throws Exception {
+    firstRow = Long.MAX_VALUE - 42;
+    AutoIncrementLongRowIdGenerator generator = newGenerator();
+    Assert.assertEquals(Long.MAX_VALUE - 43, generator.getLeasedId("test"));
+    Assert.assertEquals(Long.MAX_VALUE - 44, generator.getLeasedId("test"));
+    Assert.assertEquals(Long.MAX_VALUE - 53, newGenerator().getLeasedId("test"));
+  }
+
+  private AutoIncrementLongRowIdGenerator newGenerator() {
+    AutoIncrementLongRowIdGenerator generator = new AutoIncrementLongRowIdGenerator();
+    Configuration configuration = new Configuration(false);
+    generator.setHbaseConfiguration(configuration);
+    generator.setTableManager(new HTableManager(configuration, new MockTableFactory()));
+    generator.setLeaseBlockSize(10);
+    return generator;
+  }
+
+  private class MockTableFactory implements HTableInterfaceFactory {
+
+    @Override
+    public HTableInterface createHTableInterface(Configuration config, final byte[] tableName) {
+      return (HTableInterface) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{HTableInterface.class},
+                                                      new InvocationHandler() {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("incrementColumnValue")) {
+            Assert.assertEquals(AutoIncrementLongRowIdGenerator.DEFAULT_LEASE_TABLE_NAME, Bytes.toString(tableName));
+            increments++;
+            synchronized (counters) {
+              final String row = Bytes.toString((byte[]) args[0]);
+              final long value = (counters.containsKey(row) ? counters.get(row) : 0l) + (Long) args[3];
+              counters.put(row, value);
+              return value;
+            }
+          }
+          if (method.getName().equals("getScanner")) {
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ResultScanner.class},
+                                          new InvocationHandler() {
+
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("next")) {
+                  if (firstRow == null || !Bytes.toString(tableName).equals("test")) {
+                    return new Result[0];
+                  }
+                  final byte[] row = Bytes.toBytes(firstRow);
+                  return new Result[]{new Result(new KeyValue[]{new KeyValue(row, row, row, row)})};
+                }
+                return null;
+              }
+            });
+          }
+          if (method.getName().equals("getTableName")) {
+            return tableName;
+          }
+          if (method.getName().equals("close")) {
+            return null;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    }
+
+    @Override
+    public void releaseHTableInterface(HTableInterface table) {
+    }
+  }
+}
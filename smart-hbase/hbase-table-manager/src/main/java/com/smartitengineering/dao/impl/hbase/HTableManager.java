@@ -0,0 +1,478 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages pooled handles of HBase tables, to be shared by all users of a configuration. Each table has its own pool
+ * with a minimum number of idle handles retained and a maximum number of handles in use at once; when all are in use
+ * borrowers wait for one to be returned at most the max wait, after which borrowing fails. Handles can be created
+ * ahead of the first request by {@link #warmUp(java.lang.String[]) warming up} tables and handles idle beyond the idle
+ * timeout are closed, beyond the minimum, as handles are returned. Borrow wait time, handles in use and exhaustion
+ * events of each table are available as {@link Statistics statistics}.
+ * @author imyousuf
+ */
+public class HTableManager implements Closeable {
+
+  public static final int DEFAULT_MAX_SIZE = 3000;
+  public static final int DEFAULT_MIN_SIZE = 0;
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+  public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+  private static final ConcurrentMap<Configuration, HTableManager> SHARED_INSTANCES =
+      new ConcurrentHashMap<Configuration, HTableManager>();
+  private final Configuration configuration;
+  private final HTableInterfaceFactory factory;
+  private final ConcurrentMap<String, TablePool> pools = new ConcurrentHashMap<String, TablePool>();
+  private final ConcurrentMap<String, int[]> tableSizes = new ConcurrentHashMap<String, int[]>();
+  private volatile int defaultMinSize = DEFAULT_MIN_SIZE;
+  private volatile int defaultMaxSize = DEFAULT_MAX_SIZE;
+  private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+  private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+  private volatile boolean closed;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  public HTableManager(Configuration configuration) {
+    this(configuration, new HTableFactory());
+  }
+
+  public HTableManager(Configuration configuration, HTableInterfaceFactory factory) {
+    if (configuration == null || factory == null) {
+      throw new IllegalArgumentException("Configuration and table factory are mandatory!");
+    }
+    this.configuration = configuration;
+    this.factory = factory;
+  }
+
+  /**
+   * Retrieve the manager shared by all users of the configuration, creating it if necessary.
+   */
+  public static HTableManager getSharedInstance(Configuration configuration) {
+    HTableManager manager = SHARED_INSTANCES.get(configuration);
+    if (manager == null) {
+      final HTableManager newManager = new HTableManager(configuration);
+      manager = SHARED_INSTANCES.putIfAbsent(configuration, newManager);
+      if (manager == null) {
+        manager = newManager;
+      }
+    }
+    return manager;
+  }
+
+  public Configuration getConfiguration() {
+    return configuration;
+  }
+
+  public int getDefaultMinSize() {
+    return defaultMinSize;
+  }
+
+  /**
+   * Set the number of idle handles retained per table, unless set for the table specifically.
+   */
+  public void setDefaultMinSize(int defaultMinSize) {
+    this.defaultMinSize = Math.max(0, defaultMinSize);
+  }
+
+  public int getDefaultMaxSize() {
+    return defaultMaxSize;
+  }
+
+  /**
+   * Set the maximum number of handles in use at once per table, unless set for the table specifically. Takes effect
+   * for tables not yet used.
+   */
+  public void setDefaultMaxSize(int defaultMaxSize) {
+    if (defaultMaxSize <= 0) {
+      throw new IllegalArgumentException("Max size must be positive!");
+    }
+    this.defaultMaxSize = defaultMaxSize;
+  }
+
+  /**
+   * Set the sizes of a table's pool. Takes effect if the table is not yet used.
+   * @param tableName Name of the table
+   * @param minSize Number of idle handles retained
+   * @param maxSize Maximum number of handles in use at once
+   */
+  public void setTableSizes(String tableName, int minSize, int maxSize) {
+    if (maxSize <= 0 || minSize < 0 || minSize > maxSize) {
+      throw new IllegalArgumentException("Max size must be positive and min size between 0 and max size!");
+    }
+    tableSizes.put(tableName, new int[]{minSize, maxSize});
+  }
+
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  /**
+   * Set the milliseconds after which idle handles beyond the min size are closed, a non-positive value disables
+   * eviction.
+   */
+  public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  public long getMaxWaitMillis() {
+    return maxWaitMillis;
+  }
+
+  /**
+   * Set the milliseconds to wait for a handle when all handles of a table are in use.
+   */
+  public void setMaxWaitMillis(long maxWaitMillis) {
+    this.maxWaitMillis = Math.max(0, maxWaitMillis);
+  }
+
+  /**
+   * Create the min size number of handles, at least one, of each table so that first requests do not pay for it.
+   */
+  public void warmUp(String... tableNames) {
+    for (String tableName : tableNames) {
+      final TablePool pool = getPool(tableName);
+      final int handles = Math.max(1, pool.minSize) - pool.idle.size();
+      for (int i = 0; i < handles; ++i) {
+        pool.idle.offerLast(new IdleTable(pool.create(), System.currentTimeMillis()));
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Warmed up " + Math.max(0, handles) + " handles of table " + tableName);
+      }
+    }
+  }
+
+  /**
+   * Borrow a handle of a table; it must be returned using {@link #putTable(HTableInterface)}.
+   * @throws IllegalStateException If all handles of the table remain in use for the max wait
+   */
+  public HTableInterface getTable(String tableName) {
+    if (closed) {
+      throw new IllegalStateException("Table manager is closed!");
+    }
+    return getPool(tableName).borrow();
+  }
+
+  /**
+   * Return a handle borrowed using {@link #getTable(java.lang.String)}.
+   */
+  public void putTable(HTableInterface table) {
+    if (table == null) {
+      return;
+    }
+    final TablePool pool = pools.get(Bytes.toString(table.getTableName()));
+    if (pool == null) {
+      logger.warn("Returned table is not managed, releasing it");
+      release(table);
+      return;
+    }
+    pool.giveBack(table);
+  }
+
+  /**
+   * Close the handles which are idle beyond the idle timeout, retaining the min size of each table.
+   * @return Number of handles closed
+   */
+  public int evictIdle() {
+    int evicted = 0;
+    for (TablePool pool : pools.values()) {
+      evicted += pool.evictIdle();
+    }
+    return evicted;
+  }
+
+  public Statistics getStatistics(String tableName) {
+    final TablePool pool = pools.get(tableName);
+    return pool == null ? null : pool.getStatistics();
+  }
+
+  /**
+   * Retrieve statistics of all tables used so far.
+   */
+  public Map<String, Statistics> getStatistics() {
+    final Map<String, Statistics> statistics = new LinkedHashMap<String, Statistics>();
+    for (TablePool pool : pools.values()) {
+      statistics.put(pool.tableName, pool.getStatistics());
+    }
+    return Collections.unmodifiableMap(statistics);
+  }
+
+  /**
+   * Close all idle handles; handles in use are closed as they are returned.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    SHARED_INSTANCES.remove(configuration, this);
+    for (TablePool pool : pools.values()) {
+      for (IdleTable idleTable = pool.idle.pollFirst(); idleTable != null; idleTable = pool.idle.pollFirst()) {
+        release(idleTable.table);
+      }
+    }
+  }
+
+  protected void release(HTableInterface table) {
+    try {
+      factory.releaseHTableInterface(table);
+    }
+    catch (Exception ex) {
+      logger.warn("Could not release table!", ex);
+    }
+  }
+
+  private TablePool getPool(String tableName) {
+    TablePool pool = pools.get(tableName);
+    if (pool == null) {
+      final int[] sizes = tableSizes.get(tableName);
+      final TablePool newPool;
+      if (sizes == null) {
+        newPool = new TablePool(tableName, Math.min(defaultMinSize, defaultMaxSize), defaultMaxSize);
+      }
+      else {
+        newPool = new TablePool(tableName, sizes[0], sizes[1]);
+      }
+      pool = pools.putIfAbsent(tableName, newPool);
+      if (pool == null) {
+        pool = newPool;
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Snapshot of the statistics of a table's handles.
+   */
+  public static class Statistics {
+
+    private final String tableName;
+    private final int inUse, idle, maxSize;
+    private final long borrows, exhaustions, timeouts, created, evicted, totalWaitNanos, maxWaitNanos;
+
+    protected Statistics(String tableName, int inUse, int idle, int maxSize, long borrows, long exhaustions,
+                         long timeouts, long created, long evicted, long totalWaitNanos, long maxWaitNanos) {
+      this.tableName = tableName;
+      this.inUse = inUse;
+      this.idle = idle;
+      this.maxSize = maxSize;
+      this.borrows = borrows;
+      this.exhaustions = exhaustions;
+      this.timeouts = timeouts;
+      this.created = created;
+      this.evicted = evicted;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public String getTableName() {
+      return tableName;
+    }
+
+    public int getInUse() {
+      return inUse;
+    }
+
+    public int getIdle() {
+      return idle;
+    }
+
+    public int getMaxSize() {
+      return maxSize;
+    }
+
+    public long getBorrows() {
+      return borrows;
+    }
+
+    /**
+     * Number of borrows which found all handles in use and had to wait.
+     */
+    public long getExhaustions() {
+      return exhaustions;
+    }
+
+    /**
+     * Number of borrows which failed as no handle was returned within the max wait.
+     */
+    public long getTimeouts() {
+      return timeouts;
+    }
+
+    public long getCreated() {
+      return created;
+    }
+
+    public long getEvicted() {
+      return evicted;
+    }
+
+    public long getTotalBorrowWaitNanos() {
+      return totalWaitNanos;
+    }
+
+    public long getMaxBorrowWaitNanos() {
+      return maxWaitNanos;
+    }
+
+    public long getAverageBorrowWaitNanos() {
+      return borrows > 0 ? totalWaitNanos / borrows : 0;
+    }
+
+    @Override
+    public String toString() {
+      return new StringBuilder(tableName).append(": in use ").append(inUse).append('/').append(maxSize).append(
+          ", idle ").append(idle).append(", borrows ").append(borrows).append(", exhaustions ").append(exhaustions).
+          append(", timeouts ").append(timeouts).append(", created ").append(created).append(", evicted ").append(
+          evicted).append(", average wait ns ").append(getAverageBorrowWaitNanos()).append(", max wait ns ").append(
+          maxWaitNanos).toString();
+    }
+  }
+
+  private static class IdleTable {
+
+    private final HTableInterface table;
+    private final long since;
+
+    public IdleTable(HTableInterface table, long since) {
+      this.table = table;
+      this.since = since;
+    }
+  }
+
+  private class TablePool {
+
+    private final String tableName;
+    private final int minSize, maxSize;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleTable> idle = new LinkedBlockingDeque<IdleTable>();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong(), exhaustions = new AtomicLong(), timeouts = new AtomicLong(),
+        created = new AtomicLong(), evicted = new AtomicLong(), totalWaitNanos = new AtomicLong(),
+        maxWaitNanos = new AtomicLong();
+
+    public TablePool(String tableName, int minSize, int maxSize) {
+      this.tableName = tableName;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.permits = new Semaphore(maxSize, true);
+    }
+
+    public HTableInterface borrow() {
+      final long start = System.nanoTime();
+      if (!permits.tryAcquire()) {
+        exhaustions.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+          logger.debug("All " + maxSize + " handles of table " + tableName + " are in use, waiting");
+        }
+        boolean acquired;
+        try {
+          acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          acquired = false;
+        }
+        if (!acquired) {
+          timeouts.incrementAndGet();
+          throw new IllegalStateException("No handle of table " + tableName + " became available in " +
+              maxWaitMillis + "ms, all " + maxSize + " are in use!");
+        }
+      }
+      final long wait = System.nanoTime() - start;
+      totalWaitNanos.addAndGet(wait);
+      long max = maxWaitNanos.get();
+      while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+        max = maxWaitNanos.get();
+      }
+      final IdleTable idleTable = idle.pollFirst();
+      final HTableInterface table;
+      try {
+        table = idleTable == null ? create() : idleTable.table;
+      }
+      catch (RuntimeException ex) {
+        permits.release();
+        throw ex;
+      }
+      borrows.incrementAndGet();
+      inUse.incrementAndGet();
+      return table;
+    }
+
+    public void giveBack(HTableInterface table) {
+      inUse.decrementAndGet();
+      if (closed) {
+        release(table);
+      }
+      else {
+        idle.offerFirst(new IdleTable(table, System.currentTimeMillis()));
+      }
+      permits.release();
+      evictIdle();
+    }
+
+    public HTableInterface create() {
+      final HTableInterface table = factory.createHTableInterface(configuration, Bytes.toBytes(tableName));
+      created.incrementAndGet();
+      return table;
+    }
+
+    public int evictIdle() {
+      final long timeout = idleTimeoutMillis;
+      if (timeout <= 0) {
+        return 0;
+      }
+      final long expiry = System.currentTimeMillis() - timeout;
+      int count = 0;
+      while (idle.size() > minSize) {
+        final IdleTable oldest = idle.pollLast();
+        if (oldest == null) {
+          break;
+        }
+        if (oldest.since > expiry) {
+          idle.offerLast(oldest);
+          break;
+        }
+        release(oldest.table);
+        count++;
+      }
+      evicted.addAndGet(count);
+      return count;
+    }
+
+    public Statistics getStatistics() {
+      return new Statistics(tableName, inUse.get(), idle.size(), maxSize, borrows.get(), exhaustions.get(),
+                            timeouts.get(), created.get(), evicted.get(), totalWaitNanos.get(), maxWaitNanos.get());
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class HTableManagerTest {
+
+  @Test
+  public void reuseReturnedTables() {
+    MockFactory factory = new MockFactory();
+    HTableManager manager = new HTableManager(new Configuration(false), factory);
+    HTableInterface table = manager.getTable("test");
+    manager.putTable(table);
+    Assert.assertSame(table, manager.getTable("test"));
+    HTableInterface other = manager.getTable("test");
+    Assert.assertNotSame(table, other);
+    manager.putTable(table);
+    manager.putTable(other);
+    HTableManager.Statistics statistics = manager.getStatistics("test");
+    Assert.assertEquals(3, statistics.getBorrows());
+    Assert.assertEquals(2, statistics.getCreated());
+    Assert.assertEquals(0, statistics.getInUse());
+    Assert.assertEquals(2, statistics.getIdle());
+    Assert.assertNull(manager.getStatistics("other"));
+  }
+
+  @Test
+  public void warmUpToMinSize() {
+    MockFactory factory = new MockFactory();
+    HTableManager manager = new HTableManager(new Configuration(false), factory);
+    manager.setTableSizes("sized", 3, 5);
+    manager.warmUp("sized", "default");
+    Assert.assertEquals(3, manager.getStatistics("sized").getIdle());
+    Assert.assertEquals(1, manager.getStatistics("default").getIdle());
+    Assert.assertEquals(4, factory.created.size());
+    manager.getTable("sized");
+    Assert.assertEquals(4, factory.created.size());
+  }
+
+  @Test
+  public void waitForReturnedTableWhenExhausted() throws Exception {
+    final HTableManager manager = new HTableManager(new Configuration(false), new MockFactory());
+    manager.setTableSizes("test", 0, 1);
+    final HTableInterface table = manager.getTable("test");
+    final CountDownLatch started = new CountDownLatch(1);
+    Thread thread = new Thread() {
+
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          TimeUnit.MILLISECONDS.sleep(100);
+        }
+        catch (InterruptedException ex) {
+        }
+        manager.putTable(table);
+      }
+    };
+    thread.start();
+    started.await();
+    Assert.assertSame(table, manager.getTable("test"));
+    HTableManager.Statistics statistics = manager.getStatistics("test");
+    Assert.assertEquals(1, statistics.getExhaustions());
+    Assert.assertTrue(statistics.getMaxBorrowWaitNanos() > 0);
+    Assert.assertEquals(1, statistics.getInUse());
+  }
+
+  @Test
+  public void failWhenExhaustedBeyondMaxWait() {
+    HTableManager manager = new HTableManager(new Configuration(false), new MockFactory());
+    manager.setTableSizes("test", 0, 1);
+    manager.setMaxWaitMillis(10);
+    manager.getTable("test");
+    try {
+      manager.getTable("test");
+      Assert.fail("Exhausted table must not be borrowed");
+    }
+    catch (IllegalStateException ex) {
+    }
+    Assert.assertEquals(1, manager.getStatistics("test").getTimeouts());
+  }
+
+  @Test
+  public void evictIdleTablesBeyondMinSize() throws Exception {
+    MockFactory factory = new MockFactory();
+    HTableManager manager = new HTableManager(new Configuration(false), factory);
+    manager.setTableSizes("test", 1, 5);
+    manager.setIdleTimeoutMillis(20);
+    List<HTableInterface> tables = new ArrayList<HTableInterface>();
+    for (int i = 0; i < 3; ++i) {
+      tables.add(manager.getTable("test"));
+    }
+    for (HTableInterface table : tables) {
+      manager.putTable(table);
+    }
+    Assert.assertEquals(0, manager.evictIdle());
+    TimeUnit.MILLISECONDS.sleep(50);
+    Assert.assertEquals(2, manager.evictIdle());
+    Assert.assertEquals(2, factory.released.size());
+    HTableManager.Statistics statistics = manager.getStatistics("test");
+    Assert.assertEquals(1, statistics.getIdle());
+    Assert.assertEquals(2, statistics.getEvicted());
+    manager.close();
+    Assert.assertEquals(3, factory.released.size());
+  }
+
+  private static class MockFactory implements HTableInterfaceFactory {
+
+    private final List<HTableInterface> created = new ArrayList<HTableInterface>();
+    private final List<HTableInterface> released = new ArrayList<HTableInterface>();
+
+    @Override
+    public synchronized HTableInterface createHTableInterface(Configuration config, final byte[] tableName) {
+      HTableInterface table = (HTableInterface) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{
+            HTableInterface.class}, new InvocationHandler() {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("getTableName")) {
+            return tableName;
+          }
+          if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+          }
+          if (method.getName().equals("equals")) {
+            return proxy == args[0];
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+      created.add(table);
+      return table;
+    }
+
+    @Override
+    public synchronized void releaseHTableInterface(HTableInterface table) {
+      released.add(table);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+/**
+ * Strategy to distribute rows across regions by prefixing row ids with a bucket prefix, so that writes of sequential
+ * ids do not all land on a single region. All prefixes are of the same length. Reads have to fan out across all the
+ * buckets, which the DAO does transparently.
+ * @author imyousuf
+ */
+public interface RowIdDistributor {
+
+  /**
+   * Prefix the original row id with its bucket's prefix.
+   * @param originalRowId Row id as formed from the id
+   * @return Row id as stored in HBase
+   */
+  byte[] getDistributedRowId(byte[] originalRowId);
+
+  /**
+   * Strip the bucket prefix from a stored row id.
+   * @param distributedRowId Row id as stored in HBase
+   * @return Row id as formed from the id
+   */
+  byte[] getOriginalRowId(byte[] distributedRowId);
+
+  /**
+   * Retrieve the prefixes of all the buckets.
+   * @return Prefixes in ascending byte order
+   */
+  byte[][] getAllPrefixes();
+}
@@ -68,10 +68,19 @@ public interface SchemaInfoProvider<T, IdType> {
 
   byte[] getVersionColumnQualifier();
 
+  /**
+   * Retrieve the row id, as stored in HBase, of a domain instance.
+   */
   byte[] getRowIdFromRow(T instance) throws IOException;
 
+  /**
+   * Retrieve the row id, as stored in HBase, of an id. If rows are distributed the row id includes the bucket prefix.
+   */
   byte[] getRowIdFromId(IdType id) throws IOException;
 
+  /**
+   * Retrieve the id from a row id as stored in HBase, stripping the bucket prefix if rows are distributed.
+   */
   IdType getIdFromRowId(byte[] id) throws IOException, ClassNotFoundException;
 
   long getWaitTime();
@@ -0,0 +1,82 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-aggregated values of a group of an aggregate view, i.e. the count of rows in the group and the sums of the
+ * summed properties.
+ * @author imyousuf
+ */
+public class Aggregate {
+
+  private final List<Object> groupValues;
+  private final long count;
+  private final Map<String, Long> sums;
+
+  public Aggregate(Object[] groupValues, long count, Map<String, Long> sums) {
+    this.groupValues = Collections.unmodifiableList(new ArrayList<Object>(Arrays.asList(groupValues)));
+    this.count = count;
+    this.sums = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(sums));
+  }
+
+  public List<Object> getGroupValues() {
+    return groupValues;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public Map<String, Long> getSums() {
+    return sums;
+  }
+
+  /**
+   * Retrieve the sum of a property.
+   * @throws IllegalArgumentException If the property is not summed by the view
+   */
+  public long getSum(String propertyName) {
+    final Long sum = sums.get(propertyName);
+    if (sum == null) {
+      throw new IllegalArgumentException("Property " + propertyName + " is not summed");
+    }
+    return sum;
+  }
+
+  /**
+   * Retrieve the average of a property.
+   * @return The average or null if the group has no rows
+   */
+  public Double getAverage(String propertyName) {
+    final long sum = getSum(propertyName);
+    return count == 0 ? null : (double) sum / count;
+  }
+
+  @Override
+  public String toString() {
+    return "Aggregate{" + "groupValues=" + groupValues + ", count=" + count + ", sums=" + sums + '}';
+  }
+}
@@ -21,11 +21,15 @@ package com.smartitengineering.dao.impl.hbase;
 import com.google.inject.Inject;
 import com.google.inject.internal.Nullable;
 import com.google.inject.name.Named;
+import com.smartitengineering.dao.common.AsyncCommonDao;
+import com.smartitengineering.dao.common.ListenableFuture;
+import com.smartitengineering.dao.common.SettableFuture;
 import com.smartitengineering.dao.common.queryparam.BasicCompoundQueryParameter;
 import com.smartitengineering.dao.common.queryparam.BiOperandQueryParameter;
 import com.smartitengineering.dao.common.queryparam.CompositionQueryParameter;
 import com.smartitengineering.dao.common.queryparam.MatchMode;
 import com.smartitengineering.dao.common.queryparam.OperatorType;
+import com.smartitengineering.dao.common.queryparam.Order;
 import com.smartitengineering.dao.common.queryparam.ParameterType;
 import com.smartitengineering.dao.common.queryparam.QueryParameter;
 import com.smartitengineering.dao.common.queryparam.QueryParameterCastHelper;
@@ -33,49 +37,92 @@ import com.smartitengineering.dao.common.queryparam.QueryParameterWithOperator;
 import com.smartitengineering.dao.common.queryparam.QueryParameterWithPropertyName;
 import com.smartitengineering.dao.common.queryparam.QueryParameterWithValue;
 import com.smartitengineering.dao.common.queryparam.ValueOnlyQueryParameter;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfig;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateViewService;
 import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
 import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.ColumnProjectionProvider;
+import com.smartitengineering.dao.impl.hbase.spi.ConflictMerger;
+import com.smartitengineering.dao.impl.hbase.spi.CounterService;
+import com.smartitengineering.dao.impl.hbase.spi.DeferredMergeService;
+import com.smartitengineering.dao.impl.hbase.spi.DerivedDataUpdate;
 import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfig;
 import com.smartitengineering.dao.impl.hbase.spi.LockAttainer;
 import com.smartitengineering.dao.impl.hbase.spi.LockType;
 import com.smartitengineering.dao.impl.hbase.spi.MergeService;
 import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
+import com.smartitengineering.dao.impl.hbase.spi.RowIdDistributor;
+import com.smartitengineering.dao.impl.hbase.spi.RowIdDistributorProvider;
 import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
+import com.smartitengineering.dao.impl.hbase.spi.SecondaryIndexService;
+import com.smartitengineering.dao.impl.hbase.spi.ValueCodec;
+import com.smartitengineering.dao.impl.hbase.spi.WriteBehindService;
+import com.smartitengineering.dao.impl.hbase.spi.impl.AbstractObjectRowConverter;
+import com.smartitengineering.dao.impl.hbase.spi.impl.AggregateViewServiceImpl;
 import com.smartitengineering.dao.impl.hbase.spi.impl.BinarySuffixComparator;
+import com.smartitengineering.dao.impl.hbase.spi.impl.CounterServiceImpl;
 import com.smartitengineering.dao.impl.hbase.spi.impl.DiffBasedMergeService;
+import com.smartitengineering.dao.impl.hbase.spi.impl.PrefixSkippingComparator;
 import com.smartitengineering.dao.impl.hbase.spi.impl.RangeComparator;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SecondaryIndexServiceImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SynchronousExecutorServiceImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.ValueCodecRegistry;
 import com.smartitengineering.domain.PersistentDTO;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.BinaryComparator;
 import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
+import org.apache.hadoop.hbase.filter.ColumnPaginationFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.FilterList.Operator;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
 import org.apache.hadoop.hbase.filter.QualifierFilter;
 import org.apache.hadoop.hbase.filter.RowFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueExcludeFilter;
@@ -84,19 +131,32 @@ import org.apache.hadoop.hbase.filter.SkipFilter;
 import org.apache.hadoop.hbase.filter.SubstringComparator;
 import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A common DAO implementation for HBase. Please note that all parameters for reading (i.e. Scan) assumes that the
  * toString() method returns the string representation of the value to be compared in byte[] form.
+ * <p>
+ * If the schema info provider declares secondary indexes or aggregate views, each write, or delete, of rows of the main
+ * table first reads the current values of the indexed and aggregated columns of the rows with a batched get, to work
+ * out the index entries to remove and the aggregate deltas. The write fails if the read fails.
  * @author imyousuf
  */
 public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ? extends Comparable, ? extends Long>, IdType extends Serializable>
     implements
-    com.smartitengineering.dao.common.CommonDao<Template, IdType> {
+    com.smartitengineering.dao.common.CommonDao<Template, IdType>, AsyncCommonDao<Template, IdType> {
 
   public static final int DEFAULT_MAX_ROWS = 1000;
+  public static final int DEFAULT_CURSOR_PREFETCH_ROWS = 100;
+  public static final int DEFAULT_BATCH_GET_SIZE = 100;
+  public static final int DEFAULT_SORT_BUFFER_ROWS = 10000;
+  public static final long DEFAULT_SCAN_PREFETCH_MAX_BYTES = 32l * 1024 * 1024;
+  public static final long DEFAULT_OPTIMISTIC_RETRY_BACKOFF = 50;
+  public static final long DEFAULT_OPTIMISTIC_RETRY_MAX_BACKOFF = 2000;
+  public static final int DEFAULT_INDEX_SCAN_MAX_ROWS = 10000;
+  public static final long DEFAULT_EXECUTION_TIMEOUT_MILLIS = 60000;
   @Inject
   private ObjectRowConverter<Template> converter;
   @Inject
@@ -117,6 +177,34 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   private LockType lockType;
   private final String errorMessageFormat = "Operation of row %s from table %s has failed optimistically!";
   private int maxRows = -1;
+  private int cursorPrefetchRows = DEFAULT_CURSOR_PREFETCH_ROWS;
+  private int batchGetSize = DEFAULT_BATCH_GET_SIZE;
+  private int scanCaching = -1;
+  private long scanPrefetchMaxBytes = DEFAULT_SCAN_PREFETCH_MAX_BYTES;
+  private boolean parallelScanEnabled = false;
+  private int sortBufferRows = DEFAULT_SORT_BUFFER_ROWS;
+  private File sortSpillDirectory;
+  private String readProfile = ColumnProjectionProvider.DEFAULT_READ_PROFILE;
+  private ValueCodecRegistry valueCodecRegistry = new ValueCodecRegistry();
+  private boolean writeBehindEnabled = false;
+  private int writeBehindBatchSize = WriteBehindBuffer.DEFAULT_BATCH_SIZE;
+  private long writeBehindFlushInterval = WriteBehindBuffer.DEFAULT_FLUSH_INTERVAL_MILLIS;
+  private int writeBehindCapacity = WriteBehindBuffer.DEFAULT_CAPACITY;
+  private WriteBehindService writeBehindService;
+  private WriteBehindBuffer writeBehindBuffer;
+  private ConflictMerger<Template> conflictMerger;
+  private SecondaryIndexService<Template, IdType> secondaryIndexService;
+  private AggregateViewService<Template, IdType> aggregateViewService;
+  private CounterService<Template, IdType> counterService;
+  private volatile DefaultServices defaultServices;
+  private int optimisticRetries = 0;
+  private long optimisticRetryBackoff = DEFAULT_OPTIMISTIC_RETRY_BACKOFF;
+  private long optimisticRetryMaxBackoff = DEFAULT_OPTIMISTIC_RETRY_MAX_BACKOFF;
+  private final Random random = new Random();
+  private boolean readCoalescingEnabled = false;
+  private int indexScanMaxRows = DEFAULT_INDEX_SCAN_MAX_ROWS;
+  private long executionTimeout = DEFAULT_EXECUTION_TIMEOUT_MILLIS;
+  private final RequestCoalescer<ByteBuffer, Template> getByIdCoalescer = new RequestCoalescer<ByteBuffer, Template>();
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
   public AsyncExecutorService getExecutorService() {
@@ -125,6 +213,7 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
 
   public void setExecutorService(AsyncExecutorService executorService) {
     this.executorService = executorService;
+    this.defaultServices = null;
   }
 
   public int getMaxRows() {
@@ -136,6 +225,321 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
     this.maxRows = maxRows;
   }
 
+  public int getCursorPrefetchRows() {
+    return cursorPrefetchRows;
+  }
+
+  @Inject(optional = true)
+  public void setCursorPrefetchRows(@Named("cursorPrefetchRows") Integer cursorPrefetchRows) {
+    if (cursorPrefetchRows == null || cursorPrefetchRows <= 0) {
+      this.cursorPrefetchRows = DEFAULT_CURSOR_PREFETCH_ROWS;
+    }
+    else {
+      this.cursorPrefetchRows = cursorPrefetchRows;
+    }
+  }
+
+  /**
+   * Retrieve the rows fetched per RPC and per batch of list scans, by default the cursor prefetch rows.
+   */
+  public int getScanCaching() {
+    return scanCaching > 0 ? scanCaching : getCursorPrefetchRows();
+  }
+
+  @Inject(optional = true)
+  public void setScanCaching(@Named("scanCaching") Integer scanCaching) {
+    this.scanCaching = scanCaching == null ? -1 : scanCaching;
+  }
+
+  public long getScanPrefetchMaxBytes() {
+    return scanPrefetchMaxBytes;
+  }
+
+  /**
+   * Set the estimated maximum bytes of a batch prefetched by a list scan, a non-positive value removes the cap.
+   */
+  @Inject(optional = true)
+  public void setScanPrefetchMaxBytes(@Named("scanPrefetchMaxBytes") Long scanPrefetchMaxBytes) {
+    if (scanPrefetchMaxBytes != null) {
+      this.scanPrefetchMaxBytes = scanPrefetchMaxBytes;
+    }
+  }
+
+  public int getBatchGetSize() {
+    return batchGetSize;
+  }
+
+  @Inject(optional = true)
+  public void setBatchGetSize(@Named("batchGetSize") Integer batchGetSize) {
+    if (batchGetSize == null || batchGetSize <= 0) {
+      this.batchGetSize = DEFAULT_BATCH_GET_SIZE;
+    }
+    else {
+      this.batchGetSize = batchGetSize;
+    }
+  }
+
+  public boolean isParallelScanEnabled() {
+    return parallelScanEnabled;
+  }
+
+  @Inject(optional = true)
+  public void setParallelScanEnabled(@Named("parallelScanEnabled") Boolean parallelScanEnabled) {
+    this.parallelScanEnabled = parallelScanEnabled != null && parallelScanEnabled.booleanValue();
+  }
+
+  public int getSortBufferRows() {
+    return sortBufferRows;
+  }
+
+  @Inject(optional = true)
+  public void setSortBufferRows(@Named("sortBufferRows") Integer sortBufferRows) {
+    if (sortBufferRows == null || sortBufferRows <= 0) {
+      this.sortBufferRows = DEFAULT_SORT_BUFFER_ROWS;
+    }
+    else {
+      this.sortBufferRows = sortBufferRows;
+    }
+  }
+
+  public File getSortSpillDirectory() {
+    return sortSpillDirectory;
+  }
+
+  @Inject(optional = true)
+  public void setSortSpillDirectory(@Named("sortSpillDirectory") String sortSpillDirectory) {
+    this.sortSpillDirectory = StringUtils.isBlank(sortSpillDirectory) ? null : new File(sortSpillDirectory);
+  }
+
+  public String getReadProfile() {
+    return readProfile;
+  }
+
+  /**
+   * Set the read profile to pass to the {@link ColumnProjectionProvider} to select the columns of the rows to read.
+   */
+  @Inject(optional = true)
+  public void setReadProfile(@Named("readProfile") String readProfile) {
+    this.readProfile = StringUtils.isBlank(readProfile) ? ColumnProjectionProvider.DEFAULT_READ_PROFILE : readProfile;
+  }
+
+  public ValueCodecRegistry getValueCodecRegistry() {
+    return valueCodecRegistry;
+  }
+
+  @Inject(optional = true)
+  public void setValueCodecRegistry(ValueCodecRegistry valueCodecRegistry) {
+    if (valueCodecRegistry != null) {
+      this.valueCodecRegistry = valueCodecRegistry;
+      this.defaultServices = null;
+    }
+  }
+
+  public boolean isWriteBehindEnabled() {
+    return writeBehindEnabled;
+  }
+
+  /**
+   * Enable write behind, i.e. {@link #saveBehind(Template[])} and {@link #updateBehind(Template[])} buffer the puts
+   * and return a future confirming the write without waiting for it. When disabled they write right away.
+   * {@link #save(Template[]) Save} and {@link #update(Template[]) update} always write right away and fail with the
+   * write.
+   */
+  @Inject(optional = true)
+  public void setWriteBehindEnabled(@Named("writeBehindEnabled") Boolean writeBehindEnabled) {
+    this.writeBehindEnabled = writeBehindEnabled != null && writeBehindEnabled.booleanValue();
+  }
+
+  @Inject(optional = true)
+  public void setWriteBehindBatchSize(@Named("writeBehindBatchSize") Integer writeBehindBatchSize) {
+    if (writeBehindBatchSize != null && writeBehindBatchSize > 0) {
+      this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+  }
+
+  /**
+   * Set the milliseconds a write waits at most in the write behind buffer before its batch is flushed.
+   */
+  @Inject(optional = true)
+  public void setWriteBehindFlushInterval(@Named("writeBehindFlushInterval") Long writeBehindFlushInterval) {
+    if (writeBehindFlushInterval != null && writeBehindFlushInterval > 0) {
+      this.writeBehindFlushInterval = writeBehindFlushInterval;
+    }
+  }
+
+  /**
+   * Set the number of puts the write behind buffer holds at most before writers block.
+   */
+  @Inject(optional = true)
+  public void setWriteBehindCapacity(@Named("writeBehindCapacity") Integer writeBehindCapacity) {
+    if (writeBehindCapacity != null && writeBehindCapacity > 0) {
+      this.writeBehindCapacity = writeBehindCapacity;
+    }
+  }
+
+  @Inject(optional = true)
+  public synchronized void setWriteBehindService(WriteBehindService writeBehindService) {
+    this.writeBehindService = writeBehindService;
+  }
+
+  /**
+   * Retrieve the service buffering the puts written behind, by default a {@link WriteBehindBuffer} created on first
+   * use from the write behind batch size, flush interval and capacity of the DAO.
+   */
+  public synchronized WriteBehindService getWriteBehindService() {
+    if (writeBehindService != null) {
+      return writeBehindService;
+    }
+    if (writeBehindBuffer == null) {
+      writeBehindBuffer = new WriteBehindBuffer(executorService, writeBehindBatchSize, writeBehindFlushInterval, Math.
+          max(writeBehindBatchSize, writeBehindCapacity));
+    }
+    return writeBehindBuffer;
+  }
+
+  public boolean isReadCoalescingEnabled() {
+    return readCoalescingEnabled;
+  }
+
+  /**
+   * Enable coalescing concurrent {@link #getById(java.io.Serializable) reads of the same id} into one fetch shared by
+   * all of them, in which case they all get the same instance; so enable only if the instances read are not modified
+   * or are copied before modification.
+   */
+  @Inject(optional = true)
+  public void setReadCoalescingEnabled(@Named("readCoalescingEnabled") Boolean readCoalescingEnabled) {
+    this.readCoalescingEnabled = readCoalescingEnabled != null && readCoalescingEnabled.booleanValue();
+  }
+
+  public int getIndexScanMaxRows() {
+    return indexScanMaxRows;
+  }
+
+  /**
+   * Set the maximum number of rows a range of a secondary index may match for the index to be used, beyond which the
+   * query is answered by scanning the main table instead.
+   */
+  @Inject(optional = true)
+  public void setIndexScanMaxRows(@Named("indexScanMaxRows") Integer indexScanMaxRows) {
+    if (indexScanMaxRows != null && indexScanMaxRows > 0) {
+      this.indexScanMaxRows = indexScanMaxRows;
+    }
+  }
+
+  /**
+   * Retrieve the service maintaining the secondary indexes, by default a {@link SecondaryIndexServiceImpl} using the
+   * schema info provider and executor service of the DAO.
+   */
+  public SecondaryIndexService<Template, IdType> getSecondaryIndexService() {
+    return secondaryIndexService != null ? secondaryIndexService : getDefaultServices().getSecondaryIndexService();
+  }
+
+  @Inject(optional = true)
+  public void setSecondaryIndexService(SecondaryIndexService<Template, IdType> secondaryIndexService) {
+    this.secondaryIndexService = secondaryIndexService;
+    this.defaultServices = null;
+  }
+
+  /**
+   * Retrieve the service maintaining the aggregate views, by default an {@link AggregateViewServiceImpl} using the
+   * schema info provider, executor service, value codec registry and execution timeout of the DAO.
+   */
+  public AggregateViewService<Template, IdType> getAggregateViewService() {
+    return aggregateViewService != null ? aggregateViewService : getDefaultServices().getAggregateViewService();
+  }
+
+  @Inject(optional = true)
+  public void setAggregateViewService(AggregateViewService<Template, IdType> aggregateViewService) {
+    this.aggregateViewService = aggregateViewService;
+    this.defaultServices = null;
+  }
+
+  /**
+   * Retrieve the service incrementing counters, by default a {@link CounterServiceImpl} using the schema info provider,
+   * executor service, execution timeout, secondary index service and aggregate view service of the DAO.
+   */
+  public CounterService<Template, IdType> getCounterService() {
+    return counterService != null ? counterService : getDefaultServices().getCounterService();
+  }
+
+  @Inject(optional = true)
+  public void setCounterService(CounterService<Template, IdType> counterService) {
+    this.counterService = counterService;
+  }
+
+  /**
+   * Retrieve the collaborators created for those not injected, anew once the schema info provider, executor service,
+   * value codec registry, execution timeout or collaborator they use is set.
+   */
+  protected synchronized DefaultServices getDefaultServices() {
+    if (defaultServices == null) {
+      defaultServices = new DefaultServices();
+    }
+    return defaultServices;
+  }
+
+  public long getExecutionTimeout() {
+    return executionTimeout;
+  }
+
+  /**
+   * Set the milliseconds to wait at most for an asynchronous execution, e.g. a chunk of a batch get or a region scan,
+   * issued as part of an operation.
+   */
+  @Inject(optional = true)
+  public void setExecutionTimeout(@Named("executionTimeout") Long executionTimeout) {
+    if (executionTimeout != null && executionTimeout > 0) {
+      this.executionTimeout = executionTimeout;
+      this.defaultServices = null;
+    }
+  }
+
+  public ConflictMerger<Template> getConflictMerger() {
+    return conflictMerger;
+  }
+
+  /**
+   * Set the merger to resolve optimistic locking conflicts with, without it conflicting writes are not retried.
+   * @see #setOptimisticRetries(java.lang.Integer)
+   */
+  @Inject(optional = true)
+  public void setConflictMerger(ConflictMerger<Template> conflictMerger) {
+    this.conflictMerger = conflictMerger;
+  }
+
+  public int getOptimisticRetries() {
+    return optimisticRetries;
+  }
+
+  /**
+   * Set the number of times writes failing optimistically are retried with their states merged with the current ones;
+   * 0, the default, disables retries.
+   */
+  @Inject(optional = true)
+  public void setOptimisticRetries(@Named("optimisticRetries") Integer optimisticRetries) {
+    if (optimisticRetries != null && optimisticRetries >= 0) {
+      this.optimisticRetries = optimisticRetries;
+    }
+  }
+
+  /**
+   * Set the base milliseconds of the exponential backoff before retrying an optimistically failed write. The actual
+   * wait is picked randomly up to the backoff of the attempt so that conflicting writers do not retry in lock step.
+   */
+  @Inject(optional = true)
+  public void setOptimisticRetryBackoff(@Named("optimisticRetryBackoff") Long optimisticRetryBackoff) {
+    if (optimisticRetryBackoff != null && optimisticRetryBackoff >= 0) {
+      this.optimisticRetryBackoff = optimisticRetryBackoff;
+    }
+  }
+
+  @Inject(optional = true)
+  public void setOptimisticRetryMaxBackoff(@Named("optimisticRetryMaxBackoff") Long optimisticRetryMaxBackoff) {
+    if (optimisticRetryMaxBackoff != null && optimisticRetryMaxBackoff >= 0) {
+      this.optimisticRetryMaxBackoff = optimisticRetryMaxBackoff;
+    }
+  }
+
   public ObjectRowConverter<Template> getConverter() {
     return converter;
   }
@@ -150,6 +554,7 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
 
   public void setInfoProvider(SchemaInfoProvider<Template, IdType> infoProvider) {
     this.infoProvider = infoProvider;
+    this.defaultServices = null;
   }
 
   protected String getDefaultTableName() {
@@ -161,6 +566,16 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   }
 
   protected int getMaxScanRows(List<QueryParameter> params) {
+    final int maxResult = getMaxResult(params);
+    return maxResult > -1 ? maxResult : getMaxScanRows();
+  }
+
+  /**
+   * Retrieve the max result requested in the query.
+   * @param params Query to look for {@link ParameterType#PARAMETER_TYPE_MAX_RESULT}
+   * @return Max result requested or -1 if not requested
+   */
+  protected int getMaxResult(List<QueryParameter> params) {
     if (params != null && !params.isEmpty()) {
       for (QueryParameter param : params) {
         if (ParameterType.PARAMETER_TYPE_MAX_RESULT.equals(param.getParameterType())) {
@@ -169,7 +584,7 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
         }
       }
     }
-    return getMaxScanRows();
+    return -1;
   }
 
   /*
@@ -182,14 +597,18 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   @Override
   public Set<Template> getAll() {
     logger.info("Get ALL Executed!");
+    final Scan scan = new Scan();
+    RowFilter rowFilter = new RowFilter(CompareOp.EQUAL, new BinaryPrefixComparator(new byte[0]));
+    scan.setFilter(rowFilter);
+    applyReadProfile(scan);
+    final int maxRows = getMaxScanRows();
+    if (isParallelScanEnabled()) {
+      return new LinkedHashSet<Template>(parallelScanList(scan, maxRows));
+    }
     return executorService.execute(getDefaultTableName(), new Callback<Set<Template>>() {
 
       @Override
       public Set<Template> call(HTableInterface tableInterface) throws Exception {
-        final Scan scan = new Scan();
-        RowFilter rowFilter = new RowFilter(CompareOp.EQUAL, new BinaryPrefixComparator(new byte[0]));
-        scan.setFilter(rowFilter);
-        final int maxRows = getMaxScanRows();
         return new LinkedHashSet<Template>(CommonDao.this.scanList(tableInterface, scan, maxRows));
       }
     });
@@ -197,11 +616,16 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
 
   @Override
   public <OtherTemplate extends Object> OtherTemplate getOther(final List<QueryParameter> query) {
+    final List<QueryParameter> projections = getAggregateProjections(query);
+    if (!projections.isEmpty()) {
+      final List<Object[]> rows = aggregate(query, projections);
+      return rows.isEmpty() ? null : (OtherTemplate) toProjectionResult(rows.get(0));
+    }
     return executorService.execute(getDefaultTableName(), new Callback<OtherTemplate>() {
 
       @Override
       public OtherTemplate call(HTableInterface tableInterface) throws Exception {
-        ResultScanner scanner = tableInterface.getScanner(formScan(query));
+        ResultScanner scanner = getScanner(tableInterface, formScan(query));
         try {
           Result result = scanner.next();
           if (result == null || result.isEmpty()) {
@@ -222,11 +646,24 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
 
   @Override
   public <OtherTemplate> List<OtherTemplate> getOtherList(final List<QueryParameter> query) {
+    final List<QueryParameter> projections = getAggregateProjections(query);
+    if (!projections.isEmpty()) {
+      List<Object[]> rows = aggregate(query, projections);
+      final int maxResult = getMaxResult(query);
+      if (maxResult > -1 && rows.size() > maxResult) {
+        rows = rows.subList(0, maxResult);
+      }
+      final List<OtherTemplate> templates = new ArrayList<OtherTemplate>(rows.size());
+      for (Object[] row : rows) {
+        templates.add((OtherTemplate) toProjectionResult(row));
+      }
+      return templates;
+    }
     return executorService.execute(getDefaultTableName(), new Callback<List<OtherTemplate>>() {
 
       @Override
       public List<OtherTemplate> call(HTableInterface tableInterface) throws Exception {
-        ResultScanner scanner = tableInterface.getScanner(formScan(query));
+        ResultScanner scanner = getScanner(tableInterface, formScan(query));
         try {
           Result[] results = scanner.next(getMaxScanRows(query));
           if (results == null) {
@@ -257,169 +694,2107 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   /*
    * Supported read operations
    */
-  @Override
-  public Set<Template> getByIds(List<IdType> ids) {
-    LinkedHashSet<Future<Template>> set = new LinkedHashSet<Future<Template>>(ids.size());
-    LinkedHashSet<Template> resultSet = new LinkedHashSet<Template>(ids.size());
-    for (IdType id : ids) {
-      set.add(executorService.executeAsynchronously(getDefaultTableName(), getByIdCallback(id)));
-    }
-    for (Future<Template> future : set) {
-      try {
-        final Template get = future.get();
-        if (get != null) {
-          resultSet.add(get);
+  /**
+   * Retrieve the aggregate projections, e.g. row count, sum, group by etc., requested in the query.
+   */
+  protected List<QueryParameter> getAggregateProjections(List<QueryParameter> query) {
+    final List<QueryParameter> projections = new ArrayList<QueryParameter>();
+    if (query != null) {
+      for (QueryParameter param : query) {
+        if (ProjectionAggregator.isAggregateProjection(param.getParameterType())) {
+          projections.add(param);
         }
       }
-      catch (Exception ex) {
-        logger.warn("Could not retrieve from Future...", ex);
-      }
     }
-    return resultSet;
-  }
-
-  @Override
-  public Template getById(final IdType id) {
-    return executorService.execute(getDefaultTableName(), getByIdCallback(id));
+    return projections;
   }
 
-  protected Callback<Template> getByIdCallback(final IdType id) {
-    return new Callback<Template>() {
+  /**
+   * Aggregate the rows matching the query on client side. Only the row keys or the columns required to evaluate the
+   * projections and the filters are read; each region is aggregated concurrently and the partial aggregations are
+   * then combined.
+   * @param query The query to aggregate rows of
+   * @param projections Aggregate projections of the query
+   * @return Aggregated rows, one value per projection in each
+   */
+  protected List<Object[]> aggregate(final List<QueryParameter> query, final List<QueryParameter> projections) {
+    final List<ParameterType> types = new ArrayList<ParameterType>(projections.size());
+    final List<ProjectedColumn> columns = new ArrayList<ProjectedColumn>(projections.size());
+    for (QueryParameter projection : projections) {
+      types.add(projection.getParameterType());
+      columns.add(getProjectedColumn(projection));
+    }
+    final Scan scan = formAggregateScan(query, types, columns);
+    final String tableName = getDefaultTableName();
+    final List<Scan> subScans = executorService.execute(tableName, new Callback<List<Scan>>() {
 
       @Override
-      public Template call(HTableInterface tableInterface) throws Exception {
-        final byte[] rowId = getInfoProvider().getRowIdFromId(id);
-        Get get = new Get(rowId);
-        Result result = tableInterface.get(get);
-        if (result == null || result.isEmpty()) {
-          return null;
-        }
-        else {
-          return getConverter().rowsToObject(result, executorService);
-        }
+      public List<Scan> call(HTableInterface tableInterface) throws Exception {
+        return splitScanByRegion(tableInterface, scan);
       }
-    };
-  }
-
-  @Override
-  public Template getSingle(final List<QueryParameter> query) {
-    return executorService.execute(getDefaultTableName(), new Callback<Template>() {
+    });
+    if (logger.isDebugEnabled()) {
+      logger.debug("Aggregating " + types + " over " + subScans.size() + " regions");
+    }
+    final List<Future<ProjectionAggregator>> futures = new ArrayList<Future<ProjectionAggregator>>(subScans.size());
+    for (final Scan subScan : subScans) {
+      futures.add(executorService.executeAsynchronously(tableName, new Callback<ProjectionAggregator>() {
 
-      @Override
-      public Template call(HTableInterface tableInterface) throws Exception {
-        ResultScanner scanner = tableInterface.getScanner(formScan(query));
-        try {
-          Result result = scanner.next();
-          if (result == null || result.isEmpty()) {
-            return null;
-          }
-          else {
-            return getConverter().rowsToObject(result, executorService);
-          }
-        }
-        finally {
-          if (scanner != null) {
-            scanner.close();
-          }
+        @Override
+        public ProjectionAggregator call(HTableInterface tableInterface) throws Exception {
+          return aggregate(tableInterface, subScan, types, columns);
         }
+      }));
+    }
+    final ProjectionAggregator aggregator = new ProjectionAggregator(types);
+    try {
+      for (Future<ProjectionAggregator> future : futures) {
+        aggregator.merge(getResult(future));
       }
-    });
+    }
+    catch (Exception ex) {
+      for (Future<ProjectionAggregator> future : futures) {
+        future.cancel(true);
+      }
+      logger.warn(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    }
+    return aggregator.getResults();
   }
 
-  @Override
-  public List<Template> getList(final List<QueryParameter> query) {
-    return executorService.execute(getDefaultTableName(), new Callback<List<Template>>() {
-
-      @Override
-      public List<Template> call(HTableInterface tableInterface) throws Exception {
-        final Scan scan = formScan(query);
-        final int maxRows = getMaxScanRows(query);
-        return CommonDao.this.scanList(tableInterface, scan, maxRows);
+  protected ProjectionAggregator aggregate(HTableInterface tableInterface, Scan scan, List<ParameterType> types,
+                                           List<ProjectedColumn> columns) throws IOException {
+    final ProjectionAggregator aggregator = new ProjectionAggregator(types);
+    scan.setCaching(getCursorPrefetchRows());
+    final ResultScanner scanner = tableInterface.getScanner(scan);
+    try {
+      for (Result result : scanner) {
+        if (result == null || result.isEmpty()) {
+          continue;
+        }
+        final Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; ++i) {
+          values[i] = getProjectedValue(result, columns.get(i));
+        }
+        aggregator.add(values);
       }
-    });
+    }
+    finally {
+      scanner.close();
+    }
+    return aggregator;
   }
 
-  protected LockType getLockType() {
-    if (lockType == null) {
-      return LockType.getDefault();
-    }
-    return lockType;
+  protected Scan formAggregateScan(List<QueryParameter> query, List<ParameterType> types,
+                                   List<ProjectedColumn> columns) {
+    return formNarrowScan(query, columns, types.contains(ParameterType.PARAMETER_TYPE_ROW_COUNT) || types.contains(
+        ParameterType.PARAMETER_TYPE_GROUP_BY));
   }
 
-  protected List<Template> scanList(HTableInterface tableInterface, Scan scan, int maxRows) throws IOException,
-                                                                                                   InterruptedException,
-                                                                                                   ExecutionException {
-    logger.info("Scanning a list");
-    if (logger.isDebugEnabled()) {
-      logger.debug("Scanning for rows " + maxRows);
+  /**
+   * Form a scan reading only what is required to evaluate the columns of the rows matching the query. Without any
+   * filter or column other than row id only the first key of each row is read. Otherwise if it is safe, that is no row
+   * matching the query would go missing, only the filtered and required columns are read. Filtered columns are not
+   * excluded from the rows so that they can be required too.
+   * @param query The query to scan with
+   * @param columns The columns required, null elements are ignored
+   * @param everyRow Whether every matching row is required even if it does not have any of the columns
+   * @return The scan
+   */
+  protected Scan formNarrowScan(List<QueryParameter> query, List<ProjectedColumn> columns, boolean everyRow) {
+    final Scan scan = formScan(query);
+    final Filter filter = toIncludingFilter(scan.getFilter());
+    final List<SingleColumnValueFilter> columnFilters = new ArrayList<SingleColumnValueFilter>();
+    final boolean onlyColumnFilters = collectColumnFilters(filter, columnFilters);
+    boolean onlyRowIdProjected = true;
+    for (ProjectedColumn column : columns) {
+      onlyRowIdProjected = onlyRowIdProjected && (column == null || column.getConfig().isFilterOnRowId());
     }
-    ResultScanner scanner = tableInterface.getScanner(scan);
-    try {
-      Result[] results = scanner.next(maxRows);
-      if (logger.isDebugEnabled()) {
-        logger.debug("ResultScanner " + scanner);
-        logger.debug("Results " + results);
-        if (results != null) {
-          logger.debug("Results " + results.length);
-        }
-      }
-      if (results == null) {
-        return Collections.emptyList();
+    if (onlyColumnFilters && columnFilters.isEmpty() && onlyRowIdProjected) {
+      if (filter == null) {
+        scan.setFilter(new FirstKeyOnlyFilter());
       }
       else {
-        final ArrayList<Template> templates = new ArrayList<Template>(results.length);
-        ArrayList<Future<Template>> futureTemplates = new ArrayList<Future<Template>>(results.length);
-        for (final Result result : results) {
-          if (result == null || result.isEmpty()) {
-            logger.debug("Result is null or empty " + result + " " + (result != null ? result.isEmpty() : "TRUE"));
-            continue;
-          }
-          else {
-            futureTemplates.add(resultExecutorService.submit(new Callable<Template>() {
+        scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, Arrays.<Filter>asList(filter, new FirstKeyOnlyFilter())));
+      }
+      return scan;
+    }
+    if (filter != null) {
+      scan.setFilter(filter);
+    }
+    boolean rowsMustHaveColumn = !columnFilters.isEmpty();
+    for (SingleColumnValueFilter columnFilter : columnFilters) {
+      rowsMustHaveColumn = rowsMustHaveColumn && columnFilter.getFilterIfMissing();
+    }
+    if (onlyColumnFilters && (rowsMustHaveColumn || !everyRow)) {
+      for (SingleColumnValueFilter columnFilter : columnFilters) {
+        addColumn(scan, columnFilter.getFamily(), columnFilter.getQualifier());
+      }
+      for (ProjectedColumn column : columns) {
+        if (column != null && !column.getConfig().isFilterOnRowId()) {
+          addColumn(scan, column.getFamily(), column.getQualifier());
+        }
+      }
+    }
+    return scan;
+  }
+
+  /**
+   * Replace the {@link SingleColumnValueExcludeFilter column excluding filters} with filters retaining the column.
+   */
+  protected Filter toIncludingFilter(Filter filter) {
+    if (filter instanceof FilterList) {
+      final FilterList filterList = (FilterList) filter;
+      final List<Filter> filters = new ArrayList<Filter>(filterList.getFilters().size());
+      for (Filter nestedFilter : filterList.getFilters()) {
+        filters.add(toIncludingFilter(nestedFilter));
+      }
+      return new FilterList(filterList.getOperator(), filters);
+    }
+    else if (filter instanceof SkipFilter) {
+      return new SkipFilter(toIncludingFilter(((SkipFilter) filter).getFilter()));
+    }
+    else if (filter instanceof SingleColumnValueExcludeFilter) {
+      final SingleColumnValueFilter excludeFilter = (SingleColumnValueFilter) filter;
+      final SingleColumnValueFilter valueFilter = new SingleColumnValueFilter(excludeFilter.getFamily(), excludeFilter.
+          getQualifier(), excludeFilter.getOperator(), excludeFilter.getComparator());
+      valueFilter.setFilterIfMissing(excludeFilter.getFilterIfMissing());
+      valueFilter.setLatestVersionOnly(excludeFilter.getLatestVersionOnly());
+      return valueFilter;
+    }
+    return filter;
+  }
+
+  /**
+   * Collect the single column value filters of a filter.
+   * @return False if the filter has any filter other than row filters, single column value filters and filter lists
+   */
+  protected boolean collectColumnFilters(Filter filter, List<SingleColumnValueFilter> columnFilters) {
+    if (filter == null || filter instanceof RowFilter) {
+      return true;
+    }
+    else if (filter instanceof FilterList) {
+      boolean onlyColumnFilters = true;
+      for (Filter nestedFilter : ((FilterList) filter).getFilters()) {
+        onlyColumnFilters = collectColumnFilters(nestedFilter, columnFilters) && onlyColumnFilters;
+      }
+      return onlyColumnFilters;
+    }
+    else if (filter instanceof SingleColumnValueFilter) {
+      columnFilters.add((SingleColumnValueFilter) filter);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Resolve the column of a projection or an order. Similar to unit property projection a property name of the form
+   * <tt>property:qualifier</tt> denotes the qualifier in the column family of the property.
+   * @return The column or null if the projection is not on any property, i.e. row count
+   */
+  protected ProjectedColumn getProjectedColumn(QueryParameter projection) {
+    if (ParameterType.PARAMETER_TYPE_ROW_COUNT.equals(projection.getParameterType())) {
+      return null;
+    }
+    return getColumn(getPropertyName("", projection));
+  }
+
+  /**
+   * Resolve the column a property denotes, where "property:qualifier" denotes a column of a property whose qualifier
+   * is a range prefix.
+   * @return The column, without family and qualifier for the row id property
+   * @throws IllegalArgumentException If the property has no filter config or does not denote a single column
+   */
+  protected ProjectedColumn getColumn(String propertyName) {
+    final int indexOfColon = propertyName.indexOf(":");
+    final String configPropertyName = indexOfColon > -1 ? propertyName.substring(0, indexOfColon) : propertyName;
+    final FilterConfig config = getInfoProvider().getFilterConfig(configPropertyName);
+    if (config == null) {
+      throw new IllegalArgumentException("No filter config for property " + propertyName);
+    }
+    if (config.isFilterOnRowId()) {
+      return new ProjectedColumn(config, null, null);
+    }
+    final byte[] qualifier;
+    if (indexOfColon > -1) {
+      qualifier = Bytes.toBytes(propertyName.substring(indexOfColon + 1));
+    }
+    else if (config.isQualifierARangePrefix()) {
+      qualifier = null;
+    }
+    else {
+      qualifier = config.getColumnQualifier();
+    }
+    if (qualifier == null || qualifier.length == 0) {
+      throw new IllegalArgumentException("Property " + propertyName + " does not denote a single column");
+    }
+    return new ProjectedColumn(config, config.getColumnFamily(), qualifier);
+  }
+
+  protected Object getProjectedValue(Result result, ProjectedColumn column) {
+    if (column == null) {
+      return null;
+    }
+    final byte[] value;
+    if (column.getConfig().isFilterOnRowId()) {
+      value = toOriginalRowId(result.getRow());
+    }
+    else {
+      value = result.getValue(column.getFamily(), column.getQualifier());
+    }
+    return value == null ? null : decodeProjectedValue(column.getConfig(), value);
+  }
+
+  /*
+   * Ordering
+   */
+  protected List<QueryParameter> getOrderByParams(List<QueryParameter> query) {
+    final List<QueryParameter> orders = new ArrayList<QueryParameter>();
+    if (query != null) {
+      for (QueryParameter param : query) {
+        if (ParameterType.PARAMETER_TYPE_ORDER_BY.equals(param.getParameterType())) {
+          orders.add(param);
+        }
+      }
+    }
+    return orders;
+  }
+
+  /**
+   * Denotes whether rows in row id order satisfy the orders, i.e. there is no order or rows are to be ordered by row
+   * id ascending first.
+   */
+  protected boolean isInRowOrder(List<QueryParameter> orders) {
+    if (orders.isEmpty()) {
+      return true;
+    }
+    final QueryParameter order = orders.get(0);
+    final FilterConfig config = getInfoProvider().getFilterConfig(getPropertyName("", order));
+    return config != null && config.isFilterOnRowId() && !Order.DESC.equals(getValue(order));
+  }
+
+  /**
+   * Find the keys of the first rows in the order, keeping at most <tt>maxRows</tt> rows in memory per region. Only
+   * the ordered and filtered columns are read and each region is scanned concurrently.
+   * @param query The query to match rows with
+   * @param orders The order by parameters of the query
+   * @param maxRows Number of rows to find
+   * @return Keys of the first rows in order
+   */
+  protected List<byte[]> getTopRows(final List<QueryParameter> query, final List<QueryParameter> orders,
+                                    final int maxRows) {
+    if (maxRows <= 0) {
+      return Collections.emptyList();
+    }
+    final List<ProjectedColumn> columns = getOrderColumns(orders);
+    final Comparator<SortEntry> comparator = getSortComparator(orders);
+    final Scan scan = formNarrowScan(query, columns, true);
+    final String tableName = getDefaultTableName();
+    final List<Scan> subScans = executorService.execute(tableName, new Callback<List<Scan>>() {
 
-              @Override
-              public Template call() throws Exception {
-                logger.debug("Converting row to object " + result);
-                return getConverter().rowsToObject(result, executorService);
+      @Override
+      public List<Scan> call(HTableInterface tableInterface) throws Exception {
+        return splitScanByRegion(tableInterface, scan);
+      }
+    });
+    final List<Future<PriorityQueue<SortEntry>>> futures =
+                                                 new ArrayList<Future<PriorityQueue<SortEntry>>>(subScans.size());
+    for (final Scan subScan : subScans) {
+      futures.add(executorService.executeAsynchronously(tableName, new Callback<PriorityQueue<SortEntry>>() {
+
+        @Override
+        public PriorityQueue<SortEntry> call(HTableInterface tableInterface) throws Exception {
+          final PriorityQueue<SortEntry> topEntries = new PriorityQueue<SortEntry>(maxRows + 1, Collections.
+              reverseOrder(comparator));
+          subScan.setCaching(getCursorPrefetchRows());
+          final ResultScanner scanner = tableInterface.getScanner(subScan);
+          try {
+            for (Result result : scanner) {
+              if (result != null && !result.isEmpty()) {
+                offer(topEntries, toSortEntry(result, columns), comparator, maxRows);
               }
-            }));
+            }
           }
-        }
-        for (Future<Template> future : futureTemplates) {
-          Template template = future.get();
-          if (template != null) {
-            templates.add(template);
+          finally {
+            scanner.close();
           }
+          return topEntries;
+        }
+      }));
+    }
+    final PriorityQueue<SortEntry> topEntries = new PriorityQueue<SortEntry>(maxRows + 1, Collections.reverseOrder(
+        comparator));
+    try {
+      for (Future<PriorityQueue<SortEntry>> future : futures) {
+        for (SortEntry entry : getResult(future)) {
+          offer(topEntries, entry, comparator, maxRows);
         }
-        return templates;
       }
     }
-    catch (IOException ex) {
+    catch (Exception ex) {
+      for (Future<PriorityQueue<SortEntry>> future : futures) {
+        future.cancel(true);
+      }
       logger.warn(ex.getMessage(), ex);
-      throw ex;
+      throw new RuntimeException(ex);
     }
-    catch (InterruptedException ex) {
-      logger.warn(ex.getMessage(), ex);
-      throw ex;
+    final List<SortEntry> entries = new ArrayList<SortEntry>(topEntries);
+    Collections.sort(entries, comparator);
+    final List<byte[]> rows = new ArrayList<byte[]>(entries.size());
+    for (SortEntry entry : entries) {
+      rows.add(entry.getRow());
     }
-    catch (ExecutionException ex) {
-      logger.warn(ex.getMessage(), ex);
+    return rows;
+  }
+
+  /**
+   * Sort the keys of all the rows matching the query. Only the ordered and filtered columns are read and the rows are
+   * spilled to disk in sorted runs of {@link #getSortBufferRows()} so memory use does not depend on the number of rows.
+   * As the scan reads the whole range it runs in the calling thread without the executor's timeout, so the buffer is
+   * never closed while the scan is still adding to it. The caller must close the returned buffer.
+   * @param query The query to match rows with
+   * @param orders The order by parameters of the query
+   * @return Sorted rows
+   */
+  protected ExternalSortBuffer<SortEntry> sortRows(List<QueryParameter> query, List<QueryParameter> orders) {
+    final List<ProjectedColumn> columns = getOrderColumns(orders);
+    final Scan scan = formNarrowScan(query, columns, true);
+    scan.setCaching(getCursorPrefetchRows());
+    final ExternalSortBuffer<SortEntry> sortBuffer = new ExternalSortBuffer<SortEntry>(getSortComparator(orders),
+                                                                                       getSortEntrySerializer(columns),
+                                                                                       getSortBufferRows(),
+                                                                                       getSortSpillDirectory());
+    try {
+      executeInCallingThread(getDefaultTableName(), new Callback<Void>() {
+
+        @Override
+        public Void call(HTableInterface tableInterface) throws Exception {
+          final ResultScanner scanner = getScanner(tableInterface, scan);
+          try {
+            for (Result result : scanner) {
+              if (result != null && !result.isEmpty()) {
+                sortBuffer.add(toSortEntry(result, columns));
+              }
+            }
+          }
+          finally {
+            scanner.close();
+          }
+          return null;
+        }
+      });
+    }
+    catch (RuntimeException ex) {
+      sortBuffer.close();
       throw ex;
     }
-    finally {
-      if (scanner != null) {
-        scanner.close();
-      }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Sorted " + sortBuffer.size() + " rows with " + sortBuffer.getSpillCount() + " spills");
+    }
+    return sortBuffer;
+  }
+
+  /**
+   * Open a cursor over the rows matching the query in the order requested. With a max result in the query only that
+   * many rows are sorted in memory, otherwise all rows are sorted externally.
+   */
+  protected ScanCursor<Template> openSortedCursor(List<QueryParameter> query, List<QueryParameter> orders) {
+    final Scan scan = formReadScan(query);
+    final int maxResult = getMaxResult(query);
+    final Iterator<byte[]> rows;
+    final Closeable resource;
+    if (maxResult > -1) {
+      rows = getTopRows(query, orders, maxResult).iterator();
+      resource = null;
+    }
+    else {
+      final ExternalSortBuffer<SortEntry> sortBuffer = sortRows(query, orders);
+      final Iterator<SortEntry> entries = sortBuffer.iterator();
+      rows = new Iterator<byte[]>() {
+
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public byte[] next() {
+          return entries.next().getRow();
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException("Not supported.");
+        }
+      };
+      resource = sortBuffer;
+    }
+    return new SortedRowCursor<Template>(rows, resource, getCursorPrefetchRows()) {
+
+      @Override
+      protected List<Template> fetch(List<byte[]> rows) {
+        return getListByPointGets(rows, scan, rows.size());
+      }
+    };
+  }
+
+  protected List<ProjectedColumn> getOrderColumns(List<QueryParameter> orders) {
+    final List<ProjectedColumn> columns = new ArrayList<ProjectedColumn>(orders.size());
+    for (QueryParameter order : orders) {
+      columns.add(getProjectedColumn(order));
+    }
+    return columns;
+  }
+
+  /**
+   * Form a comparator for the orders. Missing values are considered the lowest and rows equal in all the orders are
+   * ordered by their row ids.
+   */
+  protected Comparator<SortEntry> getSortComparator(List<QueryParameter> orders) {
+    final int prefixLength = getRowIdPrefixLength();
+    final boolean[] descending = new boolean[orders.size()];
+    for (int i = 0; i < descending.length; ++i) {
+      descending[i] = Order.DESC.equals(getValue(orders.get(i)));
+    }
+    return new Comparator<SortEntry>() {
+
+      @Override
+      public int compare(SortEntry o1, SortEntry o2) {
+        for (int i = 0; i < descending.length; ++i) {
+          final Object value = o1.getValues()[i], otherValue = o2.getValues()[i];
+          final int comparison;
+          if (value == null || otherValue == null) {
+            comparison = value == null ? (otherValue == null ? 0 : -1) : 1;
+          }
+          else {
+            comparison = ProjectionAggregator.compare(value, otherValue);
+          }
+          if (comparison != 0) {
+            return descending[i] ? -comparison : comparison;
+          }
+        }
+        return DistributedResultScanner.compareOriginalRows(o1.getRow(), o2.getRow(), prefixLength);
+      }
+    };
+  }
+
+  protected SortEntry toSortEntry(Result result, List<ProjectedColumn> columns) {
+    final byte[][] cells = new byte[columns.size()][];
+    for (int i = 0; i < cells.length; ++i) {
+      final ProjectedColumn column = columns.get(i);
+      if (!column.getConfig().isFilterOnRowId()) {
+        cells[i] = result.getValue(column.getFamily(), column.getQualifier());
+      }
+    }
+    return toSortEntry(result.getRow(), cells, columns);
+  }
+
+  protected SortEntry toSortEntry(byte[] row, byte[][] cells, List<ProjectedColumn> columns) {
+    final Object[] values = new Object[cells.length];
+    for (int i = 0; i < cells.length; ++i) {
+      final FilterConfig config = columns.get(i).getConfig();
+      final byte[] value = config.isFilterOnRowId() ? toOriginalRowId(row) : cells[i];
+      values[i] = value == null ? null : decodeProjectedValue(config, value);
+    }
+    return new SortEntry(row, cells, values);
+  }
+
+  protected ExternalSortBuffer.EntrySerializer<SortEntry> getSortEntrySerializer(final List<ProjectedColumn> columns) {
+    return new ExternalSortBuffer.EntrySerializer<SortEntry>() {
+
+      @Override
+      public void write(SortEntry entry, DataOutput output) throws IOException {
+        Bytes.writeByteArray(output, entry.getRow());
+        for (byte[] cell : entry.getCells()) {
+          output.writeBoolean(cell != null);
+          if (cell != null) {
+            Bytes.writeByteArray(output, cell);
+          }
+        }
+      }
+
+      @Override
+      public SortEntry read(DataInput input) throws IOException {
+        final byte[] row = Bytes.readByteArray(input);
+        final byte[][] cells = new byte[columns.size()][];
+        for (int i = 0; i < cells.length; ++i) {
+          if (input.readBoolean()) {
+            cells[i] = Bytes.readByteArray(input);
+          }
+        }
+        return toSortEntry(row, cells, columns);
+      }
+    };
+  }
+
+  private static void offer(PriorityQueue<SortEntry> topEntries, SortEntry entry, Comparator<SortEntry> comparator,
+                            int maxRows) {
+    if (topEntries.size() < maxRows) {
+      topEntries.add(entry);
+    }
+    else if (comparator.compare(entry, topEntries.peek()) < 0) {
+      topEntries.poll();
+      topEntries.add(entry);
+    }
+  }
+
+  /**
+   * Convert the byte array of a projected cell or row id back to its value using the codec of its value type.
+   * @param config Filter config of the projected property
+   * @param value The bytes to decode
+   * @return Decoded value
+   */
+  protected Object decodeProjectedValue(FilterConfig config, byte[] value) {
+    return getValueCodec(config).decode(value);
+  }
+
+  /**
+   * Retrieve the codec for values of a property. Properties filtered on row id use the
+   * {@link ValueCodecRegistry#getRowIdCodec(java.lang.String) row id codec} of their value type, so that values match
+   * the row ids formed by the schema info provider.
+   */
+  protected ValueCodec getValueCodec(FilterConfig config) {
+    if (config != null && config.isFilterOnRowId()) {
+      return getValueCodecRegistry().getRowIdCodec(ValueCodecRegistry.getValueType(config));
+    }
+    return getValueCodecRegistry().getCodec(config);
+  }
+
+  protected Object toProjectionResult(Object[] row) {
+    return row.length == 1 ? row[0] : row;
+  }
+
+  @Override
+  public Set<Template> getByIds(List<IdType> ids) {
+    final List<byte[]> rowIds = new ArrayList<byte[]>(ids.size());
+    for (IdType id : ids) {
+      try {
+        rowIds.add(getInfoProvider().getRowIdFromId(id));
+      }
+      catch (Exception ex) {
+        logger.warn("Could not form row id for " + id, ex);
+      }
+    }
+    final Result[] results = getRows(getDefaultTableName(), rowIds, getReadTemplate());
+    final List<Future<Template>> futures = submitConversions(results);
+    final LinkedHashSet<Template> resultSet = new LinkedHashSet<Template>(ids.size());
+    for (Future<Template> future : futures) {
+      try {
+        final Template get = future.get();
+        if (get != null) {
+          resultSet.add(get);
+        }
+      }
+      catch (Exception ex) {
+        logger.warn("Could not retrieve from Future...", ex);
+      }
+    }
+    return resultSet;
+  }
+
+  @Override
+  public Template getById(final IdType id) {
+    if (!isReadCoalescingEnabled()) {
+      return executorService.execute(getDefaultTableName(), getByIdCallback(id));
+    }
+    final byte[] rowId;
+    try {
+      rowId = getInfoProvider().getRowIdFromId(id);
+    }
+    catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+    return getByIdCoalescer.execute(ByteBuffer.wrap(rowId), new Callable<Template>() {
+
+      @Override
+      public Template call() throws Exception {
+        return executorService.execute(getDefaultTableName(), getByIdCallback(id));
+      }
+    });
+  }
+
+  /*
+   * ASYNCHRONOUS OPERATIONS
+   */
+  @Override
+  public ListenableFuture<Template> getByIdAsync(final IdType id) {
+    if (!isReadCoalescingEnabled()) {
+      return executeAsync(getDefaultTableName(), getByIdCallback(id));
+    }
+    return executeAsync(null, new Callback<Template>() {
+
+      @Override
+      public Template call(HTableInterface tableInterface) throws Exception {
+        return getById(id);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Set<Template>> getByIdsAsync(final List<IdType> ids) {
+    return executeAsync(null, new Callback<Set<Template>>() {
+
+      @Override
+      public Set<Template> call(HTableInterface tableInterface) throws Exception {
+        return getByIds(ids);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Template> getSingleAsync(final List<QueryParameter> query) {
+    return executeAsync(null, new Callback<Template>() {
+
+      @Override
+      public Template call(HTableInterface tableInterface) throws Exception {
+        return getSingle(query);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<List<Template>> getListAsync(final List<QueryParameter> query) {
+    return executeAsync(null, new Callback<List<Template>>() {
+
+      @Override
+      public List<Template> call(HTableInterface tableInterface) throws Exception {
+        return getList(query);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> saveAsync(final Template... states) {
+    return executeAsync(null, new Callback<Void>() {
+
+      @Override
+      public Void call(HTableInterface tableInterface) throws Exception {
+        save(states);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> updateAsync(final Template... states) {
+    return executeAsync(null, new Callback<Void>() {
+
+      @Override
+      public Void call(HTableInterface tableInterface) throws Exception {
+        update(states);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> deleteAsync(final Template... states) {
+    return executeAsync(null, new Callback<Void>() {
+
+      @Override
+      public Void call(HTableInterface tableInterface) throws Exception {
+        delete(states);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Execute a long running callback in the calling thread without the executor service's timeout, if the executor
+   * service supports it; otherwise it is executed as any other synchronous execution.
+   */
+  protected <T> T executeInCallingThread(String tableName, Callback<T> callback) {
+    if (executorService instanceof SynchronousExecutorServiceImpl) {
+      return ((SynchronousExecutorServiceImpl) executorService).executeInCallingThread(tableName, callback);
+    }
+    return executorService.execute(tableName, callback);
+  }
+
+  /**
+   * Wait for the result of an asynchronous execution at most the {@link #getExecutionTimeout() execution timeout},
+   * cancelling the execution if it times out.
+   */
+  protected <T> T getResult(Future<T> future) throws InterruptedException, ExecutionException, TimeoutException {
+    try {
+      return future.get(getExecutionTimeout(), TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException ex) {
+      future.cancel(true);
+      throw ex;
+    }
+  }
+
+  /**
+   * Execute the callback asynchronously. The returned future is completed by the callback's execution itself, so no
+   * thread waits for the execution to complete. Synchronous executions issued from within the callback run in the
+   * callback's thread with executor services supporting it, as the asynchronous executor service implementation does,
+   * while its asynchronous executions still fan out. Callbacks that only issue executions of their own are executed
+   * with a null table name, so that no table is borrowed for them.
+   */
+  protected <T> ListenableFuture<T> executeAsync(final String tableName, final Callback<T> callback) {
+    final SettableFuture<T> future = new SettableFuture<T>();
+    try {
+      executorService.executeAsynchronously(tableName, new Callback<T>() {
+
+        @Override
+        public T call(HTableInterface tableInterface) throws Exception {
+          if (future.isCancelled()) {
+            return null;
+          }
+          try {
+            final T result = callback.call(tableInterface);
+            future.set(result);
+            return result;
+          }
+          catch (Exception ex) {
+            future.setException(ex);
+            throw ex;
+          }
+          catch (Error error) {
+            future.setException(error);
+            throw error;
+          }
+        }
+      });
+    }
+    catch (RuntimeException ex) {
+      future.setException(ex);
+    }
+    return future;
+  }
+
+  /**
+   * Fetch rows using batched multi-gets instead of a get per row. Row ids are grouped by the region hosting them and
+   * each group is split into chunks of at most {@link #getBatchGetSize()} gets; chunks are fetched concurrently.
+   * @param tableName The table to fetch the rows from
+   * @param rowIds The rows to fetch
+   * @param firstKeyOnly True if only the existence of the rows are of concern, in which case only the first cell of
+   *                     each row is transferred
+   * @return Results in the order of the row ids. An empty result denotes a missing row.
+   * @throws RuntimeException If any chunk could not be fetched
+   */
+  protected Result[] getRows(final String tableName, final List<byte[]> rowIds, final boolean firstKeyOnly) {
+    final Scan template;
+    if (firstKeyOnly) {
+      template = new Scan();
+      template.setFilter(new FirstKeyOnlyFilter());
+    }
+    else {
+      template = null;
+    }
+    return getRows(tableName, rowIds, template);
+  }
+
+  /**
+   * Fetch rows using batched multi-gets where each get carries the filter and columns of a scan.
+   * @param tableName The table to fetch the rows from
+   * @param rowIds The rows to fetch
+   * @param template The scan whose filter and columns are to be applied to each get, may be null
+   * @return Results in the order of the row ids. An empty result denotes a missing (or filtered out) row.
+   * @throws RuntimeException If any chunk could not be fetched, in which case the other chunks are cancelled
+   * @see #getRows(java.lang.String, java.util.List, boolean)
+   */
+  protected Result[] getRows(final String tableName, final List<byte[]> rowIds, final Scan template) {
+    final Result[] results = new Result[rowIds.size()];
+    if (rowIds.isEmpty()) {
+      return results;
+    }
+    final List<List<Integer>> batches = executorService.execute(tableName, new Callback<List<List<Integer>>>() {
+
+      @Override
+      public List<List<Integer>> call(HTableInterface tableInterface) throws Exception {
+        return partitionByRegion(tableInterface, rowIds);
+      }
+    });
+    final List<Future<Result[]>> futures = new ArrayList<Future<Result[]>>(batches.size());
+    for (final List<Integer> batch : batches) {
+      futures.add(executorService.executeAsynchronously(tableName, new Callback<Result[]>() {
+
+        @Override
+        public Result[] call(HTableInterface tableInterface) throws Exception {
+          final List<Get> gets = new ArrayList<Get>(batch.size());
+          for (Integer index : batch) {
+            gets.add(toGet(rowIds.get(index), template));
+          }
+          if (logger.isDebugEnabled()) {
+            logger.debug("Fetching batch of " + gets.size() + " rows from " + tableName);
+          }
+          return tableInterface.get(gets);
+        }
+      }));
+    }
+    for (int i = 0; i < batches.size(); ++i) {
+      final List<Integer> batch = batches.get(i);
+      try {
+        final Result[] batchResults = getResult(futures.get(i));
+        for (int j = 0; j < batch.size() && j < batchResults.length; ++j) {
+          results[batch.get(j)] = batchResults[j];
+        }
+      }
+      catch (Exception ex) {
+        for (Future<Result[]> future : futures.subList(i + 1, futures.size())) {
+          future.cancel(true);
+        }
+        throw new RuntimeException("Could not fetch batch of rows from " + tableName, ex);
+      }
+    }
+    return results;
+  }
+
+  protected Get toGet(byte[] row, Scan template) throws IOException {
+    final Get get = new Get(row);
+    if (template != null) {
+      if (template.getFilter() != null) {
+        get.setFilter(template.getFilter());
+      }
+      for (Map.Entry<byte[], NavigableSet<byte[]>> family : template.getFamilyMap().entrySet()) {
+        if (family.getValue() == null || family.getValue().isEmpty()) {
+          get.addFamily(family.getKey());
+        }
+        else {
+          for (byte[] qualifier : family.getValue()) {
+            get.addColumn(family.getKey(), qualifier);
+          }
+        }
+      }
+      get.setMaxVersions(template.getMaxVersions());
+    }
+    return get;
+  }
+
+  /**
+   * Partition row ids into chunks of row indices, where each chunk only contains rows from a single region and has at
+   * most {@link #getBatchGetSize()} rows.
+   */
+  protected List<List<Integer>> partitionByRegion(HTableInterface tableInterface, List<byte[]> rowIds) throws
+      IOException {
+    final int batchSize = getBatchGetSize();
+    final Map<String, List<Integer>> openBatches = new HashMap<String, List<Integer>>();
+    final List<List<Integer>> batches = new ArrayList<List<Integer>>();
+    for (int i = 0; i < rowIds.size(); ++i) {
+      final String region = getRegionName(tableInterface, rowIds.get(i));
+      List<Integer> batch = openBatches.get(region);
+      if (batch == null) {
+        batch = new ArrayList<Integer>(batchSize);
+        openBatches.put(region, batch);
+        batches.add(batch);
+      }
+      batch.add(i);
+      if (batch.size() >= batchSize) {
+        openBatches.remove(region);
+      }
+    }
+    return batches;
+  }
+
+  protected String getRegionName(HTableInterface tableInterface, byte[] row) throws IOException {
+    if (tableInterface instanceof HTable) {
+      return ((HTable) tableInterface).getRegionLocation(row).getRegionInfo().getEncodedName();
+    }
+    return "";
+  }
+
+  protected List<Future<Template>> submitConversions(Result[] results) {
+    final List<Future<Template>> futureTemplates = new ArrayList<Future<Template>>(results.length);
+    for (final Result result : results) {
+      if (result == null || result.isEmpty()) {
+        logger.debug("Result is null or empty " + result + " " + (result != null ? result.isEmpty() : "TRUE"));
+        continue;
+      }
+      futureTemplates.add(resultExecutorService.submit(new Callable<Template>() {
+
+        @Override
+        public Template call() throws Exception {
+          logger.debug("Converting row to object " + result);
+          return getConverter().rowsToObject(result, executorService);
+        }
+      }));
+    }
+    return futureTemplates;
+  }
+
+  protected Callback<Template> getByIdCallback(final IdType id) {
+    return new Callback<Template>() {
+
+      @Override
+      public Template call(HTableInterface tableInterface) throws Exception {
+        final byte[] rowId = getInfoProvider().getRowIdFromId(id);
+        Get get = toGet(rowId, getReadTemplate());
+        Result result = tableInterface.get(get);
+        if (result == null || result.isEmpty()) {
+          return null;
+        }
+        else {
+          return getConverter().rowsToObject(result, executorService);
+        }
+      }
+    };
+  }
+
+  @Override
+  public Template getSingle(final List<QueryParameter> query) {
+    final Scan scan = formReadScan(query);
+    final List<QueryParameter> orders = getOrderByParams(query);
+    if (!isInRowOrder(orders)) {
+      final List<Template> templates = getListByPointGets(getTopRows(query, orders, 1), scan, 1);
+      return templates.isEmpty() ? null : templates.get(0);
+    }
+    final List<byte[]> pointRows = getPointGetRows(query, scan);
+    if (pointRows != null) {
+      final List<Template> templates = getListByPointGets(pointRows, scan, 1);
+      return templates.isEmpty() ? null : templates.get(0);
+    }
+    return executorService.execute(getDefaultTableName(), new Callback<Template>() {
+
+      @Override
+      public Template call(HTableInterface tableInterface) throws Exception {
+        ResultScanner scanner = getScanner(tableInterface, scan);
+        try {
+          Result result = scanner.next();
+          if (result == null || result.isEmpty()) {
+            return null;
+          }
+          else {
+            return getConverter().rowsToObject(result, executorService);
+          }
+        }
+        finally {
+          if (scanner != null) {
+            scanner.close();
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public List<Template> getList(final List<QueryParameter> query) {
+    final Scan scan = formReadScan(query);
+    final int maxRows = getMaxScanRows(query);
+    final List<QueryParameter> orders = getOrderByParams(query);
+    if (!isInRowOrder(orders)) {
+      return getListByPointGets(getTopRows(query, orders, maxRows), scan, maxRows);
+    }
+    final List<byte[]> pointRows = getPointGetRows(query, scan);
+    if (pointRows != null) {
+      return getListByPointGets(pointRows, scan, maxRows);
+    }
+    if (isParallelScanEnabled()) {
+      return parallelScanList(scan, maxRows);
+    }
+    return executorService.execute(getDefaultTableName(), new Callback<List<Template>>() {
+
+      @Override
+      public List<Template> call(HTableInterface tableInterface) throws Exception {
+        return CommonDao.this.scanList(tableInterface, scan, maxRows);
+      }
+    });
+  }
+
+  /**
+   * Read the rows with batched gets carrying the scan's filter and columns, instead of scanning. The rows are read in
+   * batches of {@link #getScanCaching() scan caching} rows till max rows objects are read, so that rows filtered out
+   * are compensated for without reading all the rows when only a few objects are required.
+   * @param rows The sorted rows to read
+   * @param scan The planned scan
+   * @param maxRows Maximum number of objects to return
+   * @return Objects of matching rows in row order
+   */
+  protected List<Template> getListByPointGets(List<byte[]> rows, Scan scan, int maxRows) {
+    if (rows.isEmpty() || maxRows <= 0) {
+      return Collections.emptyList();
+    }
+    final int batchSize = Math.max(1, Math.min(maxRows, getScanCaching()));
+    final List<Template> templates = new ArrayList<Template>(Math.min(rows.size(), maxRows));
+    for (int offset = 0; offset < rows.size() && templates.size() < maxRows; offset += batchSize) {
+      final List<byte[]> batch = rows.subList(offset, Math.min(rows.size(), offset + batchSize));
+      final Result[] results = getRows(getDefaultTableName(), batch, scan);
+      for (Future<Template> future : submitConversions(results)) {
+        if (templates.size() >= maxRows) {
+          future.cancel(false);
+          continue;
+        }
+        try {
+          final Template template = future.get();
+          if (template != null) {
+            templates.add(template);
+          }
+        }
+        catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    }
+    return templates;
+  }
+
+  /**
+   * Open a lazy cursor over all the rows matching the query. Unlike {@link #getList(java.util.List)} the rows are not
+   * limited by the max rows configured for this DAO, only an explicit max result in the query will limit the cursor.
+   * Rows are read from HBase in batches of {@link #getCursorPrefetchRows()} as the cursor is iterated. The caller must
+   * close the cursor if it does not iterate it till the end. If the query orders by anything other than row id the
+   * matching rows are sorted, spilling to disk if required, before the cursor is returned.
+   * @param query The query to scan with
+   * @return A cursor for the rows matching the query
+   */
+  public ScanCursor<Template> getCursor(final List<QueryParameter> query) {
+    final List<QueryParameter> orders = getOrderByParams(query);
+    if (!isInRowOrder(orders)) {
+      return openSortedCursor(query, orders);
+    }
+    return executorService.execute(getDefaultTableName(), new Callback<ScanCursor<Template>>() {
+
+      @Override
+      public ScanCursor<Template> call(HTableInterface tableInterface) throws Exception {
+        final Scan scan = formReadScan(query);
+        return openCursor(tableInterface, scan, getMaxResult(query));
+      }
+    });
+  }
+
+  public ScanCursor<Template> getCursor(QueryParameter... query) {
+    return getCursor(Arrays.asList(query));
+  }
+
+  /**
+   * Open a cursor with the scan. The scanner retains its own lease with the region servers so the table interface may
+   * be released once the cursor is opened.
+   */
+  protected ScanCursor<Template> openCursor(HTableInterface tableInterface, Scan scan, int maxResult) throws
+      IOException {
+    final int prefetchRows = getCursorPrefetchRows();
+    scan.setCaching(prefetchRows);
+    if (logger.isDebugEnabled()) {
+      logger.debug("Opening cursor with prefetch " + prefetchRows + " and max rows " + maxResult);
+    }
+    return new ResultScannerCursor<Template>(getScanner(tableInterface, scan), getConverter(), executorService,
+                                             resultExecutorService, prefetchRows, maxResult);
+  }
+
+  protected LockType getLockType() {
+    if (lockType == null) {
+      return LockType.getDefault();
+    }
+    return lockType;
+  }
+
+  /**
+   * Scan a list in batches of {@link #getScanCaching() scan caching} rows, fetching the next batch while the rows of
+   * the current one are being converted.
+   * @see ResultBatchPrefetcher
+   */
+  protected List<Template> scanList(HTableInterface tableInterface, Scan scan, int maxRows) throws IOException,
+                                                                                                   InterruptedException,
+                                                                                                   ExecutionException {
+    logger.info("Scanning a list");
+    if (logger.isDebugEnabled()) {
+      logger.debug("Scanning for rows " + maxRows);
+    }
+    final int batchSize = Math.max(1, Math.min(maxRows, getScanCaching()));
+    scan.setCaching(batchSize);
+    ResultBatchPrefetcher scanner = new ResultBatchPrefetcher(getScanner(tableInterface, scan), resultExecutorService,
+                                                              batchSize, maxRows, getScanPrefetchMaxBytes());
+    try {
+      final ArrayList<Template> templates = new ArrayList<Template>();
+      for (Result[] results = scanner.nextBatch(); results.length > 0; results = scanner.nextBatch()) {
+        for (Future<Template> future : submitConversions(results)) {
+          Template template = future.get();
+          if (template != null) {
+            templates.add(template);
+          }
+        }
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Results " + scanner.getRowsFetched());
+      }
+      return templates;
+    }
+    catch (IOException ex) {
+      logger.warn(ex.getMessage(), ex);
+      throw ex;
+    }
+    catch (InterruptedException ex) {
+      logger.warn(ex.getMessage(), ex);
+      throw ex;
+    }
+    catch (ExecutionException ex) {
+      logger.warn(ex.getMessage(), ex);
+      throw ex;
+    }
+    finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+    }
+  }
+
+  /**
+   * Scan the regions overlapping the scan's row range concurrently, one sub-scan per region on the async executor.
+   * Since the sub-scans cover disjoint row ranges and are merged in region order the result retains row key order.
+   * The row limit is shared by the regions of a bucket, see {@link #readRegionRows}, so later regions stop reading
+   * once earlier regions provide the rows. Conversion of a region's rows starts as soon as its sub-scan completes. If
+   * rows are distributed into buckets the rows of the buckets are streamed through a
+   * {@link DistributedResultScanner merge} in order of their original row ids, so only as many rows are merged as are
+   * returned and the reads of regions not reached are cancelled.
+   * @param scan The scan to split
+   * @param maxRows Maximum number of rows to read in total
+   * @return Objects of the rows read, in row order
+   */
+  protected List<Template> parallelScanList(final Scan scan, final int maxRows) {
+    final String tableName = getDefaultTableName();
+    final List<List<Scan>> bucketSubScans = executorService.execute(tableName, new Callback<List<List<Scan>>>() {
+
+      @Override
+      public List<List<Scan>> call(HTableInterface tableInterface) throws Exception {
+        return splitScanByBucketAndRegion(tableInterface, scan);
+      }
+    });
+    final List<Future<Result[]>> futures = new ArrayList<Future<Result[]>>();
+    final List<List<Future<Result[]>>> bucketFutures = new ArrayList<List<Future<Result[]>>>(bucketSubScans.size());
+    for (List<Scan> subScans : bucketSubScans) {
+      final List<Future<Result[]>> regionFutures = new ArrayList<Future<Result[]>>(subScans.size());
+      final AtomicIntegerArray rowCounts = new AtomicIntegerArray(subScans.size());
+      for (int i = 0; i < subScans.size(); ++i) {
+        final Scan subScan = subScans.get(i);
+        final int index = i;
+        subScan.setCaching(Math.max(1, Math.min(maxRows, getCursorPrefetchRows())));
+        regionFutures.add(executorService.executeAsynchronously(tableName, new Callback<Result[]>() {
+
+          @Override
+          public Result[] call(HTableInterface tableInterface) throws Exception {
+            return readRegionRows(tableInterface, subScan, rowCounts, index, maxRows);
+          }
+        }));
+      }
+      futures.addAll(regionFutures);
+      bucketFutures.add(regionFutures);
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Scanning " + futures.size() + " regions in parallel for rows " + maxRows);
+    }
+    final List<Future<Template>> futureTemplates = new ArrayList<Future<Template>>();
+    int rowsRead = 0;
+    try {
+      if (getRowIdDistributor() != null) {
+        final List<ResultScanner> bucketScanners = new ArrayList<ResultScanner>(bucketFutures.size());
+        for (List<Future<Result[]>> regionFutures : bucketFutures) {
+          bucketScanners.add(new FutureResultScanner(regionFutures, getExecutionTimeout()));
+        }
+        final ResultScanner merged = new DistributedResultScanner(bucketScanners, getRowIdPrefixLength());
+        try {
+          futureTemplates.addAll(submitConversions(merged.next(maxRows)));
+        }
+        finally {
+          merged.close();
+        }
+        futures.clear();
+      }
+      for (Future<Result[]> future : futures) {
+        if (rowsRead >= maxRows) {
+          future.cancel(false);
+          continue;
+        }
+        Result[] results = getResult(future);
+        if (results.length > maxRows - rowsRead) {
+          results = Arrays.copyOf(results, maxRows - rowsRead);
+        }
+        rowsRead += results.length;
+        futureTemplates.addAll(submitConversions(results));
+      }
+      final List<Template> templates = new ArrayList<Template>(futureTemplates.size());
+      for (Future<Template> future : futureTemplates) {
+        final Template template = future.get();
+        if (template != null) {
+          templates.add(template);
+        }
+      }
+      return templates;
+    }
+    catch (Exception ex) {
+      for (Future<Result[]> future : futures) {
+        future.cancel(true);
+      }
+      for (Future<Template> future : futureTemplates) {
+        future.cancel(true);
+      }
+      logger.warn(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Read the rows of a region's sub-scan in batches of its caching. A region only needs the rows that the regions
+   * before it in the same bucket do not provide, so reading stops once the rows read by those regions and this one
+   * reach the limit. Counts of the earlier regions only grow, hence a region never reads fewer rows than needed.
+   * @param tableInterface Table to scan
+   * @param subScan Sub-scan of the region
+   * @param rowCounts Rows read so far by each region of the bucket, in row order
+   * @param index Index of the region in the bucket
+   * @param maxRows Maximum number of rows to read in total for the bucket
+   * @return Rows read from the region
+   */
+  protected Result[] readRegionRows(HTableInterface tableInterface, Scan subScan, AtomicIntegerArray rowCounts,
+                                    int index, int maxRows) throws IOException {
+    final List<Result> results = new ArrayList<Result>();
+    int rowsNeeded = maxRows - getRowsBefore(rowCounts, index);
+    if (rowsNeeded <= 0) {
+      return new Result[0];
+    }
+    final ResultScanner scanner = tableInterface.getScanner(subScan);
+    try {
+      final int batchSize = Math.max(1, subScan.getCaching());
+      while (results.size() < rowsNeeded) {
+        final Result[] batch = scanner.next(Math.min(batchSize, rowsNeeded - results.size()));
+        if (batch == null || batch.length == 0) {
+          break;
+        }
+        results.addAll(Arrays.asList(batch));
+        rowCounts.set(index, results.size());
+        rowsNeeded = maxRows - getRowsBefore(rowCounts, index);
+      }
+    }
+    finally {
+      scanner.close();
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  private static int getRowsBefore(AtomicIntegerArray rowCounts, int index) {
+    int rows = 0;
+    for (int i = 0; i < index; ++i) {
+      rows += rowCounts.get(i);
+    }
+    return rows;
+  }
+
+  /**
+   * Split a scan into one scan per region overlapping its row range. If rows are distributed into buckets the scan is
+   * first distributed into one scan per bucket, so the sub-scans are not in order of original row ids.
+   */
+  protected List<Scan> splitScanByRegion(HTableInterface tableInterface, Scan scan) throws IOException {
+    final List<Scan> scans = new ArrayList<Scan>();
+    for (List<Scan> subScans : splitScanByBucketAndRegion(tableInterface, scan)) {
+      scans.addAll(subScans);
+    }
+    return scans;
+  }
+
+  /**
+   * Split a scan into one scan per region overlapping its row range, grouped by bucket. Sub-scans of a bucket are in
+   * row order.
+   */
+  protected List<List<Scan>> splitScanByBucketAndRegion(HTableInterface tableInterface, Scan scan) throws IOException {
+    final List<Scan> bucketScans = distributeScan(scan);
+    final List<List<Scan>> scans = new ArrayList<List<Scan>>(bucketScans.size());
+    if (!(tableInterface instanceof HTable)) {
+      for (Scan bucketScan : bucketScans) {
+        scans.add(Collections.singletonList(bucketScan));
+      }
+      return scans;
+    }
+    final Pair<byte[][], byte[][]> keys = ((HTable) tableInterface).getStartEndKeys();
+    for (Scan bucketScan : bucketScans) {
+      final List<Scan> subScans = new ArrayList<Scan>();
+      for (Pair<byte[], byte[]> range : splitRowRange(bucketScan.getStartRow(), bucketScan.getStopRow(), keys.
+          getFirst(), keys.getSecond())) {
+        final Scan subScan = new Scan(bucketScan);
+        subScan.setStartRow(range.getFirst());
+        subScan.setStopRow(range.getSecond());
+        subScans.add(subScan);
+      }
+      scans.add(subScans);
+    }
+    return scans;
+  }
+
+  /*
+   * Row id distribution
+   */
+  protected RowIdDistributor getRowIdDistributor() {
+    if (!(getInfoProvider() instanceof RowIdDistributorProvider)) {
+      return null;
+    }
+    return ((RowIdDistributorProvider) getInfoProvider()).getRowIdDistributor();
+  }
+
+  /**
+   * Length of the bucket prefix of row ids, 0 if rows are not distributed.
+   */
+  protected int getRowIdPrefixLength() {
+    final RowIdDistributor distributor = getRowIdDistributor();
+    return distributor == null ? 0 : distributor.getAllPrefixes()[0].length;
+  }
+
+  protected byte[] toOriginalRowId(byte[] rowId) {
+    final RowIdDistributor distributor = getRowIdDistributor();
+    return distributor == null ? rowId : distributor.getOriginalRowId(rowId);
+  }
+
+  protected byte[] toDistributedRowId(byte[] originalRowId) {
+    final RowIdDistributor distributor = getRowIdDistributor();
+    return distributor == null ? originalRowId : distributor.getDistributedRowId(originalRowId);
+  }
+
+  /**
+   * Distribute a scan, whose row range is of original row ids, into one scan per bucket. Without a row id distributor
+   * the scan itself is returned.
+   * @param scan The scan to distribute
+   * @return Scans with non-empty row ranges in order of buckets
+   */
+  protected List<Scan> distributeScan(Scan scan) throws IOException {
+    final RowIdDistributor distributor = getRowIdDistributor();
+    if (distributor == null) {
+      return Collections.singletonList(scan);
+    }
+    final byte[] startRow = scan.getStartRow();
+    final byte[] stopRow = scan.getStopRow();
+    final List<Scan> scans = new ArrayList<Scan>();
+    if (stopRow.length > 0 && Bytes.compareTo(startRow, stopRow) >= 0) {
+      return scans;
+    }
+    for (byte[] prefix : distributor.getAllPrefixes()) {
+      final Scan bucketScan = new Scan(scan);
+      bucketScan.setStartRow(Bytes.add(prefix, startRow));
+      bucketScan.setStopRow(stopRow.length > 0 ? Bytes.add(prefix, stopRow) : getPrefixStopRow(prefix));
+      scans.add(bucketScan);
+    }
+    return scans;
+  }
+
+  /**
+   * Open a scanner with a scan whose row range is of original row ids. If rows are distributed into buckets all the
+   * buckets are scanned and merged so that rows are still returned in order of their original row ids.
+   */
+  protected ResultScanner getScanner(HTableInterface tableInterface, Scan scan) throws IOException {
+    if (getRowIdDistributor() == null) {
+      return tableInterface.getScanner(scan);
+    }
+    final List<Scan> scans = distributeScan(scan);
+    final List<ResultScanner> scanners = new ArrayList<ResultScanner>(scans.size());
+    try {
+      for (Scan bucketScan : scans) {
+        scanners.add(tableInterface.getScanner(bucketScan));
+      }
+    }
+    catch (IOException ex) {
+      for (ResultScanner scanner : scanners) {
+        scanner.close();
+      }
+      throw ex;
+    }
+    return new DistributedResultScanner(scanners, getRowIdPrefixLength());
+  }
+
+  /**
+   * Intersect a row range with region boundaries.
+   * @param startRow Inclusive start row, empty for the first row
+   * @param stopRow Exclusive stop row, empty for past the last row
+   * @param regionStartKeys Start keys of the regions in order
+   * @param regionEndKeys End keys of the regions in order
+   * @return Non-empty row ranges, one per overlapping region, in row order
+   */
+  protected static List<Pair<byte[], byte[]>> splitRowRange(byte[] startRow, byte[] stopRow, byte[][] regionStartKeys,
+                                                           byte[][] regionEndKeys) {
+    final List<Pair<byte[], byte[]>> ranges = new ArrayList<Pair<byte[], byte[]>>(regionStartKeys.length);
+    for (int i = 0; i < regionStartKeys.length; ++i) {
+      final byte[] rangeStart = getHigherStartRow(startRow, regionStartKeys[i]);
+      final byte[] rangeStop = getLowerStopRow(stopRow, regionEndKeys[i]);
+      if (rangeStop.length > 0 && Bytes.compareTo(rangeStart, rangeStop) >= 0) {
+        continue;
+      }
+      ranges.add(new Pair<byte[], byte[]>(rangeStart, rangeStop));
+    }
+    return ranges;
+  }
+
+  protected Scan formScan(List<QueryParameter> query) {
+    Scan scan = new Scan();
+    final Filter filter = getFilter(query, scan);
+    if (filter != null) {
+      scan.setFilter(filter);
+    }
+    planRowRange(query, scan);
+    return scan;
+  }
+
+  /**
+   * Form the scan to read objects with, i.e. the scan of the query restricted to the columns of the read profile.
+   */
+  protected Scan formReadScan(List<QueryParameter> query) {
+    final Scan scan = formScan(query);
+    applyReadProfile(scan);
+    return scan;
+  }
+
+  /**
+   * Retrieve the columns the {@link ColumnProjectionProvider converter or schema info provider} requires for the read
+   * profile of this DAO. The converter is consulted first and the schema info provider only if the converter does not
+   * restrict the columns, as converters by default require all columns.
+   * @return Required columns or null if all columns are required
+   */
+  protected Map<byte[], NavigableSet<byte[]>> getRequiredColumns() {
+    Map<byte[], NavigableSet<byte[]>> columns = null;
+    if (getConverter() instanceof ColumnProjectionProvider) {
+      columns = ((ColumnProjectionProvider) getConverter()).getRequiredColumns(getReadProfile());
+    }
+    if ((columns == null || columns.isEmpty()) && getInfoProvider() instanceof ColumnProjectionProvider) {
+      columns = ((ColumnProjectionProvider) getInfoProvider()).getRequiredColumns(getReadProfile());
+    }
+    return columns == null || columns.isEmpty() ? null : columns;
+  }
+
+  /**
+   * Restrict the scan to the columns required for the read profile, along with the version column and the columns its
+   * filter tests. Columns explicitly added to the scan, e.g. by unit property projection, take precedence over the
+   * read profile. If the filter tests columns in a way that can not be determined then all columns are read.
+   * @param scan The scan to restrict
+   */
+  protected void applyReadProfile(Scan scan) {
+    final Map<byte[], NavigableSet<byte[]>> columns = getRequiredColumns();
+    if (columns == null || scan.hasFamilies()) {
+      return;
+    }
+    final List<SingleColumnValueFilter> columnFilters = new ArrayList<SingleColumnValueFilter>();
+    if (!collectColumnFilters(scan.getFilter(), columnFilters)) {
+      return;
+    }
+    for (Map.Entry<byte[], NavigableSet<byte[]>> family : columns.entrySet()) {
+      if (family.getValue() == null || family.getValue().isEmpty()) {
+        scan.addFamily(family.getKey());
+      }
+      else {
+        for (byte[] qualifier : family.getValue()) {
+          addColumn(scan, family.getKey(), qualifier);
+        }
+      }
+    }
+    for (SingleColumnValueFilter columnFilter : columnFilters) {
+      addColumn(scan, columnFilter.getFamily(), columnFilter.getQualifier());
+    }
+    final byte[] versionFamily = getInfoProvider().getVersionColumnFamily();
+    final byte[] versionQualifier = getInfoProvider().getVersionColumnQualifier();
+    if (versionFamily != null && versionQualifier != null) {
+      addColumn(scan, versionFamily, versionQualifier);
+    }
+  }
+
+  /**
+   * Retrieve a scan with only the columns of the read profile to use as template for gets.
+   * @return The template or null if all columns are to be read
+   */
+  protected Scan getReadTemplate() {
+    final Scan template = new Scan();
+    applyReadProfile(template);
+    return template.hasFamilies() ? template : null;
+  }
+
+  /**
+   * Add a column to the scan unless its whole family is already added.
+   */
+  protected static void addColumn(Scan scan, byte[] family, byte[] qualifier) {
+    final Map<byte[], NavigableSet<byte[]>> familyMap = scan.getFamilyMap();
+    if (familyMap.containsKey(family) && (familyMap.get(family) == null || familyMap.get(family).isEmpty())) {
+      return;
+    }
+    scan.addColumn(family, qualifier);
+  }
+
+  /**
+   * Narrow the scan to the row range implied by the row id predicates of the query, so that region servers only read
+   * the key range of interest. Only predicates that must pass, i.e. not ones inside a disjunction, are considered. The
+   * row filters are retained in the scan, so the range is purely an optimization.
+   * @param query The query to plan
+   * @param scan The scan to set start and stop rows of
+   */
+  protected void planRowRange(List<QueryParameter> query, Scan scan) {
+    final Pair<byte[], byte[]> range = new Pair<byte[], byte[]>(scan.getStartRow(), scan.getStopRow());
+    for (QueryParameter param : getRowIdParams(query)) {
+      narrowRange(range, getInfoProvider().getFilterConfig(getPropertyName("", param)), param);
+    }
+    final byte[] startRow = range.getFirst();
+    final byte[] stopRow = range.getSecond();
+    /*
+     * An empty range is kept inverted, i.e. stop row before start row, as a region scanner stops at the first row not
+     * before the stop row. It must not be collapsed to start row equal to stop row since that is a single row get scan.
+     */
+    if (logger.isDebugEnabled()) {
+      logger.debug("Planned row range [" + Bytes.toStringBinary(startRow) + ", " + Bytes.toStringBinary(stopRow) + ")");
+    }
+    scan.setStartRow(startRow);
+    scan.setStopRow(stopRow);
+  }
+
+  /**
+   * Narrow a key range to the keys a predicate on a property can match, if the predicate can be turned into a range.
+   * Values are compared in the byte array form they are stored in.
+   * @param range Inclusive start and exclusive stop key of the range, an empty stop key denotes no upper bound
+   * @param config Filter config of the property
+   * @param param The predicate
+   */
+  protected void narrowRange(Pair<byte[], byte[]> range, FilterConfig config, QueryParameter param) {
+    final OperatorType operator = getOperator(param);
+    if (operator == null) {
+      return;
+    }
+    byte[] startRow = range.getFirst();
+    byte[] stopRow = range.getSecond();
+    switch (operator) {
+      case OPERATOR_EQUAL: {
+        final byte[] value = toBytes(config, getValue(param));
+        startRow = getHigherStartRow(startRow, value);
+        stopRow = getLowerStopRow(stopRow, getRowAfter(value));
+        break;
+      }
+      case OPERATOR_GREATER: {
+        startRow = getHigherStartRow(startRow, getRowAfter(toBytes(config, getValue(param))));
+        break;
+      }
+      case OPERATOR_GREATER_EQUAL: {
+        startRow = getHigherStartRow(startRow, toBytes(config, getValue(param)));
+        break;
+      }
+      case OPERATOR_LESSER: {
+        stopRow = getLowerStopRow(stopRow, toBytes(config, getValue(param)));
+        break;
+      }
+      case OPERATOR_LESSER_EQUAL: {
+        stopRow = getLowerStopRow(stopRow, getRowAfter(toBytes(config, getValue(param))));
+        break;
+      }
+      case OPERATOR_BETWEEN: {
+        startRow = getHigherStartRow(startRow, toBytes(config, getFirstParameter(param)));
+        stopRow = getLowerStopRow(stopRow, getRowAfter(toBytes(config, getSecondParameter(param))));
+        break;
+      }
+      case OPERATOR_STRING_LIKE: {
+        final MatchMode matchMode = getMatchMode(param);
+        final byte[] value = Bytes.toBytes(getValue(param).toString());
+        if (MatchMode.START.equals(matchMode)) {
+          startRow = getHigherStartRow(startRow, value);
+          stopRow = getLowerStopRow(stopRow, getPrefixStopRow(value));
+        }
+        else if (matchMode == null || MatchMode.EXACT.equals(matchMode)) {
+          startRow = getHigherStartRow(startRow, value);
+          stopRow = getLowerStopRow(stopRow, getRowAfter(value));
+        }
+        break;
+      }
+      default:
+      //Can not be turned into a range
+    }
+    range.setFirst(startRow);
+    range.setSecond(stopRow);
+  }
+
+  /**
+   * Row ids to read with point gets instead of a scan, if the query restricts the row id with
+   * {@link OperatorType#OPERATOR_IS_IN} or else if a {@link #getIndexedRows(java.util.List, Scan) secondary index}
+   * answers it.
+   * @param query The query to check
+   * @param scan The planned scan whose row range the rows must fall within
+   * @return Sorted distinct row ids, distributed into buckets if rows are, or null if the query is to be scanned
+   */
+  protected List<byte[]> getPointGetRows(List<QueryParameter> query, Scan scan) {
+    Set<byte[]> rows = null;
+    for (QueryParameter param : getRowIdParams(query)) {
+      if (!OperatorType.OPERATOR_IS_IN.equals(getOperator(param))) {
+        continue;
+      }
+      final FilterConfig config = getInfoProvider().getFilterConfig(getPropertyName("", param));
+      final Set<byte[]> inRows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      for (Object value : QueryParameterCastHelper.MULTI_OPERAND_PARAM_HELPER.cast(param).getValues()) {
+        inRows.add(toBytes(config, value));
+      }
+      if (rows == null) {
+        rows = inRows;
+      }
+      else {
+        rows.retainAll(inRows);
+      }
+    }
+    if (rows == null) {
+      return getIndexedRows(query, scan);
+    }
+    final byte[] startRow = scan.getStartRow();
+    final byte[] stopRow = scan.getStopRow();
+    final List<byte[]> rowIds = new ArrayList<byte[]>(rows.size());
+    for (byte[] row : rows) {
+      if (Bytes.compareTo(row, startRow) >= 0 && (stopRow.length == 0 || Bytes.compareTo(row, stopRow) < 0)) {
+        rowIds.add(toDistributedRowId(row));
+      }
+    }
+    return rowIds;
+  }
+
+  /**
+   * Collect the property parameters on row id which all must pass for a row to match.
+   */
+  protected List<QueryParameter> getRowIdParams(Collection<QueryParameter> query) {
+    final List<QueryParameter> params = new ArrayList<QueryParameter>();
+    if (query == null) {
+      return params;
+    }
+    for (QueryParameter param : query) {
+      if (ParameterType.PARAMETER_TYPE_CONJUNCTION.equals(param.getParameterType())) {
+        params.addAll(getRowIdParams(QueryParameterCastHelper.BASIC_COMPOUND_PARAM_HELPER.cast(param).
+            getNestedParameters()));
+      }
+      else if (ParameterType.PARAMETER_TYPE_PROPERTY.equals(param.getParameterType())) {
+        final FilterConfig config = getInfoProvider().getFilterConfig(getPropertyName("", param));
+        if (config != null && config.isFilterOnRowId()) {
+          params.add(param);
+        }
+      }
+    }
+    return params;
+  }
+
+  /*
+   * Secondary indexes
+   */
+  /**
+   * Retrieve the secondary indexes maintained by the {@link #getSecondaryIndexService() secondary index service}.
+   * @return Index configurations mapped by the names of the properties they index
+   */
+  protected Map<String, IndexConfig> getIndexConfigs() {
+    return getSecondaryIndexService().getIndexConfigs();
+  }
+
+  /**
+   * Row ids to read with point gets, looked up from the secondary indexes of the properties the query restricts. Value
+   * indexes are preferred over n-gram indexes. The rows are read with the scan's filter, so index entries left stale
+   * by failed writes, or n-grams matching rows that do not match the exact predicate, never match.
+   * @param query The query to check
+   * @param scan The planned scan whose row range the rows must fall within
+   * @return Sorted distinct row ids as stored, or null if no index applies, the index could not be read or matches
+   *         more than {@link #getIndexScanMaxRows() index scan max rows}
+   * @see #getValueIndexEntries(java.util.List, java.util.Map)
+   * @see #getNgramIndexEntries(java.util.List, java.util.Map)
+   */
+  protected List<byte[]> getIndexedRows(List<QueryParameter> query, Scan scan) {
+    final Map<String, IndexConfig> valueIndexes = new LinkedHashMap<String, IndexConfig>();
+    final Map<String, IndexConfig> ngramIndexes = new LinkedHashMap<String, IndexConfig>();
+    for (Map.Entry<String, IndexConfig> index : getIndexConfigs().entrySet()) {
+      if (index.getValue().isNgramIndex()) {
+        ngramIndexes.put(index.getKey(), index.getValue());
+      }
+      else {
+        valueIndexes.put(index.getKey(), index.getValue());
+      }
+    }
+    Set<byte[]> storedRows = valueIndexes.isEmpty() ? null : getValueIndexEntries(query, valueIndexes);
+    if (storedRows == null && !ngramIndexes.isEmpty()) {
+      storedRows = getNgramIndexEntries(query, ngramIndexes);
+    }
+    if (storedRows == null) {
+      return null;
+    }
+    final byte[] startRow = scan.getStartRow();
+    final byte[] stopRow = scan.getStopRow();
+    final Map<byte[], byte[]> rows = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+    for (byte[] storedRow : storedRows) {
+      final byte[] row = toOriginalRowId(storedRow);
+      if (Bytes.compareTo(row, startRow) >= 0 && (stopRow.length == 0 || Bytes.compareTo(row, stopRow) < 0)) {
+        rows.put(row, storedRow);
+      }
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Secondary index matched " + rows.size() + " rows");
+    }
+    return new ArrayList<byte[]>(rows.values());
+  }
+
+  /**
+   * Look up the rows of a value index of a property restricted by must pass {@link OperatorType#OPERATOR_EQUAL equal},
+   * {@link OperatorType#OPERATOR_IS_IN is in} or range predicates. Equal and is in predicates are looked up with gets
+   * of the index rows and are preferred over ranges, which are looked up with a scan of the index table.
+   * @return Row ids as stored or null if no index applies, the index could not be read or the values or range match
+   *         more than {@link #getIndexScanMaxRows() index scan max rows}
+   */
+  protected Set<byte[]> getValueIndexEntries(List<QueryParameter> query, Map<String, IndexConfig> indexes) {
+    final Map<String, Pair<byte[], byte[]>> ranges = new LinkedHashMap<String, Pair<byte[], byte[]>>();
+    final Map<String, Set<byte[]>> values = new LinkedHashMap<String, Set<byte[]>>();
+    for (QueryParameter param : getIndexedParams(query, indexes.keySet())) {
+      final String propertyName = getPropertyName("", param);
+      final FilterConfig config = getInfoProvider().getFilterConfig(propertyName);
+      Pair<byte[], byte[]> range = ranges.get(propertyName);
+      if (range == null) {
+        range = new Pair<byte[], byte[]>(HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+        ranges.put(propertyName, range);
+      }
+      narrowRange(range, config, param);
+      final Set<byte[]> paramValues = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      if (OperatorType.OPERATOR_EQUAL.equals(getOperator(param))) {
+        paramValues.add(toBytes(config, getValue(param)));
+      }
+      else if (OperatorType.OPERATOR_IS_IN.equals(getOperator(param))) {
+        for (Object value : QueryParameterCastHelper.MULTI_OPERAND_PARAM_HELPER.cast(param).getValues()) {
+          paramValues.add(toBytes(config, value));
+        }
+      }
+      else {
+        continue;
+      }
+      if (values.containsKey(propertyName)) {
+        values.get(propertyName).retainAll(paramValues);
+      }
+      else {
+        values.put(propertyName, paramValues);
+      }
+    }
+    final Set<byte[]> storedRows;
+    if (!values.isEmpty()) {
+      final String propertyName = values.keySet().iterator().next();
+      final List<byte[]> keys = new ArrayList<byte[]>();
+      final byte[] startValue = ranges.get(propertyName).getFirst();
+      final byte[] stopValue = ranges.get(propertyName).getSecond();
+      for (byte[] value : values.get(propertyName)) {
+        if (value.length == 0) {
+          //Empty values are not indexed
+          return null;
+        }
+        final boolean beforeStop = stopValue.length == 0 || Bytes.compareTo(value, stopValue) < 0;
+        if (Bytes.compareTo(value, startValue) >= 0 && beforeStop) {
+          keys.add(value);
+        }
+      }
+      return getIndexEntries(indexes.get(propertyName), keys, false);
+    }
+    for (Map.Entry<String, Pair<byte[], byte[]>> range : ranges.entrySet()) {
+      if (range.getValue().getFirst().length > 0 || range.getValue().getSecond().length > 0) {
+        return scanIndexEntries(indexes.get(range.getKey()), range.getValue());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Look up the rows of n-gram indexes of properties restricted by must pass
+   * {@link OperatorType#OPERATOR_STRING_LIKE string like} predicates, i.e. the rows having all the n-grams of the
+   * predicates' values. Values shorter than the n-grams, along with their match mode markers, can not be looked up.
+   * N-grams common to more than {@link #getIndexScanMaxRows() index scan max rows} are skipped, as the rows are read
+   * with the exact predicates anyway.
+   * @return Row ids as stored or null if no index applies, the index could not be read or every n-gram of a predicate
+   *         is common to more than the index scan max rows
+   * @see #getIndexEntries(IndexConfig, java.util.List, boolean)
+   */
+  protected Set<byte[]> getNgramIndexEntries(List<QueryParameter> query, Map<String, IndexConfig> indexes) {
+    Set<byte[]> rows = null;
+    for (QueryParameter param : getIndexedParams(query, indexes.keySet())) {
+      if (!OperatorType.OPERATOR_STRING_LIKE.equals(getOperator(param))) {
+        continue;
+      }
+      final IndexConfig index = indexes.get(getPropertyName("", param));
+      final Set<byte[]> ngrams = getSecondaryIndexService().getNgrams(index, getValue(param).toString(),
+                                                                      getMatchMode(param));
+      if (ngrams.isEmpty()) {
+        continue;
+      }
+      final Set<byte[]> matches = getIndexEntries(index, new ArrayList<byte[]>(ngrams), true);
+      if (matches == null) {
+        return null;
+      }
+      if (rows == null) {
+        rows = matches;
+      }
+      else {
+        rows.retainAll(matches);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Collect the property parameters on indexed properties which all must pass for a row to match.
+   */
+  protected List<QueryParameter> getIndexedParams(Collection<QueryParameter> query, Set<String> propertyNames) {
+    final List<QueryParameter> params = new ArrayList<QueryParameter>();
+    if (query == null) {
+      return params;
+    }
+    for (QueryParameter param : query) {
+      if (ParameterType.PARAMETER_TYPE_CONJUNCTION.equals(param.getParameterType())) {
+        params.addAll(getIndexedParams(QueryParameterCastHelper.BASIC_COMPOUND_PARAM_HELPER.cast(param).
+            getNestedParameters(), propertyNames));
+      }
+      else if (ParameterType.PARAMETER_TYPE_PROPERTY.equals(param.getParameterType()) && propertyNames.contains(
+          getPropertyName("", param))) {
+        params.add(param);
+      }
+    }
+    return params;
+  }
+
+  /**
+   * Read the row ids of the index entries of keys with batched gets of the index rows. Each get reads at most one entry
+   * more than the {@link #getIndexScanMaxRows() index scan max rows}, so that the index rows of common keys are never
+   * read whole.
+   * @param common Whether only the rows common to all keys are to be retained instead of the rows of any key, in which
+   *               case keys having more entries than the index scan max rows are skipped
+   * @return The row ids as stored in the main table or null if the index could not be read, more than the index scan
+   *         max rows match or, if common, every key has more entries than that
+   */
+  protected Set<byte[]> getIndexEntries(IndexConfig index, List<byte[]> keys, boolean common) {
+    Set<byte[]> rows = null;
+    final int maxRows = getIndexScanMaxRows();
+    final Scan template = new Scan();
+    template.addFamily(index.getColumnFamily());
+    template.setFilter(new ColumnPaginationFilter(maxRows < Integer.MAX_VALUE ? maxRows + 1 : maxRows, 0));
+    final Result[] results;
+    try {
+      results = getRows(index.getTableName(), keys, template);
+    }
+    catch (RuntimeException ex) {
+      logger.warn("Could not read index " + index.getTableName(), ex);
+      return null;
+    }
+    for (Result result : results) {
+      final Set<byte[]> keyRows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      final Map<byte[], byte[]> entries = result.getFamilyMap(index.getColumnFamily());
+      if (entries != null) {
+        keyRows.addAll(entries.keySet());
+      }
+      if (common && keyRows.size() > maxRows) {
+        continue;
+      }
+      if (rows == null) {
+        rows = keyRows;
+      }
+      else if (common) {
+        rows.retainAll(keyRows);
+      }
+      else {
+        rows.addAll(keyRows);
+      }
+      if (rows.size() > maxRows) {
+        if (logger.isDebugEnabled()) {
+          logger.debug("Index keys of " + index.getTableName() + " match more than " + maxRows + " rows");
+        }
+        return null;
+      }
+    }
+    if (rows == null && common && results.length > 0) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Every index key of " + index.getTableName() + " matches more than " + maxRows + " rows");
+      }
+      return null;
+    }
+    return rows == null ? new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR) : rows;
+  }
+
+  /**
+   * Scan the row ids of the index entries of a range of values.
+   * @return The row ids as stored in the main table or null if more than the index scan max rows match
+   */
+  protected Set<byte[]> scanIndexEntries(final IndexConfig index, final Pair<byte[], byte[]> range) {
+    if (range.getSecond().length > 0 && Bytes.compareTo(range.getFirst(), range.getSecond()) >= 0) {
+      return Collections.emptySet();
+    }
+    final int maxRows = getIndexScanMaxRows();
+    return executorService.execute(index.getTableName(), new Callback<Set<byte[]>>() {
+
+      @Override
+      public Set<byte[]> call(HTableInterface tableInterface) throws Exception {
+        final Scan scan = new Scan(range.getFirst(), range.getSecond());
+        scan.addFamily(index.getColumnFamily());
+        scan.setCaching(Math.max(1, Math.min(maxRows, getScanCaching())));
+        final ResultScanner scanner = tableInterface.getScanner(scan);
+        try {
+          final Set<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+          for (Result result = scanner.next(); result != null; result = scanner.next()) {
+            final Map<byte[], byte[]> entries = result.getFamilyMap(index.getColumnFamily());
+            if (entries != null) {
+              rows.addAll(entries.keySet());
+            }
+            if (rows.size() > maxRows) {
+              if (logger.isDebugEnabled()) {
+                logger.debug("Index range of " + index.getTableName() + " matches more than " + maxRows + " rows");
+              }
+              return null;
+            }
+          }
+          return rows;
+        }
+        finally {
+          scanner.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Form the data derived from writing puts to a table. An indexed or aggregated column missing from a put is
+   * considered removed only if the put is merged and has the column's family.
+   * @return The update or null if the table is not the main table or has neither secondary index nor aggregate view
+   * @throws IllegalStateException If the current values could not be read, in which case nothing is to be written
+   * @see #prepareDerivedData(java.util.List, java.util.List, java.util.Set)
+   */
+  protected DerivedDataUpdate prepareDerivedDataUpdate(String tableName, List<Put> puts, boolean merge) {
+    final Set<String> propertyNames = getDerivedProperties(tableName);
+    if (propertyNames.isEmpty() || puts.isEmpty()) {
+      return null;
+    }
+    final List<Map<String, byte[]>> written = new ArrayList<Map<String, byte[]>>(puts.size());
+    for (Put put : puts) {
+      final Map<String, byte[]> values = new HashMap<String, byte[]>();
+      for (String propertyName : propertyNames) {
+        final FilterConfig config = getInfoProvider().getFilterConfig(propertyName);
+        final List<KeyValue> cells = put.get(config.getColumnFamily(), config.getColumnQualifier());
+        if (!cells.isEmpty()) {
+          values.put(propertyName, DiffBasedMergeService.getLatestValue(cells).getValue());
+        }
+        else if (merge && mergeEnabled && put.getFamilyMap().containsKey(config.getColumnFamily())) {
+          values.put(propertyName, null);
+        }
+      }
+      written.add(values);
+    }
+    return prepareDerivedData(puts, written, propertyNames);
+  }
+
+  /**
+   * Form the data derived from deleting rows of a table, i.e. the removal of the values of the indexed and aggregated
+   * columns the deletes remove.
+   * @return The update or null if the table is not the main table or has neither secondary index nor aggregate view
+   * @throws IllegalStateException If the current values could not be read, in which case nothing is to be deleted
+   * @see #prepareDerivedData(java.util.List, java.util.List, java.util.Set)
+   */
+  protected DerivedDataUpdate prepareDerivedDataRemoval(String tableName, List<Delete> deletes) {
+    final Set<String> propertyNames = getDerivedProperties(tableName);
+    if (propertyNames.isEmpty() || deletes.isEmpty()) {
+      return null;
+    }
+    final List<Map<String, byte[]>> written = new ArrayList<Map<String, byte[]>>(deletes.size());
+    for (Delete delete : deletes) {
+      final Map<String, byte[]> values = new HashMap<String, byte[]>();
+      for (String propertyName : propertyNames) {
+        if (isDeleted(delete, getInfoProvider().getFilterConfig(propertyName))) {
+          values.put(propertyName, null);
+        }
+      }
+      written.add(values);
+    }
+    return prepareDerivedData(deletes, written, propertyNames);
+  }
+
+  protected boolean isDeleted(Delete delete, FilterConfig config) {
+    return delete.getFamilyMap().isEmpty() || delete.getFamilyMap().containsKey(config.getColumnFamily());
+  }
+
+  /**
+   * Retrieve the properties the secondary indexes and the aggregate views are derived from.
+   * @return The properties, empty if the table is not the main table
+   */
+  protected Set<String> getDerivedProperties(String tableName) {
+    final Set<String> propertyNames = new LinkedHashSet<String>();
+    if (tableName.equals(getDefaultTableName())) {
+      propertyNames.addAll(getIndexConfigs().keySet());
+      propertyNames.addAll(getAggregateViewService().getAggregatedProperties());
+    }
+    return propertyNames;
+  }
+
+  /**
+   * Form the index entries to add before, and to remove after, writing rows of the main table and the aggregate
+   * deltas of the writes, from the values the writes set or remove and the current values they replace, which are
+   * read with a batched get.
+   * @param written Values of the derived properties each write sets, null for those it removes
+   * @throws IllegalStateException If the current values could not be read
+   * @see SecondaryIndexService#prepareIndexEntries(DerivedDataUpdate, byte[], java.util.Map, java.util.Map)
+   * @see AggregateViewService#prepareAggregateDeltas(DerivedDataUpdate, byte[], java.util.Map, java.util.Map)
+   */
+  protected DerivedDataUpdate prepareDerivedData(List<? extends Row> rows, List<Map<String, byte[]>> written,
+                                                 Set<String> propertyNames) {
+    final Map<String, AggregateConfig> aggregates = getAggregateConfigs();
+    final Result[] current = getIndexedValues(rows, propertyNames);
+    final DerivedDataUpdate update = new DerivedDataUpdate(System.currentTimeMillis());
+    for (int i = 0; i < current.length; ++i) {
+      final byte[] row = rows.get(i).getRow();
+      final Map<String, byte[]> before = new HashMap<String, byte[]>();
+      if (current[i] != null) {
+        for (String propertyName : propertyNames) {
+          final FilterConfig config = getInfoProvider().getFilterConfig(propertyName);
+          before.put(propertyName, current[i].getValue(config.getColumnFamily(), config.getColumnQualifier()));
+        }
+      }
+      getSecondaryIndexService().prepareIndexEntries(update, row, before, written.get(i));
+      if (current[i] != null && !aggregates.isEmpty()) {
+        getAggregateViewService().prepareAggregateDeltas(update, row, before, written.get(i));
+      }
+    }
+    return update;
+  }
+
+  /**
+   * Read the current values of the indexed or aggregated columns of rows of the main table. Writing the rows without
+   * them would leave index entries and aggregates stale with no record of the rows affected, hence a failed read fails
+   * the write.
+   * @return Results in the order of the rows
+   * @throws IllegalStateException If the values could not be read
+   */
+  protected Result[] getIndexedValues(List<? extends Row> rows, Set<String> propertyNames) {
+    final Scan template = new Scan();
+    for (String propertyName : propertyNames) {
+      final FilterConfig config = getInfoProvider().getFilterConfig(propertyName);
+      addColumn(template, config.getColumnFamily(), config.getColumnQualifier());
+    }
+    final List<byte[]> rowIds = new ArrayList<byte[]>(rows.size());
+    for (Row row : rows) {
+      rowIds.add(row.getRow());
+    }
+    try {
+      return getRows(getDefaultTableName(), rowIds, template);
+    }
+    catch (RuntimeException ex) {
+      logger.warn("Could not read current indexed values, not writing the rows", ex);
+      throw new IllegalStateException("Could not read current indexed values of rows to write", ex);
+    }
+  }
+
+  /*
+   * Aggregate views
+   */
+  /**
+   * Retrieve the aggregate views maintained by the {@link #getAggregateViewService() aggregate view service}.
+   * @return Aggregate configurations by view name
+   */
+  protected Map<String, AggregateConfig> getAggregateConfigs() {
+    return getAggregateViewService().getAggregateConfigs();
+  }
+
+  protected static byte[] getHigherStartRow(byte[] startRow, byte[] otherStartRow) {
+    return Bytes.compareTo(startRow, otherStartRow) >= 0 ? startRow : otherStartRow;
+  }
+
+  protected static byte[] getLowerStopRow(byte[] stopRow, byte[] otherStopRow) {
+    if (stopRow.length == 0) {
+      return otherStopRow;
+    }
+    if (otherStopRow.length == 0) {
+      return stopRow;
     }
+    return Bytes.compareTo(stopRow, otherStopRow) <= 0 ? stopRow : otherStopRow;
   }
 
-  protected Scan formScan(List<QueryParameter> query) {
-    Scan scan = new Scan();
-    final Filter filter = getFilter(query, scan);
-    if (filter != null) {
-      scan.setFilter(filter);
+  /**
+   * The smallest row that is greater than the given row.
+   */
+  protected static byte[] getRowAfter(byte[] row) {
+    return Bytes.add(row, new byte[]{0});
+  }
+
+  /**
+   * The smallest row that is greater than all rows starting with the prefix, empty if there is no such row.
+   */
+  protected static byte[] getPrefixStopRow(byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; --i) {
+      if (prefix[i] != (byte) 0xff) {
+        final byte[] stopRow = Arrays.copyOf(prefix, i + 1);
+        stopRow[i]++;
+        return stopRow;
+      }
     }
-    return scan;
+    return HConstants.EMPTY_END_ROW;
   }
 
   protected Filter getFilter(Collection<QueryParameter> queryParams, Scan scan) {
@@ -517,27 +2892,27 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
     FilterConfig filterConfig = getInfoProvider().getFilterConfig(getPropertyName(namePrefix, queryParameter));
     switch (operator) {
       case OPERATOR_EQUAL: {
-        filters.add(getCellFilter(filterConfig, CompareOp.EQUAL, Bytes.toBytes(parameter.toString())));
+        filters.add(getCellFilter(filterConfig, CompareOp.EQUAL, toBytes(filterConfig, parameter)));
         return;
       }
       case OPERATOR_LESSER: {
-        filters.add(getCellFilter(filterConfig, CompareOp.LESS, Bytes.toBytes(parameter.toString())));
+        filters.add(getCellFilter(filterConfig, CompareOp.LESS, toBytes(filterConfig, parameter)));
         return;
       }
       case OPERATOR_LESSER_EQUAL: {
-        filters.add(getCellFilter(filterConfig, CompareOp.LESS_OR_EQUAL, Bytes.toBytes(parameter.toString())));
+        filters.add(getCellFilter(filterConfig, CompareOp.LESS_OR_EQUAL, toBytes(filterConfig, parameter)));
         return;
       }
       case OPERATOR_GREATER: {
-        filters.add(getCellFilter(filterConfig, CompareOp.GREATER, Bytes.toBytes(parameter.toString())));
+        filters.add(getCellFilter(filterConfig, CompareOp.GREATER, toBytes(filterConfig, parameter)));
         return;
       }
       case OPERATOR_GREATER_EQUAL: {
-        filters.add(getCellFilter(filterConfig, CompareOp.GREATER_OR_EQUAL, Bytes.toBytes(parameter.toString())));
+        filters.add(getCellFilter(filterConfig, CompareOp.GREATER_OR_EQUAL, toBytes(filterConfig, parameter)));
         return;
       }
       case OPERATOR_NOT_EQUAL: {
-        filters.add(getCellFilter(filterConfig, CompareOp.NOT_EQUAL, Bytes.toBytes(parameter.toString())));
+        filters.add(getCellFilter(filterConfig, CompareOp.NOT_EQUAL, toBytes(filterConfig, parameter)));
         return;
       }
       case OPERATOR_IS_EMPTY:
@@ -587,8 +2962,8 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
         parameter = getFirstParameter(queryParameter);
         Object parameter2 = getSecondParameter(queryParameter);
         filters.add(getCellFilter(filterConfig, CompareOp.EQUAL,
-                                  new RangeComparator(Bytes.toBytes(parameter.toString()),
-                                                      Bytes.toBytes(parameter2.toString()))));
+                                  new RangeComparator(toBytes(filterConfig, parameter),
+                                                      toBytes(filterConfig, parameter2))));
         return;
       }
       case OPERATOR_IS_IN: {
@@ -610,7 +2985,9 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   protected Filter getCellFilter(FilterConfig filterConfig, CompareOp op,
                                  WritableByteArrayComparable comparator) {
     if (filterConfig.isFilterOnRowId()) {
-      RowFilter rowFilter = new RowFilter(op, comparator);
+      final int prefixLength = getRowIdPrefixLength();
+      RowFilter rowFilter = new RowFilter(op, prefixLength > 0 ? new PrefixSkippingComparator(prefixLength, comparator)
+                                          : comparator);
       return rowFilter;
     }
     else if (filterConfig.isQualifierARangePrefix()) {
@@ -632,10 +3009,21 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
     return getCellFilter(filterConfig, op, new BinaryComparator(value));
   }
 
+  /**
+   * Convert a query parameter value to the byte array form it is compared with in HBase, using the codec of the value
+   * type of the property.
+   * @param config Filter config of the property the value is for
+   * @param value The value to convert
+   * @return Byte array representation of the value
+   */
+  protected byte[] toBytes(FilterConfig config, Object value) {
+    return getValueCodec(config).encode(value);
+  }
+
   protected Filter getInFilter(Collection inCollectin, FilterConfig config) {
     FilterList filterList = new FilterList(Operator.MUST_PASS_ONE);
     for (Object inObj : inCollectin) {
-      filterList.addFilter(getCellFilter(config, CompareOp.EQUAL, new BinaryComparator(Bytes.toBytes(inObj.toString()))));
+      filterList.addFilter(getCellFilter(config, CompareOp.EQUAL, new BinaryComparator(toBytes(config, inObj))));
     }
     return filterList;
   }
@@ -733,12 +3121,200 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
     put(states, true);
   }
 
+  /**
+   * Save the states through the write behind service, if {@link #isWriteBehindEnabled() enabled}.
+   * @return Future that completes once the states are written
+   * @see #putBehind(Template[], boolean)
+   */
+  public Future<Void> saveBehind(Template... states) {
+    return putBehind(states, false);
+  }
+
+  /**
+   * Update the states through the write behind service, if {@link #isWriteBehindEnabled() enabled}.
+   * @return Future that completes once the states are written
+   * @see #putBehind(Template[], boolean)
+   */
+  public Future<Void> updateBehind(Template... states) {
+    return putBehind(states, true);
+  }
+
+  /**
+   * Buffer the puts of the states to be written in batches with puts of other callers, once existence of the
+   * entities is verified as {@link #save(Template[]) save} and {@link #update(Template[]) update} do. Writes that need
+   * to read or check rows, i.e. optimistic locking with version columns, merging or maintaining secondary indexes or
+   * aggregate views, can not be batched and are, as all writes when write behind is disabled, written right away;
+   * their errors are thrown and an already completed future is returned.
+   */
+  protected Future<Void> putBehind(final Template[] states, final boolean merge) {
+    verifyAllEntitiesExists(merge, states);
+    if (!isWriteBehindEnabled() || isOptimisticallyVersioned() || (merge && mergeEnabled && mergeService != null) ||
+        !getIndexConfigs().isEmpty() || !getAggregateConfigs().isEmpty()) {
+      put(states, merge);
+      final SettableFuture<Void> future = new SettableFuture<Void>();
+      future.set(null);
+      return future;
+    }
+    final Map<String, List<Put>> puts;
+    try {
+      puts = toPuts(states);
+    }
+    catch (RuntimeException ex) {
+      unlock(states);
+      throw ex;
+    }
+    return getWriteBehindService().write(puts, new Runnable() {
+
+      @Override
+      public void run() {
+        unlock(states);
+      }
+    });
+  }
+
+  /**
+   * Write all the puts buffered for write behind, waiting till they are written.
+   */
+  public void flushWriteBehind() {
+    final WriteBehindService service;
+    synchronized (this) {
+      service = writeBehindService != null ? writeBehindService : writeBehindBuffer;
+    }
+    if (service != null) {
+      service.flush();
+    }
+  }
+
+  /**
+   * Write all the puts buffered for write behind and close the write behind service. A later write behind with the
+   * default service starts a new buffer.
+   */
+  public void closeWriteBehind() {
+    final WriteBehindService service;
+    synchronized (this) {
+      service = writeBehindService != null ? writeBehindService : writeBehindBuffer;
+      writeBehindBuffer = null;
+    }
+    if (service != null) {
+      service.close();
+    }
+  }
+
+  /*
+   * COUNTERS
+   */
+  /**
+   * Atomically add to a counter column of an entity.
+   * @see #increment(java.lang.Comparable, java.util.Map)
+   */
+  public long increment(IdType id, String propertyName, long amount) {
+    return increment(id, Collections.singletonMap(propertyName, amount)).get(propertyName);
+  }
+
+  /**
+   * Atomically add to counter columns of an entity in a single request, without reading or locking the entity. As with
+   * any HBase increment, incrementing an entity that was never saved, or was deleted, creates a row holding just the
+   * counters; callers have to increment saved entities only. The columns are denoted by properties as in queries and
+   * must hold 8 byte big endian longs, i.e. have no value type; a missing column is incremented from 0. The order
+   * preserving {@link ValueCodecRegistry#LONG long} value type is not supported, as a missing column would count from
+   * {@link Long#MIN_VALUE}. When optimistically versioned the version column is incremented with the counters so that
+   * instances read before, whose values of the counters are stale, conflict on their next update instead of overwriting
+   * the counters; the instances have to be read again or merged by the {@link #getConflictMerger() conflict merger}.
+   * Secondary indexed and aggregated properties can not be counters and puts buffered for
+   * {@link #isWriteBehindEnabled() write behind} may overwrite the counters.
+   * @param id Id of the entity
+   * @param amounts Amount to add, may be negative, by property name
+   * @return The new value of each counter by property name
+   * @throws IllegalArgumentException If a property does not denote a counter column
+   */
+  public Map<String, Long> increment(IdType id, Map<String, Long> amounts) {
+    return getCounterService().increment(id, amounts, getLockType());
+  }
+
+  /**
+   * Atomically add to counter columns of multiple entities, incrementing each entity asynchronously in a single
+   * request. The increment of an entity failing does not stop the others from being incremented.
+   * @param amounts Amounts to add by property name by id of the entity
+   * @return The new values of the counters by id
+   * @throws IllegalStateException If the increment of any entity failed, naming the ids of all such entities, with the
+   *                               first failure as cause
+   * @see #increment(java.lang.Comparable, java.util.Map)
+   */
+  public Map<IdType, Map<String, Long>> increment(Map<IdType, Map<String, Long>> amounts) {
+    return getCounterService().increment(amounts, getLockType());
+  }
+
+  /*
+   * AGGREGATE VIEWS
+   */
+  /**
+   * Retrieve the increments of rollup tables of aggregate views that failed after the rows of the main table were
+   * written, oldest first. The groups of the increments are inconsistent till the increments are
+   * {@link #retryFailedAggregateIncrements() retried}.
+   * @return Increments by rollup table name
+   */
+  public List<Pair<String, Increment>> getFailedAggregateIncrements() {
+    return getAggregateViewService().getFailedAggregateIncrements();
+  }
+
+  /**
+   * Retry the failed increments of rollup tables, recording those failing again. An increment that failed by timing
+   * out may have been applied nonetheless, so its group may be incremented twice; such groups have to be recomputed
+   * from the main table instead.
+   * @return Number of increments that failed again
+   */
+  public int retryFailedAggregateIncrements() {
+    return getAggregateViewService().retryFailedAggregateIncrements();
+  }
+
+  /**
+   * Read the pre-aggregated values of a group of an aggregate view with a single get.
+   * @see #getAggregates(java.lang.String, java.util.List)
+   */
+  public Aggregate getAggregate(String viewName, Object... groupValues) {
+    return getAggregates(viewName, Collections.singletonList(groupValues)).get(0);
+  }
+
+  /**
+   * Read the pre-aggregated values of groups of an aggregate view with batched gets.
+   * @param viewName Name of the view
+   * @param groups Values of the group by properties of each group, in the order of the view's group by properties
+   * @return Aggregates in the order of the groups, with count and sums of 0 for groups without rows
+   * @throws IllegalArgumentException If there is no such view or a group does not have a value for each group by
+   *                                  property
+   */
+  public List<Aggregate> getAggregates(String viewName, List<Object[]> groups) {
+    return getAggregateViewService().getAggregates(viewName, groups);
+  }
+
+  protected boolean isOptimisticallyVersioned() {
+    return LockType.OPTIMISTIC.equals(getLockType()) && infoProvider.getVersionColumnFamily() != null && infoProvider.
+        getVersionColumnQualifier() != null;
+  }
+
+  /**
+   * With pessimistic locking attain the locks of multiple states in one go, in a global row order, instead of one
+   * state at a time as each is converted to rows.
+   */
+  protected void attainLocks(Template[] states) {
+    if (states.length > 1 && LockType.PESSIMISTIC.equals(getLockType()) &&
+        getConverter() instanceof AbstractObjectRowConverter) {
+      ((AbstractObjectRowConverter) getConverter()).attainLocks(Arrays.asList(states));
+    }
+  }
+
+  protected void unlock(Template[] states) {
+    for (Template state : states) {
+      lockAttainer.unlockAndEvictFromCache(state);
+    }
+  }
+
   protected void throwIfErrors(Collection<Future<String>> probableFutureErrors) throws IllegalStateException {
     Collection<String> probableErrors = new ArrayList<String>(probableFutureErrors.size());
     for (Future<String> delErr : probableFutureErrors) {
       String str;
       try {
-        str = delErr.get();
+        str = getResult(delErr);
       }
       catch (Exception ex) {
         logger.warn("Could not wait to complete deletion!", ex);
@@ -755,45 +3331,24 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   }
 
   protected void verifyAllEntitiesExists(boolean existenceExpected, Template... states) {
-    List<Future<Boolean>> gets = new ArrayList<Future<Boolean>>(states.length);
-    int i = 0;
+    final List<byte[]> rowIds = new ArrayList<byte[]>(states.length);
     for (Template t : states) {
       try {
         final Comparable id = t.getId();
         if (logger.isInfoEnabled()) {
-          logger.info(new StringBuilder("Adding ").append(id).append(" to index ").append(i).toString());
+          logger.info(new StringBuilder("Adding ").append(id).append(" to index ").append(rowIds.size()).toString());
         }
-        final Get get = new Get(infoProvider.getRowIdFromId((IdType) id));
-        final int index = i;
-        gets.add(executorService.executeAsynchronously(infoProvider.getMainTableName(),
-                                                       new Callback<Boolean>() {
-
-          @Override
-          public Boolean call(HTableInterface tableInterface) throws Exception {
-            final boolean exists = tableInterface.exists(get);
-            if (logger.isDebugEnabled()) {
-              logger.debug(new StringBuilder("Id ").append(id.toString()).append(" exists ").append(index).toString());
-            }
-            return exists;
-          }
-        }));
-        i++;
+        rowIds.add(infoProvider.getRowIdFromId((IdType) id));
       }
       catch (Exception ex) {
         logger.warn("Exception testing row existense...", ex);
       }
     }
-    i = 0;
-    for (Future<Boolean> future : gets) {
-      Boolean exists = true;
-      try {
-        if (logger.isInfoEnabled()) {
-          logger.info(new StringBuilder("Checking index ").append(i++).toString());
-        }
-        exists = future.get();
-      }
-      catch (Exception ex) {
-        logger.warn("Exception testing row existense...", ex);
+    final Result[] results = getRows(infoProvider.getMainTableName(), rowIds, true);
+    for (int i = 0; i < results.length; ++i) {
+      final boolean exists = !results[i].isEmpty();
+      if (logger.isDebugEnabled()) {
+        logger.debug(new StringBuilder("Index ").append(i).append(" exists ").append(exists).toString());
       }
       if (!existenceExpected && exists) {
         throw new IllegalArgumentException(
@@ -807,12 +3362,37 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
   }
 
   protected void put(Template[] states, final boolean merge) throws IllegalStateException {
+    if (isOptimisticallyVersioned()) {
+      putOptimistically(states, merge);
+      return;
+    }
+    for (Map.Entry<String, List<Put>> puts : toPuts(states).entrySet()) {
+      putNonOptimistically(puts, merge, states);
+    }
+  }
+
+  /**
+   * Convert the states to puts grouped by table name in order of the tables.
+   */
+  protected LinkedHashMap<String, List<Put>> toPuts(Template[] states) throws IllegalStateException {
+    return toPuts(states, null);
+  }
+
+  /**
+   * Convert the states to puts grouped by table name in order of the tables.
+   * @param owners If not null the state of each put is put into it
+   */
+  protected LinkedHashMap<String, List<Put>> toPuts(Template[] states, Map<Put, Template> owners) throws
+      IllegalStateException {
     LinkedHashMap<String, List<Put>> allPuts =
                                      new LinkedHashMap<String, List<Put>>();
     for (Template state : states) {
       if (!state.isValid()) {
         throw new IllegalStateException("Entity not in valid state!");
       }
+    }
+    attainLocks(states);
+    for (Template state : states) {
       final LinkedHashMap<String, Put> puts;
       puts = getConverter().objectToRows(state, executorService, getLockType().equals(LockType.PESSIMISTIC));
       for (Map.Entry<String, Put> put : puts.entrySet()) {
@@ -825,37 +3405,66 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
           allPuts.put(put.getKey(), putList);
         }
         putList.add(put.getValue());
+        if (owners != null) {
+          owners.put(put.getValue(), state);
+        }
       }
     }
-    for (Map.Entry<String, List<Put>> puts : allPuts.entrySet()) {
-      if (LockType.OPTIMISTIC.equals(getLockType()) && infoProvider.getVersionColumnFamily() != null && infoProvider.
-          getVersionColumnQualifier() != null) {
-        putOptimistically(puts, merge, states);
+    return allPuts;
+  }
+
+  /**
+   * Put the states checking their versions. If a {@link #setConflictMerger(ConflictMerger) conflict merger} is set
+   * rows failing the check are retried, up to the {@link #setOptimisticRetries(java.lang.Integer) optimistic retries},
+   * after a jittered backoff with the states merged with their freshly read current states. Only the failed rows are
+   * retried, rows already written are not rewritten.
+   */
+  protected void putOptimistically(final Template[] states, final boolean merge) throws IllegalStateException {
+    Map<Put, Template> owners = new IdentityHashMap<Put, Template>();
+    Map<String, List<Put>> allPuts = toPuts(states, owners);
+    for (int attempt = 0;; ++attempt) {
+      final Map<String, List<Put>> conflicts = new LinkedHashMap<String, List<Put>>();
+      for (Map.Entry<String, List<Put>> puts : allPuts.entrySet()) {
+        final DerivedDataUpdate derivedUpdate = prepareDerivedDataUpdate(puts.getKey(), puts.getValue(), merge);
+        getSecondaryIndexService().addIndexEntries(derivedUpdate);
+        final List<Put> failed = checkAndPut(puts.getKey(), puts.getValue(), merge);
+        getSecondaryIndexService().removeIndexEntries(derivedUpdate, failed);
+        getAggregateViewService().applyAggregateDeltas(derivedUpdate, failed);
+        if (!failed.isEmpty()) {
+          conflicts.put(puts.getKey(), failed);
+        }
       }
-      else {
-        putNonOptimistically(puts, merge, states);
+      if (conflicts.isEmpty()) {
+        return;
+      }
+      final List<Template> merged = mergeConflicts(attempt, getConflictingStates(conflicts, owners), false);
+      if (merged == null) {
+        throw new IllegalStateException(getConflictMessage(conflicts));
       }
+      owners = new IdentityHashMap<Put, Template>();
+      allPuts = retainConflicting(toPuts(merged.toArray(Arrays.copyOf(states, 0)), owners), conflicts);
     }
   }
 
-  protected void putOptimistically(Entry<String, List<Put>> puts, final boolean merge, Template[] states) {
-    final List<Put> value = puts.getValue();
+  /**
+   * Put the rows of a table checking their versions.
+   * @return The puts that failed the version check
+   */
+  protected List<Put> checkAndPut(final String tableName, final List<Put> value, final boolean merge) {
     //Merge first respecting lock type
-    executorService.execute(puts.getKey(),
-                            new Callback<Void>() {
+    final List<Delete> staleDeletes = executorService.execute(tableName, new Callback<List<Delete>>() {
 
       @Override
-      public Void call(HTableInterface tableInterface) throws Exception {
-        if (merge && mergeEnabled && mergeService != null) {
-          mergeService.merge(tableInterface, value, getLockType());
-        }
-        return null;
+      public List<Delete> call(HTableInterface tableInterface) throws Exception {
+        return mergeBeforePut(tableInterface, value, merge);
       }
     });
-    Collection<Future<String>> pFutures = new ArrayList<Future<String>>();
+    final List<Future<Boolean>> pFutures = new ArrayList<Future<Boolean>>(value.size());
     final byte[] family = infoProvider.getVersionColumnFamily();
     final byte[] qualifier = infoProvider.getVersionColumnQualifier();
-    for (final Put put : puts.getValue()) {
+    for (int i = 0; i < value.size(); ++i) {
+      final Put put = value.get(i);
+      final Delete staleDelete = staleDeletes == null || staleDeletes.get(i).isEmpty() ? null : staleDeletes.get(i);
       final List<KeyValue> kVal = put.get(family, qualifier);
       final byte[] versionValue;
       final byte[] nextVersion;
@@ -868,37 +3477,212 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
         nextVersion = Bytes.toBytes(1l);
       }
       put.add(family, qualifier, nextVersion);
-      pFutures.add(executorService.executeAsynchronously(puts.getKey(), new Callback<String>() {
+      pFutures.add(executorService.executeAsynchronously(tableName, new Callback<Boolean>() {
 
         @Override
-        public String call(HTableInterface tableInterface) throws Exception {
-          boolean puted = tableInterface.checkAndPut(put.getRow(), family, qualifier, versionValue, put);
-          if (!puted) {
-            return String.format(errorMessageFormat, infoProvider.getIdFromRowId(put.getRow()).toString(), Bytes.
-                toString(tableInterface.getTableName()));
+        public Boolean call(HTableInterface tableInterface) throws Exception {
+          final boolean written = tableInterface.checkAndPut(put.getRow(), family, qualifier, versionValue, put);
+          if (written && staleDelete != null) {
+            try {
+              tableInterface.checkAndDelete(put.getRow(), family, qualifier, nextVersion, staleDelete);
+            }
+            catch (IOException ex) {
+              logger.warn("Could not remove stale columns of " + Bytes.toStringBinary(put.getRow()) +
+                  ", the next merge removes them", ex);
+            }
           }
-          return null;
+          return written;
         }
       }));
     }
-    throwIfErrors(pFutures);
+    return getFailed(value, pFutures);
+  }
+
+  /**
+   * Merge the puts if required before they are written. A {@link DeferredMergeService deferred merge service} only
+   * prepares the merge, as the deletes of the stale columns it returns are to be sent once the puts are written.
+   * @return The deletes in the order of the puts or null if there is nothing to send once the puts are written
+   */
+  protected List<Delete> mergeBeforePut(HTableInterface tableInterface, List<Put> puts, boolean merge) throws
+      IOException {
+    if (!merge || !mergeEnabled || mergeService == null) {
+      return null;
+    }
+    if (mergeService instanceof DeferredMergeService) {
+      return ((DeferredMergeService<Template, IdType>) mergeService).prepareMerge(tableInterface, puts, getLockType());
+    }
+    mergeService.merge(tableInterface, puts, getLockType());
+    return null;
+  }
+
+  /**
+   * Collect the rows whose check and mutate did not succeed, including those which could not be completed.
+   */
+  protected <R extends Row> List<R> getFailed(List<R> rows, List<Future<Boolean>> futures) {
+    final List<R> failed = new ArrayList<R>();
+    for (int i = 0; i < futures.size(); ++i) {
+      boolean succeeded;
+      try {
+        succeeded = Boolean.TRUE.equals(getResult(futures.get(i)));
+      }
+      catch (Exception ex) {
+        logger.warn("Could not wait to complete operation!", ex);
+        succeeded = false;
+      }
+      if (!succeeded) {
+        failed.add(rows.get(i));
+      }
+    }
+    return failed;
+  }
+
+  protected <R extends Row> List<Template> getConflictingStates(Map<String, List<R>> conflicts,
+                                                                Map<R, Template> owners) {
+    final List<Template> states = new ArrayList<Template>();
+    final Map<Template, Boolean> added = new IdentityHashMap<Template, Boolean>();
+    for (List<R> rows : conflicts.values()) {
+      for (R row : rows) {
+        final Template state = owners.get(row);
+        if (state != null && added.put(state, Boolean.TRUE) == null) {
+          states.add(state);
+        }
+      }
+    }
+    return states;
+  }
+
+  /**
+   * Back off and merge the states whose writes failed optimistically with their current states, if retries remain.
+   * @param attempt Number of attempts retried so far
+   * @param states The states which failed
+   * @param skipRemoved Whether states not persisted anymore are to be left out instead of being merged
+   * @return The states to retry with or null if the failure is not to be retried
+   */
+  protected List<Template> mergeConflicts(int attempt, List<Template> states, boolean skipRemoved) {
+    if (conflictMerger == null || attempt >= optimisticRetries) {
+      return null;
+    }
+    backOff(attempt);
+    final List<byte[]> rowIds = new ArrayList<byte[]>(states.size());
+    for (Template state : states) {
+      try {
+        rowIds.add(infoProvider.getRowIdFromId((IdType) state.getId()));
+      }
+      catch (Exception ex) {
+        logger.warn("Could not form row id for " + state.getId(), ex);
+        return null;
+      }
+    }
+    final Result[] results = getRows(getDefaultTableName(), rowIds, (Scan) null);
+    final List<Template> merged = new ArrayList<Template>(states.size());
+    for (int i = 0; i < results.length; ++i) {
+      final Template current = results[i].isEmpty() ? null : getConverter().rowsToObject(results[i], executorService);
+      if (current == null && skipRemoved) {
+        continue;
+      }
+      final Template state = conflictMerger.merge(states.get(i), current);
+      if (state == null) {
+        return null;
+      }
+      merged.add(state);
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Retrying " + merged.size() + " merged states, attempt " + (attempt + 1));
+    }
+    return merged;
+  }
+
+  /**
+   * Sleep for a random duration up to the exponential backoff of the attempt.
+   */
+  protected void backOff(int attempt) {
+    final long backoff = Math.min(optimisticRetryMaxBackoff, optimisticRetryBackoff << Math.min(attempt, 20));
+    final long sleep = (long) (random.nextDouble() * backoff);
+    if (sleep <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(sleep);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while backing off to retry!", ex);
+    }
+  }
+
+  /**
+   * Keep only the rows which are in the conflicts of the same table.
+   */
+  protected <R extends Row> LinkedHashMap<String, List<R>> retainConflicting(Map<String, List<R>> rows,
+                                                                             Map<String, List<R>> conflicts) {
+    final LinkedHashMap<String, List<R>> retained = new LinkedHashMap<String, List<R>>();
+    for (Map.Entry<String, List<R>> tableRows : rows.entrySet()) {
+      final List<R> failed = conflicts.get(tableRows.getKey());
+      if (failed == null) {
+        continue;
+      }
+      final Set<byte[]> failedRows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      for (R row : failed) {
+        failedRows.add(row.getRow());
+      }
+      final List<R> retry = new ArrayList<R>();
+      for (R row : tableRows.getValue()) {
+        if (failedRows.contains(row.getRow())) {
+          retry.add(row);
+        }
+      }
+      if (!retry.isEmpty()) {
+        retained.put(tableRows.getKey(), retry);
+      }
+    }
+    return retained;
+  }
+
+  protected String getConflictMessage(Map<String, ? extends List<? extends Row>> conflicts) {
+    final List<String> errors = new ArrayList<String>();
+    for (Map.Entry<String, ? extends List<? extends Row>> rows : conflicts.entrySet()) {
+      for (Row row : rows.getValue()) {
+        String id;
+        try {
+          id = String.valueOf(infoProvider.getIdFromRowId(row.getRow()));
+        }
+        catch (Exception ex) {
+          id = Bytes.toStringBinary(row.getRow());
+        }
+        errors.add(String.format(errorMessageFormat, id, rows.getKey()));
+      }
+    }
+    return errors.toString();
   }
 
   protected void putNonOptimistically(Entry<String, List<Put>> puts, final boolean merge, Template[] states) {
     try {
       final List<Put> value = puts.getValue();
+      final DerivedDataUpdate derivedUpdate = prepareDerivedDataUpdate(puts.getKey(), value, merge);
+      getSecondaryIndexService().addIndexEntries(derivedUpdate);
       executorService.execute(puts.getKey(), new Callback<Void>() {
 
         @Override
         public Void call(HTableInterface tableInterface) throws Exception {
-          if (merge && mergeEnabled && mergeService != null) {
-            mergeService.merge(tableInterface, value, getLockType());
-          }
+          final List<Delete> staleDeletes = mergeBeforePut(tableInterface, value, merge);
           final ArrayList<Put> valueCopy = new ArrayList<Put>(value);
           tableInterface.put(valueCopy);
+          if (staleDeletes != null) {
+            final List<Delete> deletes = new ArrayList<Delete>(staleDeletes.size());
+            for (Delete delete : staleDeletes) {
+              if (!delete.isEmpty()) {
+                deletes.add(delete);
+              }
+            }
+            if (!deletes.isEmpty()) {
+              tableInterface.delete(deletes);
+            }
+          }
           return null;
         }
       });
+      getSecondaryIndexService().removeIndexEntries(derivedUpdate, Collections.<Put>emptyList());
+      getAggregateViewService().applyAggregateDeltas(derivedUpdate, Collections.<Put>emptyList());
     }
     finally {
       for (Template state : states) {
@@ -920,15 +3704,71 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
     }
   }
 
-  protected void deleteOptimistically(Template[] states) throws IllegalStateException {
-    final byte[] family = infoProvider.getVersionColumnFamily();
-    final byte[] qualifier = infoProvider.getVersionColumnQualifier();
-    Collection<Future<String>> deletes = new ArrayList<Future<String>>();
+  /**
+   * Delete the states checking their versions; failed rows are retried as in
+   * {@link #putOptimistically(Template[], boolean) put}, except that states deleted meanwhile are considered done.
+   */
+  protected void deleteOptimistically(final Template[] states) throws IllegalStateException {
+    Map<Delete, Template> owners = new IdentityHashMap<Delete, Template>();
+    Map<String, List<Delete>> allDels = toDeletes(states, owners);
+    for (int attempt = 0;; ++attempt) {
+      final Map<String, List<Delete>> conflicts = new LinkedHashMap<String, List<Delete>>();
+      for (Map.Entry<String, List<Delete>> dels : allDels.entrySet()) {
+        final DerivedDataUpdate derivedUpdate = prepareDerivedDataRemoval(dels.getKey(), dels.getValue());
+        final List<Delete> failed = checkAndDelete(dels.getKey(), dels.getValue(), owners);
+        getSecondaryIndexService().removeIndexEntries(derivedUpdate, failed);
+        getAggregateViewService().applyAggregateDeltas(derivedUpdate, failed);
+        if (!failed.isEmpty()) {
+          conflicts.put(dels.getKey(), failed);
+        }
+      }
+      if (conflicts.isEmpty()) {
+        return;
+      }
+      final List<Template> merged = mergeConflicts(attempt, getConflictingStates(conflicts, owners), true);
+      if (merged == null) {
+        throw new IllegalStateException(getConflictMessage(conflicts));
+      }
+      owners = new IdentityHashMap<Delete, Template>();
+      allDels = retainConflicting(toDeletes(merged.toArray(Arrays.copyOf(states, 0)), owners), conflicts);
+    }
+  }
+
+  /**
+   * Convert the states to deletes, without locking, grouped by table name in order of the tables.
+   */
+  protected LinkedHashMap<String, List<Delete>> toDeletes(Template[] states, Map<Delete, Template> owners) throws
+      IllegalStateException {
+    final LinkedHashMap<String, List<Delete>> allDels = new LinkedHashMap<String, List<Delete>>();
     for (final Template state : states) {
       if (!state.isValid()) {
         throw new IllegalStateException("Entity not in valid state!");
       }
       LinkedHashMap<String, Delete> dels = getConverter().objectToDeleteableRows(state, executorService, false);
+      for (final Map.Entry<String, Delete> del : dels.entrySet()) {
+        List<Delete> delList = allDels.get(del.getKey());
+        if (delList == null) {
+          delList = new ArrayList<Delete>();
+          allDels.put(del.getKey(), delList);
+        }
+        delList.add(del.getValue());
+        owners.put(del.getValue(), state);
+      }
+    }
+    return allDels;
+  }
+
+  /**
+   * Delete the rows of a table checking the versions of their states.
+   * @return The deletes that failed the version check
+   */
+  protected List<Delete> checkAndDelete(final String tableName, final List<Delete> value,
+                                        final Map<Delete, Template> owners) {
+    final byte[] family = infoProvider.getVersionColumnFamily();
+    final byte[] qualifier = infoProvider.getVersionColumnQualifier();
+    final List<Future<Boolean>> deletes = new ArrayList<Future<Boolean>>(value.size());
+    for (final Delete delVal : value) {
+      final Template state = owners.get(delVal);
       final byte[] version = state.getVersion() != null ? Bytes.toBytes(state.getVersion()) : null;
       if (logger.isInfoEnabled() && version != null) {
         logger.info("Version to check on delete optimistically is " + Bytes.toLong(version));
@@ -936,26 +3776,19 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
       else if (logger.isInfoEnabled()) {
         logger.info("Version is null");
       }
-      for (final Map.Entry<String, Delete> del : dels.entrySet()) {
-        deletes.add(executorService.executeAsynchronously(del.getKey(), new Callback<String>() {
+      deletes.add(executorService.executeAsynchronously(tableName, new Callback<Boolean>() {
 
-          @Override
-          public String call(HTableInterface tableInterface) throws Exception {
-            final Delete delVal = del.getValue();
-            boolean deleted = tableInterface.checkAndDelete(delVal.getRow(), family, qualifier, version, delVal);
-            if (logger.isInfoEnabled()) {
-              logger.info("Deleted row? " + deleted);
-            }
-            if (!deleted) {
-              return String.format(errorMessageFormat, infoProvider.getIdFromRowId(delVal.getRow()).toString(), Bytes.
-                  toString(tableInterface.getTableName()));
-            }
-            return null;
+        @Override
+        public Boolean call(HTableInterface tableInterface) throws Exception {
+          boolean deleted = tableInterface.checkAndDelete(delVal.getRow(), family, qualifier, version, delVal);
+          if (logger.isInfoEnabled()) {
+            logger.info("Deleted row? " + deleted);
           }
-        }));
-      }
+          return deleted;
+        }
+      }));
     }
-    throwIfErrors(deletes);
+    return getFailed(value, deletes);
   }
 
   protected void deleteNonOptimistically(Template[] states) throws IllegalStateException {
@@ -965,6 +3798,9 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
       if (!state.isValid()) {
         throw new IllegalStateException("Entity not in valid state!");
       }
+    }
+    attainLocks(states);
+    for (Template state : states) {
       LinkedHashMap<String, Delete> dels = getConverter().objectToDeleteableRows(state, executorService, getLockType().
           equals(LockType.PESSIMISTIC));
       for (Map.Entry<String, Delete> del : dels.entrySet()) {
@@ -981,6 +3817,7 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
     }
     for (final Map.Entry<String, List<Delete>> dels : allDels.entrySet()) {
       try {
+        final DerivedDataUpdate derivedUpdate = prepareDerivedDataRemoval(dels.getKey(), dels.getValue());
         executorService.execute(dels.getKey(),
                                 new Callback<Void>() {
 
@@ -995,6 +3832,8 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
             return null;
           }
         });
+        getSecondaryIndexService().removeIndexEntries(derivedUpdate, Collections.<Delete>emptyList());
+        getAggregateViewService().applyAggregateDeltas(derivedUpdate, Collections.<Delete>emptyList());
       }
       finally {
         for (Template state : states) {
@@ -1003,4 +3842,100 @@ public class CommonDao<Template extends PersistentDTO<? extends PersistentDTO, ?
       }
     }
   }
+
+  /**
+   * Collaborators of the DAO created from its own configuration.
+   */
+  protected class DefaultServices {
+
+    private final SecondaryIndexServiceImpl<Template, IdType> secondaryIndexService =
+        new SecondaryIndexServiceImpl<Template, IdType>();
+    private final AggregateViewServiceImpl<Template, IdType> aggregateViewService =
+        new AggregateViewServiceImpl<Template, IdType>();
+    private final CounterServiceImpl<Template, IdType> counterService = new CounterServiceImpl<Template, IdType>();
+
+    public DefaultServices() {
+      secondaryIndexService.setInfoProvider(getInfoProvider());
+      secondaryIndexService.setExecutorService(getExecutorService());
+      aggregateViewService.setInfoProvider(getInfoProvider());
+      aggregateViewService.setExecutorService(getExecutorService());
+      aggregateViewService.setValueCodecRegistry(getValueCodecRegistry());
+      aggregateViewService.setExecutionTimeout(getExecutionTimeout());
+      counterService.setInfoProvider(getInfoProvider());
+      counterService.setExecutorService(getExecutorService());
+      counterService.setExecutionTimeout(getExecutionTimeout());
+      counterService.setSecondaryIndexService(CommonDao.this.secondaryIndexService != null
+          ? CommonDao.this.secondaryIndexService : secondaryIndexService);
+      counterService.setAggregateViewService(CommonDao.this.aggregateViewService != null
+          ? CommonDao.this.aggregateViewService : aggregateViewService);
+    }
+
+    public SecondaryIndexService<Template, IdType> getSecondaryIndexService() {
+      return secondaryIndexService;
+    }
+
+    public AggregateViewService<Template, IdType> getAggregateViewService() {
+      return aggregateViewService;
+    }
+
+    public CounterService<Template, IdType> getCounterService() {
+      return counterService;
+    }
+  }
+
+  /**
+   * The column, or the row id, an aggregate projection is on.
+   */
+  protected static class ProjectedColumn {
+
+    private final FilterConfig config;
+    private final byte[] family;
+    private final byte[] qualifier;
+
+    public ProjectedColumn(FilterConfig config, byte[] family, byte[] qualifier) {
+      this.config = config;
+      this.family = family;
+      this.qualifier = qualifier;
+    }
+
+    public FilterConfig getConfig() {
+      return config;
+    }
+
+    public byte[] getFamily() {
+      return family;
+    }
+
+    public byte[] getQualifier() {
+      return qualifier;
+    }
+  }
+
+  /**
+   * A row being sorted along with the cells and values it is sorted by.
+   */
+  protected static class SortEntry {
+
+    private final byte[] row;
+    private final byte[][] cells;
+    private final Object[] values;
+
+    public SortEntry(byte[] row, byte[][] cells, Object[] values) {
+      this.row = row;
+      this.cells = cells;
+      this.values = values;
+    }
+
+    public byte[] getRow() {
+      return row;
+    }
+
+    public byte[][] getCells() {
+      return cells;
+    }
+
+    public Object[] getValues() {
+      return values;
+    }
+  }
 }
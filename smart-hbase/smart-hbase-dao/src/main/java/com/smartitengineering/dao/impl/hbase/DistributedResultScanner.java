@@ -0,0 +1,159 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the scanners of all buckets of distributed rows into a single scanner, serving rows in the order of their
+ * original row ids, i.e. ignoring the fixed length bucket prefix.
+ * @author imyousuf
+ */
+public class DistributedResultScanner implements ResultScanner {
+
+  private final List<ResultScanner> scanners;
+  private final int prefixLength;
+  private final PriorityQueue<Head> heads;
+  private boolean initialized;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  public DistributedResultScanner(List<ResultScanner> scanners, final int prefixLength) {
+    this.scanners = new ArrayList<ResultScanner>(scanners);
+    this.prefixLength = prefixLength;
+    this.heads = new PriorityQueue<Head>(Math.max(1, scanners.size()), new Comparator<Head>() {
+
+      @Override
+      public int compare(Head o1, Head o2) {
+        return compareOriginalRows(o1.result.getRow(), o2.result.getRow(), prefixLength);
+      }
+    });
+  }
+
+  public static int compareOriginalRows(byte[] row, byte[] otherRow, int prefixLength) {
+    return Bytes.compareTo(row, prefixLength, row.length - prefixLength, otherRow, prefixLength, otherRow.length -
+        prefixLength);
+  }
+
+  @Override
+  public synchronized Result next() throws IOException {
+    if (!initialized) {
+      initialized = true;
+      for (ResultScanner scanner : scanners) {
+        advance(scanner);
+      }
+    }
+    final Head head = heads.poll();
+    if (head == null) {
+      return null;
+    }
+    advance(head.scanner);
+    return head.result;
+  }
+
+  @Override
+  public synchronized Result[] next(int nbRows) throws IOException {
+    final List<Result> results = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; ++i) {
+      final Result result = next();
+      if (result == null) {
+        break;
+      }
+      results.add(result);
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  @Override
+  public synchronized void close() {
+    heads.clear();
+    for (ResultScanner scanner : scanners) {
+      try {
+        scanner.close();
+      }
+      catch (Exception ex) {
+        logger.warn("Could not close bucket scanner!", ex);
+      }
+    }
+  }
+
+  @Override
+  public Iterator<Result> iterator() {
+    return new Iterator<Result>() {
+
+      private Result next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            next = DistributedResultScanner.this.next();
+          }
+          catch (IOException ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public Result next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        final Result result = next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+    };
+  }
+
+  private void advance(ResultScanner scanner) throws IOException {
+    final Result result = scanner.next();
+    if (result != null) {
+      heads.add(new Head(scanner, result));
+    }
+  }
+
+  private static class Head {
+
+    private final ResultScanner scanner;
+    private final Result result;
+
+    public Head(ResultScanner scanner, Result result) {
+      this.scanner = scanner;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts an unbounded number of entries with bounded memory. At most <tt>bufferSize</tt> entries are held in memory;
+ * whenever the buffer is full it is sorted and spilled to a temporary file as a sorted run. The sorted entries are
+ * then served by merging the runs. At most <tt>maxFanIn</tt> runs are merged at a time, when there are more runs they
+ * are first merged into longer runs in passes, so the number of open files is bounded. The temporary files are removed
+ * when the buffer is closed. An instance is not thread safe.
+ * @author imyousuf
+ */
+public class ExternalSortBuffer<T> implements Iterable<T>, Closeable {
+
+  /**
+   * Writes entries to and reads them back from a spilled run.
+   */
+  public static interface EntrySerializer<T> {
+
+    void write(T entry, DataOutput output) throws IOException;
+
+    T read(DataInput input) throws IOException;
+  }
+  public static final int DEFAULT_MAX_FAN_IN = 64;
+  private final Comparator<? super T> comparator;
+  private final EntrySerializer<T> serializer;
+  private final int bufferSize;
+  private final int maxFanIn;
+  private final File directory;
+  private final List<T> buffer = new ArrayList<T>();
+  private final List<File> spills = new ArrayList<File>();
+  private final List<Closeable> openRuns = new ArrayList<Closeable>();
+  private long size;
+  private boolean iterated, closed;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Create a sort buffer.
+   * @param comparator Comparator defining the order of the entries
+   * @param serializer Serializer for spilling entries
+   * @param bufferSize Maximum number of entries to hold in memory
+   * @param directory Directory to spill to, if null the default temporary directory is used
+   */
+  public ExternalSortBuffer(Comparator<? super T> comparator, EntrySerializer<T> serializer, int bufferSize,
+                            File directory) {
+    this(comparator, serializer, bufferSize, directory, DEFAULT_MAX_FAN_IN);
+  }
+
+  /**
+   * Create a sort buffer.
+   * @param comparator Comparator defining the order of the entries
+   * @param serializer Serializer for spilling entries
+   * @param bufferSize Maximum number of entries to hold in memory
+   * @param directory Directory to spill to, if null the default temporary directory is used
+   * @param maxFanIn Maximum number of runs to merge at a time, at least 2
+   */
+  public ExternalSortBuffer(Comparator<? super T> comparator, EntrySerializer<T> serializer, int bufferSize,
+                            File directory, int maxFanIn) {
+    if (comparator == null || serializer == null) {
+      throw new IllegalArgumentException("Comparator and serializer are mandatory!");
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Buffer size must be positive!");
+    }
+    if (maxFanIn < 2) {
+      throw new IllegalArgumentException("Fan in must be at least 2!");
+    }
+    this.comparator = comparator;
+    this.serializer = serializer;
+    this.bufferSize = bufferSize;
+    this.directory = directory;
+    this.maxFanIn = maxFanIn;
+  }
+
+  public void add(T entry) {
+    if (iterated || closed) {
+      throw new IllegalStateException("Entries can not be added once iterated or closed!");
+    }
+    buffer.add(entry);
+    size++;
+    if (buffer.size() >= bufferSize) {
+      spill();
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public int getSpillCount() {
+    return spills.size();
+  }
+
+  protected void spill() {
+    Collections.sort(buffer, comparator);
+    try {
+      final File file = writeRun(buffer.iterator());
+      if (logger.isDebugEnabled()) {
+        logger.debug("Spilled sorted run of " + buffer.size() + " entries to " + file);
+      }
+    }
+    catch (IOException ex) {
+      close();
+      throw new RuntimeException(ex);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Merge the oldest <tt>maxFanIn</tt> spilled runs into a single run, removing the merged ones.
+   */
+  protected void mergeSpills() throws IOException {
+    final List<File> merging = new ArrayList<File>(spills.subList(0, maxFanIn));
+    final List<FileRun> runs = new ArrayList<FileRun>(merging.size());
+    try {
+      for (File spill : merging) {
+        final FileRun run = new FileRun(spill);
+        openRuns.add(run);
+        runs.add(run);
+      }
+      final File file = writeRun(merge(runs));
+      if (logger.isDebugEnabled()) {
+        logger.debug("Merged " + merging.size() + " sorted runs to " + file);
+      }
+    }
+    finally {
+      for (FileRun run : runs) {
+        closeQuietly(run);
+        openRuns.remove(run);
+      }
+    }
+    spills.removeAll(merging);
+    for (File spill : merging) {
+      if (!spill.delete()) {
+        logger.warn("Could not delete sort spill " + spill);
+      }
+    }
+  }
+
+  private File writeRun(Iterator<T> entries) throws IOException {
+    final File file = File.createTempFile("smart-hbase-sort", ".run", directory);
+    spills.add(file);
+    DataOutputStream output = null;
+    try {
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      while (entries.hasNext()) {
+        output.writeBoolean(true);
+        serializer.write(entries.next(), output);
+      }
+      output.writeBoolean(false);
+    }
+    finally {
+      closeQuietly(output);
+    }
+    return file;
+  }
+
+  /**
+   * Retrieve the entries in sorted order. The buffer can only be iterated once.
+   */
+  @Override
+  public Iterator<T> iterator() {
+    if (iterated || closed) {
+      throw new IllegalStateException("Sort buffer can only be iterated once!");
+    }
+    iterated = true;
+    Collections.sort(buffer, comparator);
+    if (spills.isEmpty()) {
+      return buffer.iterator();
+    }
+    final List<Run> runs = new ArrayList<Run>(maxFanIn);
+    try {
+      while (spills.size() >= maxFanIn) {
+        mergeSpills();
+      }
+      runs.add(new MemoryRun(buffer.iterator()));
+      for (File spill : spills) {
+        final FileRun run = new FileRun(spill);
+        openRuns.add(run);
+        runs.add(run);
+      }
+      return merge(runs);
+    }
+    catch (IOException ex) {
+      close();
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private Iterator<T> merge(List<? extends Run> sortedRuns) throws IOException {
+    final PriorityQueue<Run> runs = new PriorityQueue<Run>(sortedRuns.size(), new Comparator<Run>() {
+
+      @Override
+      public int compare(Run o1, Run o2) {
+        return comparator.compare(o1.head, o2.head);
+      }
+    });
+    for (Run run : sortedRuns) {
+      addIfNotEmpty(runs, run);
+    }
+    return new Iterator<T>() {
+
+      @Override
+      public boolean hasNext() {
+        return !runs.isEmpty();
+      }
+
+      @Override
+      public T next() {
+        final Run run = runs.poll();
+        if (run == null) {
+          throw new NoSuchElementException();
+        }
+        final T entry = run.head;
+        try {
+          addIfNotEmpty(runs, run);
+        }
+        catch (IOException ex) {
+          close();
+          throw new RuntimeException(ex);
+        }
+        return entry;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    buffer.clear();
+    for (Closeable run : openRuns) {
+      closeQuietly(run);
+    }
+    for (File spill : spills) {
+      if (!spill.delete()) {
+        logger.warn("Could not delete sort spill " + spill);
+      }
+    }
+  }
+
+  private void addIfNotEmpty(PriorityQueue<Run> runs, Run run) throws IOException {
+    if (run.advance()) {
+      runs.add(run);
+    }
+  }
+
+  private void closeQuietly(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    }
+    catch (IOException ex) {
+      logger.warn("Could not close sort run!", ex);
+    }
+  }
+
+  private abstract class Run {
+
+    protected T head;
+
+    /**
+     * Move the head to the next entry of the run.
+     * @return False if the run is exhausted
+     */
+    public abstract boolean advance() throws IOException;
+  }
+
+  private class MemoryRun extends Run {
+
+    private final Iterator<T> entries;
+
+    public MemoryRun(Iterator<T> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public boolean advance() {
+      if (entries.hasNext()) {
+        head = entries.next();
+        return true;
+      }
+      head = null;
+      return false;
+    }
+  }
+
+  private class FileRun extends Run implements Closeable {
+
+    private final DataInputStream input;
+
+    public FileRun(File file) throws IOException {
+      this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+      if (input.readBoolean()) {
+        head = serializer.read(input);
+        return true;
+      }
+      head = null;
+      close();
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+}
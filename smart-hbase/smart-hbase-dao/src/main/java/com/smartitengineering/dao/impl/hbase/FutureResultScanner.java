@@ -0,0 +1,134 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+
+/**
+ * Serves the rows read by consecutive sub-scans, e.g. those of the regions of a bucket, from the futures of their
+ * reads. A future is waited for only once the rows of the futures before it are served; closing the scanner cancels
+ * the futures not waited for.
+ * @author imyousuf
+ */
+public class FutureResultScanner implements ResultScanner {
+
+  private final LinkedList<Future<Result[]>> futures;
+  private final long timeoutMillis;
+  private final LinkedList<Result> current = new LinkedList<Result>();
+
+  /**
+   * @param futures Futures of the reads in row order
+   * @param timeoutMillis Maximum time to wait for each future, beyond which it is cancelled
+   */
+  public FutureResultScanner(List<Future<Result[]>> futures, long timeoutMillis) {
+    this.futures = new LinkedList<Future<Result[]>>(futures);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @Override
+  public synchronized Result next() throws IOException {
+    while (current.isEmpty() && !futures.isEmpty()) {
+      final Future<Result[]> future = futures.removeFirst();
+      try {
+        current.addAll(Arrays.asList(future.get(timeoutMillis, TimeUnit.MILLISECONDS)));
+      }
+      catch (TimeoutException ex) {
+        future.cancel(true);
+        throw new IOException(ex);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException(ex);
+      }
+      catch (Exception ex) {
+        throw new IOException(ex);
+      }
+    }
+    return current.poll();
+  }
+
+  @Override
+  public synchronized Result[] next(int nbRows) throws IOException {
+    final List<Result> results = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; ++i) {
+      final Result result = next();
+      if (result == null) {
+        break;
+      }
+      results.add(result);
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  @Override
+  public synchronized void close() {
+    current.clear();
+    for (Future<Result[]> future : futures) {
+      future.cancel(true);
+    }
+    futures.clear();
+  }
+
+  @Override
+  public Iterator<Result> iterator() {
+    return new Iterator<Result>() {
+
+      private Result next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            next = FutureResultScanner.this.next();
+          }
+          catch (IOException ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public Result next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        final Result result = next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+    };
+  }
+}
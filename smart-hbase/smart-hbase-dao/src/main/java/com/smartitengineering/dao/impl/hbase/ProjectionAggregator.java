@@ -0,0 +1,326 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.ParameterType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accumulates aggregate projections, i.e. row count, count, count distinct, sum, average, maximum and minimum, grouped
+ * by the group by projections if any. Partial aggregations, for example one per region, can be combined using
+ * {@link #merge(ProjectionAggregator)}. Result rows have one value per projection in the order of projections, as
+ * Hibernate criteria projections do. An instance is not thread safe.
+ * @author imyousuf
+ */
+public class ProjectionAggregator {
+
+  private static final Set<ParameterType> SUPPORTED_TYPES = Collections.unmodifiableSet(new HashSet<ParameterType>(
+      Arrays.asList(ParameterType.PARAMETER_TYPE_ROW_COUNT, ParameterType.PARAMETER_TYPE_COUNT,
+                    ParameterType.PARAMETER_TYPE_COUNT_DISTINCT, ParameterType.PARAMETER_TYPE_SUM,
+                    ParameterType.PARAMETER_TYPE_AVG, ParameterType.PARAMETER_TYPE_MAX,
+                    ParameterType.PARAMETER_TYPE_MIN, ParameterType.PARAMETER_TYPE_GROUP_BY)));
+  private final List<ParameterType> projections;
+  private final boolean grouped;
+  private final Map<List<Object>, Accumulator[]> groups = new LinkedHashMap<List<Object>, Accumulator[]>();
+
+  /**
+   * Create an aggregator for the projections.
+   * @param projections Types of the projections in order
+   * @throws IllegalArgumentException If any of the projection is not an aggregate projection
+   */
+  public ProjectionAggregator(List<ParameterType> projections) {
+    if (projections == null || projections.isEmpty()) {
+      throw new IllegalArgumentException("At least one projection is required!");
+    }
+    boolean groupBy = false;
+    for (ParameterType type : projections) {
+      if (!isAggregateProjection(type)) {
+        throw new IllegalArgumentException("Not an aggregate projection " + type);
+      }
+      groupBy = groupBy || ParameterType.PARAMETER_TYPE_GROUP_BY.equals(type);
+    }
+    this.projections = Collections.unmodifiableList(new ArrayList<ParameterType>(projections));
+    this.grouped = groupBy;
+  }
+
+  public static boolean isAggregateProjection(ParameterType type) {
+    return SUPPORTED_TYPES.contains(type);
+  }
+
+  public List<ParameterType> getProjections() {
+    return projections;
+  }
+
+  /**
+   * Accumulate a row.
+   * @param values Value of each projection in the row in order of projections, null if the row does not have it. The
+   *               value for row count projection is ignored.
+   */
+  public void add(Object[] values) {
+    if (values == null || values.length != projections.size()) {
+      throw new IllegalArgumentException("Expected exactly one value per projection!");
+    }
+    final Accumulator[] accumulators = getAccumulators(getGroupKey(values));
+    for (int i = 0; i < values.length; ++i) {
+      accumulators[i].add(values[i]);
+    }
+  }
+
+  /**
+   * Combine the partial aggregation of another aggregator of the same projections into this one.
+   * @param other Aggregator to combine
+   */
+  public void merge(ProjectionAggregator other) {
+    if (other == null) {
+      return;
+    }
+    if (!projections.equals(other.projections)) {
+      throw new IllegalArgumentException("Can not merge aggregation of different projections!");
+    }
+    for (Map.Entry<List<Object>, Accumulator[]> group : other.groups.entrySet()) {
+      final Accumulator[] accumulators = getAccumulators(group.getKey());
+      for (int i = 0; i < accumulators.length; ++i) {
+        accumulators[i].merge(group.getValue()[i]);
+      }
+    }
+  }
+
+  /**
+   * Retrieve the aggregated rows. Without any group by projection there is always exactly one row.
+   * @return One row per group in the order groups were first encountered
+   */
+  public List<Object[]> getResults() {
+    final List<Object[]> results = new ArrayList<Object[]>(Math.max(1, groups.size()));
+    if (groups.isEmpty() && !grouped) {
+      results.add(toRow(newAccumulators()));
+    }
+    for (Accumulator[] accumulators : groups.values()) {
+      results.add(toRow(accumulators));
+    }
+    return results;
+  }
+
+  private List<Object> getGroupKey(Object[] values) {
+    if (!grouped) {
+      return Collections.emptyList();
+    }
+    final List<Object> key = new ArrayList<Object>();
+    for (int i = 0; i < values.length; ++i) {
+      if (ParameterType.PARAMETER_TYPE_GROUP_BY.equals(projections.get(i))) {
+        key.add(values[i]);
+      }
+    }
+    return key;
+  }
+
+  private Accumulator[] getAccumulators(List<Object> groupKey) {
+    Accumulator[] accumulators = groups.get(groupKey);
+    if (accumulators == null) {
+      accumulators = newAccumulators();
+      groups.put(groupKey, accumulators);
+    }
+    return accumulators;
+  }
+
+  private Accumulator[] newAccumulators() {
+    final Accumulator[] accumulators = new Accumulator[projections.size()];
+    for (int i = 0; i < accumulators.length; ++i) {
+      accumulators[i] = new Accumulator(projections.get(i));
+    }
+    return accumulators;
+  }
+
+  private Object[] toRow(Accumulator[] accumulators) {
+    final Object[] row = new Object[accumulators.length];
+    for (int i = 0; i < row.length; ++i) {
+      row[i] = accumulators[i].getResult();
+    }
+    return row;
+  }
+
+  /**
+   * Convert a value to a number for sum and average. Strings are parsed as long or else as double.
+   */
+  protected static Number toNumber(Object value) {
+    final Number number = parseNumber(value);
+    if (number == null) {
+      throw new IllegalArgumentException("Can not aggregate non-numeric value " + value);
+    }
+    return number;
+  }
+
+  /**
+   * Parse a value as long or else as double.
+   * @return The number or null if the value is not numeric
+   */
+  public static Number parseNumber(Object value) {
+    if (value instanceof Number) {
+      return (Number) value;
+    }
+    final String string = value.toString().trim();
+    try {
+      return Long.valueOf(string);
+    }
+    catch (NumberFormatException ex) {
+      try {
+        return Double.valueOf(string);
+      }
+      catch (NumberFormatException nfe) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Compare values for maximum and minimum; numbers, including numeric strings, are compared numerically, values of
+   * same comparable type naturally and anything else by their string form.
+   */
+  protected static int compare(Object value, Object otherValue) {
+    final Number number = parseNumber(value), otherNumber = parseNumber(otherValue);
+    if (number != null && otherNumber != null) {
+      if (isIntegral(number) && isIntegral(otherNumber)) {
+        final long longValue = number.longValue(), otherLongValue = otherNumber.longValue();
+        return longValue < otherLongValue ? -1 : (longValue == otherLongValue ? 0 : 1);
+      }
+      return Double.compare(number.doubleValue(), otherNumber.doubleValue());
+    }
+    if (value instanceof Comparable && value.getClass().equals(otherValue.getClass())) {
+      return ((Comparable) value).compareTo(otherValue);
+    }
+    return value.toString().compareTo(otherValue.toString());
+  }
+
+  protected static boolean isIntegral(Number number) {
+    return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+  }
+
+  private static class Accumulator {
+
+    private final ParameterType type;
+    private long count;
+    private long longSum;
+    private double doubleSum;
+    private boolean fractional;
+    private Object extreme;
+    private Set<Object> distinctValues;
+
+    public Accumulator(ParameterType type) {
+      this.type = type;
+      if (ParameterType.PARAMETER_TYPE_COUNT_DISTINCT.equals(type)) {
+        distinctValues = new HashSet<Object>();
+      }
+    }
+
+    public void add(Object value) {
+      switch (type) {
+        case PARAMETER_TYPE_ROW_COUNT:
+          count++;
+          return;
+        case PARAMETER_TYPE_GROUP_BY:
+          extreme = value;
+          return;
+        default:
+      }
+      if (value == null) {
+        return;
+      }
+      count++;
+      switch (type) {
+        case PARAMETER_TYPE_COUNT_DISTINCT:
+          distinctValues.add(value);
+          return;
+        case PARAMETER_TYPE_SUM:
+        case PARAMETER_TYPE_AVG: {
+          final Number number = toNumber(value);
+          if (isIntegral(number)) {
+            longSum += number.longValue();
+          }
+          else {
+            fractional = true;
+            doubleSum += number.doubleValue();
+          }
+          return;
+        }
+        case PARAMETER_TYPE_MAX:
+          if (extreme == null || compare(value, extreme) > 0) {
+            extreme = value;
+          }
+          return;
+        case PARAMETER_TYPE_MIN:
+          if (extreme == null || compare(value, extreme) < 0) {
+            extreme = value;
+          }
+          return;
+        default:
+      }
+    }
+
+    public void merge(Accumulator other) {
+      count += other.count;
+      longSum += other.longSum;
+      doubleSum += other.doubleSum;
+      fractional = fractional || other.fractional;
+      if (distinctValues != null) {
+        distinctValues.addAll(other.distinctValues);
+      }
+      if (ParameterType.PARAMETER_TYPE_GROUP_BY.equals(type) || extreme == null) {
+        extreme = other.extreme;
+      }
+      else if (other.extreme != null) {
+        final int comparison = compare(other.extreme, extreme);
+        if ((ParameterType.PARAMETER_TYPE_MAX.equals(type) && comparison > 0) ||
+            (ParameterType.PARAMETER_TYPE_MIN.equals(type) && comparison < 0)) {
+          extreme = other.extreme;
+        }
+      }
+    }
+
+    public Object getResult() {
+      switch (type) {
+        case PARAMETER_TYPE_ROW_COUNT:
+        case PARAMETER_TYPE_COUNT:
+          return count;
+        case PARAMETER_TYPE_COUNT_DISTINCT:
+          return (long) distinctValues.size();
+        case PARAMETER_TYPE_SUM:
+          if (count == 0) {
+            return null;
+          }
+          if (fractional) {
+            return doubleSum + longSum;
+          }
+          return longSum;
+        case PARAMETER_TYPE_AVG:
+          if (count == 0) {
+            return null;
+          }
+          return (doubleSum + longSum) / count;
+        default:
+          return extreme;
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent identical requests so that they share one in flight execution. The first caller of a key runs
+ * the request in its own thread while other callers of the same key arriving before it completes wait for and get its
+ * result, or its error. Results are not cached, a request arriving after completion is executed anew. Note that all
+ * the callers sharing an execution get the same instance as result.
+ * @author imyousuf
+ */
+public class RequestCoalescer<K, V> {
+
+  private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+  /**
+   * Execute the request of the key unless an identical request is already in flight, in which case wait for its result.
+   * @param key Key identifying the request, must implement equals and hashCode by value
+   * @param request The request to execute
+   * @return Result of the execution
+   * @throws RuntimeException Wrapping any checked exception of the request, unchecked ones are thrown as is
+   */
+  public V execute(K key, Callable<V> request) {
+    final FutureTask<V> task = new FutureTask<V>(request);
+    FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+    if (existing == null) {
+      existing = task;
+      try {
+        task.run();
+      }
+      finally {
+        inFlight.remove(key, task);
+      }
+    }
+    try {
+      return existing.get();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+    catch (ExecutionException ex) {
+      final Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Retrieve the number of requests currently in flight.
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a scanner in batches, double buffered; whenever a batch is handed out the next one is fetched in the
+ * background so that the network round trips overlap processing, e.g. conversion, of the batch handed out. To cap the
+ * memory held by a prefetched batch the number of rows of the next batch is reduced, based on the size of the rows
+ * of the last batch, so that its estimated size stays within the maximum prefetch bytes. Batches are fetched one at a
+ * time, so the scanner is never accessed concurrently. An instance is not thread safe.
+ * @author imyousuf
+ */
+public class ResultBatchPrefetcher implements Closeable {
+
+  private static final Result[] EMPTY = new Result[0];
+  private final ResultScanner scanner;
+  private final ExecutorService fetchExecutor;
+  private final int batchSize;
+  private final long maxRows;
+  private final long maxPrefetchBytes;
+  private Future<Result[]> pending;
+  private int pendingRows;
+  private int nextBatchSize;
+  private long rowsFetched;
+  private boolean exhausted, closed;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Create a prefetcher of the scanner.
+   * @param scanner The scanner to read, it is closed when this prefetcher is closed
+   * @param fetchExecutor Executor to fetch the next batch in, if null batches are fetched only on demand
+   * @param batchSize Maximum number of rows in a batch
+   * @param maxRows Maximum number of rows to read in total, a non-positive value denotes no limit
+   * @param maxPrefetchBytes Estimated maximum bytes of a batch, a non-positive value denotes no limit
+   */
+  public ResultBatchPrefetcher(ResultScanner scanner, ExecutorService fetchExecutor, int batchSize, long maxRows,
+                               long maxPrefetchBytes) {
+    if (scanner == null || batchSize <= 0) {
+      throw new IllegalArgumentException("Scanner is mandatory and batch size must be positive!");
+    }
+    this.scanner = scanner;
+    this.fetchExecutor = fetchExecutor;
+    this.batchSize = batchSize;
+    this.maxRows = maxRows;
+    this.maxPrefetchBytes = maxPrefetchBytes;
+    this.nextBatchSize = batchSize;
+  }
+
+  /**
+   * Retrieve the next batch and start fetching the one after it.
+   * @return The rows of the batch, empty once all rows are read
+   */
+  public Result[] nextBatch() throws IOException {
+    if (closed) {
+      return EMPTY;
+    }
+    if (pending == null) {
+      fetch(getRowsToFetch(nextBatchSize), false);
+    }
+    if (pending == null) {
+      return EMPTY;
+    }
+    final int requestedRows = pendingRows;
+    final Result[] results = await(pending);
+    pending = null;
+    rowsFetched += results.length;
+    if (results.length < requestedRows) {
+      exhausted = true;
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Fetched " + results.length + " rows, total " + rowsFetched);
+    }
+    nextBatchSize = getNextBatchSize(results);
+    if (results.length > 0 && fetchExecutor != null) {
+      fetch(getRowsToFetch(nextBatchSize), true);
+    }
+    return results;
+  }
+
+  public long getRowsFetched() {
+    return rowsFetched;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    exhausted = true;
+    if (pending != null) {
+      try {
+        await(pending);
+      }
+      catch (Exception ex) {
+        logger.debug("Prefetch of closed scanner failed", ex);
+      }
+      pending = null;
+    }
+    scanner.close();
+  }
+
+  /**
+   * Estimate the size of rows in bytes.
+   */
+  public static long getSize(Result[] results) {
+    long size = 0;
+    for (Result result : results) {
+      if (result != null && result.raw() != null) {
+        for (KeyValue keyValue : result.raw()) {
+          size += keyValue.getLength();
+        }
+      }
+    }
+    return size;
+  }
+
+  protected int getNextBatchSize(Result[] lastBatch) {
+    if (maxPrefetchBytes <= 0) {
+      return batchSize;
+    }
+    final long size = getSize(lastBatch);
+    if (size <= 0) {
+      return batchSize;
+    }
+    final long rows = (maxPrefetchBytes * lastBatch.length) / size;
+    return (int) Math.max(1, Math.min(batchSize, rows));
+  }
+
+  private int getRowsToFetch(int rows) {
+    if (exhausted) {
+      return 0;
+    }
+    if (maxRows > 0) {
+      return (int) Math.min(rows, maxRows - rowsFetched);
+    }
+    return rows;
+  }
+
+  private void fetch(final int rows, boolean inBackground) {
+    if (rows <= 0) {
+      exhausted = true;
+      return;
+    }
+    final FutureTask<Result[]> task = new FutureTask<Result[]>(new Callable<Result[]>() {
+
+      @Override
+      public Result[] call() throws Exception {
+        final Result[] results = scanner.next(rows);
+        return results == null ? EMPTY : results;
+      }
+    });
+    pendingRows = rows;
+    pending = task;
+    if (inBackground) {
+      fetchExecutor.execute(task);
+    }
+    else {
+      task.run();
+    }
+  }
+
+  private Result[] await(Future<Result[]> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ex.getMessage());
+    }
+    catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new RuntimeException(ex.getCause());
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ScanCursor} backed by a {@link ResultScanner}. At most <tt>prefetchSize</tt> rows are held in memory at any
+ * time; a batch is converted to objects using the result executor service and handed out one by one before the next
+ * batch is read from the scanner.
+ * @author imyousuf
+ */
+public class ResultScannerCursor<Template> implements ScanCursor<Template> {
+
+  private final ResultScanner scanner;
+  private final ObjectRowConverter<Template> converter;
+  private final com.smartitengineering.dao.impl.hbase.spi.ExecutorService executorService;
+  private final ExecutorService resultExecutorService;
+  private final int prefetchSize;
+  private final long maxRows;
+  private final LinkedList<Template> buffer = new LinkedList<Template>();
+  private long rowsFetched;
+  private boolean exhausted, closed, iterated;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Create a cursor over the scanner.
+   * @param scanner The scanner to read rows from, it will be closed when this cursor is closed
+   * @param converter Converter to convert each row to the domain object
+   * @param executorService The HBase executor service passed to the converter for additional rows
+   * @param resultExecutorService Executor to convert a batch of rows concurrently, if null rows are converted in the
+   *                              iterating thread
+   * @param prefetchSize Maximum number of rows to read from the scanner at once
+   * @param maxRows Maximum number of rows to read in total, a non-positive value denotes no limit
+   */
+  public ResultScannerCursor(ResultScanner scanner, ObjectRowConverter<Template> converter,
+                             com.smartitengineering.dao.impl.hbase.spi.ExecutorService executorService,
+                             ExecutorService resultExecutorService, int prefetchSize, long maxRows) {
+    if (scanner == null || converter == null) {
+      throw new IllegalArgumentException("Scanner and converter are mandatory!");
+    }
+    if (prefetchSize <= 0) {
+      throw new IllegalArgumentException("Prefetch size must be positive!");
+    }
+    this.scanner = scanner;
+    this.converter = converter;
+    this.executorService = executorService;
+    this.resultExecutorService = resultExecutorService;
+    this.prefetchSize = prefetchSize;
+    this.maxRows = maxRows;
+  }
+
+  @Override
+  public synchronized Iterator<Template> iterator() {
+    if (iterated) {
+      throw new IllegalStateException("Cursor can only be iterated once!");
+    }
+    iterated = true;
+    return new Iterator<Template>() {
+
+      @Override
+      public boolean hasNext() {
+        return fill();
+      }
+
+      @Override
+      public Template next() {
+        if (!fill()) {
+          throw new NoSuchElementException();
+        }
+        synchronized (ResultScannerCursor.this) {
+          return buffer.removeFirst();
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+    };
+  }
+
+  @Override
+  public synchronized long getRowsFetched() {
+    return rowsFetched;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    exhausted = true;
+    buffer.clear();
+    try {
+      scanner.close();
+    }
+    catch (Exception ex) {
+      logger.warn("Could not close scanner!", ex);
+    }
+  }
+
+  /**
+   * Make sure there is at least one converted object in the buffer unless the scanner is exhausted.
+   * @return True if there is an object to be served
+   */
+  protected synchronized boolean fill() {
+    while (buffer.isEmpty() && !exhausted) {
+      final int rowsToFetch;
+      if (maxRows > 0) {
+        rowsToFetch = (int) Math.min(prefetchSize, maxRows - rowsFetched);
+      }
+      else {
+        rowsToFetch = prefetchSize;
+      }
+      if (rowsToFetch <= 0) {
+        exhausted = true;
+        break;
+      }
+      final Result[] results;
+      try {
+        results = scanner.next(rowsToFetch);
+      }
+      catch (Exception ex) {
+        close();
+        throw new RuntimeException(ex);
+      }
+      if (results == null || results.length < rowsToFetch) {
+        exhausted = true;
+      }
+      if (results != null) {
+        rowsFetched += results.length;
+        if (logger.isDebugEnabled()) {
+          logger.debug("Fetched " + results.length + " rows, total " + rowsFetched);
+        }
+        buffer.addAll(convert(results));
+      }
+    }
+    if (buffer.isEmpty()) {
+      close();
+      return false;
+    }
+    return true;
+  }
+
+  protected List<Template> convert(Result[] results) {
+    final List<Template> templates = new ArrayList<Template>(results.length);
+    try {
+      if (resultExecutorService == null) {
+        for (Result result : results) {
+          if (result != null && !result.isEmpty()) {
+            addIfNotNull(templates, converter.rowsToObject(result, executorService));
+          }
+        }
+      }
+      else {
+        final List<Future<Template>> futureTemplates = new ArrayList<Future<Template>>(results.length);
+        for (final Result result : results) {
+          if (result == null || result.isEmpty()) {
+            continue;
+          }
+          futureTemplates.add(resultExecutorService.submit(new Callable<Template>() {
+
+            @Override
+            public Template call() throws Exception {
+              return converter.rowsToObject(result, executorService);
+            }
+          }));
+        }
+        for (Future<Template> future : futureTemplates) {
+          addIfNotNull(templates, future.get());
+        }
+      }
+    }
+    catch (Exception ex) {
+      close();
+      throw new RuntimeException(ex);
+    }
+    return templates;
+  }
+
+  private void addIfNotNull(List<Template> templates, Template template) {
+    if (template != null) {
+      templates.add(template);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.Closeable;
+
+/**
+ * A lazy, forward only view over the rows matched by a scan. Rows are fetched from the region servers in bounded
+ * batches as the cursor is iterated, so memory usage does not depend on the size of the table. A cursor can only be
+ * iterated once and it must be {@link #close() closed} if it is not iterated till the end.
+ * @author imyousuf
+ */
+public interface ScanCursor<Template> extends Iterable<Template>, Closeable {
+
+  /**
+   * Retrieve the number of rows read from HBase so far.
+   * @return Rows fetched till now
+   */
+  long getRowsFetched();
+
+  /**
+   * Denotes whether the underlying scanner has been released or not.
+   * @return True if closed, false otherwise
+   */
+  boolean isClosed();
+}
@@ -0,0 +1,149 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ScanCursor} over rows whose keys are already known in the desired order, for example as the outcome of a
+ * sort. The rows are fetched in batches of at most <tt>batchSize</tt> as the cursor is iterated, retaining the order
+ * of the keys.
+ * @author imyousuf
+ */
+public abstract class SortedRowCursor<Template> implements ScanCursor<Template> {
+
+  private final Iterator<byte[]> rows;
+  private final Closeable resource;
+  private final int batchSize;
+  private final LinkedList<Template> buffer = new LinkedList<Template>();
+  private long rowsFetched;
+  private boolean closed, iterated;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Create a cursor over the rows.
+   * @param rows Keys of the rows in order
+   * @param resource Resource backing the row keys, closed with this cursor, may be null
+   * @param batchSize Maximum number of rows to fetch at once
+   */
+  public SortedRowCursor(Iterator<byte[]> rows, Closeable resource, int batchSize) {
+    if (rows == null) {
+      throw new IllegalArgumentException("Rows are mandatory!");
+    }
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive!");
+    }
+    this.rows = rows;
+    this.resource = resource;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Fetch and convert the rows.
+   * @param rows Keys of the rows to fetch
+   * @return Objects of the rows that still exist, in the order of the keys
+   */
+  protected abstract List<Template> fetch(List<byte[]> rows);
+
+  @Override
+  public synchronized Iterator<Template> iterator() {
+    if (iterated) {
+      throw new IllegalStateException("Cursor can only be iterated once!");
+    }
+    iterated = true;
+    return new Iterator<Template>() {
+
+      @Override
+      public boolean hasNext() {
+        return fill();
+      }
+
+      @Override
+      public Template next() {
+        if (!fill()) {
+          throw new NoSuchElementException();
+        }
+        synchronized (SortedRowCursor.this) {
+          return buffer.removeFirst();
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+    };
+  }
+
+  @Override
+  public synchronized long getRowsFetched() {
+    return rowsFetched;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    buffer.clear();
+    if (resource != null) {
+      try {
+        resource.close();
+      }
+      catch (Exception ex) {
+        logger.warn("Could not close sorted rows!", ex);
+      }
+    }
+  }
+
+  protected synchronized boolean fill() {
+    while (buffer.isEmpty() && !closed && rows.hasNext()) {
+      final List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+      while (batch.size() < batchSize && rows.hasNext()) {
+        batch.add(rows.next());
+      }
+      rowsFetched += batch.size();
+      try {
+        buffer.addAll(fetch(batch));
+      }
+      catch (RuntimeException ex) {
+        close();
+        throw ex;
+      }
+    }
+    if (buffer.isEmpty()) {
+      close();
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.ExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.WriteBehindService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers puts of many callers and writes them behind the callers' back in large batches, one
+ * {@link HTableInterface#put(java.util.List)} per table per batch. A batch is flushed when it reaches the batch size or
+ * when its first write has waited for the flush interval. At most the capacity number of puts are buffered; once full,
+ * writers block till a batch is flushed. Each write gets a future which completes once its puts are written or fails
+ * with the error of writing its batch.
+ * @author imyousuf
+ */
+public class WriteBehindBuffer implements WriteBehindService {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+  public static final int DEFAULT_CAPACITY = 10000;
+  private final ExecutorService executorService;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final int capacity;
+  private final Semaphore permits;
+  private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<PendingWrite>();
+  private final Thread flusher;
+  private volatile boolean closed;
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  public WriteBehindBuffer(ExecutorService executorService) {
+    this(executorService, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_CAPACITY);
+  }
+
+  public WriteBehindBuffer(ExecutorService executorService, int batchSize, long flushIntervalMillis, int capacity) {
+    if (executorService == null || batchSize <= 0 || flushIntervalMillis <= 0 || capacity < batchSize) {
+      throw new IllegalArgumentException("Executor is mandatory, batch size and interval must be positive and " +
+          "capacity at least the batch size!");
+    }
+    this.executorService = executorService;
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.capacity = capacity;
+    this.permits = new Semaphore(capacity);
+    this.flusher = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        flushContinuously();
+      }
+    }, "smart-hbase-write-behind");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public long getFlushIntervalMillis() {
+    return flushIntervalMillis;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Number of puts buffered but not yet written.
+   */
+  public int getPendingPuts() {
+    return capacity - permits.availablePermits();
+  }
+
+  /**
+   * Buffer puts to be written, blocking while the buffer is full.
+   * @param puts Puts by table name
+   * @param onCompletion Action to run once the puts are written or have failed, may be null
+   * @return Future of the write
+   * @throws IllegalStateException If the buffer is closed
+   */
+  @Override
+  public Future<Void> write(Map<String, List<Put>> puts, Runnable onCompletion) {
+    if (closed) {
+      throw new IllegalStateException("Write behind buffer is closed!");
+    }
+    int size = 0;
+    for (List<Put> tablePuts : puts.values()) {
+      size += tablePuts.size();
+    }
+    final PendingWrite write = new PendingWrite(puts, Math.min(size, capacity), onCompletion, false);
+    try {
+      permits.acquire(write.permits);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+    queue.add(write);
+    if (closed && !flusher.isAlive() && queue.remove(write)) {
+      write.complete(new IllegalStateException("Write behind buffer is closed!"));
+    }
+    return write;
+  }
+
+  /**
+   * Write all the puts buffered so far, waiting till they are written.
+   */
+  @Override
+  public void flush() {
+    if (!flusher.isAlive()) {
+      return;
+    }
+    final PendingWrite marker = new PendingWrite(Collections.<String, List<Put>>emptyMap(), 0, null, true);
+    queue.add(marker);
+    try {
+      marker.get();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+    catch (ExecutionException ex) {
+      throw new RuntimeException(ex.getCause());
+    }
+  }
+
+  /**
+   * Stop accepting writes, flush the buffered ones and wait for the flusher thread to stop. Writes that raced with
+   * closing and could not be written fail.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    flush();
+    flusher.interrupt();
+    try {
+      flusher.join();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+    PendingWrite write;
+    while ((write = queue.poll()) != null) {
+      write.complete(new IllegalStateException("Write behind buffer is closed!"));
+    }
+  }
+
+  protected void flushContinuously() {
+    final List<PendingWrite> batch = new ArrayList<PendingWrite>();
+    while (true) {
+      try {
+        final PendingWrite first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          if (closed && queue.isEmpty()) {
+            return;
+          }
+          continue;
+        }
+        batch.add(first);
+        int size = first.permits;
+        boolean flushNow = first.flushNow;
+        final long deadline = System.currentTimeMillis() + flushIntervalMillis;
+        while (!flushNow && size < batchSize) {
+          final long remaining = deadline - System.currentTimeMillis();
+          final PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : null;
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+          size += next.permits;
+          flushNow = next.flushNow;
+        }
+        writeBatch(batch);
+      }
+      catch (InterruptedException ex) {
+        if (!batch.isEmpty()) {
+          writeBatch(batch);
+        }
+        if (closed && queue.isEmpty()) {
+          return;
+        }
+      }
+      finally {
+        batch.clear();
+      }
+    }
+  }
+
+  protected void writeBatch(List<PendingWrite> batch) {
+    final Map<String, List<Put>> allPuts = new LinkedHashMap<String, List<Put>>();
+    int permitsToRelease = 0;
+    for (PendingWrite write : batch) {
+      permitsToRelease += write.permits;
+      for (Map.Entry<String, List<Put>> puts : write.puts.entrySet()) {
+        List<Put> tablePuts = allPuts.get(puts.getKey());
+        if (tablePuts == null) {
+          tablePuts = new ArrayList<Put>();
+          allPuts.put(puts.getKey(), tablePuts);
+        }
+        tablePuts.addAll(puts.getValue());
+      }
+    }
+    Throwable error = null;
+    try {
+      for (Map.Entry<String, List<Put>> puts : allPuts.entrySet()) {
+        final List<Put> tablePuts = puts.getValue();
+        if (logger.isDebugEnabled()) {
+          logger.debug("Writing behind " + tablePuts.size() + " puts to " + puts.getKey());
+        }
+        executorService.execute(puts.getKey(), new Callback<Void>() {
+
+          @Override
+          public Void call(HTableInterface tableInterface) throws Exception {
+            tableInterface.put(tablePuts);
+            tableInterface.flushCommits();
+            return null;
+          }
+        });
+      }
+    }
+    catch (Throwable ex) {
+      logger.warn("Could not write behind batch!", ex);
+      error = ex;
+    }
+    finally {
+      permits.release(permitsToRelease);
+    }
+    for (PendingWrite write : batch) {
+      write.complete(error);
+    }
+  }
+
+  private static class PendingWrite implements Future<Void> {
+
+    private final Map<String, List<Put>> puts;
+    private final int permits;
+    private final Runnable onCompletion;
+    private final boolean flushNow;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile Throwable error;
+
+    public PendingWrite(Map<String, List<Put>> puts, int permits, Runnable onCompletion, boolean flushNow) {
+      this.puts = puts;
+      this.permits = permits;
+      this.onCompletion = onCompletion;
+      this.flushNow = flushNow;
+    }
+
+    public void complete(Throwable error) {
+      this.error = error;
+      try {
+        if (onCompletion != null) {
+          onCompletion.run();
+        }
+      }
+      finally {
+        latch.countDown();
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return latch.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      latch.await();
+      return getResult();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!latch.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return getResult();
+    }
+
+    private Void getResult() throws ExecutionException {
+      if (error != null) {
+        throw new ExecutionException(error);
+      }
+      return null;
+    }
+  }
+}
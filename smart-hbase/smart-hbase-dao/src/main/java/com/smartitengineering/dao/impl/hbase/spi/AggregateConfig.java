@@ -0,0 +1,131 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * Configuration of an aggregate view, a rollup table maintained on writes with the count of rows and the sums of
+ * properties per group of rows having the same values of the group by properties. The rollup table has one row per
+ * group, keyed by the values of the group by properties as they are stored in the main table, with a count cell and
+ * one sum cell per summed property, all 8 byte longs. Rows missing any of the group by values are not aggregated.
+ * @author imyousuf
+ */
+public class AggregateConfig {
+
+  public static final String DEFAULT_COLUMN_FAMILY = "aggregates";
+  public static final String COUNT_QUALIFIER = "count";
+  public static final String SUM_QUALIFIER_PREFIX = "sum:";
+  private String tableName;
+  private byte[] columnFamily = Bytes.toBytes(DEFAULT_COLUMN_FAMILY);
+  private List<String> groupBy = new ArrayList<String>();
+  private List<String> sums = new ArrayList<String>();
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public void setTableName(String tableName) {
+    this.tableName = tableName;
+  }
+
+  @JsonIgnore
+  public byte[] getColumnFamily() {
+    return columnFamily;
+  }
+
+  @JsonIgnore
+  public void setColumnFamily(byte[] columnFamily) {
+    this.columnFamily = columnFamily;
+  }
+
+  public String getColumnFamilyAsString() {
+    return Bytes.toString(columnFamily);
+  }
+
+  @JsonProperty
+  public void setColumnFamilyAsString(String columnFamily) {
+    setColumnFamily(Bytes.toBytes(columnFamily));
+  }
+
+  public List<String> getGroupBy() {
+    return groupBy;
+  }
+
+  /**
+   * Set the names of the properties to group by, in the order they make up the rollup table's row ids.
+   */
+  public void setGroupBy(List<String> groupBy) {
+    this.groupBy = groupBy == null ? new ArrayList<String>() : groupBy;
+  }
+
+  public List<String> getSums() {
+    return sums;
+  }
+
+  /**
+   * Set the names of the properties to sum; their values are summed as longs, fractions are truncated.
+   */
+  public void setSums(List<String> sums) {
+    this.sums = sums == null ? new ArrayList<String>() : sums;
+  }
+
+  @JsonIgnore
+  public byte[] getSumQualifier(String propertyName) {
+    return Bytes.toBytes(SUM_QUALIFIER_PREFIX + propertyName);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final AggregateConfig other = (AggregateConfig) obj;
+    if ((this.tableName == null) ? (other.tableName != null) : !this.tableName.equals(other.tableName)) {
+      return false;
+    }
+    if (!this.groupBy.equals(other.groupBy) || !this.sums.equals(other.sums)) {
+      return false;
+    }
+    return Bytes.equals(this.columnFamily, other.columnFamily);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 3;
+    hash = 37 * hash + (this.tableName != null ? this.tableName.hashCode() : 0);
+    hash = 37 * hash + Bytes.hashCode(this.columnFamily);
+    hash = 37 * hash + this.groupBy.hashCode();
+    hash = 37 * hash + this.sums.hashCode();
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "AggregateConfig{" + "tableName=" + tableName + ", columnFamily=" + Bytes.toString(columnFamily) +
+        ", groupBy=" + groupBy + ", sums=" + sums + '}';
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.util.Map;
+
+/**
+ * Declares the aggregate views of a domain, which the DAO maintains on writes and reads pre-aggregated. The
+ * {@link SchemaInfoProvider} of a DAO may implement it.
+ * @author imyousuf
+ */
+public interface AggregateConfigProvider {
+
+  /**
+   * Retrieve the aggregate views.
+   * @return Aggregate configurations mapped by the names of the views, properties they group by or sum must have a
+   *         column {@link FilterConfig filter config}
+   */
+  Map<String, AggregateConfig> getAggregateConfigs();
+}
@@ -0,0 +1,92 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Amounts to increment the cells of a group in the rollup table of an aggregate view by, for a write of a row or,
+ * when combined, for the writes of several rows.
+ * @author imyousuf
+ */
+public class AggregateDelta {
+
+  private final String viewName;
+  private final AggregateConfig aggregate;
+  private final byte[] group;
+  private final byte[] row;
+  private final Map<byte[], Long> amounts = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+
+  public AggregateDelta(String viewName, AggregateConfig aggregate, byte[] group, byte[] row) {
+    this.viewName = viewName;
+    this.aggregate = aggregate;
+    this.group = group;
+    this.row = row;
+  }
+
+  public String getViewName() {
+    return viewName;
+  }
+
+  public AggregateConfig getAggregate() {
+    return aggregate;
+  }
+
+  public byte[] getGroup() {
+    return group;
+  }
+
+  /**
+   * The row of the main table written, null for deltas combined from several rows.
+   */
+  public byte[] getRow() {
+    return row;
+  }
+
+  public Map<byte[], Long> getAmounts() {
+    return amounts;
+  }
+
+  public void add(byte[] qualifier, long amount) {
+    final Long current = amounts.get(qualifier);
+    amounts.put(qualifier, current == null ? amount : current + amount);
+  }
+
+  public void add(AggregateDelta other) {
+    for (Map.Entry<byte[], Long> amount : other.amounts.entrySet()) {
+      add(amount.getKey(), amount.getValue());
+    }
+  }
+
+  /**
+   * Form the increment of the group, without the cells whose amounts are 0.
+   */
+  public Increment toIncrement() {
+    final Increment increment = new Increment(group);
+    for (Map.Entry<byte[], Long> amount : amounts.entrySet()) {
+      if (amount.getValue() != 0) {
+        increment.addColumn(aggregate.getColumnFamily(), amount.getKey(), amount.getValue());
+      }
+    }
+    return increment;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import com.smartitengineering.dao.impl.hbase.Aggregate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Pair;
+
+/**
+ * Maintains the rollup tables of the aggregate views of the main table of a domain and reads their pre-aggregated
+ * values. The deltas of a write are {@link #applyAggregateDeltas(DerivedDataUpdate, java.util.List) applied} once the
+ * rows of the main table are written.
+ * @author imyousuf
+ */
+public interface AggregateViewService<T, IdType> {
+
+  /**
+   * Retrieve the aggregate views maintained.
+   * @return Aggregate configurations by view name
+   */
+  Map<String, AggregateConfig> getAggregateConfigs();
+
+  /**
+   * Retrieve the properties grouped by or summed by any of the aggregate views.
+   */
+  Set<String> getAggregatedProperties();
+
+  /**
+   * Add the deltas of a write of a row of the main table to the update.
+   * @param current Current values of the aggregated properties, null or absent for missing values
+   * @param written Values of the aggregated properties the write sets, null for those it removes; properties the write
+   *                does not touch are absent
+   */
+  void prepareAggregateDeltas(DerivedDataUpdate update, byte[] row, Map<String, byte[]> current,
+                              Map<String, byte[]> written);
+
+  /**
+   * Increment the rollup tables by the deltas of the update once the rows of the main table are written.
+   * @param failed Rows of the main table which were not written, whose deltas are to be discarded
+   */
+  void applyAggregateDeltas(DerivedDataUpdate update, List<? extends Row> failed);
+
+  /**
+   * Retrieve the increments of rollup tables that failed, oldest first.
+   * @return Increments by rollup table name
+   */
+  List<Pair<String, Increment>> getFailedAggregateIncrements();
+
+  /**
+   * Retry the failed increments of rollup tables, recording those failing again.
+   * @return Number of increments that failed again
+   */
+  int retryFailedAggregateIncrements();
+
+  /**
+   * Read the pre-aggregated values of groups of an aggregate view.
+   * @param viewName Name of the view
+   * @param groups Values of the group by properties of each group, in the order of the view's group by properties
+   * @return Aggregates in the order of the groups, with count and sums of 0 for groups without rows
+   * @throws IllegalArgumentException If there is no such view or a group does not have a value for each group by
+   *                                  property
+   */
+  List<Aggregate> getAggregates(String viewName, List<Object[]> groups);
+}
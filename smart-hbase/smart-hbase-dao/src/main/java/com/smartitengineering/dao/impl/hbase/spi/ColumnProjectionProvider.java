@@ -0,0 +1,41 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.util.Map;
+import java.util.NavigableSet;
+
+/**
+ * Declares the columns required to convert a row to an object for a read profile, so that only those columns are read
+ * from HBase. Either the {@link ObjectRowConverter} or the {@link SchemaInfoProvider} of a DAO may implement it; the
+ * converter takes precedence.
+ * @author imyousuf
+ */
+public interface ColumnProjectionProvider {
+
+  String DEFAULT_READ_PROFILE = "default";
+
+  /**
+   * Retrieve the columns required for a read profile.
+   * @param readProfile The read profile to retrieve the columns for
+   * @return Column families mapped to the qualifiers required from them, a null or empty set of qualifiers denotes
+   *         the whole family. Null or empty denotes that all columns of the row are required.
+   */
+  Map<byte[], NavigableSet<byte[]>> getRequiredColumns(String readProfile);
+}
@@ -0,0 +1,36 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+/**
+ * Resolves optimistic locking conflicts so that the DAO can retry the conflicting writes. Implementations typically
+ * apply the changes of the attempted state on top of the current state.
+ * @author imyousuf
+ */
+public interface ConflictMerger<T> {
+
+  /**
+   * Merge a state whose write failed optimistically with the state currently persisted.
+   * @param attempted The state that was attempted to be written
+   * @param current The state currently persisted, freshly read, null if it does not exist anymore
+   * @return The state to retry the write with, its version should be that of the current state; or null to give up
+   *         and fail the operation
+   */
+  T merge(T attempted, T current);
+}
@@ -0,0 +1,49 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.util.Map;
+
+/**
+ * Atomically adds to counter columns of the main table of a domain, without reading or locking the entities. A counter
+ * is denoted by a property as in queries, where "property:qualifier" denotes a column of a property whose qualifier
+ * is a range prefix, and holds an 8 byte big endian long.
+ * @author imyousuf
+ */
+public interface CounterService<T, IdType> {
+
+  /**
+   * Add to counter columns of an entity in a single request.
+   * @param amounts Amount to add, may be negative, by property name
+   * @param lockType Locking of the domain; with optimistic locking the version column is incremented too
+   * @return The new value of each counter by property name
+   * @throws IllegalArgumentException If a property does not denote a counter column
+   */
+  Map<String, Long> increment(IdType id, Map<String, Long> amounts, LockType lockType);
+
+  /**
+   * Add to counter columns of multiple entities, incrementing each entity asynchronously in a single request. The
+   * increment of an entity failing does not stop the others from being incremented.
+   * @param amounts Amounts to add by property name by id of the entity
+   * @return The new values of the counters by id
+   * @throws IllegalStateException If the increment of any entity failed, naming the ids of all such entities, with the
+   *                               first failure as cause
+   */
+  Map<IdType, Map<String, Long>> increment(Map<IdType, Map<String, Long>> amounts, LockType lockType);
+}
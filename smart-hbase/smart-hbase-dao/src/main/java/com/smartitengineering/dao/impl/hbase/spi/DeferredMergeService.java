@@ -0,0 +1,44 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * A merge service whose removal of stale columns can be deferred till the puts are written, so that a put failing
+ * after the merge does not remove the columns of its entity and readers never see a row emptied before the put.
+ * @author imyousuf
+ */
+public interface DeferredMergeService<T, IdType> extends MergeService<T, IdType> {
+
+  /**
+   * Prepare the puts for merging without removing any column yet.
+   * @param tableInterface The table the puts are to be written to
+   * @param puts The puts to merge
+   * @param lockType The lock type the puts are written with
+   * @return The deletes removing the stale columns, in the order of the puts; a delete without families denotes
+   *         nothing to remove. Each delete is to be sent only once its put is written and, with optimistic locking,
+   *         checked against the version the put wrote.
+   */
+  List<Delete> prepareMerge(HTableInterface tableInterface, List<Put> puts, LockType lockType) throws IOException;
+}
@@ -0,0 +1,55 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data derived from a write to the main table, i.e. the secondary index entries to add and remove and the deltas of
+ * the aggregate views.
+ * @author imyousuf
+ */
+public class DerivedDataUpdate {
+
+  private final long timestamp;
+  private final List<IndexEntry> additions = new ArrayList<IndexEntry>();
+  private final List<IndexEntry> removals = new ArrayList<IndexEntry>();
+  private final List<AggregateDelta> aggregations = new ArrayList<AggregateDelta>();
+
+  public DerivedDataUpdate(long timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public List<IndexEntry> getAdditions() {
+    return additions;
+  }
+
+  public List<IndexEntry> getRemovals() {
+    return removals;
+  }
+
+  public List<AggregateDelta> getAggregations() {
+    return aggregations;
+  }
+}
@@ -30,6 +30,8 @@ import org.codehaus.jackson.map.annotate.JsonDeserialize;
 public class FilterConfigs<Template> {
 
   private Map<String, FilterConfig> configs;
+  private Map<String, IndexConfig> indexes;
+  private Map<String, AggregateConfig> aggregates;
 
   @JsonDeserialize(contentAs = FilterConfigImpl.class, as = LinkedHashMap.class)
   public void setConfigs(Map<String, FilterConfig> configs) {
@@ -40,6 +42,30 @@ public class FilterConfigs<Template> {
     return configs;
   }
 
+  /**
+   * Set the secondary indexes mapped by the names of the properties they index.
+   */
+  @JsonDeserialize(contentAs = IndexConfig.class, as = LinkedHashMap.class)
+  public void setIndexes(Map<String, IndexConfig> indexes) {
+    this.indexes = indexes;
+  }
+
+  public Map<String, IndexConfig> getIndexes() {
+    return indexes;
+  }
+
+  /**
+   * Set the aggregate views mapped by their names.
+   */
+  @JsonDeserialize(contentAs = AggregateConfig.class, as = LinkedHashMap.class)
+  public void setAggregates(Map<String, AggregateConfig> aggregates) {
+    this.aggregates = aggregates;
+  }
+
+  public Map<String, AggregateConfig> getAggregates() {
+    return aggregates;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj == null) {
@@ -52,6 +78,12 @@ public class FilterConfigs<Template> {
     if (this.configs != other.configs && (this.configs == null || !this.configs.equals(other.configs))) {
       return false;
     }
+    if (this.indexes != other.indexes && (this.indexes == null || !this.indexes.equals(other.indexes))) {
+      return false;
+    }
+    if (this.aggregates != other.aggregates && (this.aggregates == null || !this.aggregates.equals(other.aggregates))) {
+      return false;
+    }
     return true;
   }
 
@@ -59,11 +91,14 @@ public class FilterConfigs<Template> {
   public int hashCode() {
     int hash = 7;
     hash = 43 * hash + (this.configs != null ? this.configs.hashCode() : 0);
+    hash = 43 * hash + (this.indexes != null ? this.indexes.hashCode() : 0);
+    hash = 43 * hash + (this.aggregates != null ? this.aggregates.hashCode() : 0);
     return hash;
   }
 
   @Override
   public String toString() {
-    return "FilterConfigs{" + "configs=" + configs + '}';
+    return "FilterConfigs{" + "configs=" + configs + ", indexes=" + indexes + ", aggregates=" + aggregates +
+        '}';
   }
 }
@@ -0,0 +1,115 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * Configuration of a secondary index of a property. The index table has one row per indexed value, keyed by the value
+ * as it is stored in the main table, with one cell per row of the main table having the value. The cell's qualifier
+ * is the row id in the main table and its value is empty. An n-gram index is keyed instead by each n-gram of the
+ * lower cased string form of the value, delimited by start and end markers, so that it can answer string like
+ * queries of any match mode.
+ * @author imyousuf
+ */
+public class IndexConfig {
+
+  public static final String DEFAULT_COLUMN_FAMILY = "rows";
+  private String tableName;
+  private byte[] columnFamily = Bytes.toBytes(DEFAULT_COLUMN_FAMILY);
+  private int ngramLength;
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public void setTableName(String tableName) {
+    this.tableName = tableName;
+  }
+
+  @JsonIgnore
+  public byte[] getColumnFamily() {
+    return columnFamily;
+  }
+
+  @JsonIgnore
+  public void setColumnFamily(byte[] columnFamily) {
+    this.columnFamily = columnFamily;
+  }
+
+  public String getColumnFamilyAsString() {
+    return Bytes.toString(columnFamily);
+  }
+
+  @JsonProperty
+  public void setColumnFamilyAsString(String columnFamily) {
+    setColumnFamily(Bytes.toBytes(columnFamily));
+  }
+
+  public int getNgramLength() {
+    return ngramLength;
+  }
+
+  /**
+   * Set the length of the n-grams to index, e.g. 3 for a trigram index; 0, the default, indexes whole values.
+   */
+  public void setNgramLength(int ngramLength) {
+    this.ngramLength = Math.max(0, ngramLength);
+  }
+
+  @JsonIgnore
+  public boolean isNgramIndex() {
+    return ngramLength > 0;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final IndexConfig other = (IndexConfig) obj;
+    if ((this.tableName == null) ? (other.tableName != null) : !this.tableName.equals(other.tableName)) {
+      return false;
+    }
+    if (this.ngramLength != other.ngramLength) {
+      return false;
+    }
+    return Bytes.equals(this.columnFamily, other.columnFamily);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 5;
+    hash = 29 * hash + (this.tableName != null ? this.tableName.hashCode() : 0);
+    hash = 29 * hash + Bytes.hashCode(this.columnFamily);
+    hash = 29 * hash + this.ngramLength;
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "IndexConfig{" + "tableName=" + tableName + ", columnFamily=" + Bytes.toString(columnFamily) +
+        ", ngramLength=" + ngramLength + '}';
+  }
+}
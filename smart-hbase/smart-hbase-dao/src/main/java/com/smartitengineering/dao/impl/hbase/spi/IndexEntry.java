@@ -0,0 +1,48 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+/**
+ * An entry of a secondary index, i.e. a row of the main table indexed under a key, its value or one of its n-grams.
+ * @author imyousuf
+ */
+public class IndexEntry {
+
+  private final IndexConfig index;
+  private final byte[] value;
+  private final byte[] row;
+
+  public IndexEntry(IndexConfig index, byte[] value, byte[] row) {
+    this.index = index;
+    this.value = value;
+    this.row = row;
+  }
+
+  public IndexConfig getIndex() {
+    return index;
+  }
+
+  public byte[] getValue() {
+    return value;
+  }
+
+  public byte[] getRow() {
+    return row;
+  }
+}
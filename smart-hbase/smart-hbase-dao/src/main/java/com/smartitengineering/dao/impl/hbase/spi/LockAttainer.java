@@ -18,6 +18,7 @@
  */
 package com.smartitengineering.dao.impl.hbase.spi;
 
+import java.util.List;
 import java.util.Map;
 import org.apache.hadoop.hbase.client.RowLock;
 
@@ -30,6 +31,15 @@ public interface LockAttainer<T, IdType> {
   Map<String, RowLock> getLock(T instance,
                                String... tables);
 
+  /**
+   * Attain the locks of multiple instances at once, in a global order of their rows so that concurrent attainments
+   * of overlapping instances do not deadlock. Either all the locks are attained and cached or none are held.
+   * @param instances Instances to lock
+   * @param tables Tables to lock the rows of the instances in
+   * @return Locks of each instance by table, in order of the instances
+   */
+  List<Map<String, RowLock>> getLocks(List<T> instances, String... tables);
+
   void putLock(T instance, Map<String, RowLock> locks);
 
   boolean evictFromCache(T instance);
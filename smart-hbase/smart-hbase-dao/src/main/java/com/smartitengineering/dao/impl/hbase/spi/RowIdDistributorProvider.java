@@ -0,0 +1,33 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+/**
+ * Declares how the rows of a domain are distributed across buckets, which the DAO takes into account when planning
+ * scans. The {@link SchemaInfoProvider} of a DAO may implement it; rows of other providers are not distributed.
+ * @author imyousuf
+ */
+public interface RowIdDistributorProvider {
+
+  /**
+   * Retrieve the strategy distributing rows across buckets.
+   * @return The distributor or null if row ids are stored as formed from the ids
+   */
+  RowIdDistributor getRowIdDistributor();
+}
@@ -0,0 +1,68 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import com.smartitengineering.dao.common.queryparam.MatchMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.hadoop.hbase.client.Row;
+
+/**
+ * Maintains the secondary index tables, value and n-gram indexes alike, of the main table of a domain. The entries of
+ * a write are {@link #addIndexEntries(DerivedDataUpdate) added} before the rows of the main table are written and the
+ * stale ones {@link #removeIndexEntries(DerivedDataUpdate, java.util.List) removed} after, so that a row is never
+ * missing from the indexes.
+ * @author imyousuf
+ */
+public interface SecondaryIndexService<T, IdType> {
+
+  /**
+   * Retrieve the secondary indexes maintained, i.e. those on properties having column filter configs.
+   * @return Index configurations mapped by the names of the properties they index
+   */
+  Map<String, IndexConfig> getIndexConfigs();
+
+  /**
+   * Split text into the keys of the rows of an n-gram index to look up the rows matching the text with.
+   * @param matchMode How the text is matched, null denotes exact match
+   * @return Distinct keys, empty if the text is too short to be looked up
+   */
+  Set<byte[]> getNgrams(IndexConfig index, String text, MatchMode matchMode);
+
+  /**
+   * Add the index entries to add and to remove for a write of a row of the main table to the update.
+   * @param current Current values of the indexed properties, null or absent for missing values
+   * @param written Values of the indexed properties the write sets, null for those it removes; properties the write
+   *                does not touch are absent
+   */
+  void prepareIndexEntries(DerivedDataUpdate update, byte[] row, Map<String, byte[]> current,
+                           Map<String, byte[]> written);
+
+  /**
+   * Write the index entries to add, before the rows of the main table are written.
+   */
+  void addIndexEntries(DerivedDataUpdate update);
+
+  /**
+   * Delete the index entries to remove once the rows of the main table are written.
+   * @param failed Rows of the main table which were not written, whose entries are to be retained
+   */
+  void removeIndexEntries(DerivedDataUpdate update, List<? extends Row> failed);
+}
@@ -0,0 +1,43 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+/**
+ * Converts values of a {@link ValueTypedFilterConfig#getValueType() value type} to bytes and back. Codecs of types with
+ * a natural order should encode such that unsigned byte order matches value order, so that HBase comparison filters and
+ * row ranges work on the encoded form.
+ * @author imyousuf
+ */
+public interface ValueCodec {
+
+  /**
+   * Encode a value.
+   * @param value The value to encode, must not be null
+   * @return Encoded bytes
+   * @throws IllegalArgumentException If the value can not be converted to the type of this codec
+   */
+  byte[] encode(Object value);
+
+  /**
+   * Decode bytes encoded by this codec.
+   * @param bytes The bytes to decode
+   * @return The decoded value
+   */
+  Object decode(byte[] bytes);
+}
@@ -0,0 +1,34 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+/**
+ * A {@link FilterConfig filter config} of a column whose values are typed. Filter configs not implementing it have
+ * their values stored as bytes of their string form.
+ * @author imyousuf
+ */
+public interface ValueTypedFilterConfig extends FilterConfig {
+
+  /**
+   * Name of the type of the values of the column, it determines the codec used to convert values to bytes for both
+   * storing and filtering. Values of typed columns are encoded such that byte order matches value order.
+   * @return Value type, null or blank for values stored as bytes of their string form
+   */
+  String getValueType();
+}
@@ -0,0 +1,52 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * Writes puts behind the callers' back, so that callers do not wait for their puts to be written.
+ * @author imyousuf
+ */
+public interface WriteBehindService extends Closeable {
+
+  /**
+   * Buffer puts to be written.
+   * @param puts Puts by table name
+   * @param onCompletion Action to run once the puts are written or have failed, may be null
+   * @return Future of the write
+   * @throws IllegalStateException If the service is closed
+   */
+  Future<Void> write(Map<String, List<Put>> puts, Runnable onCompletion);
+
+  /**
+   * Write all the puts buffered so far, waiting till they are written.
+   */
+  void flush();
+
+  /**
+   * Stop accepting writes and write the buffered ones.
+   */
+  @Override
+  void close();
+}
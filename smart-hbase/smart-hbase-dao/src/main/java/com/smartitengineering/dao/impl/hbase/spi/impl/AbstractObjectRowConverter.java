@@ -20,14 +20,18 @@ package com.smartitengineering.dao.impl.hbase.spi.impl;
 
 import com.google.inject.Inject;
 import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.ColumnProjectionProvider;
 import com.smartitengineering.dao.impl.hbase.spi.ExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
 import com.smartitengineering.dao.impl.hbase.spi.LockAttainer;
 import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
 import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
 import com.smartitengineering.domain.PersistentDTO;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Put;
@@ -42,12 +46,14 @@ import org.slf4j.LoggerFactory;
  * @author imyousuf
  */
 public abstract class AbstractObjectRowConverter<T extends PersistentDTO<? extends PersistentDTO, ? extends Comparable, Long>, IdType>
-    implements ObjectRowConverter<T> {
+    implements ObjectRowConverter<T>, ColumnProjectionProvider {
 
   @Inject
   private SchemaInfoProvider<T, IdType> infoProvider;
   @Inject
   private LockAttainer<T, IdType> lockAttainer;
+  @Inject(optional = true)
+  private ValueCodecRegistry valueCodecRegistry = new ValueCodecRegistry();
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
   @Override
@@ -112,6 +118,15 @@ public abstract class AbstractObjectRowConverter<T extends PersistentDTO<? exten
     }
   }
 
+  /**
+   * Attain the pessimistic locks of all the instances at once, in the tables locks are attained in, so that converting
+   * each of them to rows afterwards finds its locks cached.
+   * @see LockAttainer#getLocks(java.util.List, java.lang.String[])
+   */
+  public List<Map<String, RowLock>> attainLocks(List<T> instances) {
+    return lockAttainer.getLocks(instances, getTablesToAttainLock());
+  }
+
   @Override
   public LinkedHashMap<String, Delete> objectToDeleteableRows(T instance, ExecutorService service,
                                                               boolean pessimisticLock) {
@@ -195,6 +210,46 @@ public abstract class AbstractObjectRowConverter<T extends PersistentDTO<? exten
     put.add(family, column, value);
   }
 
+  /**
+   * Add the value of a property to the column of its filter config, encoded with the codec of its value type, so
+   * that it can be filtered on.
+   * @param propertyName Name of the property as in the query parameters
+   * @param value Value of the property, not added if null
+   * @param put The put to add the value to
+   */
+  protected void addColumn(String propertyName, Object value, Put put) {
+    if (value == null) {
+      return;
+    }
+    final FilterConfig config = getColumnFilterConfig(propertyName);
+    addColumn(config.getColumnFamily(), config.getColumnQualifier(), getValueCodecRegistry().encode(config, value),
+              put);
+  }
+
+  /**
+   * Retrieve the value of a property from the column of its filter config, decoded with the codec of its value type.
+   * @param propertyName Name of the property as in the query parameters
+   * @param row The row to read the value from
+   * @return The value or null if the row does not have the column
+   */
+  protected Object getColumnValue(String propertyName, Result row) {
+    final FilterConfig config = getColumnFilterConfig(propertyName);
+    final byte[] value = row.getValue(config.getColumnFamily(), config.getColumnQualifier());
+    return value == null ? null : getValueCodecRegistry().decode(config, value);
+  }
+
+  protected FilterConfig getColumnFilterConfig(String propertyName) {
+    final FilterConfig config = getInfoProvider().getFilterConfig(propertyName);
+    if (config == null || config.isFilterOnRowId() || config.isQualifierARangePrefix()) {
+      throw new IllegalArgumentException("Property " + propertyName + " is not configured to a single column");
+    }
+    return config;
+  }
+
+  protected ValueCodecRegistry getValueCodecRegistry() {
+    return valueCodecRegistry;
+  }
+
   protected void populateVersion(T instance, Result row) {
     byte[] verFam = getInfoProvider().getVersionColumnFamily();
     byte[] verQual = getInfoProvider().getVersionColumnQualifier();
@@ -203,6 +258,14 @@ public abstract class AbstractObjectRowConverter<T extends PersistentDTO<? exten
     }
   }
 
+  /**
+   * All columns are required by default, override to read only the columns a read profile requires.
+   */
+  @Override
+  public Map<byte[], NavigableSet<byte[]>> getRequiredColumns(String readProfile) {
+    return null;
+  }
+
   protected abstract String[] getTablesToAttainLock();
 
   protected abstract void getPutForTable(T instance, ExecutorService service, Put put);
@@ -0,0 +1,416 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.smartitengineering.dao.impl.hbase.Aggregate;
+import com.smartitengineering.dao.impl.hbase.CommonDao;
+import com.smartitengineering.dao.impl.hbase.ProjectionAggregator;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfig;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfigProvider;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateDelta;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateViewService;
+import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.DerivedDataUpdate;
+import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the aggregate views declared by the {@link AggregateConfigProvider schema info provider}. Deltas of the
+ * same group of the same view are combined into a single increment, and groups whose deltas cancel out are not
+ * incremented. Increments are not idempotent and are not retried right away; a failed increment is recorded for
+ * {@link #retryFailedAggregateIncrements() repair} and leaves its group inconsistent till then.
+ * @author imyousuf
+ */
+public class AggregateViewServiceImpl<T, IdType> implements AggregateViewService<T, IdType> {
+
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+  @Inject
+  private SchemaInfoProvider<T, IdType> infoProvider;
+  @Inject
+  private AsyncExecutorService executorService;
+  private ValueCodecRegistry valueCodecRegistry = new ValueCodecRegistry();
+  private long executionTimeout = CommonDao.DEFAULT_EXECUTION_TIMEOUT_MILLIS;
+  private final Queue<Pair<String, Increment>> failedAggregateIncrements =
+      new ConcurrentLinkedQueue<Pair<String, Increment>>();
+  private volatile Pair<Map<String, AggregateConfig>, Map<String, AggregateConfig>> validatedAggregateConfigs;
+
+  public SchemaInfoProvider<T, IdType> getInfoProvider() {
+    return infoProvider;
+  }
+
+  public void setInfoProvider(SchemaInfoProvider<T, IdType> infoProvider) {
+    this.infoProvider = infoProvider;
+    this.validatedAggregateConfigs = null;
+  }
+
+  public AsyncExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  public void setExecutorService(AsyncExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
+  public ValueCodecRegistry getValueCodecRegistry() {
+    return valueCodecRegistry;
+  }
+
+  @Inject(optional = true)
+  public void setValueCodecRegistry(ValueCodecRegistry valueCodecRegistry) {
+    if (valueCodecRegistry != null) {
+      this.valueCodecRegistry = valueCodecRegistry;
+    }
+  }
+
+  public long getExecutionTimeout() {
+    return executionTimeout;
+  }
+
+  /**
+   * Set the milliseconds to wait at most for an increment of a rollup table.
+   */
+  @Inject(optional = true)
+  public void setExecutionTimeout(@Named("executionTimeout") Long executionTimeout) {
+    if (executionTimeout != null && executionTimeout > 0) {
+      this.executionTimeout = executionTimeout;
+    }
+  }
+
+  /**
+   * Retrieve the aggregate views of the schema info provider, excluding views without table name or group by
+   * properties and those on properties that are not single columns. The views are validated once per set of views the
+   * provider returns, rather than on each write.
+   */
+  @Override
+  public Map<String, AggregateConfig> getAggregateConfigs() {
+    if (!(infoProvider instanceof AggregateConfigProvider)) {
+      return Collections.emptyMap();
+    }
+    final Map<String, AggregateConfig> configs = ((AggregateConfigProvider) infoProvider).getAggregateConfigs();
+    if (configs == null || configs.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final Pair<Map<String, AggregateConfig>, Map<String, AggregateConfig>> validated = validatedAggregateConfigs;
+    if (validated != null && validated.getFirst().equals(configs)) {
+      return validated.getSecond();
+    }
+    final Map<String, AggregateConfig> aggregates = validateAggregateConfigs(configs);
+    validatedAggregateConfigs = new Pair<Map<String, AggregateConfig>, Map<String, AggregateConfig>>(
+        new LinkedHashMap<String, AggregateConfig>(configs), aggregates);
+    return aggregates;
+  }
+
+  protected Map<String, AggregateConfig> validateAggregateConfigs(Map<String, AggregateConfig> configs) {
+    final Map<String, AggregateConfig> aggregates = new LinkedHashMap<String, AggregateConfig>();
+    for (Map.Entry<String, AggregateConfig> aggregate : configs.entrySet()) {
+      boolean valid = StringUtils.isNotBlank(aggregate.getValue().getTableName()) && !aggregate.getValue().getGroupBy().
+          isEmpty();
+      final List<String> propertyNames = new ArrayList<String>(aggregate.getValue().getGroupBy());
+      propertyNames.addAll(aggregate.getValue().getSums());
+      for (String propertyName : propertyNames) {
+        final FilterConfig config = infoProvider.getFilterConfig(propertyName);
+        valid = valid && config != null && !config.isFilterOnRowId() && !config.isQualifierARangePrefix() && config.
+            getColumnFamily() != null && config.getColumnQualifier() != null;
+      }
+      if (valid) {
+        aggregates.put(aggregate.getKey(), aggregate.getValue());
+      }
+      else {
+        logger.warn("Ignoring invalid aggregate view " + aggregate.getKey());
+      }
+    }
+    return Collections.unmodifiableMap(aggregates);
+  }
+
+  @Override
+  public Set<String> getAggregatedProperties() {
+    final Set<String> propertyNames = new LinkedHashSet<String>();
+    for (AggregateConfig aggregate : getAggregateConfigs().values()) {
+      propertyNames.addAll(aggregate.getGroupBy());
+      propertyNames.addAll(aggregate.getSums());
+    }
+    return propertyNames;
+  }
+
+  /**
+   * The deltas of a write are the row leaving the group of its values before the write and joining the group of its
+   * values after it. The deltas of a row whose group and sums are unchanged cancel out once applied.
+   */
+  @Override
+  public void prepareAggregateDeltas(DerivedDataUpdate update, byte[] row, Map<String, byte[]> current,
+                                     Map<String, byte[]> written) {
+    final Map<String, byte[]> after = new HashMap<String, byte[]>(current);
+    after.putAll(written);
+    for (Map.Entry<String, AggregateConfig> view : getAggregateConfigs().entrySet()) {
+      final AggregateConfig aggregate = view.getValue();
+      final byte[] beforeGroup = getAggregateRow(aggregate, current);
+      if (beforeGroup != null) {
+        update.getAggregations().add(toAggregateDelta(view.getKey(), aggregate, beforeGroup, row, current, -1));
+      }
+      final byte[] afterGroup = getAggregateRow(aggregate, after);
+      if (afterGroup != null) {
+        update.getAggregations().add(toAggregateDelta(view.getKey(), aggregate, afterGroup, row, after, 1));
+      }
+    }
+  }
+
+  protected AggregateDelta toAggregateDelta(String viewName, AggregateConfig aggregate, byte[] group, byte[] row,
+                                            Map<String, byte[]> values, int sign) {
+    final AggregateDelta delta = new AggregateDelta(viewName, aggregate, group, row);
+    delta.add(Bytes.toBytes(AggregateConfig.COUNT_QUALIFIER), sign);
+    for (String propertyName : aggregate.getSums()) {
+      final byte[] value = values.get(propertyName);
+      if (value != null) {
+        delta.add(aggregate.getSumQualifier(propertyName), sign * getSummand(infoProvider.getFilterConfig(
+            propertyName), value));
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Convert a stored value of a summed property to a long, non-numeric values are summed as 0. Values of 8 bytes of a
+   * property without value type are taken as big endian longs, as counters store them.
+   */
+  public long getSummand(FilterConfig config, byte[] value) {
+    if (StringUtils.isBlank(ValueCodecRegistry.getValueType(config)) && value.length == Bytes.SIZEOF_LONG) {
+      return Bytes.toLong(value);
+    }
+    final Object decoded = valueCodecRegistry.decode(config, value);
+    final Number number = decoded == null ? null : ProjectionAggregator.parseNumber(decoded);
+    if (number == null) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Summing non-numeric value " + decoded + " as 0");
+      }
+      return 0;
+    }
+    return number.longValue();
+  }
+
+  /**
+   * Form the row of a group in the rollup table of a view.
+   * @param values Stored values of the group by properties
+   * @return The row id or null if any group by value is missing
+   */
+  protected byte[] getAggregateRow(AggregateConfig aggregate, Map<String, byte[]> values) {
+    final List<byte[]> groupValues = new ArrayList<byte[]>(aggregate.getGroupBy().size());
+    for (String propertyName : aggregate.getGroupBy()) {
+      final byte[] value = values.get(propertyName);
+      if (value == null) {
+        return null;
+      }
+      groupValues.add(value);
+    }
+    return toAggregateRow(groupValues);
+  }
+
+  /**
+   * Join values into a row id preserving their order field by field; each value has its 0 bytes escaped as 0 0xff and
+   * is terminated by 0 0, so that a value sorts before the values it is a prefix of and leading values can be used as
+   * a row prefix.
+   */
+  public static byte[] toAggregateRow(List<byte[]> values) {
+    final ByteArrayOutputStream row = new ByteArrayOutputStream();
+    for (byte[] value : values) {
+      for (byte b : value) {
+        row.write(b);
+        if (b == 0) {
+          row.write(0xff);
+        }
+      }
+      row.write(0);
+      row.write(0);
+    }
+    return row.toByteArray();
+  }
+
+  @Override
+  public void applyAggregateDeltas(DerivedDataUpdate update, List<? extends Row> failed) {
+    if (update == null || update.getAggregations().isEmpty()) {
+      return;
+    }
+    final Set<byte[]> failedRows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (Row row : failed) {
+      failedRows.add(row.getRow());
+    }
+    final Map<String, Map<byte[], AggregateDelta>> groups = new LinkedHashMap<String, Map<byte[], AggregateDelta>>();
+    for (AggregateDelta delta : update.getAggregations()) {
+      if (failedRows.contains(delta.getRow())) {
+        continue;
+      }
+      Map<byte[], AggregateDelta> viewGroups = groups.get(delta.getViewName());
+      if (viewGroups == null) {
+        viewGroups = new TreeMap<byte[], AggregateDelta>(Bytes.BYTES_COMPARATOR);
+        groups.put(delta.getViewName(), viewGroups);
+      }
+      AggregateDelta group = viewGroups.get(delta.getGroup());
+      if (group == null) {
+        group = new AggregateDelta(delta.getViewName(), delta.getAggregate(), delta.getGroup(), null);
+        viewGroups.put(delta.getGroup(), group);
+      }
+      group.add(delta);
+    }
+    final List<Pair<String, Increment>> increments = new ArrayList<Pair<String, Increment>>();
+    for (Map<byte[], AggregateDelta> viewGroups : groups.values()) {
+      for (AggregateDelta delta : viewGroups.values()) {
+        final Increment increment = delta.toIncrement();
+        if (increment.numColumns() > 0) {
+          increments.add(new Pair<String, Increment>(delta.getAggregate().getTableName(), increment));
+        }
+      }
+    }
+    incrementAggregates(increments);
+  }
+
+  /**
+   * Apply increments to rollup tables asynchronously, recording the failed ones for
+   * {@link #retryFailedAggregateIncrements() repair}.
+   * @param increments Increments by rollup table name
+   * @return Number of increments that failed
+   */
+  protected int incrementAggregates(List<Pair<String, Increment>> increments) {
+    final List<Future<Result>> futures = new ArrayList<Future<Result>>(increments.size());
+    for (Pair<String, Increment> pair : increments) {
+      final Increment increment = pair.getSecond();
+      futures.add(executorService.executeAsynchronously(pair.getFirst(), new Callback<Result>() {
+
+        @Override
+        public Result call(HTableInterface tableInterface) throws Exception {
+          return tableInterface.increment(increment);
+        }
+      }));
+    }
+    int failures = 0;
+    for (int i = 0; i < futures.size(); ++i) {
+      try {
+        futures.get(i).get(executionTimeout, TimeUnit.MILLISECONDS);
+      }
+      catch (Exception ex) {
+        if (ex instanceof TimeoutException) {
+          futures.get(i).cancel(true);
+        }
+        logger.warn("Could not increment aggregates of " + increments.get(i).getFirst() +
+            ", recorded the increment for repair", ex);
+        failedAggregateIncrements.add(increments.get(i));
+        ++failures;
+      }
+    }
+    return failures;
+  }
+
+  @Override
+  public List<Pair<String, Increment>> getFailedAggregateIncrements() {
+    return new ArrayList<Pair<String, Increment>>(failedAggregateIncrements);
+  }
+
+  /**
+   * An increment that failed by timing out may have been applied nonetheless, so its group may be incremented twice;
+   * such groups have to be recomputed from the main table instead.
+   */
+  @Override
+  public int retryFailedAggregateIncrements() {
+    final List<Pair<String, Increment>> increments = new ArrayList<Pair<String, Increment>>();
+    for (Pair<String, Increment> increment = failedAggregateIncrements.poll(); increment != null;
+         increment = failedAggregateIncrements.poll()) {
+      increments.add(increment);
+    }
+    return incrementAggregates(increments);
+  }
+
+  /**
+   * The groups are read with a single batched get of the rows of the rollup table.
+   */
+  @Override
+  public List<Aggregate> getAggregates(String viewName, final List<Object[]> groups) {
+    final AggregateConfig aggregate = getAggregateConfigs().get(viewName);
+    if (aggregate == null) {
+      throw new IllegalArgumentException("No aggregate view named " + viewName);
+    }
+    final List<Get> gets = new ArrayList<Get>(groups.size());
+    for (Object[] group : groups) {
+      if (group == null || group.length != aggregate.getGroupBy().size()) {
+        throw new IllegalArgumentException("Expected exactly one value per group by property of " + viewName);
+      }
+      final List<byte[]> values = new ArrayList<byte[]>(group.length);
+      for (int i = 0; i < group.length; ++i) {
+        if (group[i] == null) {
+          throw new IllegalArgumentException("Group by values can not be null");
+        }
+        values.add(valueCodecRegistry.encode(infoProvider.getFilterConfig(aggregate.getGroupBy().get(i)), group[i]));
+      }
+      final Get get = new Get(toAggregateRow(values));
+      get.addFamily(aggregate.getColumnFamily());
+      gets.add(get);
+    }
+    if (gets.isEmpty()) {
+      return new ArrayList<Aggregate>();
+    }
+    final Result[] results = executorService.execute(aggregate.getTableName(), new Callback<Result[]>() {
+
+      @Override
+      public Result[] call(HTableInterface tableInterface) throws Exception {
+        return tableInterface.get(gets);
+      }
+    });
+    final List<Aggregate> aggregates = new ArrayList<Aggregate>(results.length);
+    for (int i = 0; i < results.length; ++i) {
+      aggregates.add(toAggregate(aggregate, groups.get(i), results[i]));
+    }
+    return aggregates;
+  }
+
+  protected Aggregate toAggregate(AggregateConfig aggregate, Object[] groupValues, Result result) {
+    final byte[] count = result.getValue(aggregate.getColumnFamily(), Bytes.toBytes(AggregateConfig.COUNT_QUALIFIER));
+    final Map<String, Long> sums = new LinkedHashMap<String, Long>();
+    for (String propertyName : aggregate.getSums()) {
+      final byte[] sum = result.getValue(aggregate.getColumnFamily(), aggregate.getSumQualifier(propertyName));
+      sums.put(propertyName, sum == null ? 0l : Bytes.toLong(sum));
+    }
+    return new Aggregate(groupValues, count == null ? 0l : Bytes.toLong(count), sums);
+  }
+}
@@ -21,22 +21,74 @@ package com.smartitengineering.dao.impl.hbase.spi.impl;
 import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
 import com.smartitengineering.dao.impl.hbase.spi.Callback;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- *
+ * Executes callbacks on a bounded thread pool; at most max threads run callbacks and at most max queue size callbacks
+ * wait for a thread, further submissions are handled as per the {@link RejectionPolicy rejection policy}. Optionally
+ * the number of callbacks concurrently executing against a table can be capped. Alternatively, on runtimes supporting
+ * them, each callback can be run in a virtual thread of its own, in which case only the per table caps bound the
+ * concurrency. Synchronous executions from within a callback are executed right away in the callback's thread.
+ * Asynchronous executions from within a callback are submitted to the pool as well, so that e.g. batch gets and
+ * parallel scans still fan out, but they run under the submitting callback's table permit and, if they are still
+ * queued when their result is waited for, the waiting callback runs them itself; thus callbacks never wait for
+ * callbacks queued behind them and nested executions can not dead lock the pool. Nested executions rejected by a full
+ * queue are run in the submitting callback's thread, irrespective of the rejection policy. A callback submitted with a
+ * null table name is called with a null table, e.g. to execute an operation composed of executions of its own
+ * asynchronously.
+ * <p>
+ * As the HBase client has no asynchronous API each asynchronous execution occupies a thread till its RPCs return.
  * @author imyousuf
  */
 public class AsynchronousExecutorServiceImpl extends SynchronousExecutorServiceImpl implements AsyncExecutorService {
 
+  public static final int DEFAULT_MAX_THREADS = 256;
+  public static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+  private static final ThreadLocal<Boolean> EXECUTING_CALLBACK = new ThreadLocal<Boolean>();
   private ExecutorService executorService;
   private int maxThreads = -1;
+  private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+  private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+  private int maxConcurrencyPerTable = -1;
+  private boolean virtualThreads = false;
+  private final ConcurrentMap<String, Semaphore> tablePermits = new ConcurrentHashMap<String, Semaphore>();
   private long timeoutPeriod = 5;
   private TimeUnit timeUnit = TimeUnit.SECONDS;
 
+  /**
+   * How to handle a callback submitted while all threads are busy and the queue is full.
+   */
+  public static enum RejectionPolicy {
+
+    /**
+     * Execute the callback in the submitting thread, slowing down the submitter.
+     */
+    CALLER_RUNS,
+    /**
+     * Block the submitting thread till there is room in the queue.
+     */
+    BLOCK,
+    /**
+     * Fail the submission with a {@link RejectedExecutionException}.
+     */
+    ABORT
+  }
+
   public TimeUnit getTimeUnit() {
     return timeUnit;
   }
@@ -61,28 +113,130 @@ public class AsynchronousExecutorServiceImpl extends SynchronousExecutorServiceI
     return maxThreads;
   }
 
+  /**
+   * Set the maximum number of threads executing callbacks, a non-positive value denotes
+   * {@link #DEFAULT_MAX_THREADS the default}.
+   */
   public void setMaxThreads(int maxThreads) {
     this.maxThreads = maxThreads;
   }
 
-  public ExecutorService getExecutorService() {
+  public int getMaxQueueSize() {
+    return maxQueueSize;
+  }
+
+  public void setMaxQueueSize(int maxQueueSize) {
+    this.maxQueueSize = maxQueueSize;
+  }
+
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  public void setRejectionPolicy(String rejectionPolicy) {
+    this.rejectionPolicy = RejectionPolicy.valueOf(rejectionPolicy);
+  }
+
+  public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+    this.rejectionPolicy = rejectionPolicy;
+  }
+
+  public int getMaxConcurrencyPerTable() {
+    return maxConcurrencyPerTable;
+  }
+
+  /**
+   * Cap the number of callbacks executing concurrently against a table, a non-positive value denotes no cap. A
+   * callback waits for a permit of its table at most the timeout period, beyond which it fails with a
+   * {@link RejectedExecutionException}.
+   */
+  public void setMaxConcurrencyPerTable(int maxConcurrencyPerTable) {
+    this.maxConcurrencyPerTable = maxConcurrencyPerTable;
+  }
+
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Execute each callback in a virtual thread of its own, if the runtime supports virtual threads; otherwise the
+   * bounded thread pool is used.
+   */
+  public void setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  public synchronized ExecutorService getExecutorService() {
     if (executorService == null) {
-      if (maxThreads <= 0) {
-        executorService = Executors.newCachedThreadPool();
-      }
-      else if (maxThreads == 1) {
-        executorService = Executors.newSingleThreadExecutor();
+      if (virtualThreads) {
+        executorService = newVirtualThreadPerTaskExecutor();
       }
-      else {
-        executorService = Executors.newFixedThreadPool(maxThreads);
+      if (executorService == null) {
+        executorService = newBoundedExecutor();
       }
     }
     return executorService;
   }
 
+  protected ExecutorService newBoundedExecutor() {
+    final int threads = maxThreads > 0 ? maxThreads : DEFAULT_MAX_THREADS;
+    final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(maxQueueSize > 0 ? maxQueueSize :
+        Integer.MAX_VALUE);
+    final RejectedExecutionHandler handler;
+    switch (rejectionPolicy) {
+      case ABORT:
+        handler = new ThreadPoolExecutor.AbortPolicy();
+        break;
+      case BLOCK:
+        handler = new RejectedExecutionHandler() {
+
+          @Override
+          public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+              throw new RejectedExecutionException("Executor is shut down!");
+            }
+            if (Boolean.TRUE.equals(EXECUTING_CALLBACK.get())) {
+              throw new RejectedExecutionException("Callbacks do not block on a full queue");
+            }
+            try {
+              executor.getQueue().put(runnable);
+            }
+            catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              throw new RejectedExecutionException(ex);
+            }
+          }
+        };
+        break;
+      default:
+        handler = new ThreadPoolExecutor.CallerRunsPolicy();
+    }
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+                                                               new DaemonThreadFactory(), handler);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Create a virtual thread per task executor through reflection, as it is only available in newer runtimes.
+   * @return The executor or null if the runtime does not support virtual threads
+   */
+  protected ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (Exception ex) {
+      logger.warn("Virtual threads are not supported by the runtime, using bounded thread pool instead");
+      return null;
+    }
+  }
+
   @Override
   public <ReturnType> ReturnType execute(final String tableName,
                                          final Callback<ReturnType> callback) {
+    if (Boolean.TRUE.equals(EXECUTING_CALLBACK.get())) {
+      return plainSyncExecution(tableName, callback);
+    }
     try {
       return executeAsynchronously(tableName, callback).get(getTimeoutPeriod(), getTimeUnit());
     }
@@ -94,16 +248,106 @@ public class AsynchronousExecutorServiceImpl extends SynchronousExecutorServiceI
   @Override
   public <ReturnType> Future<ReturnType> executeAsynchronously(final String tableName,
                                                                final Callback<ReturnType> callback) {
+    if (Boolean.TRUE.equals(EXECUTING_CALLBACK.get())) {
+      final FutureTask<ReturnType> task = new NestedTask<ReturnType>(new Callable<ReturnType>() {
+
+        @Override
+        public ReturnType call() throws Exception {
+          final Boolean executing = EXECUTING_CALLBACK.get();
+          EXECUTING_CALLBACK.set(Boolean.TRUE);
+          try {
+            return tableName == null ? callback.call(null) : plainSyncExecution(tableName, callback);
+          }
+          finally {
+            EXECUTING_CALLBACK.set(executing);
+          }
+        }
+      });
+      try {
+        getExecutorService().execute(task);
+      }
+      catch (RejectedExecutionException ex) {
+        task.run();
+      }
+      return task;
+    }
     return getExecutorService().submit(new Callable<ReturnType>() {
 
       @Override
       public ReturnType call() throws Exception {
-        return plainSyncExecution(tableName, callback);
+        final Boolean executing = EXECUTING_CALLBACK.get();
+        final Semaphore permits = Boolean.TRUE.equals(executing) ? null : getTablePermits(tableName);
+        if (permits != null && !permits.tryAcquire(getTimeoutPeriod(), getTimeUnit())) {
+          throw new RejectedExecutionException("Timed out waiting for concurrency permit of table " + tableName);
+        }
+        EXECUTING_CALLBACK.set(Boolean.TRUE);
+        try {
+          return tableName == null ? callback.call(null) : plainSyncExecution(tableName, callback);
+        }
+        finally {
+          EXECUTING_CALLBACK.set(executing);
+          if (permits != null) {
+            permits.release();
+          }
+        }
       }
     });
   }
 
+  protected Semaphore getTablePermits(String tableName) {
+    if (maxConcurrencyPerTable <= 0 || tableName == null) {
+      return null;
+    }
+    Semaphore permits = tablePermits.get(tableName);
+    if (permits == null) {
+      final Semaphore newPermits = new Semaphore(maxConcurrencyPerTable);
+      permits = tablePermits.putIfAbsent(tableName, newPermits);
+      if (permits == null) {
+        permits = newPermits;
+      }
+    }
+    return permits;
+  }
+
   protected <ReturnType> ReturnType plainSyncExecution(final String tableName, final Callback<ReturnType> callback) {
-    return AsynchronousExecutorServiceImpl.super.execute(tableName, callback);
+    return executeInCallingThread(tableName, callback);
+  }
+
+  /**
+   * A task submitted from within a callback; waiting for its result runs it in the waiting thread, unless a pool thread
+   * has already started it. {@link FutureTask#run()} runs the task at most once.
+   */
+  private static class NestedTask<ReturnType> extends FutureTask<ReturnType> {
+
+    public NestedTask(Callable<ReturnType> callable) {
+      super(callable);
+    }
+
+    @Override
+    public ReturnType get() throws InterruptedException, ExecutionException {
+      run();
+      return super.get();
+    }
+
+    @Override
+    public ReturnType get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                                                              TimeoutException {
+      run();
+      return super.get(timeout, unit);
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+    private final String prefix = "hbase-executor-" + POOL_NUMBER.incrementAndGet() + "-thread-";
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 }
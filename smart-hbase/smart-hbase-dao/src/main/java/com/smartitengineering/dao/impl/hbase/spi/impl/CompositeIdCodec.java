@@ -0,0 +1,279 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.smartitengineering.dao.impl.hbase.spi.DomainIdInstanceProvider;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Encodes ids composed of multiple fields into compact row ids whose byte order is the order of the fields' values,
+ * compared field by field in the order given. Integers, longs, doubles and dates use the fixed width codecs of
+ * {@link ValueCodecRegistry}, booleans a single byte and strings and enums, by name, are escaped and terminated so
+ * that a shorter string sorts first. Fields that are not primitive are preceded by a byte marking null, which sorts
+ * first. Since every field but the last is self delimiting, {@link #encodePrefix(java.lang.Object[]) prefix} of the
+ * leading fields can be used to scan all ids sharing them. An instance is thread safe.
+ * @author imyousuf
+ */
+public class CompositeIdCodec<IdType> {
+
+  private static final byte NULL = 0x00;
+  private static final byte NOT_NULL = 0x01;
+  private static final byte ESCAPE = 0x00;
+  private static final byte ESCAPED_ZERO = (byte) 0xff;
+  private static final byte TERMINATOR = 0x01;
+  private final Class<? extends IdType> idTypeClass;
+  private final List<String> fieldNames;
+  private final Field[] fields;
+  private final DomainIdInstanceProvider instanceProvider;
+  private final Constructor<? extends IdType> constructor;
+
+  public CompositeIdCodec(Class<? extends IdType> idTypeClass, String... fieldNames) {
+    this(idTypeClass, Arrays.asList(fieldNames), null);
+  }
+
+  /**
+   * Create a codec for the fields of the id type.
+   * @param idTypeClass The id type
+   * @param fieldNames Names of the fields, declared by the type or its super types, in order of significance
+   * @param instanceProvider Provider to instantiate ids with when decoding, if null the no-args constructor is used
+   * @throws IllegalArgumentException If a field does not exist, is static or of an unsupported type
+   */
+  public CompositeIdCodec(Class<? extends IdType> idTypeClass, List<String> fieldNames,
+                          DomainIdInstanceProvider instanceProvider) {
+    if (idTypeClass == null || fieldNames == null || fieldNames.isEmpty()) {
+      throw new IllegalArgumentException("Id type and at least one field is required!");
+    }
+    this.idTypeClass = idTypeClass;
+    this.fieldNames = Collections.unmodifiableList(new ArrayList<String>(fieldNames));
+    this.instanceProvider = instanceProvider;
+    this.fields = new Field[fieldNames.size()];
+    for (int i = 0; i < fields.length; ++i) {
+      fields[i] = getField(idTypeClass, fieldNames.get(i));
+    }
+    if (instanceProvider == null) {
+      try {
+        constructor = idTypeClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+      }
+      catch (NoSuchMethodException ex) {
+        throw new IllegalArgumentException("Id type without instance provider requires a no-args constructor", ex);
+      }
+    }
+    else {
+      constructor = null;
+    }
+  }
+
+  public Class<? extends IdType> getIdTypeClass() {
+    return idTypeClass;
+  }
+
+  public List<String> getFieldNames() {
+    return fieldNames;
+  }
+
+  public byte[] encode(IdType id) {
+    final Object[] values = new Object[fields.length];
+    try {
+      for (int i = 0; i < fields.length; ++i) {
+        values[i] = fields[i].get(id);
+      }
+    }
+    catch (IllegalAccessException ex) {
+      throw new RuntimeException(ex);
+    }
+    return encodePrefix(values);
+  }
+
+  /**
+   * Encode the values of the leading fields, in order, to form the prefix of the row ids of all ids sharing them.
+   * @param values Values of the first fields, not more than the number of fields
+   * @return The row id prefix
+   */
+  public byte[] encodePrefix(Object... values) {
+    if (values.length > fields.length) {
+      throw new IllegalArgumentException("More values than fields!");
+    }
+    final ByteArrayOutputStream output = new ByteArrayOutputStream(values.length * 9);
+    for (int i = 0; i < values.length; ++i) {
+      final Class<?> type = fields[i].getType();
+      final Object value = values[i];
+      if (!type.isPrimitive()) {
+        if (value == null) {
+          output.write(NULL);
+          continue;
+        }
+        output.write(NOT_NULL);
+      }
+      final byte[] bytes;
+      if (type.equals(Integer.class) || type.equals(Integer.TYPE)) {
+        bytes = ValueCodecRegistry.INTEGER_CODEC.encode(value);
+      }
+      else if (type.equals(Long.class) || type.equals(Long.TYPE)) {
+        bytes = ValueCodecRegistry.LONG_CODEC.encode(value);
+      }
+      else if (type.equals(Double.class) || type.equals(Double.TYPE)) {
+        bytes = ValueCodecRegistry.DOUBLE_CODEC.encode(value);
+      }
+      else if (type.equals(Boolean.class) || type.equals(Boolean.TYPE)) {
+        bytes = new byte[]{((Boolean) value) ? (byte) 1 : (byte) 0};
+      }
+      else if (Date.class.isAssignableFrom(type)) {
+        bytes = ValueCodecRegistry.DATE_CODEC.encode(value);
+      }
+      else {
+        bytes = escape(Bytes.toBytes(value instanceof Enum ? ((Enum) value).name() : value.toString()));
+      }
+      output.write(bytes, 0, bytes.length);
+    }
+    return output.toByteArray();
+  }
+
+  public IdType decode(byte[] rowId) {
+    final IdType id = newInstance();
+    int offset = 0;
+    try {
+      for (Field field : fields) {
+        final Class<?> type = field.getType();
+        if (!type.isPrimitive()) {
+          if (rowId[offset++] == NULL) {
+            field.set(id, null);
+            continue;
+          }
+        }
+        final Object value;
+        if (type.equals(Integer.class) || type.equals(Integer.TYPE)) {
+          value = ValueCodecRegistry.INTEGER_CODEC.decode(Arrays.copyOfRange(rowId, offset, offset + Bytes.SIZEOF_INT));
+          offset += Bytes.SIZEOF_INT;
+        }
+        else if (type.equals(Long.class) || type.equals(Long.TYPE)) {
+          value = ValueCodecRegistry.LONG_CODEC.decode(Arrays.copyOfRange(rowId, offset, offset + Bytes.SIZEOF_LONG));
+          offset += Bytes.SIZEOF_LONG;
+        }
+        else if (type.equals(Double.class) || type.equals(Double.TYPE)) {
+          value = ValueCodecRegistry.DOUBLE_CODEC.decode(Arrays.copyOfRange(rowId, offset, offset +
+              Bytes.SIZEOF_DOUBLE));
+          offset += Bytes.SIZEOF_DOUBLE;
+        }
+        else if (type.equals(Boolean.class) || type.equals(Boolean.TYPE)) {
+          value = rowId[offset++] != 0;
+        }
+        else if (Date.class.isAssignableFrom(type)) {
+          value = ValueCodecRegistry.DATE_CODEC.decode(Arrays.copyOfRange(rowId, offset, offset + Bytes.SIZEOF_LONG));
+          offset += Bytes.SIZEOF_LONG;
+        }
+        else {
+          final ByteArrayOutputStream output = new ByteArrayOutputStream();
+          offset = unescape(rowId, offset, output);
+          final String string = Bytes.toString(output.toByteArray());
+          value = type.isEnum() ? Enum.valueOf((Class<Enum>) type, string) : string;
+        }
+        field.set(id, value);
+      }
+    }
+    catch (IllegalAccessException ex) {
+      throw new RuntimeException(ex);
+    }
+    catch (ArrayIndexOutOfBoundsException ex) {
+      throw new IllegalArgumentException("Row id is not a complete composite id!", ex);
+    }
+    return id;
+  }
+
+  protected IdType newInstance() {
+    if (instanceProvider != null) {
+      return instanceProvider.getInstance(idTypeClass);
+    }
+    try {
+      return constructor.newInstance();
+    }
+    catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Escape zero bytes and terminate, so that the encoded bytes of strings compare as the strings' bytes do.
+   */
+  protected static byte[] escape(byte[] bytes) {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length + 2);
+    for (byte b : bytes) {
+      output.write(b);
+      if (b == ESCAPE) {
+        output.write(ESCAPED_ZERO);
+      }
+    }
+    output.write(ESCAPE);
+    output.write(TERMINATOR);
+    return output.toByteArray();
+  }
+
+  /**
+   * Unescape the bytes starting at the offset till the terminator.
+   * @return Offset after the terminator
+   */
+  protected static int unescape(byte[] bytes, int offset, ByteArrayOutputStream output) {
+    while (true) {
+      final byte b = bytes[offset++];
+      if (b != ESCAPE) {
+        output.write(b);
+        continue;
+      }
+      if (bytes[offset++] == TERMINATOR) {
+        return offset;
+      }
+      output.write(ESCAPE);
+    }
+  }
+
+  private static Field getField(Class<?> clazz, String name) {
+    for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+      try {
+        final Field field = current.getDeclaredField(name);
+        if (Modifier.isStatic(field.getModifiers())) {
+          throw new IllegalArgumentException("Static field " + name + " can not be part of id");
+        }
+        if (!isSupportedType(field.getType())) {
+          throw new IllegalArgumentException("Unsupported type " + field.getType() + " of field " + name);
+        }
+        field.setAccessible(true);
+        return field;
+      }
+      catch (NoSuchFieldException ex) {
+        continue;
+      }
+    }
+    throw new IllegalArgumentException("No field " + name + " in " + clazz);
+  }
+
+  private static boolean isSupportedType(Class<?> type) {
+    return type.equals(Integer.class) || type.equals(Integer.TYPE) || type.equals(Long.class) ||
+        type.equals(Long.TYPE) || type.equals(Double.class) || type.equals(Double.TYPE) || type.equals(Boolean.class) ||
+        type.equals(Boolean.TYPE) || Date.class.isAssignableFrom(type) || String.class.equals(type) || type.isEnum();
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.smartitengineering.dao.impl.hbase.CommonDao;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateViewService;
+import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.CounterService;
+import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.LockType;
+import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
+import com.smartitengineering.dao.impl.hbase.spi.SecondaryIndexService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Increments counters of the main table with HBase increments. Properties of the row id, with a value type, secondary
+ * indexed by the {@link #getSecondaryIndexService() index service} or aggregated by the
+ * {@link #getAggregateViewService() aggregate view service} can not be counters, as incrementing them would leave the
+ * derived data stale.
+ * @author imyousuf
+ */
+public class CounterServiceImpl<T, IdType> implements CounterService<T, IdType> {
+
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+  @Inject
+  private SchemaInfoProvider<T, IdType> infoProvider;
+  @Inject
+  private AsyncExecutorService executorService;
+  private SecondaryIndexService<T, IdType> secondaryIndexService;
+  private AggregateViewService<T, IdType> aggregateViewService;
+  private long executionTimeout = CommonDao.DEFAULT_EXECUTION_TIMEOUT_MILLIS;
+
+  public SchemaInfoProvider<T, IdType> getInfoProvider() {
+    return infoProvider;
+  }
+
+  public void setInfoProvider(SchemaInfoProvider<T, IdType> infoProvider) {
+    this.infoProvider = infoProvider;
+  }
+
+  public AsyncExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  public void setExecutorService(AsyncExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
+  public SecondaryIndexService<T, IdType> getSecondaryIndexService() {
+    return secondaryIndexService;
+  }
+
+  @Inject(optional = true)
+  public void setSecondaryIndexService(SecondaryIndexService<T, IdType> secondaryIndexService) {
+    this.secondaryIndexService = secondaryIndexService;
+  }
+
+  public AggregateViewService<T, IdType> getAggregateViewService() {
+    return aggregateViewService;
+  }
+
+  @Inject(optional = true)
+  public void setAggregateViewService(AggregateViewService<T, IdType> aggregateViewService) {
+    this.aggregateViewService = aggregateViewService;
+  }
+
+  public long getExecutionTimeout() {
+    return executionTimeout;
+  }
+
+  /**
+   * Set the milliseconds to wait at most for the increment of an entity of a batch.
+   */
+  @Inject(optional = true)
+  public void setExecutionTimeout(@Named("executionTimeout") Long executionTimeout) {
+    if (executionTimeout != null && executionTimeout > 0) {
+      this.executionTimeout = executionTimeout;
+    }
+  }
+
+  @Override
+  public Map<String, Long> increment(IdType id, Map<String, Long> amounts, LockType lockType) {
+    return executorService.execute(infoProvider.getMainTableName(), getIncrementCallback(id, amounts, lockType));
+  }
+
+  @Override
+  public Map<IdType, Map<String, Long>> increment(Map<IdType, Map<String, Long>> amounts, LockType lockType) {
+    final Map<IdType, Future<Map<String, Long>>> futures = new LinkedHashMap<IdType, Future<Map<String, Long>>>();
+    for (Map.Entry<IdType, Map<String, Long>> amount : amounts.entrySet()) {
+      final Callback<Map<String, Long>> callback = getIncrementCallback(amount.getKey(), amount.getValue(), lockType);
+      futures.put(amount.getKey(), executorService.executeAsynchronously(infoProvider.getMainTableName(), callback));
+    }
+    final Map<IdType, Map<String, Long>> values = new LinkedHashMap<IdType, Map<String, Long>>(futures.size());
+    final List<IdType> failed = new ArrayList<IdType>();
+    Exception cause = null;
+    for (Map.Entry<IdType, Future<Map<String, Long>>> future : futures.entrySet()) {
+      try {
+        values.put(future.getKey(), future.getValue().get(executionTimeout, TimeUnit.MILLISECONDS));
+      }
+      catch (Exception ex) {
+        if (ex instanceof TimeoutException) {
+          future.getValue().cancel(true);
+        }
+        logger.warn("Could not increment counters of " + future.getKey(), ex);
+        failed.add(future.getKey());
+        if (cause == null) {
+          cause = ex;
+        }
+      }
+    }
+    if (!failed.isEmpty()) {
+      throw new IllegalStateException("Could not increment counters of " + failed, cause);
+    }
+    return values;
+  }
+
+  protected Callback<Map<String, Long>> getIncrementCallback(final IdType id, final Map<String, Long> amounts,
+                                                             final LockType lockType) {
+    final Map<String, Pair<byte[], byte[]>> columns = getCounterColumns(amounts.keySet());
+    return new Callback<Map<String, Long>>() {
+
+      @Override
+      public Map<String, Long> call(HTableInterface tableInterface) throws Exception {
+        final byte[] rowId = infoProvider.getRowIdFromId(id);
+        final Increment increment = new Increment(rowId);
+        for (Map.Entry<String, Pair<byte[], byte[]>> column : columns.entrySet()) {
+          increment.addColumn(column.getValue().getFirst(), column.getValue().getSecond(), amounts.get(column.
+              getKey()));
+        }
+        if (isOptimisticallyVersioned(lockType)) {
+          increment.addColumn(infoProvider.getVersionColumnFamily(), infoProvider.getVersionColumnQualifier(), 1l);
+        }
+        final Map<String, Long> values = new LinkedHashMap<String, Long>(columns.size());
+        if (increment.numColumns() == 1) {
+          final String propertyName = columns.keySet().iterator().next();
+          final Pair<byte[], byte[]> column = columns.get(propertyName);
+          final long value = tableInterface.incrementColumnValue(rowId, column.getFirst(), column.getSecond(),
+                                                                 amounts.get(propertyName));
+          values.put(propertyName, value);
+          return values;
+        }
+        final Result result = tableInterface.increment(increment);
+        for (Map.Entry<String, Pair<byte[], byte[]>> column : columns.entrySet()) {
+          final byte[] value = result.getValue(column.getValue().getFirst(), column.getValue().getSecond());
+          values.put(column.getKey(), Bytes.toLong(value));
+        }
+        return values;
+      }
+    };
+  }
+
+  /**
+   * Resolve the counter columns of the properties.
+   * @return Family and qualifier by property name
+   * @throws IllegalArgumentException If a property is the row id, indexed, aggregated, the version column, denotes the
+   *                                  same column as another property, has a value type or does not denote a single
+   *                                  column
+   */
+  protected Map<String, Pair<byte[], byte[]>> getCounterColumns(Collection<String> propertyNames) {
+    if (propertyNames.isEmpty()) {
+      throw new IllegalArgumentException("At least one counter is required!");
+    }
+    final Set<String> derived = new HashSet<String>();
+    if (secondaryIndexService != null) {
+      derived.addAll(secondaryIndexService.getIndexConfigs().keySet());
+    }
+    if (aggregateViewService != null) {
+      derived.addAll(aggregateViewService.getAggregatedProperties());
+    }
+    final byte[] versionFamily = infoProvider.getVersionColumnFamily();
+    final byte[] versionQualifier = infoProvider.getVersionColumnQualifier();
+    final Map<String, Pair<byte[], byte[]>> columns =
+        new LinkedHashMap<String, Pair<byte[], byte[]>>(propertyNames.size());
+    final Set<String> columnNames = new HashSet<String>();
+    for (String propertyName : propertyNames) {
+      final int indexOfColon = propertyName.indexOf(":");
+      final String configPropertyName = indexOfColon > -1 ? propertyName.substring(0, indexOfColon) : propertyName;
+      final FilterConfig config = infoProvider.getFilterConfig(configPropertyName);
+      if (config == null) {
+        throw new IllegalArgumentException("No filter config for property " + propertyName);
+      }
+      if (config.isFilterOnRowId() || derived.contains(propertyName) || StringUtils.isNotBlank(ValueCodecRegistry.
+          getValueType(config))) {
+        throw new IllegalArgumentException("Property " + propertyName + " is not a counter");
+      }
+      final byte[] qualifier;
+      if (indexOfColon > -1) {
+        qualifier = Bytes.toBytes(propertyName.substring(indexOfColon + 1));
+      }
+      else {
+        qualifier = config.isQualifierARangePrefix() ? null : config.getColumnQualifier();
+      }
+      if (qualifier == null || qualifier.length == 0) {
+        throw new IllegalArgumentException("Property " + propertyName + " does not denote a single column");
+      }
+      final byte[] family = config.getColumnFamily();
+      if ((Bytes.equals(versionFamily, family) && Bytes.equals(versionQualifier, qualifier)) ||
+          !columnNames.add(Bytes.toStringBinary(family) + ":" + Bytes.toStringBinary(qualifier))) {
+        throw new IllegalArgumentException("Property " + propertyName + " denotes an already incremented column");
+      }
+      columns.put(propertyName, new Pair<byte[], byte[]>(family, qualifier));
+    }
+    return columns;
+  }
+
+  protected boolean isOptimisticallyVersioned(LockType lockType) {
+    return LockType.OPTIMISTIC.equals(lockType) && infoProvider.getVersionColumnFamily() != null && infoProvider.
+        getVersionColumnQualifier() != null;
+  }
+}
@@ -36,8 +36,9 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 
 /**
- *
+ * Merges by reading the current rows, in a single batched get, and deleting their columns that are absent in the puts.
  * @author imyousuf
+ * @see TimestampedMergeService
  */
 public class DiffBasedMergeService<T, IdType> implements MergeService<T, IdType> {
 
@@ -48,11 +49,16 @@ public class DiffBasedMergeService<T, IdType> implements MergeService<T, IdType>
   public void merge(final HTableInterface tableInterface, final List<Put> puts, LockType lockType) throws IOException {
     List<Delete> deletes = new ArrayList<Delete>(puts.size());
     final long timestampForDelete = System.currentTimeMillis();
+    final List<Get> gets = new ArrayList<Get>(puts.size());
     for (Put put : puts) {
+      gets.add(new Get(put.getRow(), put.getRowLock()));
+    }
+    final Result[] results = gets.isEmpty() ? new Result[0] : tableInterface.get(gets);
+    for (int i = 0; i < results.length; ++i) {
+      final Put put = puts.get(i);
       final byte[] row = put.getRow();
-      Get get = new Get(row, put.getRowLock());
-      Result result = tableInterface.get(get);
-      if (result.isEmpty()) {
+      Result result = results[i];
+      if (result == null || result.isEmpty()) {
         continue;
       }
       boolean hasDiff = false;
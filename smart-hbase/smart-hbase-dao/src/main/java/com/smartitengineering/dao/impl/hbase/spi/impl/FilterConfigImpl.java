@@ -19,6 +19,7 @@
 package com.smartitengineering.dao.impl.hbase.spi.impl;
 
 import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.ValueTypedFilterConfig;
 import java.util.Arrays;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.codehaus.jackson.annotate.JsonIgnore;
@@ -28,11 +29,12 @@ import org.codehaus.jackson.annotate.JsonProperty;
  *
  * @author imyousuf
  */
-public class FilterConfigImpl implements FilterConfig {
+public class FilterConfigImpl implements ValueTypedFilterConfig {
 
   private byte[] columnFamily, columnQualifier;
   private boolean filterOnIfMissing, filterOnLatestVersionOnly, qualifierARangePrefix;
   private boolean filterOnRowId;
+  private String valueType;
 
   public void setFilterOnRowId(boolean filterOnRowId) {
     this.filterOnRowId = filterOnRowId;
@@ -70,6 +72,10 @@ public class FilterConfigImpl implements FilterConfig {
     this.filterOnLatestVersionOnly = filterOnLatestVersionOnly;
   }
 
+  public void setValueType(String valueType) {
+    this.valueType = valueType;
+  }
+
   public String getColumnFamilyAsString() {
     return Bytes.toString(this.columnFamily);
   }
@@ -110,12 +116,17 @@ public class FilterConfigImpl implements FilterConfig {
     return filterOnRowId;
   }
 
+  @Override
+  public String getValueType() {
+    return valueType;
+  }
+
   @Override
   public String toString() {
     return "FilterConfigImpl{" + "columnFamily=" + Bytes.toString(columnFamily) + ", columnQualifier=" +
         Bytes.toString(columnQualifier) + ", filterOnIfMissing=" + filterOnIfMissing + ", filterOnLatestVersionOnly=" +
         filterOnLatestVersionOnly + ", qualifierARangePrefix=" + qualifierARangePrefix + ", filterOnRowId=" +
-        filterOnRowId + '}';
+        filterOnRowId + ", valueType=" + valueType + '}';
   }
 
   @Override
@@ -145,6 +156,10 @@ public class FilterConfigImpl implements FilterConfig {
     if (this.filterOnRowId != other.isFilterOnRowId()) {
       return false;
     }
+    final String otherValueType = ValueCodecRegistry.getValueType(other);
+    if ((this.valueType == null) ? (otherValueType != null) : !this.valueType.equals(otherValueType)) {
+      return false;
+    }
     return true;
   }
 
@@ -157,6 +172,7 @@ public class FilterConfigImpl implements FilterConfig {
     hash = 17 * hash + (this.filterOnLatestVersionOnly ? 1 : 0);
     hash = 17 * hash + (this.qualifierARangePrefix ? 1 : 0);
     hash = 17 * hash + (this.filterOnRowId ? 1 : 0);
+    hash = 17 * hash + (this.valueType != null ? this.valueType.hashCode() : 0);
     return hash;
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.smartitengineering.dao.impl.hbase.spi.RowIdDistributor;
+import java.util.Arrays;
+
+/**
+ * Distributes rows into a fixed number of buckets using a single byte prefix derived from the hash of the original row
+ * id. The number of buckets can not be changed once rows are written.
+ * @author imyousuf
+ */
+public class HashPrefixRowIdDistributor implements RowIdDistributor {
+
+  public static final int MAX_BUCKETS = 256;
+  private final byte[][] prefixes;
+
+  public HashPrefixRowIdDistributor(int buckets) {
+    if (buckets <= 0 || buckets > MAX_BUCKETS) {
+      throw new IllegalArgumentException("Buckets must be between 1 and " + MAX_BUCKETS);
+    }
+    prefixes = new byte[buckets][];
+    for (int i = 0; i < buckets; ++i) {
+      prefixes[i] = new byte[]{(byte) i};
+    }
+  }
+
+  public int getBuckets() {
+    return prefixes.length;
+  }
+
+  @Override
+  public byte[] getDistributedRowId(byte[] originalRowId) {
+    final byte[] rowId = new byte[originalRowId.length + 1];
+    rowId[0] = prefixes[(Arrays.hashCode(originalRowId) & Integer.MAX_VALUE) % prefixes.length][0];
+    System.arraycopy(originalRowId, 0, rowId, 1, originalRowId.length);
+    return rowId;
+  }
+
+  @Override
+  public byte[] getOriginalRowId(byte[] distributedRowId) {
+    if (distributedRowId.length < 1) {
+      throw new IllegalArgumentException("Row id does not have a bucket prefix!");
+    }
+    return Arrays.copyOfRange(distributedRowId, 1, distributedRowId.length);
+  }
+
+  @Override
+  public byte[][] getAllPrefixes() {
+    final byte[][] allPrefixes = new byte[prefixes.length][];
+    for (int i = 0; i < prefixes.length; ++i) {
+      allPrefixes[i] = prefixes[i].clone();
+    }
+    return allPrefixes;
+  }
+}
@@ -24,18 +24,22 @@ import com.smartitengineering.dao.impl.hbase.spi.Callback;
 import com.smartitengineering.dao.impl.hbase.spi.LockAttainer;
 import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
 import com.smartitengineering.domain.PersistentDTO;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.RowLock;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -43,44 +47,59 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Attains row locks of instances and caches them by instance identity. Instances are weakly referenced; entries of
+ * instances garbage collected are expunged as their keys are enqueued, on the next access of the cache. Only
+ * attaining locks of the same instance is mutually exclusive, through lock striping by instance identity.
  * @author imyousuf
  */
 public class LockAttainerImpl<T extends PersistentDTO, IdType>
     implements LockAttainer<T, IdType> {
 
-  private final Map<Key<T>, Map<String, RowLock>> locksCache = new ConcurrentHashMap<Key<T>, Map<String, RowLock>>();
+  private static final int STRIPES = 64;
+  private final ConcurrentMap<Key<T>, Map<String, RowLock>> locksCache =
+                                                             new ConcurrentHashMap<Key<T>, Map<String, RowLock>>();
+  private final ReferenceQueue<T> collectedInstances = new ReferenceQueue<T>();
+  private final Object[] stripes;
   protected final Logger logger = LoggerFactory.getLogger(getClass());
   @Inject
   private SchemaInfoProvider<T, IdType> infoProvider;
   @Inject
   private AsyncExecutorService executorService;
-  private final ScheduledExecutorService cleanupExecutor;
 
   {
-    cleanupExecutor = Executors.newSingleThreadScheduledExecutor();
-    cleanupExecutor.scheduleAtFixedRate(new Runnable() {
+    stripes = new Object[STRIPES];
+    for (int i = 0; i < STRIPES; ++i) {
+      stripes[i] = new Object();
+    }
+  }
 
-      @Override
-      public void run() {
-        Iterator<Entry<Key<T>, Map<String, RowLock>>> entries = locksCache.entrySet().iterator();
-        while (entries.hasNext()) {
-          Entry<Key<T>, Map<String, RowLock>> entry = entries.next();
-          if (entry.getKey().getInstance() == null) {
-            entries.remove();
-          }
-        }
-      }
-    }, 5, 10, TimeUnit.MINUTES);
+  public void setInfoProvider(SchemaInfoProvider<T, IdType> infoProvider) {
+    this.infoProvider = infoProvider;
+  }
+
+  public void setExecutorService(AsyncExecutorService executorService) {
+    this.executorService = executorService;
   }
 
   @Override
-  public synchronized Map<String, RowLock> getLock(final T instance,
-                                                   String... tables) {
-    final Key key = new Key(instance);
-    if (locksCache.containsKey(key)) {
-      return Collections.unmodifiableMap(locksCache.get(key));
+  public Map<String, RowLock> getLock(final T instance,
+                                      String... tables) {
+    expungeCollectedInstances();
+    final Key<T> lookupKey = new Key<T>(instance);
+    final Map<String, RowLock> cachedLocks = locksCache.get(lookupKey);
+    if (cachedLocks != null) {
+      return Collections.unmodifiableMap(cachedLocks);
+    }
+    synchronized (stripes[lookupKey.hash & (STRIPES - 1)]) {
+      final Map<String, RowLock> locks = locksCache.get(lookupKey);
+      if (locks != null) {
+        return Collections.unmodifiableMap(locks);
+      }
+      return attainLocks(instance, tables);
     }
+  }
+
+  protected Map<String, RowLock> attainLocks(final T instance, String... tables) {
     logger.info("Not found in cache so trying to retrieve!");
     final Map<String, Future<RowLock>> map = new LinkedHashMap<String, Future<RowLock>>();
     if (tables == null) {
@@ -120,84 +139,259 @@ public class LockAttainerImpl<T extends PersistentDTO, IdType>
         throw new RuntimeException(ex);
       }
     }
-    locksCache.put(key, lockMap);
+    locksCache.put(new Key<T>(instance, collectedInstances), lockMap);
     return lockMap;
   }
 
+  /**
+   * Attain the locks of all instances not cached yet. Rows are locked in ascending row id order, so concurrent bulk
+   * attainments of overlapping rows can not deadlock each other within a table, with the rows of each table locked
+   * by a task of its own and the tables in parallel. If any lock can not be attained within the wait time all the
+   * locks attained are released and the attainment fails.
+   */
   @Override
-  public synchronized boolean evictFromCache(T instance) {
-    return locksCache.remove(new Key(instance)) != null;
+  public List<Map<String, RowLock>> getLocks(List<T> instances, String... tables) {
+    expungeCollectedInstances();
+    if (tables == null) {
+      tables = new String[]{infoProvider.getMainTableName()};
+    }
+    final TreeMap<byte[], List<T>> rows = new TreeMap<byte[], List<T>>(Bytes.BYTES_COMPARATOR);
+    for (T instance : instances) {
+      if (locksCache.containsKey(new Key<T>(instance))) {
+        continue;
+      }
+      try {
+        final byte[] rowId = infoProvider.getRowIdFromRow(instance);
+        List<T> rowInstances = rows.get(rowId);
+        if (rowInstances == null) {
+          rowInstances = new ArrayList<T>(1);
+          rows.put(rowId, rowInstances);
+        }
+        rowInstances.add(instance);
+      }
+      catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+    if (!rows.isEmpty() && executorService != null) {
+      final Map<String, Map<byte[], RowLock>> tableLocks = attainLocks(new ArrayList<byte[]>(rows.keySet()), tables);
+      for (Map.Entry<byte[], List<T>> row : rows.entrySet()) {
+        final Map<String, RowLock> lockMap = new HashMap<String, RowLock>(tables.length);
+        for (String table : tables) {
+          lockMap.put(table, tableLocks.get(table).get(row.getKey()));
+        }
+        for (T instance : row.getValue()) {
+          locksCache.put(new Key<T>(instance, collectedInstances), lockMap);
+        }
+      }
+    }
+    final List<Map<String, RowLock>> locks = new ArrayList<Map<String, RowLock>>(instances.size());
+    for (T instance : instances) {
+      final Map<String, RowLock> lockMap = locksCache.get(new Key<T>(instance));
+      locks.add(lockMap == null ? Collections.<String, RowLock>emptyMap() : Collections.unmodifiableMap(lockMap));
+    }
+    return locks;
+  }
+
+  /**
+   * Lock the sorted rows in each table, releasing every lock attained if any of them fails.
+   * @return Locks of the rows by table
+   */
+  protected Map<String, Map<byte[], RowLock>> attainLocks(final List<byte[]> sortedRows, String... tables) {
+    final AtomicBoolean aborted = new AtomicBoolean(false);
+    final Map<String, Future<Map<byte[], RowLock>>> futures =
+                                                    new LinkedHashMap<String, Future<Map<byte[], RowLock>>>();
+    for (final String table : tables) {
+      futures.put(table, executorService.executeAsynchronously(table, new Callback<Map<byte[], RowLock>>() {
+
+        @Override
+        public Map<byte[], RowLock> call(HTableInterface tableInterface) throws Exception {
+          final Map<byte[], RowLock> locks = new TreeMap<byte[], RowLock>(Bytes.BYTES_COMPARATOR);
+          try {
+            for (byte[] row : sortedRows) {
+              if (aborted.get()) {
+                throw new IllegalStateException("Lock attainment aborted!");
+              }
+              locks.put(row, tableInterface.lockRow(row));
+            }
+            if (aborted.get()) {
+              throw new IllegalStateException("Lock attainment aborted!");
+            }
+            return locks;
+          }
+          catch (Exception ex) {
+            for (RowLock lock : locks.values()) {
+              try {
+                tableInterface.unlockRow(lock);
+              }
+              catch (Exception unlockEx) {
+                logger.warn("Could not release lock of " + table, unlockEx);
+              }
+            }
+            throw ex;
+          }
+        }
+      }));
+    }
+    final Map<String, Map<byte[], RowLock>> tableLocks = new LinkedHashMap<String, Map<byte[], RowLock>>();
+    final long deadline = System.nanoTime() + infoProvider.getUnit().toNanos(infoProvider.getWaitTime());
+    try {
+      for (Entry<String, Future<Map<byte[], RowLock>>> future : futures.entrySet()) {
+        tableLocks.put(future.getKey(), future.getValue().get(Math.max(0, deadline - System.nanoTime()),
+                                                              TimeUnit.NANOSECONDS));
+      }
+    }
+    catch (Exception ex) {
+      aborted.set(true);
+      for (Entry<String, Map<byte[], RowLock>> locks : tableLocks.entrySet()) {
+        for (RowLock lock : locks.getValue().values()) {
+          unlock(locks.getKey(), lock);
+        }
+      }
+      for (final Entry<String, Future<Map<byte[], RowLock>>> future : futures.entrySet()) {
+        if (!tableLocks.containsKey(future.getKey())) {
+          releaseWhenAttained(future.getKey(), future.getValue());
+        }
+      }
+      logger.error("Error trying to get locks!", ex);
+      throw new RuntimeException(ex);
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Attained locks of " + sortedRows.size() + " rows in " + tables.length + " tables");
+    }
+    return tableLocks;
+  }
+
+  /**
+   * Release the locks of a table once its pending attainment completes, in case it completes successfully after the
+   * attainment was aborted.
+   */
+  protected void releaseWhenAttained(String table, final Future<Map<byte[], RowLock>> future) {
+    executorService.executeAsynchronously(table, new Callback<Void>() {
+
+      @Override
+      public Void call(HTableInterface tableInterface) throws Exception {
+        final Map<byte[], RowLock> locks;
+        try {
+          locks = future.get();
+        }
+        catch (Exception ex) {
+          return null;
+        }
+        for (RowLock lock : locks.values()) {
+          tableInterface.unlockRow(lock);
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public boolean evictFromCache(T instance) {
+    expungeCollectedInstances();
+    return locksCache.remove(new Key<T>(instance)) != null;
   }
 
   @Override
   public void putLock(T instance, Map<String, RowLock> locks) {
-    locksCache.put(new Key(instance), locks);
+    expungeCollectedInstances();
+    locksCache.put(new Key<T>(instance, collectedInstances), locks);
   }
 
   @Override
-  public synchronized boolean unlockAndEvictFromCache(T instance) {
+  public boolean unlockAndEvictFromCache(T instance) {
+    expungeCollectedInstances();
     if (logger.isInfoEnabled()) {
       logger.info("Instance to remove " + " " + instance.getClass() + " " + instance);
       logger.info("Cache " + " " + locksCache.getClass() + " " + locksCache);
     }
-    Map<String, RowLock> locks = locksCache.remove(new Key(instance));
+    Map<String, RowLock> locks = locksCache.remove(new Key<T>(instance));
     if (locks == null) {
       logger.info("No locks in cache!");
       return false;
     }
     else {
       for (final Entry<String, RowLock> lock : locks.entrySet()) {
-        executorService.executeAsynchronously(lock.getKey(), new Callback<Void>() {
-
-          @Override
-          public Void call(HTableInterface tableInterface)
-              throws Exception {
-            final RowLock lockVal = lock.getValue();
-            if (logger.isInfoEnabled()) {
-              logger.info("Unlocking row: " + lockVal.getLockId());
-            }
-            tableInterface.unlockRow(lockVal);
-            return null;
-          }
-        });
+        unlock(lock.getKey(), lock.getValue());
       }
       return false;
     }
   }
 
-  private static class Key<T extends PersistentDTO> {
+  protected void unlock(String table, final RowLock lockVal) {
+    executorService.executeAsynchronously(table, new Callback<Void>() {
 
-    private final WeakReference<T> instance;
+      @Override
+      public Void call(HTableInterface tableInterface)
+          throws Exception {
+        if (logger.isInfoEnabled()) {
+          logger.info("Unlocking row: " + lockVal.getLockId());
+        }
+        tableInterface.unlockRow(lockVal);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Remove the entries of instances that have been garbage collected.
+   */
+  protected void expungeCollectedInstances() {
+    Reference<? extends T> reference;
+    while ((reference = collectedInstances.poll()) != null) {
+      if (locksCache.remove((Key<T>) reference) != null && logger.isDebugEnabled()) {
+        logger.debug("Expunged locks of a collected instance");
+      }
+    }
+  }
+
+  protected int getCacheSize() {
+    return locksCache.size();
+  }
+
+  /**
+   * Weak key comparing instances by identity. The identity hash is retained so that the key can still be located
+   * once the instance is collected; a collected key is only equal to itself.
+   */
+  private static class Key<T extends PersistentDTO> extends WeakReference<T> {
+
+    private final int hash;
 
     public Key(T instance) {
-      this.instance = new WeakReference<T>(instance);
+      super(instance);
+      this.hash = spread(System.identityHashCode(instance));
+    }
+
+    public Key(T instance, ReferenceQueue<T> queue) {
+      super(instance, queue);
+      this.hash = spread(System.identityHashCode(instance));
     }
 
-    public T getInstance() {
-      return this.instance.get();
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
     }
 
     @Override
     public boolean equals(Object obj) {
-      if (obj == null) {
-        return false;
+      if (obj == this) {
+        return true;
       }
-      if (getClass() != obj.getClass()) {
+      if (!(obj instanceof Key)) {
         return false;
       }
-      final Key<T> other = (Key<T>) obj;
-      return other.instance.get() == this.instance.get();
+      final Object instance = get();
+      return instance != null && instance == ((Key) obj).get();
     }
 
     @Override
     public int hashCode() {
-      int hash = 5;
       return hash;
     }
 
     @Override
     public String toString() {
-      return "Key{" + "instance=" + instance.get().getId().toString() + '}';
+      final T instance = get();
+      return "Key{" + "instance=" + (instance == null ? null : instance.getId()) + '}';
     }
   }
 }
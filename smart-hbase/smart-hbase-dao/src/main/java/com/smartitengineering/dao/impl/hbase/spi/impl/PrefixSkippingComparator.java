@@ -0,0 +1,73 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
+
+/**
+ * Compares values with another comparator after skipping a fixed length prefix, e.g. to compare distributed row ids
+ * with original row ids.
+ * @author imyousuf
+ */
+public class PrefixSkippingComparator extends WritableByteArrayComparable {
+
+  private int prefixLength;
+  private WritableByteArrayComparable comparator;
+
+  public PrefixSkippingComparator() {
+  }
+
+  public PrefixSkippingComparator(int prefixLength, WritableByteArrayComparable comparator) {
+    super(comparator.getValue());
+    this.prefixLength = prefixLength;
+    this.comparator = comparator;
+  }
+
+  @Override
+  public int compareTo(byte[] value) {
+    if (value.length < prefixLength) {
+      return comparator.compareTo(new byte[0]);
+    }
+    return comparator.compareTo(Arrays.copyOfRange(value, prefixLength, value.length));
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(prefixLength);
+    out.writeUTF(comparator.getClass().getName());
+    comparator.write(out);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    prefixLength = in.readInt();
+    final String className = in.readUTF();
+    try {
+      comparator = (WritableByteArrayComparable) Class.forName(className).newInstance();
+    }
+    catch (Exception ex) {
+      throw new IOException(ex);
+    }
+    comparator.readFields(in);
+  }
+}
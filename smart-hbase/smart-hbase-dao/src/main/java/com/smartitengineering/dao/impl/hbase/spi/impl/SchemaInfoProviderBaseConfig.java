@@ -18,6 +18,8 @@
  */
 package com.smartitengineering.dao.impl.hbase.spi.impl;
 
+import java.util.List;
+
 /**
  *
  * @author imyousuf
@@ -26,6 +28,8 @@ public class SchemaInfoProviderBaseConfig<T> {
 
   private String schemaNamespace, mainTableName, versionColumnFamily, versionColumnQualifier;
   private boolean transactionalDomain;
+  private int rowIdBuckets;
+  private List<String> compositeIdFields;
 
   public String getVersionColumnFamily() {
     return versionColumnFamily;
@@ -66,4 +70,27 @@ public class SchemaInfoProviderBaseConfig<T> {
   public void setTransactionalDomain(boolean transactionalDomain) {
     this.transactionalDomain = transactionalDomain;
   }
+
+  /**
+   * Number of buckets to distribute rows into with a hash prefix, non-positive to not distribute rows.
+   */
+  public int getRowIdBuckets() {
+    return rowIdBuckets;
+  }
+
+  public void setRowIdBuckets(int rowIdBuckets) {
+    this.rowIdBuckets = rowIdBuckets;
+  }
+
+  /**
+   * Fields, in order of significance, of ids to be encoded with a {@link CompositeIdCodec} if the id type is not one
+   * with a built in encoding.
+   */
+  public List<String> getCompositeIdFields() {
+    return compositeIdFields;
+  }
+
+  public void setCompositeIdFields(List<String> compositeIdFields) {
+    this.compositeIdFields = compositeIdFields;
+  }
 }
@@ -21,10 +21,16 @@ package com.smartitengineering.dao.impl.hbase.spi.impl;
 import com.google.inject.Inject;
 import com.google.inject.internal.Nullable;
 import com.google.inject.name.Named;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfig;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfigProvider;
 import com.smartitengineering.dao.impl.hbase.spi.DomainIdInstanceProvider;
 import com.smartitengineering.dao.impl.hbase.spi.Externalizable;
 import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
 import com.smartitengineering.dao.impl.hbase.spi.FilterConfigs;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfig;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfigProvider;
+import com.smartitengineering.dao.impl.hbase.spi.RowIdDistributor;
+import com.smartitengineering.dao.impl.hbase.spi.RowIdDistributorProvider;
 import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
 import com.smartitengineering.domain.PersistentDTO;
 import java.io.ByteArrayInputStream;
@@ -38,6 +44,8 @@ import java.text.ParseException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.IOUtils;
@@ -50,12 +58,17 @@ import org.apache.hadoop.hbase.util.Bytes;
  *
  * @author imyousuf
  */
-public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements SchemaInfoProvider<T, IdType> {
+public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements SchemaInfoProvider<T, IdType>,
+                                                                                 IndexConfigProvider,
+                                                                                 AggregateConfigProvider,
+                                                                                 RowIdDistributorProvider {
 
   private String schemaNamespace, mainTableName;
   private byte[] versionColumnFamily, versionColumnQualifier;
   private boolean transactionalDomain;
   private Map<String, FilterConfig> filterConfigs;
+  private final Map<String, IndexConfig> indexConfigs;
+  private final Map<String, AggregateConfig> aggregateConfigs;
   private long waitTime;
   private TimeUnit unit;
   @Inject
@@ -63,9 +76,14 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
   @Inject
   @Nullable
   private DomainIdInstanceProvider provider;
+  private RowIdDistributor rowIdDistributor;
+  private List<String> compositeIdFields;
+  private volatile CompositeIdCodec<IdType> compositeIdCodec;
 
   public SchemaInfoProviderImpl() {
     filterConfigs = new HashMap<String, FilterConfig>();
+    indexConfigs = new LinkedHashMap<String, IndexConfig>();
+    aggregateConfigs = new LinkedHashMap<String, AggregateConfig>();
   }
 
   public Class<IdType> getIdTypeClass() {
@@ -87,6 +105,50 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
     if (StringUtils.isNotBlank(config.getVersionColumnQualifier())) {
       this.versionColumnQualifier = Bytes.toBytes(config.getVersionColumnQualifier());
     }
+    if (config.getRowIdBuckets() > 0 && this.rowIdDistributor == null) {
+      this.rowIdDistributor = new HashPrefixRowIdDistributor(config.getRowIdBuckets());
+    }
+    this.compositeIdFields = config.getCompositeIdFields();
+  }
+
+  /**
+   * Set the codec for composite ids, it takes precedence over composite id fields of the base config.
+   */
+  @Inject(optional = true)
+  public void setCompositeIdCodec(CompositeIdCodec<IdType> compositeIdCodec) {
+    this.compositeIdCodec = compositeIdCodec;
+  }
+
+  /**
+   * Retrieve the codec for composite ids, formed from the composite id fields of the base config if not set. The
+   * codec is formed once even if row ids are formed concurrently.
+   * @return The codec or null if ids are not composite
+   */
+  public CompositeIdCodec<IdType> getCompositeIdCodec() {
+    CompositeIdCodec<IdType> codec = compositeIdCodec;
+    if (codec == null && compositeIdFields != null && !compositeIdFields.isEmpty() && idTypeClass != null) {
+      synchronized (this) {
+        codec = compositeIdCodec;
+        if (codec == null) {
+          codec = new CompositeIdCodec<IdType>(idTypeClass, compositeIdFields, provider);
+          compositeIdCodec = codec;
+        }
+      }
+    }
+    return codec;
+  }
+
+  /**
+   * Set a custom row id distributor, it takes precedence over row id buckets of the base config.
+   */
+  @Inject(optional = true)
+  public void setRowIdDistributor(RowIdDistributor rowIdDistributor) {
+    this.rowIdDistributor = rowIdDistributor;
+  }
+
+  @Override
+  public RowIdDistributor getRowIdDistributor() {
+    return rowIdDistributor;
   }
 
   @Inject
@@ -102,6 +164,40 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
   @Inject
   public void setFilterConfigs(FilterConfigs<T> configs) {
     this.filterConfigs = configs.getConfigs();
+    this.indexConfigs.clear();
+    if (configs.getIndexes() != null) {
+      this.indexConfigs.putAll(configs.getIndexes());
+    }
+    this.aggregateConfigs.clear();
+    if (configs.getAggregates() != null) {
+      this.aggregateConfigs.putAll(configs.getAggregates());
+    }
+  }
+
+  @Override
+  public Map<String, IndexConfig> getIndexConfigs() {
+    return Collections.unmodifiableMap(indexConfigs);
+  }
+
+  public void addIndexConfig(String propertyName, IndexConfig indexConfig) {
+    this.indexConfigs.put(propertyName, indexConfig);
+  }
+
+  public IndexConfig removeIndexConfig(String propertyName) {
+    return this.indexConfigs.remove(propertyName);
+  }
+
+  @Override
+  public Map<String, AggregateConfig> getAggregateConfigs() {
+    return Collections.unmodifiableMap(aggregateConfigs);
+  }
+
+  public void addAggregateConfig(String viewName, AggregateConfig aggregateConfig) {
+    this.aggregateConfigs.put(viewName, aggregateConfig);
+  }
+
+  public AggregateConfig removeAggregateConfig(String viewName) {
+    return this.aggregateConfigs.remove(viewName);
   }
 
   public Map<String, FilterConfig> getFilterConfigs() {
@@ -188,6 +284,17 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
 
   @Override
   public byte[] getRowIdFromId(IdType id) throws IOException {
+    final byte[] rowId = getOriginalRowIdFromId(id);
+    if (rowIdDistributor != null && id != null) {
+      return rowIdDistributor.getDistributedRowId(rowId);
+    }
+    return rowId;
+  }
+
+  /**
+   * Form the row id of an id without any bucket prefix.
+   */
+  protected byte[] getOriginalRowIdFromId(IdType id) throws IOException {
     final byte[] rowId;
     if (id instanceof Integer) {
       rowId = Bytes.toBytes((Integer) id);
@@ -204,6 +311,9 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
     else if (id instanceof Date) {
       rowId = Bytes.toBytes(DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.format(((Date) id)));
     }
+    else if (isCompositeId(id)) {
+      rowId = getCompositeIdCodec().encode(id);
+    }
     else if (id instanceof Externalizable) {
       final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
       final DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
@@ -226,9 +336,14 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
   }
 
   @Override
-  public IdType getIdFromRowId(byte[] id) throws IOException, ClassNotFoundException {
+  public IdType getIdFromRowId(byte[] rowId) throws IOException, ClassNotFoundException {
+    final byte[] id = rowIdDistributor == null ? rowId : rowIdDistributor.getOriginalRowId(rowId);
     final Object idInstance;
-    if (Externalizable.class.isAssignableFrom(idTypeClass)) {
+    final CompositeIdCodec<IdType> codec = getCompositeIdCodec();
+    if (codec != null && codec.getIdTypeClass().isAssignableFrom(idTypeClass)) {
+      idInstance = codec.decode(id);
+    }
+    else if (Externalizable.class.isAssignableFrom(idTypeClass)) {
       idInstance = provider.getInstance(idTypeClass);
       DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(id));
       ((Externalizable) idInstance).readExternal(inputStream);
@@ -259,4 +374,9 @@ public class SchemaInfoProviderImpl<T extends PersistentDTO, IdType> implements
     }
     return (IdType) idInstance;
   }
+
+  protected boolean isCompositeId(IdType id) {
+    final CompositeIdCodec<IdType> codec = getCompositeIdCodec();
+    return id != null && codec != null && codec.getIdTypeClass().isInstance(id);
+  }
 }
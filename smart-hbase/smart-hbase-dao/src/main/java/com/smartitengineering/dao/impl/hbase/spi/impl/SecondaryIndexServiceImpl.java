@@ -0,0 +1,245 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2008  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.google.inject.Inject;
+import com.smartitengineering.dao.common.queryparam.MatchMode;
+import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.DerivedDataUpdate;
+import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfig;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfigProvider;
+import com.smartitengineering.dao.impl.hbase.spi.IndexEntry;
+import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
+import com.smartitengineering.dao.impl.hbase.spi.SecondaryIndexService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.filter.SubstringComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the secondary indexes declared by the {@link IndexConfigProvider schema info provider}. Index entries are
+ * written with the timestamp of the update and deleted at a timestamp just before it, so that re-adding an entry is
+ * never masked by the removal of an earlier write.
+ * @author imyousuf
+ */
+public class SecondaryIndexServiceImpl<T, IdType> implements SecondaryIndexService<T, IdType> {
+
+  public static final char NGRAM_START_MARKER = '\u0002';
+  public static final char NGRAM_END_MARKER = '\u0003';
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+  @Inject
+  private SchemaInfoProvider<T, IdType> infoProvider;
+  @Inject
+  private AsyncExecutorService executorService;
+
+  public SchemaInfoProvider<T, IdType> getInfoProvider() {
+    return infoProvider;
+  }
+
+  public void setInfoProvider(SchemaInfoProvider<T, IdType> infoProvider) {
+    this.infoProvider = infoProvider;
+  }
+
+  public AsyncExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  public void setExecutorService(AsyncExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
+  /**
+   * Retrieve the secondary indexes declared on properties having column filter configs, i.e. neither on the row id nor
+   * on a range of qualifiers.
+   */
+  @Override
+  public Map<String, IndexConfig> getIndexConfigs() {
+    if (!(infoProvider instanceof IndexConfigProvider)) {
+      return Collections.emptyMap();
+    }
+    final Map<String, IndexConfig> configs = ((IndexConfigProvider) infoProvider).getIndexConfigs();
+    if (configs == null || configs.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final Map<String, IndexConfig> indexes = new LinkedHashMap<String, IndexConfig>();
+    for (Map.Entry<String, IndexConfig> index : configs.entrySet()) {
+      final FilterConfig config = infoProvider.getFilterConfig(index.getKey());
+      if (config != null && !config.isFilterOnRowId() && !config.isQualifierARangePrefix() && config.getColumnFamily()
+          != null && config.getColumnQualifier() != null && StringUtils.isNotBlank(index.getValue().getTableName())) {
+        indexes.put(index.getKey(), index.getValue());
+      }
+    }
+    return indexes;
+  }
+
+  @Override
+  public Set<byte[]> getNgrams(IndexConfig index, String text, MatchMode matchMode) {
+    return getNgrams(text, matchMode, index.getNgramLength());
+  }
+
+  /**
+   * Split text into n-grams for an n-gram index. The text is lower cased in a locale independent way, as
+   * {@link SubstringComparator} compares case insensitively, and delimited by a start marker unless matched at the end
+   * or anywhere and by an end marker unless matched at the start or anywhere, so that prefixes and suffixes shorter
+   * than the n-grams are indexed too.
+   * @param text The text to split
+   * @param matchMode How the text is matched, null denotes exact match as for values being indexed
+   * @param length Length of the n-grams
+   * @return Distinct n-grams as bytes, empty if the delimited text is shorter than the n-grams
+   */
+  public static Set<byte[]> getNgrams(String text, MatchMode matchMode, int length) {
+    final StringBuilder delimited = new StringBuilder(text.length() + 2);
+    if (matchMode == null || MatchMode.EXACT.equals(matchMode) || MatchMode.START.equals(matchMode)) {
+      delimited.append(NGRAM_START_MARKER);
+    }
+    delimited.append(text.toLowerCase(Locale.ENGLISH));
+    if (matchMode == null || MatchMode.EXACT.equals(matchMode) || MatchMode.END.equals(matchMode)) {
+      delimited.append(NGRAM_END_MARKER);
+    }
+    final Set<byte[]> ngrams = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (int i = 0; i + length <= delimited.length(); ++i) {
+      ngrams.add(Bytes.toBytes(delimited.substring(i, i + length)));
+    }
+    return ngrams;
+  }
+
+  /**
+   * Form the keys of the index rows a stored value is to be indexed under, i.e. the value itself or its n-grams.
+   * @return Distinct keys, empty for a null or empty value
+   */
+  protected Set<byte[]> getIndexKeys(IndexConfig index, byte[] value) {
+    if (value == null || value.length == 0) {
+      return Collections.emptySet();
+    }
+    if (index.isNgramIndex()) {
+      return getNgrams(Bytes.toString(value), null, index.getNgramLength());
+    }
+    final Set<byte[]> keys = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    keys.add(value);
+    return keys;
+  }
+
+  /**
+   * Entries are added for the index keys of the written values and removed for the keys only the current values they
+   * replace have.
+   */
+  @Override
+  public void prepareIndexEntries(DerivedDataUpdate update, byte[] row, Map<String, byte[]> current,
+                                  Map<String, byte[]> written) {
+    for (Map.Entry<String, IndexConfig> index : getIndexConfigs().entrySet()) {
+      if (!written.containsKey(index.getKey())) {
+        continue;
+      }
+      final Set<byte[]> keys = getIndexKeys(index.getValue(), written.get(index.getKey()));
+      for (byte[] key : keys) {
+        update.getAdditions().add(new IndexEntry(index.getValue(), key, row));
+      }
+      for (byte[] key : getIndexKeys(index.getValue(), current.get(index.getKey()))) {
+        if (!keys.contains(key)) {
+          update.getRemovals().add(new IndexEntry(index.getValue(), key, row));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addIndexEntries(DerivedDataUpdate update) {
+    if (update == null || update.getAdditions().isEmpty()) {
+      return;
+    }
+    final Map<String, List<Put>> puts = new LinkedHashMap<String, List<Put>>();
+    for (IndexEntry entry : update.getAdditions()) {
+      final String tableName = entry.getIndex().getTableName();
+      if (!puts.containsKey(tableName)) {
+        puts.put(tableName, new ArrayList<Put>());
+      }
+      final Put put = new Put(entry.getValue());
+      put.add(entry.getIndex().getColumnFamily(), entry.getRow(), update.getTimestamp(), HConstants.EMPTY_BYTE_ARRAY);
+      puts.get(tableName).add(put);
+    }
+    for (final Map.Entry<String, List<Put>> tablePuts : puts.entrySet()) {
+      executorService.execute(tablePuts.getKey(), new Callback<Void>() {
+
+        @Override
+        public Void call(HTableInterface tableInterface) throws Exception {
+          tableInterface.put(tablePuts.getValue());
+          return null;
+        }
+      });
+    }
+  }
+
+  /**
+   * Failing to delete the entries only leaves them stale, hence it is logged and not thrown.
+   */
+  @Override
+  public void removeIndexEntries(DerivedDataUpdate update, List<? extends Row> failed) {
+    if (update == null || update.getRemovals().isEmpty()) {
+      return;
+    }
+    final Set<byte[]> failedRows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (Row row : failed) {
+      failedRows.add(row.getRow());
+    }
+    final Map<String, List<Delete>> deletes = new LinkedHashMap<String, List<Delete>>();
+    for (IndexEntry entry : update.getRemovals()) {
+      if (failedRows.contains(entry.getRow())) {
+        continue;
+      }
+      final String tableName = entry.getIndex().getTableName();
+      if (!deletes.containsKey(tableName)) {
+        deletes.put(tableName, new ArrayList<Delete>());
+      }
+      final Delete delete = new Delete(entry.getValue());
+      delete.deleteColumns(entry.getIndex().getColumnFamily(), entry.getRow(), update.getTimestamp() - 1);
+      deletes.get(tableName).add(delete);
+    }
+    for (final Map.Entry<String, List<Delete>> tableDeletes : deletes.entrySet()) {
+      try {
+        executorService.execute(tableDeletes.getKey(), new Callback<Void>() {
+
+          @Override
+          public Void call(HTableInterface tableInterface) throws Exception {
+            tableInterface.delete(new ArrayList<Delete>(tableDeletes.getValue()));
+            return null;
+          }
+        });
+      }
+      catch (Exception ex) {
+        logger.warn("Could not remove stale index entries from " + tableDeletes.getKey(), ex);
+      }
+    }
+  }
+}
@@ -19,12 +19,14 @@
 package com.smartitengineering.dao.impl.hbase.spi.impl;
 
 import com.smartitengineering.dao.impl.hbase.HBaseConfigurationFactory;
+import com.smartitengineering.dao.impl.hbase.HTableManager;
 import com.smartitengineering.dao.impl.hbase.spi.Callback;
 import com.smartitengineering.dao.impl.hbase.spi.ExecutorService;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,8 +36,9 @@ import org.slf4j.LoggerFactory;
  */
 public class SynchronousExecutorServiceImpl implements ExecutorService {
 
-  public static final int DEFAULT_MAX_HTABLE_POOL_SIZE = 3000;
+  public static final int DEFAULT_MAX_HTABLE_POOL_SIZE = HTableManager.DEFAULT_MAX_SIZE;
   private Configuration configuration;
+  private HTableManager tableManager;
   private HTablePool tablePool;
   protected Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -55,10 +58,55 @@ public class SynchronousExecutorServiceImpl implements ExecutorService {
     this.configuration = configuration;
   }
 
-  protected HTablePool getTablePool() {
+  /**
+   * Retrieve the table manager, by default the one shared by all users of the configuration.
+   */
+  public HTableManager getTableManager() {
+    if (tableManager == null) {
+      logger.info("Initializing table manager!");
+      tableManager = HTableManager.getSharedInstance(getConfiguration());
+    }
+    return tableManager;
+  }
+
+  public void setTableManager(HTableManager tableManager) {
+    this.tableManager = tableManager;
+  }
+
+  /**
+   * Retrieve a table pool borrowing tables from and returning them to the {@link #getTableManager() table manager}.
+   * Closing the pool's tables is left to the table manager.
+   * @deprecated Tables are borrowed from the table manager, overriding this method has no effect on executions; use
+   *             {@link #getTableManager()} instead
+   */
+  @Deprecated
+  protected synchronized HTablePool getTablePool() {
     if (tablePool == null) {
-      logger.info("Initializing table pool!");
-      tablePool = new HTablePool(getConfiguration(), DEFAULT_MAX_HTABLE_POOL_SIZE);
+      tablePool = new HTablePool(getConfiguration(), DEFAULT_MAX_HTABLE_POOL_SIZE) {
+
+        @Override
+        public HTableInterface getTable(String tableName) {
+          return getTableManager().getTable(tableName);
+        }
+
+        @Override
+        public HTableInterface getTable(byte[] tableName) {
+          return getTable(Bytes.toString(tableName));
+        }
+
+        @Override
+        public void putTable(HTableInterface table) {
+          getTableManager().putTable(table);
+        }
+
+        @Override
+        public void closeTablePool(String tableName) {
+        }
+
+        @Override
+        public void close() {
+        }
+      };
     }
     return tablePool;
   }
@@ -66,12 +114,20 @@ public class SynchronousExecutorServiceImpl implements ExecutorService {
   @Override
   public <ReturnType> ReturnType execute(String tableName,
                                          Callback<ReturnType> callback) {
+    return executeInCallingThread(tableName, callback);
+  }
+
+  /**
+   * Execute the callback in the calling thread with a table borrowed from the table manager, without any timeout.
+   * Meant for long running callbacks, e.g. full table scans, irrespective of how {@link #execute} is implemented.
+   */
+  public <ReturnType> ReturnType executeInCallingThread(String tableName, Callback<ReturnType> callback) {
     final HTableInterface tableInterface;
     if (StringUtils.isBlank(tableName)) {
       throw new IllegalArgumentException("Table name not provided!");
     }
     else {
-      tableInterface = getTablePool().getTable(tableName);
+      tableInterface = getTableManager().getTable(tableName);
     }
     try {
       return callback.call(tableInterface);
@@ -82,7 +138,7 @@ public class SynchronousExecutorServiceImpl implements ExecutorService {
     finally {
       try {
         if (tableInterface != null) {
-          getTablePool().putTable(tableInterface);
+          getTableManager().putTable(tableInterface);
         }
       }
       catch (Exception ex) {
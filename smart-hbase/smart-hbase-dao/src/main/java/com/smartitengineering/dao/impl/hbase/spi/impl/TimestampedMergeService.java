@@ -0,0 +1,174 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.google.inject.Inject;
+import com.smartitengineering.dao.impl.hbase.spi.DeferredMergeService;
+import com.smartitengineering.dao.impl.hbase.spi.LockType;
+import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Merges without reading the rows first. The cells of each put are stamped with the current time and every family of
+ * the put is deleted up to just before that time, so that columns not in the put are removed while the put's own
+ * cells, with later timestamps, survive. The only family read is the version column family under optimistic locking,
+ * since deleting it would remove the version being checked; those rows are read with a single batched get. As the
+ * deletes do not touch the put's cells they are, when {@link #prepareMerge(HTableInterface, List, LockType) deferred},
+ * sent once the puts are written, so a failed put leaves its entity intact. When merged right away, with optimistic
+ * locking each row's delete is checked against its version, otherwise all deletes are sent in one batch. Since
+ * timestamps are assigned by the client, clocks of the clients and region servers writing the same rows should be
+ * kept in sync.
+ * @author imyousuf
+ */
+public class TimestampedMergeService<T, IdType> implements DeferredMergeService<T, IdType> {
+
+  @Inject
+  private SchemaInfoProvider<T, IdType> infoProvider;
+
+  public void setInfoProvider(SchemaInfoProvider<T, IdType> infoProvider) {
+    this.infoProvider = infoProvider;
+  }
+
+  /**
+   * Merge sending the deletes right away, i.e. before the puts are written.
+   */
+  @Override
+  public void merge(HTableInterface tableInterface, List<Put> puts, LockType lockType) throws IOException {
+    final List<Delete> deletes = prepareMerge(tableInterface, puts, lockType);
+    final byte[] versionFamily = infoProvider.getVersionColumnFamily();
+    final byte[] versionQualifier = infoProvider.getVersionColumnQualifier();
+    final boolean optimistic = isOptimistic(lockType);
+    final List<Delete> batch = new ArrayList<Delete>(deletes.size());
+    for (int i = 0; i < deletes.size(); ++i) {
+      final Delete delete = deletes.get(i);
+      if (delete.isEmpty()) {
+        continue;
+      }
+      if (optimistic) {
+        final List<KeyValue> versions = puts.get(i).get(versionFamily, versionQualifier);
+        final byte[] version = versions == null || versions.isEmpty() ? null : DiffBasedMergeService.getLatestValue(
+            versions).getValue();
+        tableInterface.checkAndDelete(delete.getRow(), versionFamily, versionQualifier, version, delete);
+      }
+      else {
+        batch.add(delete);
+      }
+    }
+    if (!batch.isEmpty()) {
+      tableInterface.delete(batch);
+    }
+  }
+
+  @Override
+  public List<Delete> prepareMerge(HTableInterface tableInterface, List<Put> puts, LockType lockType) throws
+      IOException {
+    final byte[] versionFamily = infoProvider.getVersionColumnFamily();
+    final byte[] versionQualifier = infoProvider.getVersionColumnQualifier();
+    final boolean optimistic = isOptimistic(lockType);
+    final byte[] now = Bytes.toBytes(System.currentTimeMillis());
+    final List<Delete> deletes = new ArrayList<Delete>(puts.size());
+    final List<Get> gets = new ArrayList<Get>();
+    final List<Integer> readIndices = new ArrayList<Integer>();
+    for (Put put : puts) {
+      final long deleteTimestamp = stamp(put, now, optimistic ? versionFamily : null, versionQualifier) - 1;
+      final Delete delete = new Delete(put.getRow(), HConstants.LATEST_TIMESTAMP, put.getRowLock());
+      for (byte[] family : put.getFamilyMap().keySet()) {
+        if (optimistic && Bytes.equals(family, versionFamily)) {
+          final Get get = new Get(put.getRow(), put.getRowLock());
+          get.addFamily(family);
+          gets.add(get);
+          readIndices.add(deletes.size());
+        }
+        else {
+          delete.deleteFamily(family, deleteTimestamp);
+        }
+      }
+      deletes.add(delete);
+    }
+    if (!gets.isEmpty()) {
+      final Result[] results = tableInterface.get(gets);
+      for (int i = 0; i < results.length; ++i) {
+        final int index = readIndices.get(i);
+        if (results[i] != null && !results[i].isEmpty()) {
+          addStaleColumns(puts.get(index), deletes.get(index), versionFamily, results[i].getFamilyMap(versionFamily));
+        }
+      }
+    }
+    return deletes;
+  }
+
+  protected boolean isOptimistic(LockType lockType) {
+    return LockType.OPTIMISTIC.equals(lockType) && infoProvider.getVersionColumnFamily() != null && infoProvider.
+        getVersionColumnQualifier() != null;
+  }
+
+  /**
+   * Stamp the cells of the put without a timestamp, except the version column if given, with the time.
+   * @return The lowest timestamp of the put's stamped cells
+   */
+  protected long stamp(Put put, byte[] now, byte[] versionFamily, byte[] versionQualifier) {
+    long timestamp = Bytes.toLong(now);
+    for (Entry<byte[], List<KeyValue>> family : put.getFamilyMap().entrySet()) {
+      for (KeyValue keyValue : family.getValue()) {
+        if (versionFamily != null && Bytes.equals(family.getKey(), versionFamily) && Bytes.equals(keyValue.
+            getQualifier(), versionQualifier)) {
+          continue;
+        }
+        keyValue.updateLatestStamp(now);
+        timestamp = Math.min(timestamp, keyValue.getTimestamp());
+      }
+    }
+    return timestamp;
+  }
+
+  private void addStaleColumns(Put put, Delete delete, byte[] family, Map<byte[], byte[]> columns) {
+    if (columns == null) {
+      return;
+    }
+    long timestamp = HConstants.LATEST_TIMESTAMP;
+    for (KeyValue keyValue : put.getFamilyMap().get(family)) {
+      if (!keyValue.isLatestTimestamp()) {
+        timestamp = Math.min(timestamp, keyValue.getTimestamp());
+      }
+    }
+    for (byte[] qualifier : columns.keySet()) {
+      // Put.has compares timestamps too, which would not match the stamped cells
+      if (put.get(family, qualifier).isEmpty()) {
+        if (timestamp == HConstants.LATEST_TIMESTAMP) {
+          delete.deleteColumns(family, qualifier);
+        }
+        else {
+          delete.deleteColumns(family, qualifier, timestamp - 1);
+        }
+      }
+    }
+  }
+}
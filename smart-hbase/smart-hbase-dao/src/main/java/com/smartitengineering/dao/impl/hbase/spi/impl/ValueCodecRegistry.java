@@ -0,0 +1,275 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase.spi.impl;
+
+import com.google.inject.Singleton;
+import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.ValueCodec;
+import com.smartitengineering.dao.impl.hbase.spi.ValueTypedFilterConfig;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Registry of {@link ValueCodec codecs} by {@link ValueTypedFilterConfig#getValueType() value type}. Besides strings,
+ * which are stored as bytes of their string form, it provides order preserving codecs for integers and longs, with the
+ * sign bit flipped, doubles, with all bits flipped for negative values and only the sign bit flipped otherwise, and
+ * dates as epoch milliseconds. Integers and longs only accept integral values. Additional codecs can be registered.
+ * <p>
+ * Row ids are not encoded with these codecs but the way {@link SchemaInfoProviderImpl} forms row ids of ids, see
+ * {@link #getRowIdCodec(java.lang.String)}, so that values compared to row ids match the stored rows.
+ * @author imyousuf
+ */
+@Singleton
+public class ValueCodecRegistry {
+
+  public static final String STRING = "string";
+  public static final String INTEGER = "int";
+  public static final String LONG = "long";
+  public static final String DOUBLE = "double";
+  public static final String DATE = "date";
+  public static final ValueCodec STRING_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(value.toString());
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toString(bytes);
+    }
+  };
+  public static final ValueCodec INTEGER_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(toInt(value) ^ Integer.MIN_VALUE);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toInt(bytes) ^ Integer.MIN_VALUE;
+    }
+  };
+  public static final ValueCodec LONG_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(toLong(value) ^ Long.MIN_VALUE);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toLong(bytes) ^ Long.MIN_VALUE;
+    }
+  };
+  public static final ValueCodec DOUBLE_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      final long bits = Double.doubleToLongBits(toNumber(value).doubleValue());
+      return Bytes.toBytes(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      final long bits = Bytes.toLong(bytes);
+      return Double.longBitsToDouble(bits ^ (((~bits) >> 63) | Long.MIN_VALUE));
+    }
+  };
+  public static final ValueCodec DATE_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      final long time;
+      if (value instanceof Date) {
+        time = ((Date) value).getTime();
+      }
+      else if (value instanceof Calendar) {
+        time = ((Calendar) value).getTimeInMillis();
+      }
+      else {
+        time = toNumber(value).longValue();
+      }
+      return LONG_CODEC.encode(time);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return new Date((Long) LONG_CODEC.decode(bytes));
+    }
+  };
+  public static final ValueCodec INTEGER_ROW_ID_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(toInt(value));
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toInt(bytes);
+    }
+  };
+  public static final ValueCodec LONG_ROW_ID_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(toLong(value));
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toLong(bytes);
+    }
+  };
+  public static final ValueCodec DOUBLE_ROW_ID_CODEC = new ValueCodec() {
+
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(toNumber(value).doubleValue());
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toDouble(bytes);
+    }
+  };
+  private final Map<String, ValueCodec> codecs = new ConcurrentHashMap<String, ValueCodec>();
+
+  public ValueCodecRegistry() {
+    register(STRING, STRING_CODEC);
+    register(INTEGER, INTEGER_CODEC);
+    register(LONG, LONG_CODEC);
+    register(DOUBLE, DOUBLE_CODEC);
+    register(DATE, DATE_CODEC);
+  }
+
+  public void register(String valueType, ValueCodec codec) {
+    if (StringUtils.isBlank(valueType) || codec == null) {
+      throw new IllegalArgumentException("Value type and codec are mandatory!");
+    }
+    codecs.put(valueType, codec);
+  }
+
+  /**
+   * Retrieve the codec for a value type.
+   * @param valueType The value type, if blank the string codec is returned
+   * @return The codec
+   * @throws IllegalArgumentException If no codec is registered for the type
+   */
+  public ValueCodec getCodec(String valueType) {
+    if (StringUtils.isBlank(valueType)) {
+      return STRING_CODEC;
+    }
+    final ValueCodec codec = codecs.get(valueType);
+    if (codec == null) {
+      throw new IllegalArgumentException("No codec registered for value type " + valueType);
+    }
+    return codec;
+  }
+
+  public ValueCodec getCodec(FilterConfig config) {
+    return getCodec(getValueType(config));
+  }
+
+  /**
+   * Retrieve the value type of a filter config.
+   * @return The value type or null if the config is null or not {@link ValueTypedFilterConfig value typed}
+   */
+  public static String getValueType(FilterConfig config) {
+    return config instanceof ValueTypedFilterConfig ? ((ValueTypedFilterConfig) config).getValueType() : null;
+  }
+
+  /**
+   * Retrieve the codec for values of a row id with the value type. Ids of the type are encoded to row ids as is with
+   * {@link Bytes}, as {@link SchemaInfoProviderImpl#getRowIdFromId(java.lang.Object)} does, and not in the order
+   * preserving forms of the value codecs.
+   * @param valueType The value type, if blank the string codec is returned
+   * @return The codec
+   * @throws IllegalArgumentException If row ids of the type are not supported
+   */
+  public ValueCodec getRowIdCodec(String valueType) {
+    if (StringUtils.isBlank(valueType) || STRING.equals(valueType)) {
+      return STRING_CODEC;
+    }
+    else if (INTEGER.equals(valueType)) {
+      return INTEGER_ROW_ID_CODEC;
+    }
+    else if (LONG.equals(valueType)) {
+      return LONG_ROW_ID_CODEC;
+    }
+    else if (DOUBLE.equals(valueType)) {
+      return DOUBLE_ROW_ID_CODEC;
+    }
+    throw new IllegalArgumentException("Row ids of value type " + valueType + " are not supported");
+  }
+
+  public byte[] encode(FilterConfig config, Object value) {
+    return getCodec(config).encode(value);
+  }
+
+  public Object decode(FilterConfig config, byte[] bytes) {
+    return getCodec(config).decode(bytes);
+  }
+
+  protected static int toInt(Object value) {
+    final long longValue = toLong(value);
+    if (longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Not an integer " + value);
+    }
+    return (int) longValue;
+  }
+
+  /**
+   * Convert a value to a long, rejecting values with a fraction rather than truncating them.
+   */
+  protected static long toLong(Object value) {
+    final Number number = toNumber(value);
+    if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+      return number.longValue();
+    }
+    final double doubleValue = number.doubleValue();
+    if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue) || doubleValue != Math.rint(doubleValue) ||
+        doubleValue < Long.MIN_VALUE || doubleValue > Long.MAX_VALUE) {
+      throw new IllegalArgumentException("Not an integral number " + value);
+    }
+    return number.longValue();
+  }
+
+  protected static Number toNumber(Object value) {
+    if (value instanceof Number) {
+      return (Number) value;
+    }
+    final String string = value.toString().trim();
+    try {
+      if (string.indexOf('.') > -1 || string.indexOf('e') > -1 || string.indexOf('E') > -1) {
+        return Double.valueOf(string);
+      }
+      return Long.valueOf(string);
+    }
+    catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("Not a number " + string, ex);
+    }
+  }
+}
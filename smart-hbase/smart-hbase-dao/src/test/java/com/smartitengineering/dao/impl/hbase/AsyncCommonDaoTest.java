@@ -0,0 +1,258 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.FutureCallback;
+import com.smartitengineering.dao.common.ListenableFuture;
+import com.smartitengineering.dao.common.SettableFuture;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.ExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
+import com.smartitengineering.dao.impl.hbase.spi.impl.AsynchronousExecutorServiceImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class AsyncCommonDaoTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] NAME = Bytes.toBytes("name");
+
+  @Test
+  public void notifyListenersOnCompletion() throws Exception {
+    SettableFuture<String> future = new SettableFuture<String>();
+    final AtomicReference<Object> notified = new AtomicReference<Object>();
+    future.addCallback(new FutureCallback<String>() {
+
+      @Override
+      public void onSuccess(String result) {
+        notified.set(result);
+      }
+
+      @Override
+      public void onFailure(Throwable throwable) {
+        notified.set(throwable);
+      }
+    });
+    Assert.assertNull(notified.get());
+    Assert.assertTrue(future.set("value"));
+    Assert.assertFalse(future.setException(new IOException()));
+    Assert.assertEquals("value", notified.get());
+    Assert.assertEquals("value", future.get());
+    final CountDownLatch listened = new CountDownLatch(1);
+    future.addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        listened.countDown();
+      }
+    }, null);
+    Assert.assertEquals(0, listened.getCount());
+  }
+
+  @Test
+  public void getByIdWithoutBlockingCaller() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    CommonDao<SampleDomain, Long> dao = getDao(release);
+    ListenableFuture<SampleDomain> future = dao.getByIdAsync(1l);
+    Assert.assertFalse(future.isDone());
+    final CountDownLatch completed = new CountDownLatch(1);
+    final AtomicReference<SampleDomain> result = new AtomicReference<SampleDomain>();
+    future.addCallback(new FutureCallback<SampleDomain>() {
+
+      @Override
+      public void onSuccess(SampleDomain domain) {
+        result.set(domain);
+        completed.countDown();
+      }
+
+      @Override
+      public void onFailure(Throwable throwable) {
+        completed.countDown();
+      }
+    });
+    release.countDown();
+    Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals("name-1", result.get().getName());
+  }
+
+  @Test
+  public void failFutureWithError() throws Exception {
+    CommonDao<SampleDomain, Long> dao = getDao(new CountDownLatch(0));
+    try {
+      dao.getByIdAsync(-1l).get(5, TimeUnit.SECONDS);
+      Assert.fail("Expected failure");
+    }
+    catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void fanOutBatchesOfAsynchronousGet() throws Exception {
+    final CountDownLatch fanOut = new CountDownLatch(3);
+    CommonDao<SampleDomain, Long> dao = getDao(new CountDownLatch(0), fanOut);
+    dao.setBatchGetSize(1);
+    Field field = CommonDao.class.getDeclaredField("resultExecutorService");
+    field.setAccessible(true);
+    field.set(dao, Executors.newSingleThreadExecutor());
+    Set<SampleDomain> domains = dao.getByIdsAsync(Arrays.asList(1l, 2l, 3l)).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(3, domains.size());
+  }
+
+  private CommonDao<SampleDomain, Long> getDao(final CountDownLatch release) {
+    return getDao(release, null);
+  }
+
+  /**
+   * @param fanOut If not null batch gets wait for as many batches to be fetched concurrently and the DAO executes
+   *               callbacks using {@link AsynchronousExecutorServiceImpl}
+   */
+  private CommonDao<SampleDomain, Long> getDao(final CountDownLatch release, final CountDownLatch fanOut) {
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setMainTableName("test");
+    final SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    infoProvider.setIdTypeClass(Long.class);
+    infoProvider.setBaseConfig(config);
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    dao.setInfoProvider(infoProvider);
+    dao.setConverter(new ObjectRowConverter<SampleDomain>() {
+
+      @Override
+      public LinkedHashMap<String, Put> objectToRows(SampleDomain instance, ExecutorService service,
+                                                     boolean pessimisticLock) {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+
+      @Override
+      public LinkedHashMap<String, Delete> objectToDeleteableRows(SampleDomain instance, ExecutorService service,
+                                                                  boolean pessimisticLock) {
+        throw new UnsupportedOperationException("Not supported.");
+      }
+
+      @Override
+      public SampleDomain rowsToObject(Result startRow, ExecutorService executorService) {
+        SampleDomain domain = new SampleDomain();
+        domain.setName(Bytes.toString(startRow.getValue(FAMILY, NAME)));
+        return domain;
+      }
+    });
+    final java.util.concurrent.ExecutorService pool = Executors.newCachedThreadPool();
+    final HTableInterface table = (HTableInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                           new Class[]{HTableInterface.class},
+                                                                           new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("get") && args[0] instanceof Get) {
+          release.await(5, TimeUnit.SECONDS);
+          final byte[] row = ((Get) args[0]).getRow();
+          final Long id = infoProvider.getIdFromRowId(row);
+          if (id < 0) {
+            throw new IOException("Could not read row");
+          }
+          return new Result(new KeyValue[]{new KeyValue(row, FAMILY, NAME, Bytes.toBytes("name-" + id))});
+        }
+        if (method.getName().equals("get") && args[0] instanceof List) {
+          fanOut.countDown();
+          if (!fanOut.await(5, TimeUnit.SECONDS)) {
+            throw new IOException("Batches were not fetched concurrently");
+          }
+          final List<Result> results = new ArrayList<Result>();
+          for (Get get : (List<Get>) args[0]) {
+            results.add((Result) invoke(proxy, method, new Object[]{get}));
+          }
+          return results.toArray(new Result[results.size()]);
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    if (fanOut != null) {
+      dao.setExecutorService(new AsynchronousExecutorServiceImpl() {
+
+        @Override
+        protected <ReturnType> ReturnType plainSyncExecution(String tableName, Callback<ReturnType> callback) {
+          try {
+            return callback.call(table);
+          }
+          catch (Exception ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      });
+      return dao;
+    }
+    dao.setExecutorService(new AsyncExecutorService() {
+
+      @Override
+      public <ReturnType> Future<ReturnType> executeAsynchronously(String tableName,
+                                                                   final Callback<ReturnType> callback) {
+        return pool.submit(new Callable<ReturnType>() {
+
+          @Override
+          public ReturnType call() throws Exception {
+            return callback.call(table);
+          }
+        });
+      }
+
+      @Override
+      public <ReturnType> ReturnType execute(String tableName, Callback<ReturnType> callback) {
+        try {
+          return callback.call(table);
+        }
+        catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    });
+    return dao;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.impl.AsynchronousExecutorServiceImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.AsynchronousExecutorServiceImpl.RejectionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class AsynchronousExecutorServiceImplTest {
+
+  @Test
+  public void executeNestedCallbacksInline() {
+    final TestExecutorService service = new TestExecutorService();
+    service.setMaxThreads(1);
+    final Thread[] threads = new Thread[2];
+    service.execute("table", new Callback<Void>() {
+
+      @Override
+      public Void call(HTableInterface tableInterface) throws Exception {
+        threads[0] = Thread.currentThread();
+        return service.execute("table", new Callback<Void>() {
+
+          @Override
+          public Void call(HTableInterface tableInterface) throws Exception {
+            threads[1] = Thread.currentThread();
+            return null;
+          }
+        });
+      }
+    });
+    Assert.assertNotSame(Thread.currentThread(), threads[0]);
+    Assert.assertSame(threads[0], threads[1]);
+  }
+
+  @Test
+  public void fanOutNestedAsynchronousCallbacks() throws Exception {
+    final AsynchronousExecutorServiceImpl service = new AsynchronousExecutorServiceImpl();
+    service.setMaxThreads(4);
+    final CountDownLatch running = new CountDownLatch(3);
+    Future<Integer> future = service.executeAsynchronously(null, new Callback<Integer>() {
+
+      @Override
+      public Integer call(HTableInterface tableInterface) throws Exception {
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 3; ++i) {
+          futures.add(service.executeAsynchronously(null, new Callback<Boolean>() {
+
+            @Override
+            public Boolean call(HTableInterface tableInterface) throws Exception {
+              running.countDown();
+              return running.await(5, TimeUnit.SECONDS);
+            }
+          }));
+        }
+        int concurrent = 0;
+        for (Future<Boolean> nested : futures) {
+          if (nested.get(5, TimeUnit.SECONDS)) {
+            ++concurrent;
+          }
+        }
+        return concurrent;
+      }
+    });
+    Assert.assertEquals(Integer.valueOf(3), future.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void runQueuedNestedCallbacksWhenWaitedFor() throws Exception {
+    final AsynchronousExecutorServiceImpl service = new AsynchronousExecutorServiceImpl();
+    service.setMaxThreads(1);
+    Future<Integer> future = service.executeAsynchronously(null, new Callback<Integer>() {
+
+      @Override
+      public Integer call(HTableInterface tableInterface) throws Exception {
+        Assert.assertNull(tableInterface);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 3; ++i) {
+          final int value = i;
+          futures.add(service.executeAsynchronously(null, new Callback<Integer>() {
+
+            @Override
+            public Integer call(HTableInterface tableInterface) throws Exception {
+              return value;
+            }
+          }));
+        }
+        int sum = 0;
+        for (Future<Integer> nested : futures) {
+          sum += nested.get(5, TimeUnit.SECONDS);
+        }
+        return sum;
+      }
+    });
+    Assert.assertEquals(Integer.valueOf(3), future.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void capConcurrencyPerTable() throws Exception {
+    TestExecutorService service = new TestExecutorService();
+    service.setMaxThreads(6);
+    service.setMaxConcurrencyPerTable(2);
+    final AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int i = 0; i < 6; ++i) {
+      futures.add(service.executeAsynchronously("table", new Callback<Void>() {
+
+        @Override
+        public Void call(HTableInterface tableInterface) throws Exception {
+          final int current = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), current));
+          }
+          Thread.sleep(50);
+          running.decrementAndGet();
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get(5, TimeUnit.SECONDS);
+    }
+    Assert.assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void abortWhenQueueIsFull() throws Exception {
+    TestExecutorService service = new TestExecutorService();
+    service.setMaxThreads(1);
+    service.setMaxQueueSize(1);
+    service.setRejectionPolicy(RejectionPolicy.ABORT.name());
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callback<Void> blocking = new Callback<Void>() {
+
+      @Override
+      public Void call(HTableInterface tableInterface) throws Exception {
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return null;
+      }
+    };
+    service.executeAsynchronously("table", blocking);
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    service.executeAsynchronously("table", blocking);
+    try {
+      service.executeAsynchronously("table", blocking);
+      Assert.fail("Submission should have been rejected");
+    }
+    catch (RejectedExecutionException ex) {
+    }
+    finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void callerRunsWhenQueueIsFull() throws Exception {
+    TestExecutorService service = new TestExecutorService();
+    service.setMaxThreads(1);
+    service.setMaxQueueSize(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callback<Thread> blocking = new Callback<Thread>() {
+
+      @Override
+      public Thread call(HTableInterface tableInterface) throws Exception {
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return Thread.currentThread();
+      }
+    };
+    service.executeAsynchronously("table", blocking);
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    service.executeAsynchronously("table", blocking);
+    try {
+      Assert.assertSame(Thread.currentThread(), service.executeAsynchronously("table", new Callback<Thread>() {
+
+        @Override
+        public Thread call(HTableInterface tableInterface) throws Exception {
+          return Thread.currentThread();
+        }
+      }).get());
+    }
+    finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void fallbackFromVirtualThreads() throws Exception {
+    TestExecutorService service = new TestExecutorService();
+    service.setVirtualThreads(true);
+    Assert.assertNotNull(service.getExecutorService());
+    Assert.assertEquals("done", service.execute("table", new Callback<String>() {
+
+      @Override
+      public String call(HTableInterface tableInterface) throws Exception {
+        return "done";
+      }
+    }));
+  }
+
+  private static class TestExecutorService extends AsynchronousExecutorServiceImpl {
+
+    @Override
+    protected <ReturnType> ReturnType plainSyncExecution(String tableName, Callback<ReturnType> callback) {
+      try {
+        return callback.call(null);
+      }
+      catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class BatchGetTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private final List<List<String>> batches = new ArrayList<List<String>>();
+  private CommonDao<SampleDomain, Long> dao;
+
+  @Before
+  public void setupDao() {
+    dao = new CommonDao<SampleDomain, Long>() {
+
+      @Override
+      protected String getRegionName(HTableInterface tableInterface, byte[] row) throws IOException {
+        return Bytes.toString(row).substring(0, 1);
+      }
+    };
+    dao.setExecutorService(new MockExecutorService());
+    dao.setBatchGetSize(2);
+  }
+
+  @Test
+  public void partitionByRegionKeepingOrder() {
+    List<byte[]> rows = rows("a1", "b1", "a2", "a3", "b2", "c1");
+    Result[] results = dao.getRows("test", rows, false);
+    Assert.assertEquals(rows.size(), results.length);
+    for (int i = 0; i < results.length; ++i) {
+      Assert.assertArrayEquals(rows.get(i), results[i].getRow());
+    }
+    Assert.assertEquals(Arrays.asList(Arrays.asList("a1", "a2"), Arrays.asList("b1", "b2"), Arrays.asList("a3"),
+                                      Arrays.asList("c1")), batches);
+  }
+
+  @Test
+  public void propagateFailedBatch() {
+    try {
+      dao.getRows("test", rows("a1", "b1", "bad", "c1"), false);
+      Assert.fail("Failed batch not propagated");
+    }
+    catch (RuntimeException ex) {
+      Assert.assertTrue(ex.getCause().getCause() instanceof IOException);
+    }
+  }
+
+  private static List<byte[]> rows(String... rows) {
+    List<byte[]> rowIds = new ArrayList<byte[]>();
+    for (String row : rows) {
+      rowIds.add(Bytes.toBytes(row));
+    }
+    return rowIds;
+  }
+
+  private class MockExecutorService extends DaoTestSupport.MockExecutorService {
+
+    @Override
+    protected Object invoke(String tableName, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("get") && args[0] instanceof List) {
+        final List<Get> gets = (List<Get>) args[0];
+        final List<String> batch = new ArrayList<String>();
+        final Result[] results = new Result[gets.size()];
+        for (int i = 0; i < results.length; ++i) {
+          final byte[] row = gets.get(i).getRow();
+          if (Bytes.toString(row).equals("bad")) {
+            throw new IOException("Region not serving");
+          }
+          batch.add(Bytes.toString(row));
+          results[i] = new Result(new KeyValue[]{new KeyValue(row, FAMILY, row, row)});
+        }
+        batches.add(batch);
+        return results;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+}
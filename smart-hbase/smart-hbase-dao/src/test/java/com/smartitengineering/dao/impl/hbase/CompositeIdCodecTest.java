@@ -0,0 +1,112 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.impl.CompositeIdCodec;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.util.Arrays;
+import java.util.Date;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class CompositeIdCodecTest {
+
+  private static final CompositeIdCodec<OrderId> CODEC = new CompositeIdCodec<OrderId>(OrderId.class, "tenant",
+                                                                                       "sequence", "status", "date");
+
+  @Test
+  public void encodeAndDecode() {
+    OrderId id = new OrderId("acme\u0000corp", -42L, Status.CLOSED, new Date(1000L));
+    byte[] rowId = CODEC.encode(id);
+    Assert.assertTrue(rowId.length < 40);
+    OrderId decoded = CODEC.decode(rowId);
+    Assert.assertEquals(id.tenant, decoded.tenant);
+    Assert.assertEquals(id.sequence, decoded.sequence);
+    Assert.assertEquals(id.status, decoded.status);
+    Assert.assertEquals(id.date, decoded.date);
+    decoded = CODEC.decode(CODEC.encode(new OrderId(null, 7L, null, null)));
+    Assert.assertNull(decoded.tenant);
+    Assert.assertEquals(7L, decoded.sequence);
+    Assert.assertNull(decoded.date);
+  }
+
+  @Test
+  public void preserveOrder() {
+    OrderId[] ids = new OrderId[]{new OrderId(null, 5L, Status.OPEN, null), new OrderId("a", -5L, Status.OPEN, null),
+                                  new OrderId("a", 3L, Status.CLOSED, null), new OrderId("a", 3L, Status.OPEN, null),
+                                  new OrderId("a\u0000", Long.MIN_VALUE, Status.OPEN, null),
+                                  new OrderId("ab", Long.MIN_VALUE, Status.OPEN, null)};
+    for (int i = 1; i < ids.length; ++i) {
+      Assert.assertTrue(String.valueOf(i), Bytes.compareTo(CODEC.encode(ids[i - 1]), CODEC.encode(ids[i])) < 0);
+    }
+  }
+
+  @Test
+  public void formPrefixOfLeadingFields() {
+    byte[] prefix = CODEC.encodePrefix("a", 3L);
+    Assert.assertTrue(Bytes.startsWith(CODEC.encode(new OrderId("a", 3L, Status.OPEN, new Date())), prefix));
+    Assert.assertFalse(Bytes.startsWith(CODEC.encode(new OrderId("ab", 3L, Status.OPEN, null)), CODEC.encodePrefix(
+        "a")));
+  }
+
+  @Test
+  public void useCodecInSchemaInfoProvider() throws Exception {
+    SchemaInfoProviderImpl<SampleDomain, OrderId> infoProvider = new SchemaInfoProviderImpl<SampleDomain, OrderId>();
+    infoProvider.setIdTypeClass(OrderId.class);
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setCompositeIdFields(Arrays.asList("tenant", "sequence"));
+    infoProvider.setBaseConfig(config);
+    OrderId id = new OrderId("acme", 9L, Status.OPEN, null);
+    byte[] rowId = infoProvider.getRowIdFromId(id);
+    Assert.assertArrayEquals(infoProvider.getCompositeIdCodec().encodePrefix("acme", 9L), rowId);
+    OrderId decoded = infoProvider.getIdFromRowId(rowId);
+    Assert.assertEquals("acme", decoded.tenant);
+    Assert.assertEquals(9L, decoded.sequence);
+  }
+
+  private static enum Status {
+
+    OPEN, CLOSED
+  }
+
+  private static class OrderId {
+
+    private String tenant;
+    private long sequence;
+    private Status status;
+    private Date date;
+
+    public OrderId() {
+    }
+
+    public OrderId(String tenant, long sequence, Status status, Date date) {
+      this.tenant = tenant;
+      this.sequence = sequence;
+      this.status = status;
+      this.date = date;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfig;
+import com.smartitengineering.dao.impl.hbase.spi.LockType;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.ValueCodecRegistry;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class CounterTest {
+
+  private static final byte[] SELF = Bytes.toBytes("self");
+  private static final byte[] STATS = Bytes.toBytes("stats");
+  private static final byte[] VERSION = Bytes.toBytes("version");
+  private SchemaInfoProviderImpl<SampleDomain, Long> infoProvider;
+  private MockExecutorService executorService;
+  private CommonDao<SampleDomain, Long> dao;
+
+  @Before
+  public void setupDao() throws Exception {
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setMainTableName("test");
+    config.setVersionColumnFamily("self");
+    config.setVersionColumnQualifier("version");
+    infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    infoProvider.setIdTypeClass(Long.class);
+    infoProvider.setBaseConfig(config);
+    infoProvider.addFilterConfig("views", filterConfig("views", null));
+    infoProvider.addFilterConfig("likes", filterConfig("likes", ValueCodecRegistry.LONG));
+    infoProvider.addFilterConfig("name", filterConfig("name", ValueCodecRegistry.STRING));
+    FilterConfigImpl hits = filterConfig("hit_", null);
+    hits.setQualifierARangePrefix(true);
+    infoProvider.addFilterConfig("hits", hits);
+    executorService = new MockExecutorService();
+    dao = new CommonDao<SampleDomain, Long>();
+    dao.setInfoProvider(infoProvider);
+    dao.setExecutorService(executorService);
+    Field field = CommonDao.class.getDeclaredField("lockType");
+    field.setAccessible(true);
+    field.set(dao, LockType.OPTIMISTIC);
+  }
+
+  @Test
+  public void incrementColumnsWithVersion() throws Exception {
+    Assert.assertEquals(5l, dao.increment(1l, "views", 5));
+    Assert.assertEquals(1l, value(1l, SELF, VERSION));
+    Map<String, Long> amounts = new LinkedHashMap<String, Long>();
+    amounts.put("views", -2l);
+    amounts.put("hits:home", 3l);
+    Map<String, Long> values = dao.increment(1l, amounts);
+    Assert.assertEquals(Long.valueOf(3l), values.get("views"));
+    Assert.assertEquals(Long.valueOf(3l), values.get("hits:home"));
+    Assert.assertEquals(3l, value(1l, STATS, Bytes.toBytes("views")));
+    Assert.assertEquals(2l, value(1l, SELF, VERSION));
+    Assert.assertEquals(2, executorService.requests);
+  }
+
+  @Test
+  public void incrementInBatch() throws Exception {
+    Map<Long, Map<String, Long>> amounts = new LinkedHashMap<Long, Map<String, Long>>();
+    for (long id = 1; id <= 3; ++id) {
+      Map<String, Long> amount = new LinkedHashMap<String, Long>();
+      amount.put("views", id);
+      amounts.put(id, amount);
+    }
+    Map<Long, Map<String, Long>> values = dao.increment(amounts);
+    Assert.assertEquals(3, values.size());
+    Assert.assertEquals(Long.valueOf(3l), values.get(3l).get("views"));
+    Assert.assertEquals(1l, value(3l, SELF, VERSION));
+  }
+
+  @Test
+  public void reportFailedIncrementsInBatch() throws Exception {
+    executorService.failingRows.add(Bytes.toStringBinary(infoProvider.getRowIdFromId(4l)));
+    Map<Long, Map<String, Long>> amounts = new LinkedHashMap<Long, Map<String, Long>>();
+    for (long id = 3; id <= 4; ++id) {
+      amounts.put(id, Collections.singletonMap("views", id));
+    }
+    try {
+      dao.increment(amounts);
+      Assert.fail("Did not report failed increment");
+    }
+    catch (IllegalStateException ex) {
+      Assert.assertTrue(ex.getMessage().contains("[4]"));
+    }
+    Assert.assertEquals(3l, value(3l, STATS, Bytes.toBytes("views")));
+  }
+
+  @Test
+  public void rejectNonCounters() throws Exception {
+    IndexConfig index = new IndexConfig();
+    index.setTableName("test_index");
+    infoProvider.addIndexConfig("views", index);
+    for (String propertyName : new String[]{"name", "likes", "hits", "views", "unknown"}) {
+      try {
+        dao.increment(1l, propertyName, 1);
+        Assert.fail("Incremented " + propertyName);
+      }
+      catch (IllegalArgumentException ex) {
+      }
+    }
+    Assert.assertEquals(0, executorService.requests);
+  }
+
+  private long value(long id, byte[] family, byte[] qualifier) throws Exception {
+    return executorService.cells.get(key(id, family, qualifier));
+  }
+
+  private String key(long id, byte[] family, byte[] qualifier) throws Exception {
+    return key(infoProvider.getRowIdFromId(id), family, qualifier);
+  }
+
+  private static String key(byte[] row, byte[] family, byte[] qualifier) {
+    return Bytes.toStringBinary(row) + "/" + Bytes.toString(family) + ":" + Bytes.toString(qualifier);
+  }
+
+  private static FilterConfigImpl filterConfig(String qualifier, String valueType) {
+    FilterConfigImpl config = new FilterConfigImpl();
+    config.setColumnFamilyAsString("stats");
+    config.setColumnQualifierAsString(qualifier);
+    config.setValueType(valueType);
+    return config;
+  }
+
+  private static class MockExecutorService extends DaoTestSupport.MockExecutorService {
+
+    private final Map<String, Long> cells = new TreeMap<String, Long>();
+    private final Set<String> failingRows = new HashSet<String>();
+    private int requests;
+
+    private synchronized long increment(byte[] row, byte[] family, byte[] qualifier, long amount) {
+      final String key = key(row, family, qualifier);
+      final long value = (cells.containsKey(key) ? cells.get(key) : 0l) + amount;
+      cells.put(key, value);
+      return value;
+    }
+
+    @Override
+    protected Object invoke(String tableName, Method method, Object[] args) throws Throwable {
+      requests++;
+      if (method.getName().equals("incrementColumnValue")) {
+        return increment((byte[]) args[0], (byte[]) args[1], (byte[]) args[2], (Long) args[3]);
+      }
+      if (method.getName().equals("increment")) {
+        final Increment increment = (Increment) args[0];
+        if (failingRows.contains(Bytes.toStringBinary(increment.getRow()))) {
+          throw new IOException("Could not increment");
+        }
+        final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        for (Map.Entry<byte[], NavigableMap<byte[], Long>> family : increment.getFamilyMap().entrySet()) {
+          for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+            final long value = increment(increment.getRow(), family.getKey(), column.getKey(), column.getValue());
+            keyValues.add(new KeyValue(increment.getRow(), family.getKey(), column.getKey(), Bytes.toBytes(value)));
+          }
+        }
+        return new Result(keyValues);
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+}
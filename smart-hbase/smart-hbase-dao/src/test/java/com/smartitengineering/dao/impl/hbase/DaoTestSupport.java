@@ -0,0 +1,186 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.ExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
+import com.smartitengineering.dao.impl.hbase.spi.SchemaInfoProvider;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Fixtures shared by the DAO tests.
+ * @author imyousuf
+ */
+public final class DaoTestSupport {
+
+  private DaoTestSupport() {
+  }
+
+  /**
+   * An executor service calling callbacks with proxy tables whose invocations are handled by
+   * {@link #invoke(java.lang.String, java.lang.reflect.Method, java.lang.Object[])}. Asynchronous callbacks are
+   * executed right away in the calling thread, unless an executor to execute them with is provided.
+   */
+  public static abstract class MockExecutorService implements AsyncExecutorService {
+
+    private final java.util.concurrent.ExecutorService executor;
+
+    protected MockExecutorService() {
+      this(null);
+    }
+
+    protected MockExecutorService(java.util.concurrent.ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    /**
+     * @return The executor executing asynchronous callbacks, null if they are executed in the calling thread
+     */
+    public java.util.concurrent.ExecutorService getExecutor() {
+      return executor;
+    }
+
+    @Override
+    public <ReturnType> Future<ReturnType> executeAsynchronously(final String tableName,
+                                                                 final Callback<ReturnType> callback) {
+      final FutureTask<ReturnType> task = new FutureTask<ReturnType>(new Callable<ReturnType>() {
+
+        @Override
+        public ReturnType call() throws Exception {
+          return callback.call(createTable(tableName));
+        }
+      });
+      if (executor == null) {
+        task.run();
+      }
+      else {
+        executor.execute(task);
+      }
+      return task;
+    }
+
+    @Override
+    public <ReturnType> ReturnType execute(String tableName, Callback<ReturnType> callback) {
+      try {
+        return callback.call(createTable(tableName));
+      }
+      catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    public HTableInterface createTable(final String tableName) {
+      return (HTableInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                      new Class[]{HTableInterface.class}, new InvocationHandler() {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          return MockExecutorService.this.invoke(tableName, method, args);
+        }
+      });
+    }
+
+    /**
+     * Handle an invocation of a table.
+     * @param tableName Name of the table invoked
+     */
+    protected abstract Object invoke(String tableName, Method method, Object[] args) throws Throwable;
+  }
+
+  /**
+   * Converts a sample domain to a row of a single table, with its version, if any, its name and the length of its
+   * name.
+   */
+  public static class SampleDomainConverter implements ObjectRowConverter<SampleDomain> {
+
+    public static final byte[] SELF = Bytes.toBytes("self");
+    public static final byte[] FAMILY = Bytes.toBytes("family");
+    public static final byte[] VERSION = Bytes.toBytes("version");
+    public static final byte[] NAME = Bytes.toBytes("name");
+    public static final byte[] LENGTH = Bytes.toBytes("length");
+    private final SchemaInfoProvider<SampleDomain, Long> infoProvider;
+    private final String tableName;
+
+    public SampleDomainConverter(SchemaInfoProvider<SampleDomain, Long> infoProvider, String tableName) {
+      this.infoProvider = infoProvider;
+      this.tableName = tableName;
+    }
+
+    @Override
+    public LinkedHashMap<String, Put> objectToRows(SampleDomain instance, ExecutorService service,
+                                                   boolean pessimisticLock) {
+      try {
+        Put put = new Put(infoProvider.getRowIdFromRow(instance));
+        if (instance.getVersion() != null) {
+          put.add(SELF, VERSION, Bytes.toBytes(instance.getVersion()));
+        }
+        put.add(FAMILY, NAME, Bytes.toBytes(instance.getName()));
+        put.add(FAMILY, LENGTH, Bytes.toBytes(String.valueOf(instance.getName().length())));
+        LinkedHashMap<String, Put> puts = new LinkedHashMap<String, Put>();
+        puts.put(tableName, put);
+        return puts;
+      }
+      catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    @Override
+    public LinkedHashMap<String, Delete> objectToDeleteableRows(SampleDomain instance, ExecutorService service,
+                                                                boolean pessimisticLock) {
+      try {
+        LinkedHashMap<String, Delete> deletes = new LinkedHashMap<String, Delete>();
+        deletes.put(tableName, new Delete(infoProvider.getRowIdFromRow(instance)));
+        return deletes;
+      }
+      catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    @Override
+    public SampleDomain rowsToObject(Result startRow, ExecutorService service) {
+      try {
+        SampleDomain domain = new SampleDomain();
+        domain.setId(infoProvider.getIdFromRowId(startRow.getRow()));
+        final byte[] version = startRow.getValue(SELF, VERSION);
+        domain.setVersion(version == null ? null : Bytes.toLong(version));
+        domain.setName(Bytes.toString(startRow.getValue(FAMILY, NAME)));
+        return domain;
+      }
+      catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.Order;
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class ExternalSortBufferTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+
+    @Override
+    public int compare(Integer o1, Integer o2) {
+      return o1.compareTo(o2);
+    }
+  };
+  private static final ExternalSortBuffer.EntrySerializer<Integer> SERIALIZER =
+                                                                   new ExternalSortBuffer.EntrySerializer<Integer>() {
+
+    @Override
+    public void write(Integer entry, DataOutput output) throws IOException {
+      output.writeInt(entry);
+    }
+
+    @Override
+    public Integer read(DataInput input) throws IOException {
+      return input.readInt();
+    }
+  };
+
+  @Test
+  public void sortInMemory() {
+    ExternalSortBuffer<Integer> buffer = new ExternalSortBuffer<Integer>(COMPARATOR, SERIALIZER, 10, null);
+    for (int i = 5; i > 0; --i) {
+      buffer.add(i);
+    }
+    Assert.assertEquals(0, buffer.getSpillCount());
+    Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), toList(buffer.iterator()));
+    buffer.close();
+  }
+
+  @Test
+  public void mergeSpilledRuns() {
+    ExternalSortBuffer<Integer> buffer = new ExternalSortBuffer<Integer>(COMPARATOR, SERIALIZER, 7, null);
+    Random random = new Random(7);
+    for (int i = 0; i < 100; ++i) {
+      buffer.add(random.nextInt(50));
+    }
+    Assert.assertEquals(14, buffer.getSpillCount());
+    List<Integer> sorted = toList(buffer.iterator());
+    Assert.assertEquals(100, sorted.size());
+    for (int i = 1; i < sorted.size(); ++i) {
+      Assert.assertTrue(sorted.get(i - 1) <= sorted.get(i));
+    }
+    buffer.close();
+  }
+
+  @Test
+  public void mergeSpilledRunsInPasses() {
+    ExternalSortBuffer<Integer> buffer = new ExternalSortBuffer<Integer>(COMPARATOR, SERIALIZER, 3, null, 4);
+    Random random = new Random(11);
+    for (int i = 0; i < 100; ++i) {
+      buffer.add(random.nextInt(50));
+    }
+    Assert.assertEquals(33, buffer.getSpillCount());
+    List<Integer> sorted = toList(buffer.iterator());
+    Assert.assertTrue(buffer.getSpillCount() < 4);
+    Assert.assertEquals(100, sorted.size());
+    for (int i = 1; i < sorted.size(); ++i) {
+      Assert.assertTrue(sorted.get(i - 1) <= sorted.get(i));
+    }
+    buffer.close();
+  }
+
+  @Test
+  public void sortRowsByOrders() {
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    FilterConfigImpl idConfig = new FilterConfigImpl();
+    idConfig.setColumnFamilyAsString("self");
+    idConfig.setColumnQualifierAsString("id");
+    idConfig.setFilterOnRowId(true);
+    infoProvider.addFilterConfig("id", idConfig);
+    FilterConfigImpl nameConfig = new FilterConfigImpl();
+    nameConfig.setColumnFamilyAsString("family");
+    nameConfig.setColumnQualifierAsString("name");
+    infoProvider.addFilterConfig("name", nameConfig);
+    dao.setInfoProvider(infoProvider);
+    List<QueryParameter> orders = Arrays.<QueryParameter>asList(QueryParameterFactory.getOrderByParam("name",
+                                                                                                      Order.DESC),
+                                                                QueryParameterFactory.getOrderByParam("id", Order.ASC));
+    Assert.assertFalse(dao.isInRowOrder(orders));
+    Assert.assertTrue(dao.isInRowOrder(orders.subList(1, 2)));
+    List<CommonDao.ProjectedColumn> columns = dao.getOrderColumns(orders);
+    ExternalSortBuffer<CommonDao.SortEntry> buffer =
+                                            new ExternalSortBuffer<CommonDao.SortEntry>(dao.getSortComparator(orders),
+                                                                                        dao.getSortEntrySerializer(
+        columns), 2, null);
+    String[][] rows = new String[][]{{"a", "9"}, {"b", null}, {"c", "10"}, {"d", "9"}, {"e", "2"}};
+    for (String[] row : rows) {
+      byte[][] cells = new byte[][]{row[1] == null ? null : Bytes.toBytes(row[1]), null};
+      buffer.add(dao.toSortEntry(Bytes.toBytes(row[0]), cells, columns));
+    }
+    List<String> sortedRows = new ArrayList<String>();
+    for (CommonDao.SortEntry entry : buffer) {
+      sortedRows.add(Bytes.toString(entry.getRow()));
+    }
+    Assert.assertEquals(Arrays.asList("c", "a", "d", "e", "b"), sortedRows);
+    buffer.close();
+  }
+
+  private static <T> List<T> toList(Iterator<T> iterator) {
+    List<T> list = new ArrayList<T>();
+    while (iterator.hasNext()) {
+      list.add(iterator.next());
+    }
+    return list;
+  }
+}
@@ -18,14 +18,17 @@
  */
 package com.smartitengineering.dao.impl.hbase;
 
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfig;
 import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
 import com.smartitengineering.dao.impl.hbase.spi.FilterConfigs;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfig;
 import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
 import com.smartitengineering.dao.impl.hbase.spi.impl.JsonConfigLoader;
 import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.commons.io.IOUtils;
@@ -52,12 +55,24 @@ public class JsonConfigLoaderTest {
     configImpl.setFilterOnLatestVersionOnly(true);
     configImpl.setQualifierARangePrefix(true);
     configImpl.setFilterOnRowId(true);
+    configImpl.setValueType("long");
     map.put("id", configImpl);
     configImpl = new FilterConfigImpl();
     configImpl.setColumnFamilyAsString("test");
     configImpl.setColumnQualifierAsString("name");
     map.put("name", configImpl);
     CONFIGS.setConfigs(map);
+    Map<String, IndexConfig> indexes = new LinkedHashMap<String, IndexConfig>();
+    IndexConfig indexConfig = new IndexConfig();
+    indexConfig.setTableName("test_name_index");
+    indexes.put("name", indexConfig);
+    CONFIGS.setIndexes(indexes);
+    Map<String, AggregateConfig> aggregates = new LinkedHashMap<String, AggregateConfig>();
+    AggregateConfig aggregateConfig = new AggregateConfig();
+    aggregateConfig.setTableName("test_name_aggregates");
+    aggregateConfig.setGroupBy(Arrays.asList("name"));
+    aggregates.put("byName", aggregateConfig);
+    CONFIGS.setAggregates(aggregates);
   }
 
   @Test
@@ -0,0 +1,176 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.impl.LockAttainerImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.hbase.client.RowLock;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class LockAttainerImplTest {
+
+  @Test
+  public void cacheLocksByInstanceIdentity() {
+    TestLockAttainer attainer = new TestLockAttainer();
+    SampleDomain domain = new SampleDomain();
+    domain.setId(1L);
+    SampleDomain sameIdDomain = new SampleDomain();
+    sameIdDomain.setId(1L);
+    Map<String, RowLock> locks = Collections.singletonMap("table", new RowLock(Bytes.toBytes(1L), 1L));
+    attainer.putLock(domain, locks);
+    Assert.assertEquals(locks, attainer.getLock(domain, "table"));
+    Assert.assertFalse(attainer.evictFromCache(sameIdDomain));
+    Assert.assertTrue(attainer.evictFromCache(domain));
+    Assert.assertFalse(attainer.evictFromCache(domain));
+    Assert.assertEquals(0, attainer.size());
+  }
+
+  @Test
+  public void expungeLocksOfCollectedInstances() throws InterruptedException {
+    TestLockAttainer attainer = new TestLockAttainer();
+    for (int i = 0; i < 100; ++i) {
+      SampleDomain domain = new SampleDomain();
+      domain.setId((long) i);
+      attainer.putLock(domain, Collections.<String, RowLock>emptyMap());
+    }
+    SampleDomain retained = new SampleDomain();
+    retained.setId(-1L);
+    attainer.putLock(retained, Collections.<String, RowLock>emptyMap());
+    for (int i = 0; i < 50 && attainer.size() > 1; ++i) {
+      System.gc();
+      Thread.sleep(20);
+      attainer.evictFromCache(new SampleDomain());
+    }
+    Assert.assertEquals(1, attainer.size());
+    Assert.assertTrue(attainer.evictFromCache(retained));
+  }
+
+  @Test
+  public void attainLocksInRowOrder() {
+    MockExecutorService executorService = new MockExecutorService(-1);
+    TestLockAttainer attainer = createAttainer(executorService);
+    List<SampleDomain> domains = Arrays.asList(domain(3L), domain(1L), domain(2L), domain(1L));
+    List<Map<String, RowLock>> locks = attainer.getLocks(domains, "first", "second");
+    Assert.assertEquals(4, locks.size());
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L), executorService.getLockedRows("first"));
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L), executorService.getLockedRows("second"));
+    Assert.assertArrayEquals(Bytes.toBytes(3L), locks.get(0).get("first").getRow());
+    Assert.assertSame(locks.get(1).get("second"), locks.get(3).get("second"));
+    Assert.assertEquals(locks.get(2), attainer.getLock(domains.get(2), "first", "second"));
+    Assert.assertEquals(6, executorService.lockedRows.size());
+    Assert.assertEquals(4, attainer.size());
+  }
+
+  @Test
+  public void releaseAllLocksOnFailure() throws InterruptedException {
+    MockExecutorService executorService = new MockExecutorService(3L);
+    TestLockAttainer attainer = createAttainer(executorService);
+    try {
+      attainer.getLocks(Arrays.asList(domain(1L), domain(2L), domain(3L)), "first", "second");
+      Assert.fail("Locks should not have been attained");
+    }
+    catch (RuntimeException ex) {
+    }
+    executorService.getExecutor().shutdown();
+    executorService.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+    Assert.assertEquals(5, executorService.lockedRows.size());
+    Assert.assertEquals(5, executorService.unlockedRows.size());
+    Assert.assertEquals(0, attainer.size());
+  }
+
+  private static SampleDomain domain(long id) {
+    SampleDomain domain = new SampleDomain();
+    domain.setId(id);
+    return domain;
+  }
+
+  private static TestLockAttainer createAttainer(MockExecutorService executorService) {
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    infoProvider.setMainTableName("first");
+    infoProvider.setWaitTime(5L);
+    infoProvider.setUnit(TimeUnit.SECONDS);
+    TestLockAttainer attainer = new TestLockAttainer();
+    attainer.setInfoProvider(infoProvider);
+    attainer.setExecutorService(executorService);
+    return attainer;
+  }
+
+  private static class MockExecutorService extends DaoTestSupport.MockExecutorService {
+
+    private final List<Object[]> lockedRows = new CopyOnWriteArrayList<Object[]>();
+    private final List<RowLock> unlockedRows = new CopyOnWriteArrayList<RowLock>();
+    private final AtomicLong lockIds = new AtomicLong();
+    private final long failingRow;
+
+    public MockExecutorService(long failingRow) {
+      super(Executors.newCachedThreadPool());
+      this.failingRow = failingRow;
+    }
+
+    public List<Long> getLockedRows(String table) {
+      List<Long> rows = new CopyOnWriteArrayList<Long>();
+      for (Object[] lockedRow : lockedRows) {
+        if (table.equals(lockedRow[0])) {
+          rows.add(Bytes.toLong((byte[]) lockedRow[1]));
+        }
+      }
+      return rows;
+    }
+
+    @Override
+    protected Object invoke(String tableName, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("lockRow")) {
+        final byte[] row = (byte[]) args[0];
+        if (Bytes.toLong(row) == failingRow && tableName.equals("second")) {
+          throw new IOException("Could not lock row");
+        }
+        lockedRows.add(new Object[]{tableName, row});
+        return new RowLock(row, lockIds.incrementAndGet());
+      }
+      if (method.getName().equals("unlockRow")) {
+        unlockedRows.add((RowLock) args[0]);
+      }
+      return null;
+    }
+  }
+
+  private static class TestLockAttainer extends LockAttainerImpl<SampleDomain, Long> {
+
+    public int size() {
+      return getCacheSize();
+    }
+  }
+}
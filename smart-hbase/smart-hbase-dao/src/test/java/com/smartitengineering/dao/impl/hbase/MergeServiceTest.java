@@ -0,0 +1,235 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.AsyncExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import com.smartitengineering.dao.impl.hbase.spi.LockType;
+import com.smartitengineering.dao.impl.hbase.spi.impl.DiffBasedMergeService;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.TimestampedMergeService;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class MergeServiceTest {
+
+  private static final byte[] SELF = Bytes.toBytes("self");
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] VERSION = Bytes.toBytes("version");
+
+  @Test
+  public void mergeWithoutReading() throws Exception {
+    TimestampedMergeService<SampleDomain, Long> service = new TimestampedMergeService<SampleDomain, Long>();
+    service.setInfoProvider(getInfoProvider());
+    MockTable table = new MockTable();
+    Put put = new Put(Bytes.toBytes(1L));
+    put.add(FAMILY, Bytes.toBytes("name"), Bytes.toBytes("name"));
+    put.add(SELF, Bytes.toBytes("id"), Bytes.toBytes(1L));
+    service.merge(table.getTable(), Arrays.asList(put, new Put(Bytes.toBytes(2L))), LockType.PESSIMISTIC);
+    Assert.assertEquals(0, table.gets.size());
+    Assert.assertEquals(1, table.deletes.size());
+    Delete delete = table.deletes.get(0);
+    Assert.assertArrayEquals(put.getRow(), delete.getRow());
+    final long timestamp = put.get(FAMILY, Bytes.toBytes("name")).get(0).getTimestamp();
+    Assert.assertFalse(timestamp == Long.MAX_VALUE);
+    Assert.assertEquals(2, delete.getFamilyMap().size());
+    for (List<KeyValue> keyValues : delete.getFamilyMap().values()) {
+      Assert.assertEquals(1, keyValues.size());
+      Assert.assertEquals(KeyValue.Type.DeleteFamily.getCode(), keyValues.get(0).getType());
+      Assert.assertEquals(timestamp - 1, keyValues.get(0).getTimestamp());
+    }
+  }
+
+  @Test
+  public void mergeReadingOnlyVersionFamilyWhenOptimistic() throws Exception {
+    TimestampedMergeService<SampleDomain, Long> service = new TimestampedMergeService<SampleDomain, Long>();
+    service.setInfoProvider(getInfoProvider());
+    MockTable table = new MockTable();
+    table.stored.add(new KeyValue(Bytes.toBytes(1L), SELF, Bytes.toBytes("id"), Bytes.toBytes(1L)));
+    table.stored.add(new KeyValue(Bytes.toBytes(1L), SELF, Bytes.toBytes("stale"), Bytes.toBytes("value")));
+    Put put = new Put(Bytes.toBytes(1L));
+    put.add(FAMILY, Bytes.toBytes("name"), Bytes.toBytes("name"));
+    put.add(SELF, Bytes.toBytes("id"), Bytes.toBytes(1L));
+    put.add(SELF, VERSION, Bytes.toBytes(3L));
+    service.merge(table.getTable(), Arrays.asList(put), LockType.OPTIMISTIC);
+    Assert.assertTrue(put.get(SELF, VERSION).get(0).isLatestTimestamp());
+    Assert.assertEquals(1, table.gets.size());
+    Assert.assertEquals(1, table.gets.get(0).getFamilyMap().size());
+    Assert.assertTrue(table.gets.get(0).getFamilyMap().containsKey(SELF));
+    Assert.assertEquals(1, table.checkedDeletes.size());
+    Assert.assertTrue(table.deletes.isEmpty());
+    Assert.assertArrayEquals(Bytes.toBytes(3L), table.checkedValues.get(0));
+    Delete delete = table.checkedDeletes.get(0);
+    Assert.assertEquals(KeyValue.Type.DeleteFamily.getCode(), delete.getFamilyMap().get(FAMILY).get(0).getType());
+    List<KeyValue> selfDeletes = delete.getFamilyMap().get(SELF);
+    Assert.assertEquals(1, selfDeletes.size());
+    Assert.assertArrayEquals(Bytes.toBytes("stale"), selfDeletes.get(0).getQualifier());
+  }
+
+  @Test
+  public void deferDeletesTillPutsAreWritten() throws Exception {
+    TimestampedMergeService<SampleDomain, Long> service = new TimestampedMergeService<SampleDomain, Long>();
+    service.setInfoProvider(getInfoProvider());
+    final MockTable table = new MockTable();
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    dao.setInfoProvider(getInfoProvider());
+    dao.setExecutorService((AsyncExecutorService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                         new Class[]{AsyncExecutorService.class},
+                                                                         new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        return ((Callback) args[1]).call(table.getTable());
+      }
+    }));
+    setField(dao, "mergeEnabled", Boolean.TRUE);
+    setField(dao, "mergeService", service);
+    setField(dao, "lockType", LockType.PESSIMISTIC);
+    Put put = new Put(Bytes.toBytes(1L));
+    put.add(FAMILY, Bytes.toBytes("name"), Bytes.toBytes("name"));
+    dao.putNonOptimistically(new SimpleEntry<String, List<Put>>("test", Arrays.asList(put)), true,
+                             new SampleDomain[0]);
+    Assert.assertEquals(Arrays.asList("put", "delete"), table.operations);
+    table.failPuts = true;
+    try {
+      dao.putNonOptimistically(new SimpleEntry<String, List<Put>>("test", Arrays.asList(put)), true,
+                               new SampleDomain[0]);
+      Assert.fail("Put should have failed");
+    }
+    catch (RuntimeException ex) {
+    }
+    Assert.assertEquals(Arrays.asList("put", "delete", "put"), table.operations);
+  }
+
+  @Test
+  public void diffUsingBatchedRead() throws Exception {
+    DiffBasedMergeService<SampleDomain, Long> service = new DiffBasedMergeService<SampleDomain, Long>();
+    Field field = DiffBasedMergeService.class.getDeclaredField("infoProvider");
+    field.setAccessible(true);
+    field.set(service, getInfoProvider());
+    MockTable table = new MockTable();
+    table.stored.add(new KeyValue(Bytes.toBytes(1L), FAMILY, Bytes.toBytes("stale"), Bytes.toBytes("value")));
+    Put put = new Put(Bytes.toBytes(1L));
+    put.add(FAMILY, Bytes.toBytes("name"), Bytes.toBytes("name"));
+    Put otherPut = new Put(Bytes.toBytes(2L));
+    otherPut.add(FAMILY, Bytes.toBytes("name"), Bytes.toBytes("name"));
+    service.merge(table.getTable(), Arrays.asList(put, otherPut), LockType.PESSIMISTIC);
+    Assert.assertEquals(2, table.gets.size());
+    Assert.assertEquals(1, table.batchedGets);
+    Assert.assertEquals(1, table.deletes.size());
+    Assert.assertArrayEquals(Bytes.toBytes("stale"), table.deletes.get(0).getFamilyMap().get(FAMILY).get(0).
+        getQualifier());
+  }
+
+  private static void setField(Object target, String name, Object value) throws Exception {
+    Field field = CommonDao.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
+  private SchemaInfoProviderImpl<SampleDomain, Long> getInfoProvider() {
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setMainTableName("test");
+    config.setVersionColumnFamily("self");
+    config.setVersionColumnQualifier("version");
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    infoProvider.setBaseConfig(config);
+    return infoProvider;
+  }
+
+  private static class MockTable {
+
+    private final List<KeyValue> stored = new ArrayList<KeyValue>();
+    private final List<Get> gets = new ArrayList<Get>();
+    private final List<Delete> deletes = new ArrayList<Delete>();
+    private final List<Delete> checkedDeletes = new ArrayList<Delete>();
+    private final List<byte[]> checkedValues = new ArrayList<byte[]>();
+    private final List<String> operations = new ArrayList<String>();
+    private int batchedGets;
+    private boolean failPuts;
+
+    public HTableInterface getTable() {
+      return (HTableInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                      new Class[]{HTableInterface.class}, new InvocationHandler() {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("get") && args[0] instanceof List) {
+            batchedGets++;
+            final List<Get> batch = (List<Get>) args[0];
+            final Result[] results = new Result[batch.size()];
+            for (int i = 0; i < results.length; ++i) {
+              final Get get = batch.get(i);
+              gets.add(get);
+              final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+              for (KeyValue keyValue : stored) {
+                if (Bytes.equals(keyValue.getRow(), get.getRow()) && (get.getFamilyMap().isEmpty() || get.
+                    getFamilyMap().containsKey(keyValue.getFamily()))) {
+                  keyValues.add(keyValue);
+                }
+              }
+              results[i] = new Result(keyValues);
+            }
+            return results;
+          }
+          if (method.getName().equals("put") && args[0] instanceof List) {
+            operations.add("put");
+            if (failPuts) {
+              throw new IOException("Could not put");
+            }
+            return null;
+          }
+          if (method.getName().equals("delete") && args[0] instanceof List) {
+            operations.add("delete");
+            deletes.addAll((List<Delete>) args[0]);
+            return null;
+          }
+          if (method.getName().equals("checkAndDelete")) {
+            checkedValues.add((byte[]) args[3]);
+            checkedDeletes.add((Delete) args[4]);
+            return true;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.ConflictMerger;
+import com.smartitengineering.dao.impl.hbase.spi.LockType;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class OptimisticRetryTest {
+
+  private static final byte[] SELF = Bytes.toBytes("self");
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] VERSION = Bytes.toBytes("version");
+  private static final byte[] NAME = Bytes.toBytes("name");
+  private SchemaInfoProviderImpl<SampleDomain, Long> infoProvider;
+  private MockExecutorService executorService;
+  private CommonDao<SampleDomain, Long> dao;
+  private final List<SampleDomain> merged = new CopyOnWriteArrayList<SampleDomain>();
+
+  @Before
+  public void setupDao() throws Exception {
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setMainTableName("test");
+    config.setVersionColumnFamily("self");
+    config.setVersionColumnQualifier("version");
+    infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    infoProvider.setIdTypeClass(Long.class);
+    infoProvider.setBaseConfig(config);
+    executorService = new MockExecutorService();
+    dao = new CommonDao<SampleDomain, Long>();
+    dao.setInfoProvider(infoProvider);
+    dao.setExecutorService(executorService);
+    dao.setConverter(new DaoTestSupport.SampleDomainConverter(infoProvider, "test"));
+    Field field = CommonDao.class.getDeclaredField("lockType");
+    field.setAccessible(true);
+    field.set(dao, LockType.OPTIMISTIC);
+    dao.setOptimisticRetryBackoff(1l);
+    merged.clear();
+  }
+
+  @Test
+  public void retryOnlyConflictingRows() throws Exception {
+    dao.setOptimisticRetries(2);
+    dao.setConflictMerger(new Merger());
+    store(1l, 2l, "concurrent");
+    store(2l, 1l, "old");
+    dao.update(domain(1l, 1l, "first"), domain(2l, 1l, "second"));
+    Assert.assertEquals(1, merged.size());
+    Assert.assertEquals(Long.valueOf(1l), merged.get(0).getId());
+    Assert.assertEquals(3l, Bytes.toLong(executorService.getCell(1l, SELF, VERSION)));
+    Assert.assertEquals("first", Bytes.toString(executorService.getCell(1l, FAMILY, NAME)));
+    Assert.assertEquals(2l, Bytes.toLong(executorService.getCell(2l, SELF, VERSION)));
+    Assert.assertEquals("second", Bytes.toString(executorService.getCell(2l, FAMILY, NAME)));
+    Assert.assertEquals(2, executorService.getCheckedCount(1l));
+    Assert.assertEquals(1, executorService.getCheckedCount(2l));
+  }
+
+  @Test
+  public void failWithoutRetries() throws Exception {
+    dao.setConflictMerger(new Merger());
+    store(1l, 2l, "concurrent");
+    try {
+      dao.update(domain(1l, 1l, "first"));
+      Assert.fail("Conflict should not be retried");
+    }
+    catch (IllegalStateException ex) {
+      Assert.assertTrue(merged.isEmpty());
+    }
+    Assert.assertEquals("concurrent", Bytes.toString(executorService.getCell(1l, FAMILY, NAME)));
+  }
+
+  @Test
+  public void retryDeleteUntilRetriesExhausted() throws Exception {
+    dao.setOptimisticRetries(1);
+    dao.setConflictMerger(new Merger());
+    store(1l, 2l, "concurrent");
+    dao.delete(domain(1l, 1l, "first"));
+    Assert.assertNull(executorService.getCell(1l, SELF, VERSION));
+    store(2l, 2l, "concurrent");
+    executorService.conflictingWrites = 5;
+    try {
+      dao.delete(domain(2l, 1l, "second"));
+      Assert.fail("Conflict should have failed after retries");
+    }
+    catch (IllegalStateException ex) {
+      Assert.assertEquals(2, executorService.getCheckedCount(2l));
+    }
+  }
+
+  private void store(long id, long version, String name) throws Exception {
+    final Map<String, byte[]> row = new TreeMap<String, byte[]>();
+    row.put("family:name", Bytes.toBytes(name));
+    row.put("self:version", Bytes.toBytes(version));
+    executorService.rows.put(Bytes.toStringBinary(infoProvider.getRowIdFromId(id)), row);
+  }
+
+  private static SampleDomain domain(long id, long version, String name) {
+    SampleDomain domain = new SampleDomain();
+    domain.setId(id);
+    domain.setVersion(version);
+    domain.setName(name);
+    return domain;
+  }
+
+  private class Merger implements ConflictMerger<SampleDomain> {
+
+    @Override
+    public SampleDomain merge(SampleDomain attempted, SampleDomain current) {
+      merged.add(attempted);
+      return domain(attempted.getId(), current.getVersion(), attempted.getName());
+    }
+  }
+
+  private class MockExecutorService extends DaoTestSupport.MockExecutorService {
+
+    private final Map<String, Map<String, byte[]>> rows = new ConcurrentHashMap<String, Map<String, byte[]>>();
+    private final List<String> checkedRows = new CopyOnWriteArrayList<String>();
+    private volatile int conflictingWrites;
+
+    public byte[] getCell(long id, byte[] family, byte[] qualifier) throws Exception {
+      final Map<String, byte[]> row = rows.get(Bytes.toStringBinary(infoProvider.getRowIdFromId(id)));
+      return row == null ? null : row.get(Bytes.toString(family) + ":" + Bytes.toString(qualifier));
+    }
+
+    public int getCheckedCount(long id) throws Exception {
+      int count = 0;
+      for (String row : checkedRows) {
+        count += row.equals(Bytes.toStringBinary(infoProvider.getRowIdFromId(id))) ? 1 : 0;
+      }
+      return count;
+    }
+
+    private synchronized boolean check(byte[] rowId, byte[] expected) {
+      final String key = Bytes.toStringBinary(rowId);
+      checkedRows.add(key);
+      final Map<String, byte[]> row = rows.get(key);
+      final byte[] version = row == null ? null : row.get("self:version");
+      if (conflictingWrites > 0) {
+        conflictingWrites--;
+        return false;
+      }
+      return expected == null ? version == null : version != null && Bytes.equals(expected, version);
+    }
+
+    @Override
+    protected Object invoke(String tableName, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("get") && args[0] instanceof List) {
+        final List<Get> gets = (List<Get>) args[0];
+        final Result[] results = new Result[gets.size()];
+        for (int i = 0; i < results.length; ++i) {
+          final byte[] rowId = gets.get(i).getRow();
+          final Map<String, byte[]> row = rows.get(Bytes.toStringBinary(rowId));
+          final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+          if (row != null) {
+            for (Map.Entry<String, byte[]> cell : row.entrySet()) {
+              final String[] column = cell.getKey().split(":");
+              keyValues.add(new KeyValue(rowId, Bytes.toBytes(column[0]), Bytes.toBytes(column[1]), cell.getValue()));
+            }
+          }
+          results[i] = new Result(keyValues);
+        }
+        return results;
+      }
+      if (method.getName().equals("checkAndPut")) {
+        final Put put = (Put) args[4];
+        if (!check((byte[]) args[0], (byte[]) args[3])) {
+          return false;
+        }
+        Map<String, byte[]> row = rows.get(Bytes.toStringBinary(put.getRow()));
+        if (row == null) {
+          row = new TreeMap<String, byte[]>();
+          rows.put(Bytes.toStringBinary(put.getRow()), row);
+        }
+        for (List<KeyValue> keyValues : put.getFamilyMap().values()) {
+          for (KeyValue keyValue : keyValues) {
+            row.put(Bytes.toString(keyValue.getFamily()) + ":" + Bytes.toString(keyValue.getQualifier()),
+                    keyValue.getValue());
+          }
+        }
+        return true;
+      }
+      if (method.getName().equals("checkAndDelete")) {
+        if (!check((byte[]) args[0], (byte[]) args[3])) {
+          return false;
+        }
+        rows.remove(Bytes.toStringBinary((byte[]) args[0]));
+        return true;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+}
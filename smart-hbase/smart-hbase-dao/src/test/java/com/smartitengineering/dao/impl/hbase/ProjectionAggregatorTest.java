@@ -0,0 +1,128 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.ParameterType;
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueExcludeFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class ProjectionAggregatorTest {
+
+  @Test
+  public void aggregateWithoutGroup() {
+    ProjectionAggregator aggregator = new ProjectionAggregator(Arrays.asList(ParameterType.PARAMETER_TYPE_ROW_COUNT,
+                                                                             ParameterType.PARAMETER_TYPE_COUNT,
+                                                                             ParameterType.PARAMETER_TYPE_SUM,
+                                                                             ParameterType.PARAMETER_TYPE_AVG,
+                                                                             ParameterType.PARAMETER_TYPE_MAX,
+                                                                             ParameterType.PARAMETER_TYPE_MIN));
+    List<Object[]> results = aggregator.getResults();
+    Assert.assertEquals(1, results.size());
+    Assert.assertArrayEquals(new Object[]{0l, 0l, null, null, null, null}, results.get(0));
+    aggregator.add(new Object[]{null, "2", "2", "2", "2", "2"});
+    aggregator.add(new Object[]{null, null, null, null, null, null});
+    aggregator.add(new Object[]{null, "10", "10", "10", "10", "10"});
+    Assert.assertArrayEquals(new Object[]{3l, 2l, 12l, 6d, "10", "2"}, aggregator.getResults().get(0));
+  }
+
+  @Test
+  public void mergePartialGroups() {
+    List<ParameterType> projections = Arrays.asList(ParameterType.PARAMETER_TYPE_GROUP_BY,
+                                                    ParameterType.PARAMETER_TYPE_ROW_COUNT,
+                                                    ParameterType.PARAMETER_TYPE_COUNT_DISTINCT,
+                                                    ParameterType.PARAMETER_TYPE_SUM);
+    ProjectionAggregator aggregator = new ProjectionAggregator(projections);
+    Assert.assertTrue(aggregator.getResults().isEmpty());
+    aggregator.add(new Object[]{"a", null, "x", "1"});
+    aggregator.add(new Object[]{"b", null, "x", "1.5"});
+    ProjectionAggregator otherRegion = new ProjectionAggregator(projections);
+    otherRegion.add(new Object[]{"a", null, "x", "2"});
+    otherRegion.add(new Object[]{"a", null, "y", "3"});
+    aggregator.merge(otherRegion);
+    List<Object[]> results = aggregator.getResults();
+    Assert.assertEquals(2, results.size());
+    Assert.assertArrayEquals(new Object[]{"a", 3l, 2l, 6l}, results.get(0));
+    Assert.assertArrayEquals(new Object[]{"b", 1l, 1l, 1.5d}, results.get(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectNonAggregateProjection() {
+    new ProjectionAggregator(Arrays.asList(ParameterType.PARAMETER_TYPE_UNIT_PROP));
+  }
+
+  @Test
+  public void formNarrowScans() {
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    FilterConfigImpl idConfig = new FilterConfigImpl();
+    idConfig.setColumnFamilyAsString("self");
+    idConfig.setColumnQualifierAsString("id");
+    idConfig.setFilterOnRowId(true);
+    infoProvider.addFilterConfig("id", idConfig);
+    FilterConfigImpl nameConfig = new FilterConfigImpl();
+    nameConfig.setColumnFamilyAsString("family");
+    nameConfig.setColumnQualifierAsString("name");
+    nameConfig.setFilterOnIfMissing(true);
+    infoProvider.addFilterConfig("name", nameConfig);
+    dao.setInfoProvider(infoProvider);
+    List<QueryParameter> query = Arrays.<QueryParameter>asList(QueryParameterFactory.getGreaterThanPropertyParam("id",
+                                                                                                                 "b"),
+                                                               QueryParameterFactory.getRowCountParam());
+    Scan scan = formAggregateScan(dao, query);
+    Assert.assertFalse(scan.hasFamilies());
+    List<?> filters = ((FilterList) scan.getFilter()).getFilters();
+    Assert.assertTrue(filters.get(filters.size() - 1) instanceof FirstKeyOnlyFilter);
+    query = Arrays.<QueryParameter>asList(QueryParameterFactory.getEqualPropertyParam("name", "x"),
+                                          QueryParameterFactory.getRowCountParam(),
+                                          QueryParameterFactory.getDistinctElementCountParam("name:title"));
+    scan = formAggregateScan(dao, query);
+    Assert.assertEquals(2, scan.getFamilyMap().get(Bytes.toBytes("family")).size());
+    Object filter = ((FilterList) scan.getFilter()).getFilters().get(0);
+    Assert.assertTrue(filter instanceof SingleColumnValueFilter);
+    Assert.assertFalse(filter instanceof SingleColumnValueExcludeFilter);
+  }
+
+  private static Scan formAggregateScan(CommonDao<SampleDomain, Long> dao, List<QueryParameter> query) {
+    List<QueryParameter> projections = dao.getAggregateProjections(query);
+    ParameterType[] types = new ParameterType[projections.size()];
+    CommonDao.ProjectedColumn[] columns = new CommonDao.ProjectedColumn[projections.size()];
+    for (int i = 0; i < types.length; ++i) {
+      types[i] = projections.get(i).getParameterType();
+      columns[i] = dao.getProjectedColumn(projections.get(i));
+    }
+    return dao.formAggregateScan(query, Arrays.asList(types), Arrays.asList(columns));
+  }
+}
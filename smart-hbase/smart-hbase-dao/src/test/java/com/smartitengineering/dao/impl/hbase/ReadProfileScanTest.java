@@ -0,0 +1,124 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.ColumnProjectionProvider;
+import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class ReadProfileScanTest {
+
+  private static final byte[] SELF = Bytes.toBytes("self");
+  private static final byte[] BLOB = Bytes.toBytes("blob");
+
+  @Test
+  public void restrictToProfileAndFilterColumns() {
+    CommonDao<SampleDomain, Long> dao = createDao();
+    Scan scan = dao.formReadScan(Arrays.<QueryParameter>asList(QueryParameterFactory.getEqualPropertyParam("name",
+                                                                                                           "x")));
+    Map<byte[], NavigableSet<byte[]>> familyMap = scan.getFamilyMap();
+    Assert.assertEquals(1, familyMap.size());
+    NavigableSet<byte[]> qualifiers = familyMap.get(SELF);
+    Assert.assertEquals(2, qualifiers.size());
+    Assert.assertTrue(qualifiers.contains(Bytes.toBytes("id")));
+    Assert.assertTrue(qualifiers.contains(Bytes.toBytes("name")));
+    Assert.assertFalse(familyMap.containsKey(BLOB));
+    dao.setReadProfile("full");
+    Assert.assertFalse(dao.formReadScan(Arrays.<QueryParameter>asList(QueryParameterFactory.getEqualPropertyParam(
+        "name", "x"))).hasFamilies());
+    Assert.assertNull(dao.getReadTemplate());
+  }
+
+  @Test
+  public void explicitProjectionTakesPrecedence() {
+    CommonDao<SampleDomain, Long> dao = createDao();
+    Scan scan = dao.formReadScan(Arrays.<QueryParameter>asList(QueryParameterFactory.getPropProjectionParam("blob")));
+    Assert.assertEquals(1, scan.getFamilyMap().size());
+    Assert.assertTrue(scan.getFamilyMap().containsKey(BLOB));
+    Scan template = dao.getReadTemplate();
+    Assert.assertEquals(1, template.getFamilyMap().get(SELF).size());
+  }
+
+  @Test
+  public void fallbackToInfoProviderIfConverterRequiresAllColumns() {
+    CommonDao<SampleDomain, Long> dao = createDao();
+    Class[] interfaces = new Class[]{ObjectRowConverter.class, ColumnProjectionProvider.class};
+    dao.setConverter((ObjectRowConverter<SampleDomain>) Proxy.newProxyInstance(getClass().getClassLoader(), interfaces,
+                                                                               new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        return null;
+      }
+    }));
+    Map<byte[], NavigableSet<byte[]>> columns = dao.getRequiredColumns();
+    Assert.assertNotNull(columns);
+    Assert.assertEquals(1, columns.get(SELF).size());
+  }
+
+  private static CommonDao<SampleDomain, Long> createDao() {
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new ProfiledSchemaInfoProvider();
+    FilterConfigImpl nameConfig = new FilterConfigImpl();
+    nameConfig.setColumnFamilyAsString("self");
+    nameConfig.setColumnQualifierAsString("name");
+    infoProvider.addFilterConfig("name", nameConfig);
+    FilterConfigImpl blobConfig = new FilterConfigImpl();
+    blobConfig.setColumnFamilyAsString("blob");
+    infoProvider.addFilterConfig("blob", blobConfig);
+    dao.setInfoProvider(infoProvider);
+    return dao;
+  }
+
+  private static class ProfiledSchemaInfoProvider extends SchemaInfoProviderImpl<SampleDomain, Long> implements
+      ColumnProjectionProvider {
+
+    @Override
+    public Map<byte[], NavigableSet<byte[]>> getRequiredColumns(String readProfile) {
+      if (!DEFAULT_READ_PROFILE.equals(readProfile)) {
+        return null;
+      }
+      Map<byte[], NavigableSet<byte[]>> columns = new TreeMap<byte[], NavigableSet<byte[]>>(Bytes.BYTES_COMPARATOR);
+      NavigableSet<byte[]> qualifiers = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      qualifiers.add(Bytes.toBytes("id"));
+      columns.put(SELF, qualifiers);
+      return columns;
+    }
+  }
+}
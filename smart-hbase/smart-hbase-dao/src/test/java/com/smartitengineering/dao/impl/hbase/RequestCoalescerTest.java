@@ -0,0 +1,100 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class RequestCoalescerTest {
+
+  @Test
+  public void shareInFlightExecution() throws Exception {
+    final RequestCoalescer<String, Object> coalescer = new RequestCoalescer<String, Object>();
+    final AtomicInteger executions = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callable<Object> request = new Callable<Object>() {
+
+      @Override
+      public Object call() throws Exception {
+        executions.incrementAndGet();
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return new Object();
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    futures.add(executor.submit(new Callable<Object>() {
+
+      @Override
+      public Object call() throws Exception {
+        return coalescer.execute("hot", request);
+      }
+    }));
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    final CountDownLatch arrived = new CountDownLatch(3);
+    for (int i = 0; i < 3; ++i) {
+      futures.add(executor.submit(new Callable<Object>() {
+
+        @Override
+        public Object call() throws Exception {
+          arrived.countDown();
+          return coalescer.execute("hot", request);
+        }
+      }));
+    }
+    Assert.assertTrue(arrived.await(5, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    release.countDown();
+    final Object result = futures.get(0).get();
+    for (Future<Object> future : futures) {
+      Assert.assertSame(result, future.get());
+    }
+    Assert.assertEquals(1, executions.get());
+    Assert.assertEquals(0, coalescer.getInFlightCount());
+    Assert.assertNotSame(result, coalescer.execute("hot", request));
+    Assert.assertEquals(2, executions.get());
+    executor.shutdown();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void propagateErrors() {
+    new RequestCoalescer<String, Object>().execute("key", new Callable<Object>() {
+
+      @Override
+      public Object call() throws Exception {
+        throw new IllegalStateException("Failed");
+      }
+    });
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class ResultBatchPrefetcherTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] QUALIFIER = Bytes.toBytes("name");
+
+  @Test
+  public void prefetchNextBatchInBackground() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    MockScanner scanner = new MockScanner(25, 10);
+    ResultBatchPrefetcher prefetcher = new ResultBatchPrefetcher(scanner, executor, 10, -1, -1);
+    Assert.assertEquals(10, prefetcher.nextBatch().length);
+    Assert.assertTrue(scanner.fetched.tryAcquire(2, 5, TimeUnit.SECONDS));
+    Assert.assertEquals(20, scanner.current);
+    Assert.assertEquals(10, prefetcher.nextBatch().length);
+    Assert.assertEquals(5, prefetcher.nextBatch().length);
+    Assert.assertEquals(0, prefetcher.nextBatch().length);
+    Assert.assertEquals(25, prefetcher.getRowsFetched());
+    Assert.assertEquals(3, scanner.requests.size());
+    prefetcher.close();
+    Assert.assertTrue(scanner.closed);
+    executor.shutdown();
+  }
+
+  @Test
+  public void respectMaxRowsWithoutExecutor() throws Exception {
+    MockScanner scanner = new MockScanner(25, 10);
+    ResultBatchPrefetcher prefetcher = new ResultBatchPrefetcher(scanner, null, 10, 15, -1);
+    int rows = 0;
+    for (Result[] results = prefetcher.nextBatch(); results.length > 0; results = prefetcher.nextBatch()) {
+      rows += results.length;
+    }
+    Assert.assertEquals(15, rows);
+    Assert.assertEquals(15, scanner.current);
+  }
+
+  @Test
+  public void capPrefetchedBytes() throws Exception {
+    MockScanner scanner = new MockScanner(100, 10);
+    final long rowSize = ResultBatchPrefetcher.getSize(new MockScanner(1, 10).next(1));
+    ResultBatchPrefetcher prefetcher = new ResultBatchPrefetcher(scanner, null, 10, -1, rowSize * 4);
+    Assert.assertEquals(10, prefetcher.nextBatch().length);
+    Assert.assertEquals(4, prefetcher.nextBatch().length);
+    prefetcher.close();
+    Assert.assertEquals(Integer.valueOf(4), scanner.requests.get(1));
+  }
+
+  private static class MockScanner implements ResultScanner {
+
+    private final int rows;
+    private final int valueSize;
+    private final Semaphore fetched = new Semaphore(0);
+    private final List<Integer> requests = new CopyOnWriteArrayList<Integer>();
+    private volatile int current;
+    private volatile boolean closed;
+
+    public MockScanner(int rows, int valueSize) {
+      this.rows = rows;
+      this.valueSize = valueSize;
+    }
+
+    @Override
+    public Result next() throws IOException {
+      if (current >= rows) {
+        return null;
+      }
+      final byte[] row = Bytes.toBytes(String.format("row-%03d", current));
+      current++;
+      return new Result(new KeyValue[]{new KeyValue(row, FAMILY, QUALIFIER, new byte[valueSize])});
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+      requests.add(nbRows);
+      List<Result> results = new ArrayList<Result>(nbRows);
+      for (int i = 0; i < nbRows; ++i) {
+        Result result = next();
+        if (result == null) {
+          break;
+        }
+        results.add(result);
+      }
+      fetched.release();
+      return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.spi.ExecutorService;
+import com.smartitengineering.dao.impl.hbase.spi.ObjectRowConverter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class ResultScannerCursorTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] QUALIFIER = Bytes.toBytes("name");
+  private static final ObjectRowConverter<String> CONVERTER = new ObjectRowConverter<String>() {
+
+    @Override
+    public LinkedHashMap<String, Put> objectToRows(String instance, ExecutorService service, boolean pessimisticLock) {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+
+    @Override
+    public LinkedHashMap<String, Delete> objectToDeleteableRows(String instance, ExecutorService service,
+                                                                boolean pessimisticLock) {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+
+    @Override
+    public String rowsToObject(Result startRow, ExecutorService executorService) {
+      return Bytes.toString(startRow.getValue(FAMILY, QUALIFIER));
+    }
+  };
+
+  @Test
+  public void iterateAllRowsInBatches() {
+    MockScanner scanner = new MockScanner(25);
+    ResultScannerCursor<String> cursor = new ResultScannerCursor<String>(scanner, CONVERTER, null, Executors.
+        newFixedThreadPool(2), 10, -1);
+    List<String> values = new ArrayList<String>();
+    for (String value : cursor) {
+      values.add(value);
+      Assert.assertTrue(scanner.maxBatch <= 10);
+    }
+    Assert.assertEquals(25, values.size());
+    Assert.assertEquals("row-0", values.get(0));
+    Assert.assertEquals("row-24", values.get(24));
+    Assert.assertEquals(25, cursor.getRowsFetched());
+    Assert.assertTrue(cursor.isClosed());
+    Assert.assertTrue(scanner.closed);
+  }
+
+  @Test
+  public void respectMaxRows() {
+    MockScanner scanner = new MockScanner(25);
+    ResultScannerCursor<String> cursor = new ResultScannerCursor<String>(scanner, CONVERTER, null, null, 10, 15);
+    int count = 0;
+    for (String value : cursor) {
+      count++;
+    }
+    Assert.assertEquals(15, count);
+    Assert.assertTrue(scanner.closed);
+  }
+
+  @Test
+  public void closeBeforeExhaustion() {
+    MockScanner scanner = new MockScanner(25);
+    ResultScannerCursor<String> cursor = new ResultScannerCursor<String>(scanner, CONVERTER, null, null, 10, -1);
+    Iterator<String> iterator = cursor.iterator();
+    Assert.assertEquals("row-0", iterator.next());
+    cursor.close();
+    Assert.assertTrue(scanner.closed);
+    Assert.assertFalse(iterator.hasNext());
+    Assert.assertEquals(10, cursor.getRowsFetched());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void iterateOnlyOnce() {
+    ResultScannerCursor<String> cursor = new ResultScannerCursor<String>(new MockScanner(1), CONVERTER, null, null, 10,
+                                                                         -1);
+    cursor.iterator();
+    cursor.iterator();
+  }
+
+  private static class MockScanner implements ResultScanner {
+
+    private final int rows;
+    private int current;
+    private int maxBatch;
+    private boolean closed;
+
+    public MockScanner(int rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Result next() throws IOException {
+      if (current >= rows) {
+        return null;
+      }
+      final byte[] row = Bytes.toBytes("row-" + current);
+      current++;
+      return new Result(new KeyValue[]{new KeyValue(row, FAMILY, QUALIFIER, row)});
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+      maxBatch = Math.max(maxBatch, nbRows);
+      List<Result> results = new ArrayList<Result>(nbRows);
+      for (int i = 0; i < nbRows; ++i) {
+        Result result = next();
+        if (result == null) {
+          break;
+        }
+        results.add(result);
+      }
+      return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.HashPrefixRowIdDistributor;
+import com.smartitengineering.dao.impl.hbase.spi.impl.PrefixSkippingComparator;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class RowIdDistributionTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+
+  @Test
+  public void distributeAndRestoreRowIds() {
+    HashPrefixRowIdDistributor distributor = new HashPrefixRowIdDistributor(16);
+    Assert.assertEquals(16, distributor.getAllPrefixes().length);
+    for (int i = 0; i < 100; ++i) {
+      byte[] original = Bytes.toBytes("row-" + i);
+      byte[] distributed = distributor.getDistributedRowId(original);
+      Assert.assertEquals(original.length + 1, distributed.length);
+      Assert.assertTrue((distributed[0] & 0xff) < 16);
+      Assert.assertArrayEquals(distributed, distributor.getDistributedRowId(original));
+      Assert.assertArrayEquals(original, distributor.getOriginalRowId(distributed));
+    }
+  }
+
+  @Test
+  public void compareSkippingPrefix() throws IOException {
+    PrefixSkippingComparator comparator = new PrefixSkippingComparator(1, new BinaryComparator(Bytes.toBytes("b")));
+    Assert.assertEquals(0, comparator.compareTo(new byte[]{7, 'b'}));
+    Assert.assertTrue(comparator.compareTo(new byte[]{0, 'c'}) < 0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    comparator.write(new DataOutputStream(bytes));
+    PrefixSkippingComparator read = new PrefixSkippingComparator();
+    read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Assert.assertEquals(0, read.compareTo(new byte[]{3, 'b'}));
+  }
+
+  @Test
+  public void distributeScanPerBucket() throws IOException {
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setMainTableName("test");
+    config.setRowIdBuckets(4);
+    infoProvider.setBaseConfig(config);
+    FilterConfigImpl idConfig = new FilterConfigImpl();
+    idConfig.setColumnFamilyAsString("self");
+    idConfig.setColumnQualifierAsString("id");
+    idConfig.setFilterOnRowId(true);
+    infoProvider.addFilterConfig("id", idConfig);
+    dao.setInfoProvider(infoProvider);
+    Scan scan = dao.formScan(Arrays.<QueryParameter>asList(QueryParameterFactory.getGreaterThanEqualToPropertyParam(
+        "id", "b")));
+    List<Scan> scans = dao.distributeScan(scan);
+    Assert.assertEquals(4, scans.size());
+    Assert.assertArrayEquals(new byte[]{0, 'b'}, scans.get(0).getStartRow());
+    Assert.assertArrayEquals(new byte[]{1}, scans.get(0).getStopRow());
+    Assert.assertArrayEquals(new byte[]{3, 'b'}, scans.get(3).getStartRow());
+    Assert.assertArrayEquals(new byte[]{4}, scans.get(3).getStopRow());
+  }
+
+  @Test
+  public void mergeBucketsInOriginalOrder() throws IOException {
+    List<ResultScanner> scanners = new ArrayList<ResultScanner>();
+    scanners.add(new MockScanner(new byte[]{0, 'a'}, new byte[]{0, 'd'}));
+    scanners.add(new MockScanner(new byte[]{1, 'b'}, new byte[]{1, 'c'}, new byte[]{1, 'e'}));
+    scanners.add(new MockScanner());
+    DistributedResultScanner scanner = new DistributedResultScanner(scanners, 1);
+    StringBuilder rows = new StringBuilder();
+    for (Result result : scanner) {
+      rows.append((char) result.getRow()[1]);
+    }
+    scanner.close();
+    Assert.assertEquals("abcde", rows.toString());
+    for (ResultScanner bucketScanner : scanners) {
+      Assert.assertTrue(((MockScanner) bucketScanner).closed);
+    }
+  }
+
+  @Test
+  public void streamRegionReadsOfBuckets() throws IOException {
+    List<Future<Result[]>> firstBucket = Arrays.asList(read(new byte[]{0, 'a'}, new byte[]{0, 'd'}));
+    Future<Result[]> lastRegion = new FutureTask<Result[]>(new Callable<Result[]>() {
+
+      @Override
+      public Result[] call() throws Exception {
+        throw new IllegalStateException("Region should not be read");
+      }
+    });
+    List<Future<Result[]>> secondBucket = Arrays.asList(read(new byte[]{1, 'b'}), read(new byte[]{1, 'c'}),
+                                                        lastRegion);
+    List<ResultScanner> scanners = new ArrayList<ResultScanner>();
+    scanners.add(new FutureResultScanner(firstBucket, 1000));
+    scanners.add(new FutureResultScanner(secondBucket, 1000));
+    DistributedResultScanner scanner = new DistributedResultScanner(scanners, 1);
+    Result[] results = scanner.next(2);
+    scanner.close();
+    Assert.assertEquals(2, results.length);
+    Assert.assertEquals('a', results[0].getRow()[1]);
+    Assert.assertEquals('b', results[1].getRow()[1]);
+    Assert.assertTrue(lastRegion.isCancelled());
+  }
+
+  private static Future<Result[]> read(byte[]... rows) {
+    final Result[] results = new Result[rows.length];
+    for (int i = 0; i < rows.length; ++i) {
+      results[i] = new Result(new KeyValue[]{new KeyValue(rows[i], FAMILY, FAMILY, rows[i])});
+    }
+    FutureTask<Result[]> future = new FutureTask<Result[]>(new Callable<Result[]>() {
+
+      @Override
+      public Result[] call() throws Exception {
+        return results;
+      }
+    });
+    future.run();
+    return future;
+  }
+
+  private static class MockScanner implements ResultScanner {
+
+    private final Iterator<byte[]> rows;
+    private boolean closed;
+
+    public MockScanner(byte[]... rows) {
+      this.rows = Arrays.asList(rows).iterator();
+    }
+
+    @Override
+    public Result next() throws IOException {
+      if (!rows.hasNext()) {
+        return null;
+      }
+      final byte[] row = rows.next();
+      return new Result(new KeyValue[]{new KeyValue(row, FAMILY, FAMILY, row)});
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.MatchMode;
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class RowRangePlanningTest {
+
+  private static final CommonDao<SampleDomain, Long> DAO = new CommonDao<SampleDomain, Long>();
+
+  @BeforeClass
+  public static void setupDao() {
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    FilterConfigImpl idConfig = new FilterConfigImpl();
+    idConfig.setColumnFamilyAsString("self");
+    idConfig.setColumnQualifierAsString("id");
+    idConfig.setFilterOnRowId(true);
+    infoProvider.addFilterConfig("id", idConfig);
+    FilterConfigImpl nameConfig = new FilterConfigImpl();
+    nameConfig.setColumnFamilyAsString("family");
+    nameConfig.setColumnQualifierAsString("name");
+    infoProvider.addFilterConfig("name", nameConfig);
+    DAO.setInfoProvider(infoProvider);
+  }
+
+  @Test
+  public void planEqual() {
+    Scan scan = DAO.formScan(query(QueryParameterFactory.getEqualPropertyParam("id", "b")));
+    assertRange(scan, Bytes.toBytes("b"), new byte[]{'b', 0});
+  }
+
+  @Test
+  public void planBoundsIntersection() {
+    Scan scan = DAO.formScan(query(QueryParameterFactory.getGreaterThanPropertyParam("id", "b"),
+                                   QueryParameterFactory.getConjunctionParam(QueryParameterFactory.
+        getLesserThanEqualToPropertyParam("id", "k")), QueryParameterFactory.getLesserThanPropertyParam("id", "m")));
+    assertRange(scan, new byte[]{'b', 0}, new byte[]{'k', 0});
+  }
+
+  @Test
+  public void planBetweenAndPrefix() {
+    Scan scan = DAO.formScan(query(QueryParameterFactory.getBetweenPropertyParam("id", "a", "z")));
+    assertRange(scan, Bytes.toBytes("a"), new byte[]{'z', 0});
+    scan = DAO.formScan(query(QueryParameterFactory.getStringLikePropertyParam("id", "ab", MatchMode.START)));
+    assertRange(scan, Bytes.toBytes("ab"), Bytes.toBytes("ac"));
+    Assert.assertEquals(0, CommonDao.getPrefixStopRow(new byte[]{(byte) 0xff}).length);
+    Assert.assertArrayEquals(new byte[]{2}, CommonDao.getPrefixStopRow(new byte[]{1, (byte) 0xff}));
+  }
+
+  @Test
+  public void ignoreDisjunctionAndNonRowIdProperties() {
+    Scan scan = DAO.formScan(query(QueryParameterFactory.getDisjunctionParam(QueryParameterFactory.
+        getEqualPropertyParam("id", "b"), QueryParameterFactory.getEqualPropertyParam("id", "c")),
+                                   QueryParameterFactory.getGreaterThanPropertyParam("name", "x")));
+    assertRange(scan, new byte[0], new byte[0]);
+  }
+
+  @Test
+  public void planEmptyRange() {
+    Scan scan = DAO.formScan(query(QueryParameterFactory.getGreaterThanPropertyParam("id", "x"),
+                                   QueryParameterFactory.getLesserThanPropertyParam("id", "b")));
+    Assert.assertTrue(Bytes.compareTo(scan.getStartRow(), scan.getStopRow()) > 0);
+    Assert.assertFalse(scan.isGetScan());
+    Assert.assertTrue(CommonDao.splitRowRange(scan.getStartRow(), scan.getStopRow(), new byte[][]{new byte[0]},
+                                              new byte[][]{new byte[0]}).isEmpty());
+  }
+
+  @Test
+  public void planPointGets() {
+    List<QueryParameter> query = query(QueryParameterFactory.getIsInPropertyParam("id", "d", "a", "k", "a"),
+                                       QueryParameterFactory.getLesserThanPropertyParam("id", "j"));
+    Scan scan = DAO.formScan(query);
+    List<byte[]> rows = DAO.getPointGetRows(query, scan);
+    Assert.assertEquals(2, rows.size());
+    Assert.assertArrayEquals(Bytes.toBytes("a"), rows.get(0));
+    Assert.assertArrayEquals(Bytes.toBytes("d"), rows.get(1));
+    Assert.assertNull(DAO.getPointGetRows(query(QueryParameterFactory.getEqualPropertyParam("id", "b")), scan));
+  }
+
+  @Test
+  public void splitAtRegionBoundaries() {
+    byte[][] starts = new byte[][]{new byte[0], Bytes.toBytes("d"), Bytes.toBytes("m")};
+    byte[][] ends = new byte[][]{Bytes.toBytes("d"), Bytes.toBytes("m"), new byte[0]};
+    List<Pair<byte[], byte[]>> ranges = CommonDao.splitRowRange(new byte[0], new byte[0], starts, ends);
+    Assert.assertEquals(3, ranges.size());
+    ranges = CommonDao.splitRowRange(Bytes.toBytes("e"), Bytes.toBytes("p"), starts, ends);
+    Assert.assertEquals(2, ranges.size());
+    Assert.assertArrayEquals(Bytes.toBytes("e"), ranges.get(0).getFirst());
+    Assert.assertArrayEquals(Bytes.toBytes("m"), ranges.get(0).getSecond());
+    Assert.assertArrayEquals(Bytes.toBytes("m"), ranges.get(1).getFirst());
+    Assert.assertArrayEquals(Bytes.toBytes("p"), ranges.get(1).getSecond());
+    ranges = CommonDao.splitRowRange(Bytes.toBytes("a"), Bytes.toBytes("d"), starts, ends);
+    Assert.assertEquals(1, ranges.size());
+  }
+
+  @Test
+  public void readRegionRowsWithinSharedLimit() throws Exception {
+    final AtomicInteger rowsRead = new AtomicInteger();
+    HTableInterface table = newTable(rowsRead);
+    Scan scan = new Scan();
+    scan.setCaching(2);
+    AtomicIntegerArray rowCounts = new AtomicIntegerArray(3);
+    Assert.assertEquals(3, DAO.readRegionRows(table, scan, rowCounts, 0, 3).length);
+    Assert.assertEquals(3, rowCounts.get(0));
+    Assert.assertEquals(0, DAO.readRegionRows(table, scan, rowCounts, 2, 3).length);
+    Assert.assertEquals(3, rowsRead.get());
+    rowCounts = new AtomicIntegerArray(2);
+    rowCounts.set(0, 1);
+    Assert.assertEquals(4, DAO.readRegionRows(table, scan, rowCounts, 1, 5).length);
+    Assert.assertEquals(7, rowsRead.get());
+  }
+
+  private static HTableInterface newTable(final AtomicInteger rowsRead) {
+    final ResultScanner scanner = (ResultScanner) Proxy.newProxyInstance(getClassLoader(), new Class[]{
+          ResultScanner.class}, new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("next") && args != null && args.length == 1) {
+          final Result[] results = new Result[(Integer) args[0]];
+          for (int i = 0; i < results.length; ++i) {
+            final byte[] row = Bytes.toBytes(rowsRead.incrementAndGet());
+            results[i] = new Result(new KeyValue[]{new KeyValue(row, Bytes.toBytes("self"), Bytes.toBytes("id"),
+                                                                 row)});
+          }
+          return results;
+        }
+        if (method.getName().equals("close")) {
+          return null;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    return (HTableInterface) Proxy.newProxyInstance(getClassLoader(), new Class[]{HTableInterface.class},
+                                                    new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("getScanner")) {
+          return scanner;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  private static ClassLoader getClassLoader() {
+    return RowRangePlanningTest.class.getClassLoader();
+  }
+
+  private static List<QueryParameter> query(QueryParameter... params) {
+    return Arrays.asList(params);
+  }
+
+  private static void assertRange(Scan scan, byte[] startRow, byte[] stopRow) {
+    Assert.assertArrayEquals(startRow, scan.getStartRow());
+    Assert.assertArrayEquals(stopRow, scan.getStopRow());
+  }
+}
@@ -0,0 +1,570 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.MatchMode;
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.AggregateConfig;
+import com.smartitengineering.dao.impl.hbase.spi.IndexConfig;
+import com.smartitengineering.dao.impl.hbase.spi.LockAttainer;
+import com.smartitengineering.dao.impl.hbase.spi.LockType;
+import com.smartitengineering.dao.impl.hbase.spi.impl.AggregateViewServiceImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderBaseConfig;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SecondaryIndexServiceImpl;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnPaginationFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class SecondaryIndexTest {
+
+  private static final String TABLE = "test";
+  private static final String INDEX_TABLE = "test_name_index";
+  private static final byte[] ROWS = Bytes.toBytes(IndexConfig.DEFAULT_COLUMN_FAMILY);
+  private SchemaInfoProviderImpl<SampleDomain, Long> infoProvider;
+  private MockExecutorService executorService;
+  private CommonDao<SampleDomain, Long> dao;
+
+  @Before
+  public void setupDao() throws Exception {
+    SchemaInfoProviderBaseConfig<SampleDomain> config = new SchemaInfoProviderBaseConfig<SampleDomain>();
+    config.setMainTableName(TABLE);
+    config.setVersionColumnFamily("self");
+    config.setVersionColumnQualifier("version");
+    infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    infoProvider.setIdTypeClass(Long.class);
+    infoProvider.setBaseConfig(config);
+    FilterConfigImpl nameConfig = new FilterConfigImpl();
+    nameConfig.setColumnFamilyAsString("family");
+    nameConfig.setColumnQualifierAsString("name");
+    infoProvider.addFilterConfig("name", nameConfig);
+    FilterConfigImpl idConfig = new FilterConfigImpl();
+    idConfig.setColumnFamilyAsString("self");
+    idConfig.setColumnQualifierAsString("id");
+    idConfig.setFilterOnRowId(true);
+    infoProvider.addFilterConfig("id", idConfig);
+    IndexConfig index = new IndexConfig();
+    index.setTableName(INDEX_TABLE);
+    infoProvider.addIndexConfig("name", index);
+    infoProvider.addIndexConfig("id", index);
+    executorService = new MockExecutorService();
+    dao = new CommonDao<SampleDomain, Long>();
+    dao.setInfoProvider(infoProvider);
+    dao.setExecutorService(executorService);
+    dao.setConverter(new DaoTestSupport.SampleDomainConverter(infoProvider, TABLE));
+    Field field = CommonDao.class.getDeclaredField("lockType");
+    field.setAccessible(true);
+    field.set(dao, LockType.OPTIMISTIC);
+  }
+
+  @Test
+  public void maintainIndexOnWrites() throws Exception {
+    Assert.assertEquals(1, dao.getIndexConfigs().size());
+    dao.save(domain(1l, null, "alpha"), domain(2l, null, "beta"));
+    assertIndexed("alpha", 1l);
+    assertIndexed("beta", 2l);
+    dao.update(domain(1l, 1l, "gamma"));
+    assertIndexed("alpha");
+    assertIndexed("gamma", 1l);
+    assertIndexed("beta", 2l);
+    dao.delete(domain(2l, 2l, "beta"));
+    assertIndexed("beta");
+    assertIndexed("gamma", 1l);
+  }
+
+  @Test
+  public void maintainIndexOnWritesBehind() throws Exception {
+    Field field = CommonDao.class.getDeclaredField("lockType");
+    field.setAccessible(true);
+    field.set(dao, LockType.NONE);
+    field = CommonDao.class.getDeclaredField("lockAttainer");
+    field.setAccessible(true);
+    field.set(dao, Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{LockAttainer.class},
+                                          new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        return boolean.class.equals(method.getReturnType()) ? Boolean.TRUE : null;
+      }
+    }));
+    dao.setWriteBehindEnabled(true);
+    Future<Void> future = dao.saveBehind(domain(1l, null, "alpha"));
+    Assert.assertTrue(future.isDone());
+    assertIndexed("alpha", 1l);
+    dao.updateBehind(domain(1l, null, "beta")).get();
+    assertIndexed("alpha");
+    assertIndexed("beta", 1l);
+    dao.closeWriteBehind();
+  }
+
+  @Test
+  public void failWritesWhoseIndexedValuesCanNotBeRead() throws Exception {
+    dao.save(domain(1l, null, "alpha"));
+    executorService.failColumnReads = true;
+    try {
+      dao.update(domain(1l, 1l, "beta"));
+      Assert.fail("Updated without reading the indexed values");
+    }
+    catch (IllegalStateException ex) {
+    }
+    finally {
+      executorService.failColumnReads = false;
+    }
+    assertIndexed("alpha", 1l);
+    assertIndexed("beta");
+    Map<String, NavigableMap<byte[], byte[]>> row = executorService.getTable(TABLE).get(infoProvider.getRowIdFromId(
+        1l));
+    Map<byte[], byte[]> family = row.get(Bytes.toString(DaoTestSupport.SampleDomainConverter.FAMILY));
+    Assert.assertEquals("alpha", Bytes.toString(family.get(DaoTestSupport.SampleDomainConverter.NAME)));
+  }
+
+  @Test
+  public void planIndexedQueries() throws Exception {
+    dao.save(domain(3l, null, "beta"), domain(1l, null, "gamma"), domain(2l, null, "beta"));
+    assertRows(dao.getIndexedRows(query(QueryParameterFactory.getEqualPropertyParam("name", "beta")), new Scan()), 2l,
+               3l);
+    assertRows(dao.getIndexedRows(query(QueryParameterFactory.getIsInPropertyParam("name", "gamma", "delta"),
+                                        QueryParameterFactory.getGreaterThanPropertyParam("name", "alpha")),
+                                  new Scan()), 1l);
+    List<QueryParameter> range = query(QueryParameterFactory.getConjunctionParam(QueryParameterFactory.
+        getGreaterThanEqualToPropertyParam("name", "b")),
+                                       QueryParameterFactory.getLesserThanPropertyParam("name", "h"));
+    assertRows(dao.getIndexedRows(range, new Scan()), 1l, 2l, 3l);
+    Scan scan = new Scan();
+    scan.setStartRow(infoProvider.getRowIdFromId(2l));
+    assertRows(dao.getIndexedRows(range, scan), 2l, 3l);
+    dao.setIndexScanMaxRows(2);
+    Assert.assertNull(dao.getIndexedRows(range, new Scan()));
+    Assert.assertNull(dao.getIndexedRows(query(QueryParameterFactory.getDisjunctionParam(QueryParameterFactory.
+        getEqualPropertyParam("name", "beta"), QueryParameterFactory.getEqualPropertyParam("name", "gamma"))),
+                                         new Scan()));
+    Assert.assertNull(dao.getIndexedRows(query(QueryParameterFactory.getNotEqualPropertyParam("name", "beta")),
+                                         new Scan()));
+  }
+
+  @Test
+  public void readIndexedRowsInBatches() throws Exception {
+    dao.save(domain(1l, null, "beta"), domain(3l, null, "beta"), domain(4l, null, "beta"));
+    ExecutorService resultExecutorService = Executors.newSingleThreadExecutor();
+    Field field = CommonDao.class.getDeclaredField("resultExecutorService");
+    field.setAccessible(true);
+    field.set(dao, resultExecutorService);
+    try {
+      dao.setScanCaching(1);
+      List<byte[]> rows = new ArrayList<byte[]>();
+      for (long id = 1; id <= 4; ++id) {
+        rows.add(infoProvider.getRowIdFromId(id));
+      }
+      executorService.rowsRead = 0;
+      List<SampleDomain> domains = dao.getListByPointGets(rows, new Scan(), 2);
+      Assert.assertEquals(2, domains.size());
+      Assert.assertEquals(Long.valueOf(1l), domains.get(0).getId());
+      Assert.assertEquals(Long.valueOf(3l), domains.get(1).getId());
+      Assert.assertEquals(3, executorService.rowsRead);
+    }
+    finally {
+      resultExecutorService.shutdown();
+    }
+    List<QueryParameter> equal = query(QueryParameterFactory.getEqualPropertyParam("name", "beta"));
+    assertRows(dao.getIndexedRows(equal, new Scan()), 1l, 3l, 4l);
+    dao.setIndexScanMaxRows(2);
+    Assert.assertNull(dao.getIndexedRows(equal, new Scan()));
+  }
+
+  @Test
+  public void splitNgrams() {
+    Assert.assertEquals(3, SecondaryIndexServiceImpl.getNgrams("Abc", null, 3).size());
+    Assert.assertTrue(SecondaryIndexServiceImpl.getNgrams("Abc", null, 3).contains(Bytes.toBytes("\u0002ab")));
+    Assert.assertEquals(1, SecondaryIndexServiceImpl.getNgrams("bc", MatchMode.END, 3).size());
+    Assert.assertTrue(SecondaryIndexServiceImpl.getNgrams("bc", MatchMode.END, 3).contains(Bytes.toBytes("bc\u0003")));
+    Assert.assertTrue(SecondaryIndexServiceImpl.getNgrams("bc", MatchMode.ANYWHERE, 3).isEmpty());
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr"));
+    try {
+      Assert.assertTrue(SecondaryIndexServiceImpl.getNgrams("ILK", null, 3).contains(Bytes.toBytes("ilk")));
+    }
+    finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void maintainAndQueryNgramIndex() throws Exception {
+    IndexConfig index = new IndexConfig();
+    index.setTableName(INDEX_TABLE);
+    index.setNgramLength(3);
+    infoProvider.addIndexConfig("name", index);
+    dao.save(domain(1l, null, "Hello World"), domain(2l, null, "yellow"), domain(3l, null, "help"));
+    assertIndexed("ell", 1l, 2l);
+    assertIndexed("\u0002he", 1l, 3l);
+    assertRows(dao.getIndexedRows(query(QueryParameterFactory.getStringLikePropertyParam("name", "ELLO",
+                                                                                         MatchMode.ANYWHERE)),
+                                  new Scan()), 1l, 2l);
+    assertRows(dao.getIndexedRows(query(QueryParameterFactory.getStringLikePropertyParam("name", "lp", MatchMode.END)),
+                                  new Scan()), 3l);
+    assertRows(dao.getIndexedRows(query(QueryParameterFactory.getStringLikePropertyParam("name", "he",
+                                                                                         MatchMode.START),
+                                        QueryParameterFactory.getStringLikePropertyParam("name", "orl",
+                                                                                         MatchMode.ANYWHERE)),
+                                  new Scan()), 1l);
+    Assert.assertNull(dao.getIndexedRows(query(QueryParameterFactory.getStringLikePropertyParam("name", "lo",
+                                                                                                MatchMode.ANYWHERE)),
+                                         new Scan()));
+    Assert.assertNull(dao.getIndexedRows(query(QueryParameterFactory.getEqualPropertyParam("name", "help")),
+                                         new Scan()));
+    dao.setIndexScanMaxRows(1);
+    assertRows(dao.getIndexedRows(query(QueryParameterFactory.getStringLikePropertyParam("name", "llo w",
+                                                                                         MatchMode.ANYWHERE)),
+                                  new Scan()), 1l);
+    Assert.assertNull(dao.getIndexedRows(query(QueryParameterFactory.getStringLikePropertyParam("name", "ell",
+                                                                                                MatchMode.ANYWHERE)),
+                                         new Scan()));
+    dao.setIndexScanMaxRows(CommonDao.DEFAULT_INDEX_SCAN_MAX_ROWS);
+    dao.update(domain(2l, 1l, "mellow"));
+    assertIndexed("yel");
+    assertIndexed("\u0002me", 2l);
+    assertIndexed("ell", 1l, 2l);
+    dao.delete(domain(3l, 1l, "help"));
+    assertIndexed("elp");
+  }
+
+  @Test
+  public void maintainAndReadAggregateViews() throws Exception {
+    addAggregateView();
+    dao.save(domain(1l, null, "alpha"), domain(2l, null, "beta"), domain(3l, null, "alpha"));
+    assertAggregate(dao.getAggregate("byName", "alpha"), 2, 10);
+    assertAggregate(dao.getAggregate("byName", "beta"), 1, 4);
+    dao.update(domain(2l, 1l, "alpha"));
+    dao.delete(domain(1l, 1l, "alpha"));
+    List<Aggregate> aggregates = dao.getAggregates("byName", Arrays.asList(new Object[]{"alpha"}, new Object[]{"beta"},
+                                                                           new Object[]{"gamma"}));
+    assertAggregate(aggregates.get(0), 2, 10);
+    assertAggregate(aggregates.get(1), 0, 0);
+    assertAggregate(aggregates.get(2), 0, 0);
+    Assert.assertEquals(5d, aggregates.get(0).getAverage("length"), 0d);
+    Assert.assertNull(aggregates.get(2).getAverage("length"));
+    try {
+      dao.increment(1l, "length", 1);
+      Assert.fail("Incremented an aggregated property");
+    }
+    catch (IllegalArgumentException ex) {
+    }
+  }
+
+  @Test
+  public void keepViewsSharingRollupTableApart() throws Exception {
+    addAggregateView();
+    AggregateConfig counts = new AggregateConfig();
+    counts.setTableName("test_name_aggregates");
+    counts.setColumnFamilyAsString("counts");
+    counts.setGroupBy(Arrays.asList("name"));
+    infoProvider.addAggregateConfig("countByName", counts);
+    dao.save(domain(1l, null, "alpha"), domain(2l, null, "alpha"));
+    assertAggregate(dao.getAggregate("byName", "alpha"), 2, 10);
+    Assert.assertEquals(2, dao.getAggregate("countByName", "alpha").getCount());
+    dao.update(domain(2l, 1l, "beta"));
+    assertAggregate(dao.getAggregate("byName", "alpha"), 1, 5);
+    Assert.assertEquals(1, dao.getAggregate("countByName", "alpha").getCount());
+    Assert.assertEquals(1, dao.getAggregate("countByName", "beta").getCount());
+  }
+
+  @Test
+  public void recordFailedAggregateIncrements() throws Exception {
+    addAggregateView();
+    executorService.failIncrements = true;
+    dao.save(domain(1l, null, "alpha"));
+    assertAggregate(dao.getAggregate("byName", "alpha"), 0, 0);
+    Assert.assertEquals(1, dao.getFailedAggregateIncrements().size());
+    Assert.assertEquals(1, dao.retryFailedAggregateIncrements());
+    Assert.assertEquals(1, dao.getFailedAggregateIncrements().size());
+    executorService.failIncrements = false;
+    Assert.assertEquals(0, dao.retryFailedAggregateIncrements());
+    Assert.assertTrue(dao.getFailedAggregateIncrements().isEmpty());
+    assertAggregate(dao.getAggregate("byName", "alpha"), 1, 5);
+  }
+
+  @Test
+  public void sumUntypedLongs() {
+    FilterConfigImpl config = new FilterConfigImpl();
+    config.setColumnFamilyAsString("family");
+    config.setColumnQualifierAsString("length");
+    AggregateViewServiceImpl<SampleDomain, Long> service = new AggregateViewServiceImpl<SampleDomain, Long>();
+    Assert.assertEquals(42l, service.getSummand(config, Bytes.toBytes(42l)));
+    Assert.assertEquals(-3l, service.getSummand(config, Bytes.toBytes(-3l)));
+    Assert.assertEquals(12l, service.getSummand(config, Bytes.toBytes("12")));
+  }
+
+  @Test
+  public void orderAggregateRows() {
+    byte[] a = AggregateViewServiceImpl.toAggregateRow(Arrays.asList(Bytes.toBytes("a"), Bytes.toBytes("z")));
+    byte[] aNull = AggregateViewServiceImpl.toAggregateRow(Arrays.asList(new byte[]{'a', 0}, Bytes.toBytes("a")));
+    byte[] ab = AggregateViewServiceImpl.toAggregateRow(Arrays.asList(Bytes.toBytes("ab"), Bytes.toBytes("a")));
+    Assert.assertTrue(Bytes.compareTo(a, aNull) < 0);
+    Assert.assertTrue(Bytes.compareTo(aNull, ab) < 0);
+  }
+
+  private void addAggregateView() {
+    FilterConfigImpl lengthConfig = new FilterConfigImpl();
+    lengthConfig.setColumnFamilyAsString("family");
+    lengthConfig.setColumnQualifierAsString("length");
+    infoProvider.addFilterConfig("length", lengthConfig);
+    AggregateConfig aggregate = new AggregateConfig();
+    aggregate.setTableName("test_name_aggregates");
+    aggregate.setGroupBy(Arrays.asList("name"));
+    aggregate.setSums(Arrays.asList("length"));
+    infoProvider.addAggregateConfig("byName", aggregate);
+  }
+
+  private static void assertAggregate(Aggregate aggregate, long count, long sum) {
+    Assert.assertEquals(count, aggregate.getCount());
+    Assert.assertEquals(sum, aggregate.getSum("length"));
+  }
+
+  private void assertIndexed(String value, Long... ids) throws Exception {
+    NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>> index = executorService.getTable(INDEX_TABLE);
+    Map<String, NavigableMap<byte[], byte[]>> row = index.get(Bytes.toBytes(value));
+    NavigableMap<byte[], byte[]> entries = row == null ? null : row.get(Bytes.toString(ROWS));
+    Assert.assertEquals(ids.length, entries == null ? 0 : entries.size());
+    for (Long id : ids) {
+      Assert.assertTrue(entries.containsKey(infoProvider.getRowIdFromId(id)));
+    }
+  }
+
+  private void assertRows(List<byte[]> rows, Long... ids) throws Exception {
+    Assert.assertNotNull(rows);
+    Assert.assertEquals(ids.length, rows.size());
+    for (int i = 0; i < ids.length; ++i) {
+      Assert.assertArrayEquals(infoProvider.getRowIdFromId(ids[i]), rows.get(i));
+    }
+  }
+
+  private static List<QueryParameter> query(QueryParameter... params) {
+    return Arrays.asList(params);
+  }
+
+  private static SampleDomain domain(long id, Long version, String name) {
+    SampleDomain domain = new SampleDomain();
+    domain.setId(id);
+    domain.setVersion(version);
+    domain.setName(name);
+    return domain;
+  }
+
+  private static class MockExecutorService extends DaoTestSupport.MockExecutorService {
+
+    private final Map<String, NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>>> tables =
+        new TreeMap<String, NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>>>();
+    private volatile int rowsRead;
+    private volatile boolean failIncrements;
+    private volatile boolean failColumnReads;
+
+    public synchronized NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>> getTable(String tableName) {
+      NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>> table = tables.get(tableName);
+      if (table == null) {
+        table = new TreeMap<byte[], Map<String, NavigableMap<byte[], byte[]>>>(Bytes.BYTES_COMPARATOR);
+        tables.put(tableName, table);
+      }
+      return table;
+    }
+
+    private synchronized Result toResult(byte[] rowId, Map<String, NavigableMap<byte[], byte[]>> row) {
+      final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+      if (row != null) {
+        for (Map.Entry<String, NavigableMap<byte[], byte[]>> family : new TreeMap<String, NavigableMap<byte[], byte[]>>(
+            row).entrySet()) {
+          for (Map.Entry<byte[], byte[]> cell : family.getValue().entrySet()) {
+            keyValues.add(new KeyValue(rowId, Bytes.toBytes(family.getKey()), cell.getKey(), cell.getValue()));
+          }
+        }
+      }
+      return new Result(keyValues);
+    }
+
+    private Result paginate(Result result, Filter filter) {
+      if (!(filter instanceof ColumnPaginationFilter) || result.isEmpty()) {
+        return result;
+      }
+      filter.reset();
+      final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+      for (KeyValue keyValue : result.raw()) {
+        if (Filter.ReturnCode.INCLUDE.equals(filter.filterKeyValue(keyValue))) {
+          keyValues.add(keyValue);
+        }
+      }
+      return new Result(keyValues);
+    }
+
+    private synchronized void put(String tableName, Put put) {
+      Map<String, NavigableMap<byte[], byte[]>> row = getTable(tableName).get(put.getRow());
+      if (row == null) {
+        row = new TreeMap<String, NavigableMap<byte[], byte[]>>();
+        getTable(tableName).put(put.getRow(), row);
+      }
+      for (Map.Entry<byte[], List<KeyValue>> family : put.getFamilyMap().entrySet()) {
+        NavigableMap<byte[], byte[]> cells = row.get(Bytes.toString(family.getKey()));
+        if (cells == null) {
+          cells = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+          row.put(Bytes.toString(family.getKey()), cells);
+        }
+        for (KeyValue keyValue : family.getValue()) {
+          cells.put(keyValue.getQualifier(), keyValue.getValue());
+        }
+      }
+    }
+
+    private synchronized void delete(String tableName, Delete delete) {
+      final Map<String, NavigableMap<byte[], byte[]>> row = getTable(tableName).get(delete.getRow());
+      if (delete.getFamilyMap().isEmpty() || row == null) {
+        getTable(tableName).remove(delete.getRow());
+        return;
+      }
+      for (Map.Entry<byte[], List<KeyValue>> family : delete.getFamilyMap().entrySet()) {
+        final NavigableMap<byte[], byte[]> cells = row.get(Bytes.toString(family.getKey()));
+        for (KeyValue keyValue : family.getValue()) {
+          if (cells != null) {
+            cells.remove(keyValue.getQualifier());
+          }
+        }
+      }
+    }
+
+    @Override
+    protected Object invoke(String tableName, Method method, Object[] args) throws Throwable {
+      final NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>> table = getTable(tableName);
+      if (method.getName().equals("get") && args[0] instanceof List) {
+        final List<Get> gets = (List<Get>) args[0];
+        if (TABLE.equals(tableName)) {
+          if (failColumnReads && gets.get(0).hasFamilies()) {
+            throw new IOException("Could not read");
+          }
+          rowsRead += gets.size();
+        }
+        final Result[] results = new Result[gets.size()];
+        for (int i = 0; i < results.length; ++i) {
+          results[i] = paginate(toResult(gets.get(i).getRow(), table.get(gets.get(i).getRow())),
+                                gets.get(i).getFilter());
+        }
+        return results;
+      }
+      if (method.getName().equals("getScanner")) {
+        final Scan scan = (Scan) args[0];
+        final NavigableMap<byte[], Map<String, NavigableMap<byte[], byte[]>>> rows;
+        if (scan.getStopRow().length > 0) {
+          rows = table.subMap(scan.getStartRow(), true, scan.getStopRow(), false);
+        }
+        else {
+          rows = table.tailMap(scan.getStartRow(), true);
+        }
+        final Iterator<Map.Entry<byte[], Map<String, NavigableMap<byte[], byte[]>>>> iterator =
+            new ArrayList<Map.Entry<byte[], Map<String, NavigableMap<byte[], byte[]>>>>(rows.entrySet()).iterator();
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ResultScanner.class},
+                                      new InvocationHandler() {
+
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("next") && args == null) {
+              if (!iterator.hasNext()) {
+                return null;
+              }
+              final Map.Entry<byte[], Map<String, NavigableMap<byte[], byte[]>>> row = iterator.next();
+              return toResult(row.getKey(), row.getValue());
+            }
+            if (method.getName().equals("close")) {
+              return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+      }
+      if (method.getName().equals("put") && args[0] instanceof List) {
+        for (Put put : (List<Put>) args[0]) {
+          put(tableName, put);
+        }
+        return null;
+      }
+      if (method.getName().equals("delete") && args[0] instanceof List) {
+        for (Delete delete : (List<Delete>) args[0]) {
+          delete(tableName, delete);
+        }
+        return null;
+      }
+      if (method.getName().equals("increment")) {
+        if (failIncrements) {
+          throw new IOException("Could not increment");
+        }
+        final Increment increment = (Increment) args[0];
+        final Put put = new Put(increment.getRow());
+        final Map<String, NavigableMap<byte[], byte[]>> row = table.get(increment.getRow());
+        for (Map.Entry<byte[], NavigableMap<byte[], Long>> family : increment.getFamilyMap().entrySet()) {
+          final NavigableMap<byte[], byte[]> cells = row == null ? null : row.get(Bytes.toString(family.getKey()));
+          for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+            final byte[] value = cells == null ? null : cells.get(column.getKey());
+            put.add(family.getKey(), column.getKey(), Bytes.toBytes((value == null ? 0l : Bytes.toLong(value)) +
+                column.getValue()));
+          }
+        }
+        put(tableName, put);
+        return toResult(put.getRow(), table.get(put.getRow()));
+      }
+      if (method.getName().equals("checkAndPut")) {
+        put(tableName, (Put) args[4]);
+        return true;
+      }
+      if (method.getName().equals("checkAndDelete")) {
+        delete(tableName, (Delete) args[4]);
+        return true;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+}
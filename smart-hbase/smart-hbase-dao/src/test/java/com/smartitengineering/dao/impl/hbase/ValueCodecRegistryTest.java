@@ -0,0 +1,130 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.common.queryparam.QueryParameter;
+import com.smartitengineering.dao.common.queryparam.QueryParameterFactory;
+import com.smartitengineering.dao.impl.hbase.data.SampleDomain;
+import com.smartitengineering.dao.impl.hbase.spi.FilterConfig;
+import com.smartitengineering.dao.impl.hbase.spi.ValueCodec;
+import com.smartitengineering.dao.impl.hbase.spi.impl.FilterConfigImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.SchemaInfoProviderImpl;
+import com.smartitengineering.dao.impl.hbase.spi.impl.ValueCodecRegistry;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class ValueCodecRegistryTest {
+
+  private final ValueCodecRegistry registry = new ValueCodecRegistry();
+
+  @Test
+  public void preserveOrderOfNumbers() {
+    assertOrdered(registry.getCodec(ValueCodecRegistry.LONG), Long.MIN_VALUE, -10l, -9l, 0l, 9l, 10l, Long.MAX_VALUE);
+    assertOrdered(registry.getCodec(ValueCodecRegistry.INTEGER), Integer.MIN_VALUE, -10, -1, 0, 9, 10,
+                  Integer.MAX_VALUE);
+    assertOrdered(registry.getCodec(ValueCodecRegistry.DOUBLE), Double.NEGATIVE_INFINITY, -10.5d, -1d, -0.25d, 0d,
+                  0.25d, 9d, 10.5d, Double.MAX_VALUE, Double.POSITIVE_INFINITY);
+    assertOrdered(registry.getCodec(ValueCodecRegistry.DATE), new Date(-1000l), new Date(0l), new Date(1000l));
+  }
+
+  @Test
+  public void convertParameterStrings() {
+    ValueCodec codec = registry.getCodec(ValueCodecRegistry.LONG);
+    Assert.assertArrayEquals(codec.encode(10l), codec.encode("10"));
+    Assert.assertEquals("abc", registry.getCodec((String) null).decode(Bytes.toBytes("abc")));
+  }
+
+  @Test
+  public void storeValuesOfUntypedConfigsAsStrings() {
+    FilterConfig config = (FilterConfig) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                new Class[]{FilterConfig.class}, new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    Assert.assertNull(ValueCodecRegistry.getValueType(config));
+    Assert.assertArrayEquals(Bytes.toBytes("10"), registry.getCodec(config).encode(10));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectUnknownType() {
+    registry.getCodec("unknown");
+  }
+
+  @Test
+  public void planRowRangeWithTypedRowIds() throws Exception {
+    CommonDao<SampleDomain, Long> dao = new CommonDao<SampleDomain, Long>();
+    SchemaInfoProviderImpl<SampleDomain, Long> infoProvider = new SchemaInfoProviderImpl<SampleDomain, Long>();
+    FilterConfigImpl idConfig = new FilterConfigImpl();
+    idConfig.setColumnFamilyAsString("self");
+    idConfig.setColumnQualifierAsString("id");
+    idConfig.setFilterOnRowId(true);
+    idConfig.setValueType(ValueCodecRegistry.LONG);
+    infoProvider.addFilterConfig("id", idConfig);
+    dao.setInfoProvider(infoProvider);
+    Scan scan = dao.formScan(Arrays.<QueryParameter>asList(QueryParameterFactory.getBetweenPropertyParam("id", 9l,
+                                                                                                          10l)));
+    Assert.assertTrue(Bytes.compareTo(scan.getStartRow(), scan.getStopRow()) < 0);
+    Assert.assertArrayEquals(infoProvider.getRowIdFromId(9l), scan.getStartRow());
+    Assert.assertEquals(9l, dao.decodeProjectedValue(idConfig, scan.getStartRow()));
+  }
+
+  @Test
+  public void rejectFractionsForIntegralTypes() {
+    Assert.assertArrayEquals(registry.getCodec(ValueCodecRegistry.INTEGER).encode(10),
+                             registry.getCodec(ValueCodecRegistry.INTEGER).encode(10d));
+    for (Object value : new Object[]{1.5d, "1.5", (double) Long.MAX_VALUE * 4}) {
+      assertRejected(registry.getCodec(ValueCodecRegistry.LONG), value);
+      assertRejected(registry.getCodec(ValueCodecRegistry.INTEGER), value);
+    }
+    assertRejected(registry.getCodec(ValueCodecRegistry.INTEGER), Long.MAX_VALUE);
+  }
+
+  private static void assertRejected(ValueCodec codec, Object value) {
+    try {
+      codec.encode(value);
+      Assert.fail("Encoded " + value);
+    }
+    catch (IllegalArgumentException ex) {
+    }
+  }
+
+  private static void assertOrdered(ValueCodec codec, Object... values) {
+    for (int i = 0; i < values.length; ++i) {
+      byte[] encoded = codec.encode(values[i]);
+      Assert.assertEquals(values[i], codec.decode(encoded));
+      if (i > 0) {
+        Assert.assertTrue(String.valueOf(values[i]), Bytes.compareTo(codec.encode(values[i - 1]), encoded) < 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * This is a common dao with basic CRUD operations and is not limited to any
+ * persistent layer implementation
+ *
+ * Copyright (C) 2010  Imran M Yousuf (imyousuf@smartitengineering.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.smartitengineering.dao.impl.hbase;
+
+import com.smartitengineering.dao.impl.hbase.spi.Callback;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author imyousuf
+ */
+public class WriteBehindBufferTest {
+
+  @Test
+  public void coalesceWritesIntoBatches() throws Exception {
+    MockExecutorService executorService = new MockExecutorService();
+    WriteBehindBuffer buffer = new WriteBehindBuffer(executorService, 5, 10000, 20);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int i = 0; i < 10; ++i) {
+      futures.add(buffer.write(puts("table", i), null));
+    }
+    for (Future<Void> future : futures) {
+      Assert.assertNull(future.get(5, TimeUnit.SECONDS));
+    }
+    Assert.assertEquals(2, executorService.batches.size());
+    Assert.assertEquals(5, executorService.batches.get(0).size());
+    Assert.assertEquals(0, buffer.getPendingPuts());
+    buffer.close();
+  }
+
+  @Test
+  public void flushOnIntervalAndOnDemand() throws Exception {
+    MockExecutorService executorService = new MockExecutorService();
+    WriteBehindBuffer buffer = new WriteBehindBuffer(executorService, 100, 50, 100);
+    final AtomicBoolean completed = new AtomicBoolean();
+    Future<Void> future = buffer.write(puts("table", 1), new Runnable() {
+
+      @Override
+      public void run() {
+        completed.set(true);
+      }
+    });
+    future.get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(completed.get());
+    buffer.write(puts("table", 2), null);
+    buffer.write(puts("other", 3), null);
+    buffer.flush();
+    Assert.assertEquals(3, executorService.batches.size());
+    buffer.close();
+  }
+
+  @Test
+  public void failAllWritesOfFailedBatch() throws Exception {
+    MockExecutorService executorService = new MockExecutorService();
+    executorService.fail = true;
+    WriteBehindBuffer buffer = new WriteBehindBuffer(executorService, 2, 10000, 2);
+    Future<Void> first = buffer.write(puts("table", 1), null);
+    Future<Void> second = buffer.write(puts("table", 2), null);
+    for (Future<Void> future : new Future[]{first, second}) {
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        Assert.fail("Write should have failed");
+      }
+      catch (ExecutionException ex) {
+        Assert.assertTrue(ex.getCause() instanceof RuntimeException);
+      }
+    }
+    Assert.assertEquals(0, buffer.getPendingPuts());
+    buffer.close();
+  }
+
+  @Test
+  public void flushBufferedWritesOnClose() throws Exception {
+    MockExecutorService executorService = new MockExecutorService();
+    WriteBehindBuffer buffer = new WriteBehindBuffer(executorService, 100, 10000, 100);
+    Future<Void> future = buffer.write(puts("table", 1), null);
+    buffer.close();
+    Assert.assertTrue(future.isDone());
+    Assert.assertEquals(1, executorService.batches.size());
+    buffer.flush();
+    try {
+      buffer.write(puts("table", 2), null);
+      Assert.fail("Closed buffer should not accept writes");
+    }
+    catch (IllegalStateException ex) {
+    }
+  }
+
+  private static Map<String, List<Put>> puts(String table, int row) {
+    return Collections.singletonMap(table, Collections.singletonList(new Put(Bytes.toBytes(row))));
+  }
+
+  private static class MockExecutorService extends DaoTestSupport.MockExecutorService {
+
+    private final List<List<Put>> batches = new CopyOnWriteArrayList<List<Put>>();
+    private volatile boolean fail;
+
+    @Override
+    public <ReturnType> ReturnType execute(String tableName, Callback<ReturnType> callback) {
+      if (fail) {
+        throw new RuntimeException("Could not write to " + tableName);
+      }
+      return super.execute(tableName, callback);
+    }
+
+    @Override
+    protected Object invoke(String tableName, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("put") && args[0] instanceof List) {
+        batches.add(new ArrayList<Put>((List<Put>) args[0]));
+      }
+      return null;
+    }
+  }
+}